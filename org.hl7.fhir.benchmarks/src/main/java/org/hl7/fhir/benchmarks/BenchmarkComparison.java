@@ -0,0 +1,221 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.hl7.fhir.utilities.FileUtilities;
+import org.hl7.fhir.utilities.json.model.JsonArray;
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+
+/**
+ * Compares two sets of JMH results (-rf json), e.g. a run on the main branch and a run on a PR, and
+ * produces a markdown report of the change in score and (if the gc profiler was used) in allocation
+ * per operation.
+ *
+ * A change is reported as a regression or an improvement when it is more than the threshold (a
+ * percentage), and, for the score, also more than the combined error of the two scores, so that
+ * noise isn't reported
+ */
+public class BenchmarkComparison {
+
+  private static final String PREFIX = "org.hl7.fhir.benchmarks.";
+  private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+
+  public static class BenchmarkResult {
+    private String mode;
+    private double score;
+    private double error;
+    private String unit;
+    private Double alloc;
+    private String allocUnit;
+
+    public String getMode() {
+      return mode;
+    }
+
+    public double getScore() {
+      return score;
+    }
+
+    public double getError() {
+      return error;
+    }
+
+    public String getUnit() {
+      return unit;
+    }
+
+    public Double getAlloc() {
+      return alloc;
+    }
+
+    public String getAllocUnit() {
+      return allocUnit;
+    }
+
+    private boolean higherIsBetter() {
+      return "thrpt".equals(mode);
+    }
+  }
+
+  private final double threshold;
+  private int regressions;
+  private int improvements;
+
+  /**
+   * @param threshold the percentage change that is reported
+   */
+  public BenchmarkComparison(double threshold) {
+    this.threshold = threshold;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.out.println("Usage: BenchmarkComparison {baseline.json} {current.json} {report.md} [{threshold %}]");
+      return;
+    }
+    BenchmarkComparison comparison = new BenchmarkComparison(args.length > 3 ? Double.parseDouble(args[3]) : 10);
+    String report = comparison.compare(load(new File(args[0])), load(new File(args[1])));
+    FileUtilities.stringToFile(report, args[2]);
+    System.out.println(report);
+  }
+
+  /**
+   * @return the results in a JMH json results file, by benchmark (and parameters)
+   */
+  public static Map<String, BenchmarkResult> load(File file) throws IOException {
+    return parse((JsonArray) JsonParser.parse(file));
+  }
+
+  public static Map<String, BenchmarkResult> parse(JsonArray json) {
+    Map<String, BenchmarkResult> res = new LinkedHashMap<>();
+    for (JsonObject o : json.asJsonObjects()) {
+      BenchmarkResult r = new BenchmarkResult();
+      r.mode = o.asString("mode");
+      JsonObject pm = o.getJsonObject("primaryMetric");
+      r.score = number(pm, "score");
+      r.error = number(pm, "scoreError");
+      r.unit = pm.asString("scoreUnit");
+      if (o.hasObject("secondaryMetrics") && o.getJsonObject("secondaryMetrics").hasObject(ALLOC_METRIC)) {
+        JsonObject alloc = o.getJsonObject("secondaryMetrics").getJsonObject(ALLOC_METRIC);
+        r.alloc = number(alloc, "score");
+        r.allocUnit = alloc.asString("scoreUnit");
+      }
+      res.put(key(o), r);
+    }
+    return res;
+  }
+
+  private static double number(JsonObject o, String name) {
+    // JMH writes NaN (as a string) when there aren't enough iterations for an error estimate
+    Double d = o.asDouble(name);
+    return d == null || d.isNaN() ? 0 : d;
+  }
+
+  private static String key(JsonObject o) {
+    String name = o.asString("benchmark");
+    if (name.startsWith(PREFIX)) {
+      name = name.substring(PREFIX.length());
+    }
+    if (o.hasObject("params") && !o.getJsonObject("params").getNames().isEmpty()) {
+      JsonObject params = o.getJsonObject("params");
+      List<String> names = new ArrayList<>(params.getNames());
+      Collections.sort(names);
+      StringBuilder b = new StringBuilder();
+      for (String n : names) {
+        b.append(b.length() == 0 ? "" : ", ").append(n).append("=").append(params.asString(n));
+      }
+      name = name+" ("+b.toString()+")";
+    }
+    return name;
+  }
+
+  public String compare(Map<String, BenchmarkResult> baseline, Map<String, BenchmarkResult> current) {
+    regressions = 0;
+    improvements = 0;
+    StringBuilder b = new StringBuilder();
+    row(b, "Benchmark", "Mode", "Baseline", "Current", "Change", "Alloc (baseline)", "Alloc (current)", "Alloc change", "");
+    b.append("|-|-|-:|-:|-:|-:|-:|-:|-|\n");
+    for (Map.Entry<String, BenchmarkResult> e : current.entrySet()) {
+      BenchmarkResult cur = e.getValue();
+      BenchmarkResult base = baseline.get(e.getKey());
+      if (base == null) {
+        row(b, e.getKey(), cur.mode, "", score(cur.score, cur.unit), "", "", alloc(cur.alloc, cur.allocUnit), "", "new");
+        continue;
+      }
+      double change = change(base.score, cur.score);
+      String status = "";
+      boolean significant = Math.abs(cur.score - base.score) > base.error + cur.error;
+      if (significant && Math.abs(change) > threshold) {
+        status = (change > 0) == cur.higherIsBetter() ? "improvement" : "regression";
+      }
+      String allocChange = "";
+      if (base.alloc != null && cur.alloc != null) {
+        double ac = change(base.alloc, cur.alloc);
+        allocChange = percent(ac);
+        if (Math.abs(ac) > threshold) {
+          String s = ac > 0 ? "alloc regression" : "alloc improvement";
+          status = status.isEmpty() ? s : status+", "+s;
+        }
+      }
+      if (status.contains("regression")) {
+        regressions++;
+      } else if (status.contains("improvement")) {
+        improvements++;
+      }
+      row(b, e.getKey(), cur.mode, score(base.score, base.unit), score(cur.score, cur.unit), percent(change),
+          alloc(base.alloc, base.allocUnit), alloc(cur.alloc, cur.allocUnit), allocChange, status);
+    }
+    for (String key : baseline.keySet()) {
+      if (!current.containsKey(key)) {
+        BenchmarkResult base = baseline.get(key);
+        row(b, key, base.mode, score(base.score, base.unit), "", "", alloc(base.alloc, base.allocUnit), "", "", "removed");
+      }
+    }
+    String header = "# Benchmark Comparison\n\n"+regressions+" regression(s), "+improvements+" improvement(s) (threshold "+format(threshold)+"%)\n\n";
+    return header + b.toString();
+  }
+
+  private void row(StringBuilder b, String... cells) {
+    b.append("|");
+    for (String cell : cells) {
+      b.append(cell.isEmpty() ? "" : " "+cell).append(" |");
+    }
+    b.append("\n");
+  }
+
+  private double change(double base, double cur) {
+    return base == 0 ? 0 : (cur - base) * 100 / base;
+  }
+
+  private String score(double score, String unit) {
+    return format(score)+" "+unit;
+  }
+
+  private String alloc(Double alloc, String unit) {
+    return alloc == null ? "" : String.format(Locale.ROOT, "%.0f", alloc)+" "+unit;
+  }
+
+  private String percent(double change) {
+    return (change > 0 ? "+" : "")+format(change)+"%";
+  }
+
+  private String format(double d) {
+    return String.format(Locale.ROOT, Math.abs(d) >= 100 ? "%.1f" : "%.3f", d);
+  }
+
+  public int getRegressions() {
+    return regressions;
+  }
+
+  public int getImprovements() {
+    return improvements;
+  }
+}
@@ -0,0 +1,69 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.context.SimpleWorkerContext.SimpleWorkerContextBuilder;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Worker context start up: loading the R5 core package, against loading a context image of the
+ * same package (WorkerContextImage). Each load is followed by fetching a profile and its snapshot,
+ * as the first use of a context would. These are single shot measurements, since start up is a
+ * one off cost
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ContextLoadBenchmark {
+
+  private NpmPackage npm;
+  private File image;
+
+  @Setup
+  public void setup() throws IOException {
+    npm = TestingUtilities.loadR5CorePackage();
+    image = File.createTempFile("benchmark", ".image");
+    new SimpleWorkerContextBuilder().withAllowLoadingDuplicates(true).fromPackage(npm).saveImage(image);
+  }
+
+  @TearDown
+  public void tearDown() {
+    image.delete();
+  }
+
+  @Benchmark
+  public StructureDefinition loadPackage() throws IOException {
+    SimpleWorkerContext context = new SimpleWorkerContextBuilder().withAllowLoadingDuplicates(true).fromPackage(npm);
+    return use(context);
+  }
+
+  @Benchmark
+  public StructureDefinition loadImage() throws IOException {
+    SimpleWorkerContext context = new SimpleWorkerContextBuilder().fromImage(image, null);
+    return use(context);
+  }
+
+  private StructureDefinition use(SimpleWorkerContext context) {
+    // fetching a profile generates its snapshot, if it doesn't have one yet
+    return context.fetchResource(StructureDefinition.class, Fixtures.BODY_WEIGHT);
+  }
+}
@@ -0,0 +1,80 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.JsonParser;
+import org.hl7.fhir.r5.elementmodel.ValidatedFragment;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The heap retained by the element model tree of a parsed bundle, reported as the bytesPerNode
+ * counter (used heap after a full GC, with the tree held, less used heap before parsing)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseSerialGC")
+public class ElementHeapBenchmark {
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Heap {
+    public long nodes;
+    public long bytesPerNode;
+  }
+
+  @Param({ "1000", "10000" })
+  public int entries;
+
+  private JsonParser parser;
+  private byte[] json;
+
+  @Setup
+  public void setup() throws IOException {
+    parser = new JsonParser(Fixtures.context());
+    json = Fixtures.json(Fixtures.bundle(entries));
+  }
+
+  @Benchmark
+  public List<ValidatedFragment> retained(Heap heap) throws IOException, InterruptedException {
+    long before = usedAfterGC();
+    List<ValidatedFragment> fragments = parser.parse(new ByteArrayInputStream(json));
+    long after = usedAfterGC();
+    long nodes = 0;
+    for (ValidatedFragment f : fragments) {
+      Element e = f.getElement();
+      if (e != null) {
+        nodes = nodes + e.countDescendents() + 1;
+      }
+    }
+    heap.nodes = nodes;
+    heap.bytesPerNode = nodes == 0 ? 0 : (after - before) / nodes;
+    return fragments;
+  }
+
+  private static long usedAfterGC() throws InterruptedException {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
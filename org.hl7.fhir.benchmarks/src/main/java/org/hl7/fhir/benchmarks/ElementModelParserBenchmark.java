@@ -0,0 +1,75 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.elementmodel.JsonParser;
+import org.hl7.fhir.r5.elementmodel.ValidatedFragment;
+import org.hl7.fhir.r5.elementmodel.XmlParser;
+import org.hl7.fhir.r5.model.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The element model parsers, as used by the validator, parsing a bundle. The XML parser is run with
+ * the DOM and with the StAX streaming reader (XmlParser.setStreaming()).
+ *
+ * The parsers are reused from one invocation to the next, as the NDJSON parser and the validator
+ * do, so their property caches are warm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElementModelParserBenchmark {
+
+  @Param({ "100", "1000" })
+  public int entries;
+
+  private JsonParser jsonParser;
+  private XmlParser xmlParser;
+  private XmlParser streamingXmlParser;
+  private byte[] json;
+  private byte[] xml;
+
+  @Setup
+  public void setup() throws IOException {
+    SimpleWorkerContext context = Fixtures.context();
+    jsonParser = new JsonParser(context);
+    xmlParser = new XmlParser(context);
+    streamingXmlParser = new XmlParser(context);
+    streamingXmlParser.setStreaming(true);
+    Bundle bundle = Fixtures.bundle(entries);
+    json = Fixtures.json(bundle);
+    xml = Fixtures.xml(bundle);
+  }
+
+  @Benchmark
+  public List<ValidatedFragment> parseJson() throws IOException {
+    return jsonParser.parse(new ByteArrayInputStream(json));
+  }
+
+  @Benchmark
+  public List<ValidatedFragment> parseXml() throws IOException {
+    return xmlParser.parse(new ByteArrayInputStream(xml));
+  }
+
+  @Benchmark
+  public List<ValidatedFragment> parseXmlStreaming() throws IOException {
+    return streamingXmlParser.parse(new ByteArrayInputStream(xml));
+  }
+}
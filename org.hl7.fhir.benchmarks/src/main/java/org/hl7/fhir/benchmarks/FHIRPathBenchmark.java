@@ -0,0 +1,73 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.fhirpath.CompiledExpression;
+import org.hl7.fhir.r5.fhirpath.ExpressionNode;
+import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FHIRPathEngine.evaluate over a bundle of 100 entries, with an expression that was parsed once
+ * (as the validator does with invariants), with the expression text (which goes through the
+ * shared expression cache), and with the compiled expression
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FHIRPathBenchmark {
+
+  @Param({
+    "entry.resource.ofType(Patient).name.where(use = 'official').family",
+    "entry.resource.ofType(Observation).value.ofType(Quantity).where(value > 70).count()",
+    "entry.all(fullUrl.startsWith('urn:uuid:') and resource.exists())",
+    "entry.resource.ofType(Observation).subject.reference.all(%resource.entry.fullUrl contains $this)",
+    "descendants().where($this is Coding).code.distinct()"
+  })
+  public String expression;
+
+  private FHIRPathEngine engine;
+  private ExpressionNode node;
+  private CompiledExpression compiled;
+  private Bundle bundle;
+
+  @Setup
+  public void setup() throws IOException {
+    engine = new FHIRPathEngine(Fixtures.context());
+    node = engine.parse(expression);
+    compiled = engine.compile(node);
+    bundle = Fixtures.bundle(100);
+  }
+
+  @Benchmark
+  public List<Base> evaluateParsed() {
+    return engine.evaluate(null, bundle, bundle, bundle, node);
+  }
+
+  @Benchmark
+  public List<Base> evaluateText() {
+    return engine.evaluate(null, bundle, bundle, bundle, expression);
+  }
+
+  @Benchmark
+  public List<Base> evaluateCompiled() {
+    return engine.evaluate(null, bundle, bundle, bundle, compiled);
+  }
+}
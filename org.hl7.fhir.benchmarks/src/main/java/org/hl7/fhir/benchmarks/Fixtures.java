@@ -0,0 +1,180 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.context.SimpleWorkerContext.SimpleWorkerContextBuilder;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.formats.XmlParser;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Bundle.BundleType;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.model.CodeableConcept;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ContactPoint.ContactPointSystem;
+import org.hl7.fhir.r5.model.DateTimeType;
+import org.hl7.fhir.r5.model.DateType;
+import org.hl7.fhir.r5.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r5.model.Enumerations.CodeSystemContentMode;
+import org.hl7.fhir.r5.model.Enumerations.FilterOperator;
+import org.hl7.fhir.r5.model.Enumerations.ObservationStatus;
+import org.hl7.fhir.r5.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r5.model.HumanName.NameUse;
+import org.hl7.fhir.r5.model.Narrative.NarrativeStatus;
+import org.hl7.fhir.r5.model.Observation;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.model.Quantity;
+import org.hl7.fhir.r5.model.Reference;
+import org.hl7.fhir.r5.model.Resource;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.utilities.xhtml.NodeType;
+import org.hl7.fhir.utilities.xhtml.XhtmlNode;
+
+/**
+ * The fixtures used by the benchmarks.
+ *
+ * The definitions come from the R5 core package in the test case repository, and the instances
+ * and code systems are generated, so the benchmarks don't need network access or a package cache,
+ * and the same fixtures are used from one run to the next
+ */
+public class Fixtures {
+
+  public static final String BODY_WEIGHT = "http://hl7.org/fhir/StructureDefinition/bodyweight";
+  public static final String CS_URL = "http://example.org/fhir/CodeSystem/benchmark";
+  public static final String VS_URL = "http://example.org/fhir/ValueSet/benchmark";
+
+  private static final String[] FAMILIES = { "Smith", "Nguyen", "Garcia", "M\u00fcller", "O'Brien", "Kowalski", "Tanaka", "Okafor" };
+  private static final String[] GIVENS = { "Anna", "Ben", "Chloe", "Dmitri", "Emeka", "Fatima", "George", "Hana" };
+
+  private static SimpleWorkerContext context;
+
+  /**
+   * @return a worker context with the R5 core package loaded. It's loaded once per JVM (i.e. once per benchmark fork)
+   */
+  public static synchronized SimpleWorkerContext context() throws IOException {
+    if (context == null) {
+      context = new SimpleWorkerContextBuilder().withAllowLoadingDuplicates(true).fromPackage(TestingUtilities.loadR5CorePackage());
+      context.setExpansionParameters(new Parameters());
+      context.setCanRunWithoutTerminology(true);
+    }
+    return context;
+  }
+
+  /**
+   * A collection bundle of patients, each with a body weight observation that conforms to the
+   * body weight profile
+   *
+   * @param entries the number of entries (half patients, half observations)
+   */
+  public static Bundle bundle(int entries) {
+    Bundle bundle = new Bundle();
+    bundle.setId("benchmark");
+    bundle.setType(BundleType.COLLECTION);
+    bundle.setTimestamp(date(2024, 0));
+    for (int i = 0; i < entries / 2; i++) {
+      Patient patient = patient(i);
+      bundle.addEntry().setFullUrl(fullUrl(i, 0)).setResource(patient);
+      Observation observation = observation(i);
+      observation.setSubject(new Reference(fullUrl(i, 0)));
+      bundle.addEntry().setFullUrl(fullUrl(i, 1)).setResource(observation);
+    }
+    return bundle;
+  }
+
+  private static String fullUrl(int i, int type) {
+    return "urn:uuid:00000000-0000-0000-000"+type+"-"+String.format("%012d", i);
+  }
+
+  private static Date date(int offset, int month) {
+    GregorianCalendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    cal.clear();
+    cal.set(1940 + offset % 80, month % 12, 1 + offset % 28, 9, offset % 60);
+    return cal.getTime();
+  }
+
+  public static Patient patient(int i) {
+    Patient patient = new Patient();
+    patient.setId("p"+i);
+    patient.addIdentifier().setSystem("http://example.org/fhir/mrn").setValue(String.format("MRN%08d", i));
+    patient.addName().setUse(NameUse.OFFICIAL).setFamily(FAMILIES[i % FAMILIES.length]).addGiven(GIVENS[i % GIVENS.length]).addGiven(GIVENS[(i / 8) % GIVENS.length]);
+    patient.setGender(i % 2 == 0 ? AdministrativeGender.FEMALE : AdministrativeGender.MALE);
+    patient.setBirthDateElement(new DateType(String.format("%04d-%02d-%02d", 1940 + i % 80, 1 + i % 12, 1 + i % 28)));
+    patient.addTelecom().setSystem(ContactPointSystem.PHONE).setValue(String.format("+1 555 %07d", i));
+    patient.addAddress().addLine(i+" Main Street").setCity("Springfield").setPostalCode(String.format("%05d", i % 100000)).setCountry("US");
+    patient.setActive(true);
+    XhtmlNode div = new XhtmlNode(NodeType.Element, "div");
+    div.para().tx(GIVENS[i % GIVENS.length]+" "+FAMILIES[i % FAMILIES.length]+", "+(i % 2 == 0 ? "female" : "male"));
+    patient.getText().setStatus(NarrativeStatus.GENERATED).setDiv(div);
+    return patient;
+  }
+
+  public static Observation observation(int i) {
+    Observation observation = new Observation();
+    observation.setId("o"+i);
+    observation.getMeta().addProfile(BODY_WEIGHT);
+    observation.setStatus(ObservationStatus.FINAL);
+    observation.addCategory(new CodeableConcept().addCoding(new Coding("http://terminology.hl7.org/CodeSystem/observation-category", "vital-signs", "Vital Signs")));
+    observation.setCode(new CodeableConcept().addCoding(new Coding("http://loinc.org", "29463-7", "Body weight")));
+    observation.setSubject(new Reference("Patient/p"+i));
+    observation.setEffective(new DateTimeType(date(i + 80, 5)));
+    observation.setValue(new Quantity().setValue(50 + (i % 500) / 10.0).setUnit("kg").setSystem("http://unitsofmeasure.org").setCode("kg"));
+    XhtmlNode div = new XhtmlNode(NodeType.Element, "div");
+    div.para().tx("Body weight: "+(50 + (i % 500) / 10.0)+" kg");
+    observation.getText().setStatus(NarrativeStatus.GENERATED).setDiv(div);
+    return observation;
+  }
+
+  /**
+   * A hierarchical code system with 100 top level concepts that share the rest of the concepts as children
+   */
+  public static CodeSystem codeSystem(int concepts) {
+    CodeSystem cs = new CodeSystem();
+    cs.setId("benchmark");
+    cs.setUrl(CS_URL);
+    cs.setVersion("1.0.0");
+    cs.setName("Benchmark");
+    cs.setStatus(PublicationStatus.ACTIVE);
+    cs.setContent(CodeSystemContentMode.COMPLETE);
+    int children = Math.max(concepts / 100 - 1, 0);
+    for (int i = 0; i < 100; i++) {
+      ConceptDefinitionComponent parent = cs.addConcept().setCode("c"+i).setDisplay("Concept "+i);
+      for (int j = 0; j < children; j++) {
+        parent.addConcept().setCode("c"+i+"."+j).setDisplay("Concept "+i+"."+j).setDefinition("Child "+j+" of concept "+i);
+      }
+    }
+    cs.setCount(100 * (children + 1));
+    return cs;
+  }
+
+  /**
+   * @param filter if true, only the descendants of one top level concept are included (an is-a filter), otherwise all the concepts are included
+   */
+  public static ValueSet valueSet(boolean filter) {
+    ValueSet vs = new ValueSet();
+    vs.setId("benchmark");
+    vs.setUrl(VS_URL);
+    vs.setVersion("1.0.0");
+    vs.setName("Benchmark");
+    vs.setStatus(PublicationStatus.ACTIVE);
+    ConceptSetComponent inc = vs.getCompose().addInclude().setSystem(CS_URL);
+    if (filter) {
+      inc.addFilter().setProperty("concept").setOp(FilterOperator.ISA).setValue("c42");
+    }
+    return vs;
+  }
+
+  public static byte[] json(Resource resource) throws IOException {
+    return new JsonParser().composeBytes(resource);
+  }
+
+  public static byte[] xml(Resource resource) throws IOException {
+    return new XmlParser().composeBytes(resource);
+  }
+}
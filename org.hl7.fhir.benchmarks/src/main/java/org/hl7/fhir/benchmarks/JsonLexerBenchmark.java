@@ -0,0 +1,59 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The utilities JSON parser (JsonLexer), reading a bundle from a String and from bytes (through a Reader).
+ * parseBytesAsString is what callers with bytes used to have to do: decode the whole document to a String first
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonLexerBenchmark {
+
+  @Param({ "100", "1000" })
+  public int entries;
+
+  private byte[] bytes;
+  private String source;
+
+  @Setup
+  public void setup() throws IOException {
+    bytes = Fixtures.json(Fixtures.bundle(entries));
+    source = new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public JsonObject parseString() throws IOException {
+    return JsonParser.parseObject(source);
+  }
+
+  @Benchmark
+  public JsonObject parseBytes() throws IOException {
+    return JsonParser.parseObject(bytes);
+  }
+
+  @Benchmark
+  public JsonObject parseBytesAsString() throws IOException {
+    return JsonParser.parseObject(new String(bytes, StandardCharsets.UTF_8));
+  }
+}
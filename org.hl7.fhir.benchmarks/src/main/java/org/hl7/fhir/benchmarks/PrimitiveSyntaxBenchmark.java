@@ -0,0 +1,79 @@
+package org.hl7.fhir.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.utilities.PrimitiveSyntax;
+import org.hl7.fhir.utilities.RegexCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Checking the syntax of primitive values: String.matches() on the regular expressions the validator
+ * used to use, against the PrimitiveSyntax scanners, and a profile supplied regex through RegexCache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrimitiveSyntaxBenchmark {
+
+  private static final String DATETIME_REGEX = "([0-9]([0-9]([0-9][1-9]|[1-9]0)|[1-9]00)|[1-9]000)(-(0[1-9]|1[0-2])(-(0[1-9]|[1-2][0-9]|3[0-1])(T([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)(\\.[0-9]+)?(Z|(\\+|-)((0[0-9]|1[0-3]):[0-5][0-9]|14:00))?)?)?)?";
+  private static final String DATE_REGEX = "([0-9]([0-9]([0-9][1-9]|[1-9]0)|[1-9]00)|[1-9]000)(-(0[1-9]|1[0-2])(-(0[1-9]|[1-2][0-9]|3[0-1]))?)?";
+  private static final String PROFILE_REGEX = "[A-Z]{2}[0-9]{6}";
+
+  private final String[] dateTimes = { "2024-03-15T10:21:04.123+10:00", "2023-11-02T23:59:60Z", "2019", "2024-02-29T00:00:00-05:00" };
+  private final String[] dates = { "2024-03-15", "1970-01-01", "2024-13-01", "1999-12" };
+  private final String[] values = { "AB123456", "XY000001", "ab123456", "AB12345" };
+
+  @Benchmark
+  public void dateTimeRegex(Blackhole bh) {
+    for (String s : dateTimes) {
+      bh.consume(s.matches(DATETIME_REGEX));
+    }
+  }
+
+  @Benchmark
+  public void dateTimeScanner(Blackhole bh) {
+    for (String s : dateTimes) {
+      bh.consume(PrimitiveSyntax.isDateTime(s));
+    }
+  }
+
+  @Benchmark
+  public void dateRegex(Blackhole bh) {
+    for (String s : dates) {
+      bh.consume(s.matches(DATE_REGEX));
+    }
+  }
+
+  @Benchmark
+  public void dateScanner(Blackhole bh) {
+    for (String s : dates) {
+      bh.consume(PrimitiveSyntax.isDate(s));
+    }
+  }
+
+  @Benchmark
+  public void profileRegex(Blackhole bh) {
+    for (String s : values) {
+      bh.consume(s.matches(PROFILE_REGEX));
+    }
+  }
+
+  @Benchmark
+  public void profileRegexCached(Blackhole bh) {
+    for (String s : values) {
+      bh.consume(RegexCache.matches(s, PROFILE_REGEX));
+    }
+  }
+}
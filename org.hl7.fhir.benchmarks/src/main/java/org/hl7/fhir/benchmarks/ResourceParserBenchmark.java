@@ -0,0 +1,68 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.formats.XmlParser;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The R5 model parsers (org.hl7.fhir.r5.formats), parsing a bundle. The JSON parser is run with the
+ * JsonObject tree and with the streaming reader (JsonParserBase.setStreaming()). Composing is included
+ * for comparison
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourceParserBenchmark {
+
+  @Param({ "100", "1000" })
+  public int entries;
+
+  private Bundle bundle;
+  private byte[] json;
+  private byte[] xml;
+
+  @Setup
+  public void setup() throws IOException {
+    bundle = Fixtures.bundle(entries);
+    json = Fixtures.json(bundle);
+    xml = Fixtures.xml(bundle);
+  }
+
+  @Benchmark
+  public Resource parseJsonTree() throws IOException {
+    return new JsonParser().parse(json);
+  }
+
+  @Benchmark
+  public Resource parseJsonStreaming() throws IOException {
+    return new JsonParser().setStreaming(true).parse(json);
+  }
+
+  @Benchmark
+  public Resource parseXml() throws IOException {
+    return new XmlParser().parse(xml);
+  }
+
+  @Benchmark
+  public byte[] composeJson() throws IOException {
+    return new JsonParser().composeBytes(bundle);
+  }
+}
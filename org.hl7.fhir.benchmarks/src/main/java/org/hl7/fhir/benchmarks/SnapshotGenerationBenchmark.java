@@ -0,0 +1,72 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.context.ContextUtilities;
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.context.SnapshotCache;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.utilities.FileUtilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generating the snapshot of the body weight profile, with and without the on-disk snapshot
+ * cache (which is primed in the setup, so the cached case measures a hit)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotGenerationBenchmark {
+
+  @Param({ "false", "true" })
+  public boolean cached;
+
+  private File folder;
+  private ContextUtilities utilities;
+  private StructureDefinition profile;
+
+  @Setup
+  public void setup() throws IOException {
+    SimpleWorkerContext context = Fixtures.context();
+    profile = context.fetchResource(StructureDefinition.class, Fixtures.BODY_WEIGHT).copy();
+    profile.setSnapshot(null);
+    utilities = new ContextUtilities(context);
+    if (cached) {
+      folder = Files.createTempDirectory("benchmark").toFile();
+      utilities.setSnapshotCache(new SnapshotCache(folder.getAbsolutePath()));
+      generate();
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if (folder != null) {
+      FileUtilities.clearDirectory(folder.getAbsolutePath());
+      folder.delete();
+    }
+  }
+
+  @Benchmark
+  public StructureDefinition generate() {
+    StructureDefinition sd = profile.copy();
+    utilities.generateSnapshot(sd);
+    return sd;
+  }
+}
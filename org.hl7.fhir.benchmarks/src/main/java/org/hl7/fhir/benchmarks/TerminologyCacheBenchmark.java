@@ -0,0 +1,86 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.model.CodeableConcept;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache.CacheToken;
+import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
+import org.hl7.fhir.utilities.FhirPublication;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
+import org.hl7.fhir.utilities.validation.ValidationOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The TerminologyCache lookup path: making the token for a code validation request and finding
+ * the cached result, as the worker context does before it would go to the terminology server.
+ * The value set is a code system's worth of codes, so digesting it is not trivial
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TerminologyCacheBenchmark {
+
+  private TerminologyCache cache;
+  private ValidationOptions options;
+  private ValueSet valueSet;
+  private Parameters expParameters;
+  private Coding coding;
+  private Coding unknown;
+  private CodeableConcept concept;
+
+  @Setup
+  public void setup() throws IOException {
+    cache = new TerminologyCache(new Object(), null);
+    options = new ValidationOptions(FhirPublication.R5).withGuessSystem().withVersionFlexible(false);
+    expParameters = new Parameters();
+    expParameters.addParameter("displayLanguage", "en");
+    valueSet = Fixtures.valueSet(false);
+    for (int i = 0; i < 1000; i++) {
+      valueSet.getCompose().getIncludeFirstRep().addConcept().setCode("c"+i).setDisplay("Concept "+i);
+    }
+    coding = new Coding(Fixtures.CS_URL, "c42", "Concept 42");
+    unknown = new Coding(Fixtures.CS_URL, "c4200", null);
+    concept = new CodeableConcept().addCoding(new Coding(Fixtures.CS_URL, "c42", "Concept 42")).addCoding(new Coding(Fixtures.CS_URL, "c43", null));
+
+    cache.cacheValidation(cache.generateValidationToken(options, coding, valueSet, expParameters),
+        new ValidationResult(Fixtures.CS_URL, "1.0.0", null, "Concept 42"), false);
+    cache.cacheValidation(cache.generateValidationToken(options, concept, valueSet, expParameters),
+        new ValidationResult(IssueSeverity.ERROR, "Unknown code 'c43'", new ArrayList<>()), false);
+  }
+
+  @Benchmark
+  public ValidationResult hitCoding() {
+    CacheToken token = cache.generateValidationToken(options, coding, valueSet, expParameters);
+    return cache.getValidation(token);
+  }
+
+  @Benchmark
+  public ValidationResult hitCodeableConcept() {
+    CacheToken token = cache.generateValidationToken(options, concept, valueSet, expParameters);
+    return cache.getValidation(token);
+  }
+
+  @Benchmark
+  public ValidationResult miss() {
+    CacheToken token = cache.generateValidationToken(options, unknown, valueSet, expParameters);
+    return cache.getValidation(token);
+  }
+}
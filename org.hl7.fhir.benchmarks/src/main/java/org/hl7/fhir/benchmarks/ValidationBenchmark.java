@@ -0,0 +1,77 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.validation.ValidatorSettings;
+import org.hl7.fhir.validation.instance.InstanceValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * InstanceValidator.validate on a bundle, and on an observation against the body weight profile.
+ *
+ * There's no terminology server, so code validation is limited to what can be done locally; the
+ * terminology paths are measured by TerminologyCacheBenchmark and ValueSetExpansionBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ValidationBenchmark {
+
+  @Param({ "JSON", "XML" })
+  public FhirFormat format;
+
+  private InstanceValidator validator;
+  private byte[] bundle;
+  private byte[] observation;
+  private List<StructureDefinition> profiles;
+
+  @Setup
+  public void setup() throws IOException {
+    SimpleWorkerContext context = Fixtures.context();
+    validator = new InstanceValidator(context, null, null, null, new ValidatorSettings());
+    profiles = new ArrayList<>();
+    profiles.add(context.fetchResource(StructureDefinition.class, Fixtures.BODY_WEIGHT));
+    if (format == FhirFormat.JSON) {
+      bundle = Fixtures.json(Fixtures.bundle(100));
+      observation = Fixtures.json(Fixtures.observation(1));
+    } else {
+      bundle = Fixtures.xml(Fixtures.bundle(100));
+      observation = Fixtures.xml(Fixtures.observation(1));
+    }
+  }
+
+  @Benchmark
+  public List<ValidationMessage> validateBundle() {
+    List<ValidationMessage> errors = new ArrayList<>();
+    validator.validate(null, errors, new ByteArrayInputStream(bundle), format);
+    return errors;
+  }
+
+  @Benchmark
+  public List<ValidationMessage> validateProfile() {
+    List<ValidationMessage> errors = new ArrayList<>();
+    validator.validate(null, errors, new ByteArrayInputStream(observation), format, profiles);
+    return errors;
+  }
+}
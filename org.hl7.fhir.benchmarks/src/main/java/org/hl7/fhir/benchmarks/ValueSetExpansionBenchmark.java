@@ -0,0 +1,59 @@
+package org.hl7.fhir.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpander;
+import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyOperationContext;
+import org.hl7.fhir.utilities.validation.ValidationOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ValueSetExpander.expand on a big local code system, including all of it, or one subtree of it
+ * (an is-a filter)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValueSetExpansionBenchmark {
+
+  @Param({ "1000", "20000" })
+  public int concepts;
+
+  @Param({ "false", "true" })
+  public boolean filter;
+
+  private SimpleWorkerContext context;
+  private ValueSet valueSet;
+
+  @Setup
+  public void setup() throws IOException {
+    context = Fixtures.context();
+    context.cacheResource(Fixtures.codeSystem(concepts));
+    valueSet = Fixtures.valueSet(filter);
+  }
+
+  @Benchmark
+  public ValueSetExpansionOutcome expand() {
+    ValueSetExpander expander = new ValueSetExpander(context, new TerminologyOperationContext(context, ValidationOptions.defaults(), "benchmark"));
+    expander.setMaxExpansionSize(Integer.MAX_VALUE);
+    return expander.expand(valueSet, new Parameters());
+  }
+}
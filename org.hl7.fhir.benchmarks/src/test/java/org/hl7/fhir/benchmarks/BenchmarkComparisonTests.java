@@ -0,0 +1,69 @@
+package org.hl7.fhir.benchmarks;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.hl7.fhir.benchmarks.BenchmarkComparison.BenchmarkResult;
+import org.hl7.fhir.utilities.json.model.JsonArray;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+import org.junit.jupiter.api.Test;
+
+public class BenchmarkComparisonTests {
+
+  private static final String BASELINE = "["
+      + "{\"benchmark\":\"org.hl7.fhir.benchmarks.JsonLexerBenchmark.parseBytes\",\"mode\":\"avgt\",\"params\":{\"entries\":\"100\"},"
+      + "\"primaryMetric\":{\"score\":2.0,\"scoreError\":0.1,\"scoreUnit\":\"ms/op\"},"
+      + "\"secondaryMetrics\":{\"gc.alloc.rate.norm\":{\"score\":1000000.0,\"scoreError\":\"NaN\",\"scoreUnit\":\"B/op\"}}},"
+      + "{\"benchmark\":\"org.hl7.fhir.benchmarks.JsonLexerBenchmark.parseString\",\"mode\":\"avgt\",\"params\":{\"entries\":\"100\"},"
+      + "\"primaryMetric\":{\"score\":2.0,\"scoreError\":0.5,\"scoreUnit\":\"ms/op\"},\"secondaryMetrics\":{}},"
+      + "{\"benchmark\":\"org.hl7.fhir.benchmarks.ContextLoadBenchmark.loadPackage\",\"mode\":\"ss\",\"params\":{},"
+      + "\"primaryMetric\":{\"score\":5000.0,\"scoreError\":\"NaN\",\"scoreUnit\":\"ms/op\"},\"secondaryMetrics\":{}}"
+      + "]";
+
+  private static final String CURRENT = "["
+      + "{\"benchmark\":\"org.hl7.fhir.benchmarks.JsonLexerBenchmark.parseBytes\",\"mode\":\"avgt\",\"params\":{\"entries\":\"100\"},"
+      + "\"primaryMetric\":{\"score\":1.5,\"scoreError\":0.1,\"scoreUnit\":\"ms/op\"},"
+      + "\"secondaryMetrics\":{\"gc.alloc.rate.norm\":{\"score\":1500000.0,\"scoreError\":\"NaN\",\"scoreUnit\":\"B/op\"}}},"
+      + "{\"benchmark\":\"org.hl7.fhir.benchmarks.JsonLexerBenchmark.parseString\",\"mode\":\"avgt\",\"params\":{\"entries\":\"100\"},"
+      + "\"primaryMetric\":{\"score\":2.5,\"scoreError\":0.5,\"scoreUnit\":\"ms/op\"},\"secondaryMetrics\":{}},"
+      + "{\"benchmark\":\"org.hl7.fhir.benchmarks.ContextLoadBenchmark.loadImage\",\"mode\":\"ss\",\"params\":{},"
+      + "\"primaryMetric\":{\"score\":500.0,\"scoreError\":\"NaN\",\"scoreUnit\":\"ms/op\"},\"secondaryMetrics\":{}}"
+      + "]";
+
+  private Map<String, BenchmarkResult> parse(String json) throws IOException {
+    return BenchmarkComparison.parse((JsonArray) JsonParser.parse(json));
+  }
+
+  @Test
+  public void testParse() throws IOException {
+    Map<String, BenchmarkResult> results = parse(BASELINE);
+    assertEquals(3, results.size());
+    BenchmarkResult r = results.get("JsonLexerBenchmark.parseBytes (entries=100)");
+    assertEquals("avgt", r.getMode());
+    assertEquals(2.0, r.getScore());
+    assertEquals(0.1, r.getError());
+    assertEquals("ms/op", r.getUnit());
+    assertEquals(1000000.0, r.getAlloc());
+    assertEquals("B/op", r.getAllocUnit());
+    assertEquals(null, results.get("JsonLexerBenchmark.parseString (entries=100)").getAlloc());
+    assertEquals(0.0, results.get("ContextLoadBenchmark.loadPackage").getError());
+  }
+
+  @Test
+  public void testCompare() throws IOException {
+    BenchmarkComparison comparison = new BenchmarkComparison(10);
+    String report = comparison.compare(parse(BASELINE), parse(CURRENT));
+    // parseBytes is faster, but allocates more
+    assertTrue(report.contains("| JsonLexerBenchmark.parseBytes (entries=100) | avgt | 2.000 ms/op | 1.500 ms/op | -25.000% | 1000000 B/op | 1500000 B/op | +50.000% | improvement, alloc regression |"), report);
+    // parseString is 25% slower, but within the error
+    assertTrue(report.contains("| JsonLexerBenchmark.parseString (entries=100) | avgt | 2.000 ms/op | 2.500 ms/op | +25.000% | | | | |"), report);
+    assertTrue(report.contains("| ContextLoadBenchmark.loadImage | ss | | 500.0 ms/op | | | | | new |"), report);
+    assertTrue(report.contains("| ContextLoadBenchmark.loadPackage | ss | 5000.0 ms/op | | | | | | removed |"), report);
+    assertEquals(1, comparison.getRegressions());
+    assertEquals(0, comparison.getImprovements());
+    assertTrue(report.contains("1 regression(s), 0 improvement(s) (threshold 10.000%)"), report);
+  }
+}
@@ -148,4 +148,10 @@ public class R5ToR5Loader extends BaseLoaderR5 {
     return pri;
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    // no conversion, so no advisor collecting code systems along the way
+    return true;
+  }
+
 }
\ No newline at end of file
@@ -322,7 +322,8 @@ public class CPTImporter {
             desc = desc.substring(desc.indexOf("\t")+1);
           }
           res = Integer.max(res, desc.length());
-          ConceptDefinitionComponent cc = CodeSystemUtilities.getCode(cs, code);
+          // not getCode(): the code system changes every line, and the index would be built again each time
+          ConceptDefinitionComponent cc = CodeSystemUtilities.findCode(cs.getConcept(), code);
           if (cc == null) {
             cc = cs.addConcept().setCode(code);
             cc.addProperty().setCode("modifier").setValue(new BooleanType(false));
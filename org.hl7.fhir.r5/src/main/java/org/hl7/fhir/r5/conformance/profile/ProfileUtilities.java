@@ -43,6 +43,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.exceptions.DefinitionException;
@@ -50,9 +51,11 @@ import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.exceptions.FHIRFormatError;
 import org.hl7.fhir.r5.conformance.ElementRedirection;
 import org.hl7.fhir.r5.conformance.profile.MappingAssistant.MappingMergeModeOption;
+import org.hl7.fhir.r5.context.BaseWorkerContext;
 import org.hl7.fhir.r5.context.IWorkerContext;
 import org.hl7.fhir.r5.elementmodel.ObjectConverter;
 import org.hl7.fhir.r5.elementmodel.Property;
+import org.hl7.fhir.r5.elementmodel.PropertyCache;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode.Kind;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode.Operation;
@@ -433,7 +436,7 @@ public class ProfileUtilities {
   private boolean wantFixDifferentialFirstElementType;
   private Set<String> masterSourceFileNames;
   private Set<String> localFileNames;
-  private Map<String, SourcedChildDefinitions> childMapCache = new HashMap<>();
+  private Map<String, SourcedChildDefinitions> childMapCache = new ConcurrentHashMap<>();
   private AllowUnknownProfile allowUnknownProfile = AllowUnknownProfile.ALL_TYPES;
   private MappingMergeModeOption mappingMergeMode = MappingMergeModeOption.APPEND;
   private boolean forPublication;
@@ -493,8 +496,9 @@ public class ProfileUtilities {
   }
   public SourcedChildDefinitions getChildMap(StructureDefinition profile, ElementDefinition element, boolean chaseTypes, String type) throws DefinitionException {
     String cacheKey = "cm."+profile.getVersionedUrl()+"#"+(element.hasId() ? element.getId() : element.getPath())+"."+chaseTypes;
-    if (childMapCache.containsKey(cacheKey)) {
-      return childMapCache.get(cacheKey);
+    SourcedChildDefinitions cached = childMapCache.get(cacheKey);
+    if (cached != null) {
+      return cached;
     }
     StructureDefinition src = profile;
     List<ElementDefinition> res = new ArrayList<ElementDefinition>();
@@ -4816,9 +4820,16 @@ public class ProfileUtilities {
     }
   }
 
-  private Map<String, List<Property>> propertyCache = new HashMap<>();
+  private PropertyCache propertyCache = new PropertyCache();
   
-  public Map<String, List<Property>> getCachedPropertyList() {
+  /**
+   * The returned cache (and the child map cache) is cleared first if the context has unloaded 
+   * any resources since it was last asked for, so it doesn't keep them on the heap
+   */
+  public PropertyCache getPropertyCache() {
+    if (context instanceof BaseWorkerContext && propertyCache.clearOnRelease(((BaseWorkerContext) context).getEvictionPolicy())) {
+      childMapCache.clear();
+    }
     return propertyCache;
   }
 
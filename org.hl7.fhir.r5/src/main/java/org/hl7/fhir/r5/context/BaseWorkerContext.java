@@ -39,15 +39,18 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -229,7 +232,14 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       this.folder = folder;
       this.pid = pid;
     }
-    
+
+    String getFolder() {
+      return folder;
+    }
+
+    String getPid() {
+      return pid;
+    }
   }
 
   private static final boolean QA_CHECK_REFERENCE_SOURCE = false; // see comments below
@@ -298,6 +308,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
 
   private Object lock = new Object(); // used as a lock for the data that follows
+  private volatile boolean frozen; // see freeze()
   protected String version; // although the internal resources are all R5, the version of FHIR they describe may not be 
 
   private boolean minimalMemory = false;
@@ -314,17 +325,17 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   protected CanonicalResourceManager<StructureMap> transforms = new CanonicalResourceManager<StructureMap>(false, minimalMemory);
   private CanonicalResourceManager<StructureDefinition> structures = new CanonicalResourceManager<StructureDefinition>(false, minimalMemory);
   private TypeManager typeManager = new TypeManager(structures);
-  private final CanonicalResourceManager<Measure> measures = new CanonicalResourceManager<Measure>(false, minimalMemory);
-  private final CanonicalResourceManager<Library> libraries = new CanonicalResourceManager<Library>(false, minimalMemory);
+  private CanonicalResourceManager<Measure> measures = new CanonicalResourceManager<Measure>(false, minimalMemory);
+  private CanonicalResourceManager<Library> libraries = new CanonicalResourceManager<Library>(false, minimalMemory);
   private CanonicalResourceManager<ImplementationGuide> guides = new CanonicalResourceManager<ImplementationGuide>(false, minimalMemory);
-  private final CanonicalResourceManager<CapabilityStatement> capstmts = new CanonicalResourceManager<CapabilityStatement>(false, minimalMemory);
-  private final CanonicalResourceManager<SearchParameter> searchParameters = new CanonicalResourceManager<SearchParameter>(false, minimalMemory);
-  private final CanonicalResourceManager<Questionnaire> questionnaires = new CanonicalResourceManager<Questionnaire>(false, minimalMemory);
-  private final CanonicalResourceManager<OperationDefinition> operations = new CanonicalResourceManager<OperationDefinition>(false, minimalMemory);
-  private final CanonicalResourceManager<PlanDefinition> plans = new CanonicalResourceManager<PlanDefinition>(false, minimalMemory);
-  private final CanonicalResourceManager<ActorDefinition> actors = new CanonicalResourceManager<ActorDefinition>(false, minimalMemory);
-  private final CanonicalResourceManager<Requirements> requirements = new CanonicalResourceManager<Requirements>(false, minimalMemory);
-  private final CanonicalResourceManager<NamingSystem> systems = new CanonicalResourceManager<NamingSystem>(false, minimalMemory);
+  private CanonicalResourceManager<CapabilityStatement> capstmts = new CanonicalResourceManager<CapabilityStatement>(false, minimalMemory);
+  private CanonicalResourceManager<SearchParameter> searchParameters = new CanonicalResourceManager<SearchParameter>(false, minimalMemory);
+  private CanonicalResourceManager<Questionnaire> questionnaires = new CanonicalResourceManager<Questionnaire>(false, minimalMemory);
+  private CanonicalResourceManager<OperationDefinition> operations = new CanonicalResourceManager<OperationDefinition>(false, minimalMemory);
+  private CanonicalResourceManager<PlanDefinition> plans = new CanonicalResourceManager<PlanDefinition>(false, minimalMemory);
+  private CanonicalResourceManager<ActorDefinition> actors = new CanonicalResourceManager<ActorDefinition>(false, minimalMemory);
+  private CanonicalResourceManager<Requirements> requirements = new CanonicalResourceManager<Requirements>(false, minimalMemory);
+  private CanonicalResourceManager<NamingSystem> systems = new CanonicalResourceManager<NamingSystem>(false, minimalMemory);
   private Map<String, NamingSystem> systemUrlMap;
 
   private LanguageSubtagRegistry registry;
@@ -335,6 +346,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   protected List<OIDSource> oidSources = new ArrayList<>();
 
   protected Map<String, Map<String, ValidationResult>> validationCache = new HashMap<String, Map<String,ValidationResult>>();
+  private final Map<String, ValidationResult> prefetchedValidations = new ConcurrentHashMap<>(); // server answers from prefetchValidateCode, by cache token digest, until validateCode asks for them
   protected String name;
   private boolean allowLoadingDuplicates;
 
@@ -380,6 +392,27 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     initLang();
   }
 
+  /**
+   * Creates a lightweight overlay on a frozen context. The overlay shares the definitions 
+   * (resource managers, type manager, packages, binaries, terminology cache) with the frozen 
+   * context, but has its own lock, clock, expansion parameters, validation cache and record of 
+   * code systems used, so that multiple threads can each use their own overlay at once
+   */
+  protected BaseWorkerContext(BaseWorkerContext frozen, TimeTracker clock) throws IOException, FHIRException {
+    super();
+    if (!frozen.isFrozen()) {
+      throw new FHIRException("An overlay can only be created on a frozen context");
+    }
+    if (frozen.getLocale() != null) {
+      setLocale(frozen.getLocale());
+    } else {
+      setValidationMessageLanguage(getLocale());
+    }
+    this.clock = clock;
+    this.registry = frozen.registry;
+    share(frozen);
+  }
+
   private void initLang() throws IOException {
     registry = new LanguageSubtagRegistry();
     LanguageSubtagRegistryLoader loader = new LanguageSubtagRegistryLoader(registry);
@@ -442,12 +475,116 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
   
   
+  private void share(BaseWorkerContext other) {
+    synchronized (other.lock) {
+      allResourcesById = other.allResourcesById;
+      allResourcesByUrl = other.allResourcesByUrl;
+      codeSystems = other.codeSystems;
+      valueSets = other.valueSets;
+      maps = other.maps;
+      transforms = other.transforms;
+      structures = other.structures;
+      typeManager = other.typeManager;
+      measures = other.measures;
+      libraries = other.libraries;
+      guides = other.guides;
+      capstmts = other.capstmts;
+      searchParameters = other.searchParameters;
+      questionnaires = other.questionnaires;
+      operations = other.operations;
+      plans = other.plans;
+      actors = other.actors;
+      requirements = other.requirements;
+      systems = other.systems;
+      systemUrlMap = other.systemUrlMap;
+      packages = other.packages;
+      evictionPolicy = other.evictionPolicy;
+      snapshotCache = other.snapshotCache;
+      binaries = other.binaries;
+      oidSources = other.oidSources;
+      oidCacheManual = other.oidCacheManual;
+
+      allowLoadingDuplicates = other.allowLoadingDuplicates;
+      name = other.name;
+      txLog = other.txLog;
+      canRunWithoutTerminology = other.canRunWithoutTerminology;
+      noTerminologyServer = other.noTerminologyServer;
+      txCache = other.txCache;
+      expandCodesLimit = other.expandCodesLimit;
+      logger = other.logger;
+      expParameters = other.expParameters != null ? other.expParameters.copy() : null;
+      version = other.version;
+      supportedCodeSystems.addAll(other.supportedCodeSystems);
+      unsupportedCodeSystems.addAll(other.unsupportedCodeSystems);
+      ucumService = other.ucumService;
+      validationCache.putAll(other.validationCache);
+      tlogging = other.tlogging;
+      locator = other.locator;
+      userAgent = other.userAgent;
+      terminologyClientManager.copy(other.terminologyClientManager);
+      cachingAllowed = other.cachingAllowed;
+      forPublication = other.forPublication;
+      packageTracker = other.packageTracker;
+      frozen = true;
+    }
+  }
+
+  /**
+   * Freeze the definitions in this context. After this, no resources can be added to or 
+   * dropped from the context, and it can be shared by multiple threads, typically by 
+   * giving each thread its own overlay.
+   * 
+   * Snapshot generation is not thread safe, so all the snapshots are generated now 
+   * (which loads all the structure definitions)
+   */
+  public void freeze() {
+    synchronized (lock) {
+      if (frozen) {
+        return;
+      }
+      for (CanonicalResourceManager<StructureDefinition>.CachedCanonicalResource<StructureDefinition> cr : structures.getCachedList()) {
+        generateSnapshot(cr.getResource(), "7");
+      }
+      getNSUrlMap();
+      codeSystems.freeze();
+      valueSets.freeze();
+      maps.freeze();
+      transforms.freeze();
+      structures.freeze();
+      typeManager.freeze();
+      measures.freeze();
+      libraries.freeze();
+      guides.freeze();
+      capstmts.freeze();
+      searchParameters.freeze();
+      questionnaires.freeze();
+      operations.freeze();
+      plans.freeze();
+      actors.freeze();
+      requirements.freeze();
+      systems.freeze();
+      frozen = true;
+    }
+  }
+
+  @Override
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new FHIRException("Unable to change the content of a frozen context"+(name == null ? "" : " ("+name+")"));
+    }
+  }
+
   public void cacheResource(Resource r) throws FHIRException {
     cacheResourceFromPackage(r, null);  
   }
   
 
   public void registerResourceFromPackage(CanonicalResourceProxy r, PackageInformation packageInfo) throws FHIRException {    
+    checkNotFrozen();
     PackageHackerR5.fixLoadedResource(r, packageInfo);
 
     synchronized (lock) {
@@ -542,7 +679,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
 
   public void cacheResourceFromPackage(Resource r, PackageInformation packageInfo) throws FHIRException {
- 
+    checkNotFrozen();
     synchronized (lock) {   
       if (packageInfo != null) {
         packages.put(packageInfo.getVID(), packageInfo);
@@ -1433,6 +1570,143 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     }    
   }
   
+  private static final int PREFETCH_BATCH_SIZE = 500;
+  private static final int PREFETCH_LIMIT = 50000;
+
+  private static class PrefetchBatch {
+    private List<BundleEntryComponent> entries = new ArrayList<>();
+    private Set<String> systems = new HashSet<>();
+    private Set<String> cachedValueSets = new HashSet<>(); // value sets that are passed by url after they're in this batch
+  }
+
+  @Override
+  public int prefetchValidateCode(ValidationOptions optionsArg, List<? extends CodingValidationRequest> codes) {
+    ValidationOptions options = optionsArg != null ? optionsArg : ValidationOptions.defaults();
+    if (!cachingAllowed || txCache == null || noTerminologyServer || !options.isUseServer() || !terminologyClientManager.hasClient()) {
+      return 0;
+    }
+    if (prefetchedValidations.size() > PREFETCH_LIMIT) {
+      // these are answers to questions that validateCode was never asked  
+      prefetchedValidations.clear();
+    }
+
+    // 1st pass: what's in the cache, and what can be done locally? 
+    // 2nd pass: build the requests the way validateCode would, and group them by server
+    Map<TerminologyClientContext, PrefetchBatch> batches = new LinkedHashMap<>();
+    Set<String> seen = new HashSet<>();
+    for (CodingValidationRequest t : codes) {
+      ValueSet vs = t.getVsObj();
+      if (t.hasCodeableConcept()) {
+        t.setCacheToken(txCache.generateValidationToken(options, t.getCodeableConcept(), vs, expParameters));
+      } else {
+        t.setCacheToken(txCache.generateValidationToken(options, t.getCoding(), vs, expParameters));
+      }
+      String digest = t.getCacheToken().getDigest();
+      if (!seen.add(digest) || prefetchedValidations.containsKey(digest)) {
+        continue;
+      }
+      t.setResult(txCache.getValidation(t.getCacheToken()));
+      if (t.hasResult() || !needsServerValidation(options, t)) {
+        continue;
+      }
+      Set<String> systems = t.hasCodeableConcept() ? findRelevantSystems(t.getCodeableConcept(), vs) : findRelevantSystems(t.getCoding(), vs);
+      TerminologyClientContext tc = terminologyClientManager.chooseServer(vs, systems, false);
+      if (tc == null) {
+        continue;
+      }
+      PrefetchBatch batch = batches.computeIfAbsent(tc, k -> new PrefetchBatch());
+      Parameters pIn = t.hasCodeableConcept() ? constructParameters(options, t.getCodeableConcept()) : constructParameters(options, t.getCoding());
+      seeCodeSystemsUsed(vs);
+      if (vs != null && vs.getUrl() != null && !tc.getCached().contains(vs.getUrl()+"|"+vs.getVersion())) {
+        batch.cachedValueSets.add(vs.getUrl()+"|"+vs.getVersion());
+      }
+      addServerValidationParameters(null, tc, vs, pIn, options, systems);
+      BundleEntryComponent be = new BundleEntryComponent();
+      be.setResource(pIn);
+      be.getRequest().setMethod(HTTPVerb.POST);
+      be.getRequest().setUrl(vs == null ? "CodeSystem/$validate-code" : "ValueSet/$validate-code");
+      be.setUserData(UserDataNames.TX_REQUEST, t);
+      batch.entries.add(be);
+      batch.systems.addAll(systems);
+    }
+
+    // 3rd pass: hit the server(s), and keep the answers for validateCode
+    int count = 0;
+    for (Map.Entry<TerminologyClientContext, PrefetchBatch> e : batches.entrySet()) {
+      TerminologyClientContext tc = e.getKey();
+      PrefetchBatch pb = e.getValue();
+      for (int start = 0; start < pb.entries.size(); start += PREFETCH_BATCH_SIZE) {
+        Bundle batch = new Bundle();
+        batch.setType(BundleType.BATCH);
+        batch.getEntry().addAll(pb.entries.subList(start, Math.min(start + PREFETCH_BATCH_SIZE, pb.entries.size())));
+        try {
+          Bundle resp = processBatch(tc, batch, pb.systems);
+          for (int i = 0; i < batch.getEntry().size() && i < resp.getEntry().size(); i++) {
+            // anything other than an answer is left for validateCode to ask again 
+            if (resp.getEntry().get(i).getResource() instanceof Parameters) {
+              CodingValidationRequest t = (CodingValidationRequest) batch.getEntry().get(i).getUserData(UserDataNames.TX_REQUEST);
+              ValueSet vs = t.getVsObj();
+              ValidationResult res = processValidationResult((Parameters) resp.getEntry().get(i).getResource(), vs == null ? null : vs.getUrl(), tc.getClient().getAddress());
+              prefetchedValidations.put(t.getCacheToken().getDigest(), res);
+            }
+          }
+          count = count + batch.getEntry().size();
+        } catch (Exception ex) {
+          // the server may not have seen the value sets, so validateCode has to send them again
+          tc.getCached().removeAll(pb.cachedValueSets);
+          logger.logDebugMessage(LogCategory.TX, "Batch validation failed on "+tc.getAddress()+": "+ex.getMessage());
+          break;
+        }
+      }
+    }
+    return count;
+  }
+
+  private ValidationResult takePrefetchedValidation(CacheToken cacheToken) {
+    if (cacheToken == null || cacheToken.getDigest() == null || prefetchedValidations.isEmpty()) {
+      return null;
+    }
+    return prefetchedValidations.remove(cacheToken.getDigest());
+  }
+
+  /**
+   * This follows validateCode: if the code can be validated locally, the answer is cached (as validateCode 
+   * would do), and if not, whether validateCode would go on to ask the server
+   */
+  private boolean needsServerValidation(ValidationOptions options, CodingValidationRequest t) {
+    if (t.hasCodeableConcept()) {
+      for (Coding c : t.getCodeableConcept().getCoding()) {
+        if (c.hasSystem()) {
+          codeSystemsUsed.add(c.getSystem());
+        }
+      }
+    } else if (t.getCoding().hasSystem()) {
+      codeSystemsUsed.add(t.getCoding().getSystem());
+    }
+    if (options.isUseClient()) {
+      try {
+        if (t.hasCodeableConcept()) {
+          ValueSetValidator vsc = constructValueSetCheckerSimple(options, t.getVsObj());
+          vsc.setUnknownSystems(new HashSet<>());
+          vsc.setThrowToServer(true);
+          txCache.cacheValidation(t.getCacheToken(), vsc.validateCode("CodeableConcept", t.getCodeableConcept()), TerminologyCache.TRANSIENT);
+          return false;
+        } else if (!ValueSetUtilities.isServerSide(t.getCoding().getSystem())) {
+          ValueSetValidator vsc = constructValueSetCheckerSimple(options, t.getVsObj(), new ValidationContextCarrier());
+          vsc.setUnknownSystems(new HashSet<>());
+          vsc.setThrowToServer(true);
+          txCache.cacheValidation(t.getCacheToken(), vsc.validateCode("Coding", t.getCoding().copy()), TerminologyCache.TRANSIENT);
+          return false;
+        }
+      } catch (TerminologyServiceProtectionException e) {
+        return false;
+      } catch (Exception e) {
+        // validateCode goes on to the server
+      }
+    }
+    return t.hasCodeableConcept() || !unsupportedCodeSystems.contains(getCodeKey(t.getCoding()));
+  }
+
   private String getResponseText(Resource resource) {
     if (resource instanceof OperationOutcome) {
       return OperationOutcomeRenderer.toString((OperationOutcome) resource);
@@ -1489,7 +1763,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       try {
         ValueSetValidator vsc = constructValueSetCheckerSimple(options, vs, ctxt);
         if (vsc.getOpContext() != null) {
-          vsc.getOpContext().note("Validate "+code.toString()+" @ "+path+" against "+(vs == null ? "null" : vs.getVersionedUrl()));
+          vsc.getOpContext().note("Validate", () -> code.toString()+" @ "+path+" against "+(vs == null ? "null" : vs.getVersionedUrl()));
         }
         vsc.setUnknownSystems(unknownSystems);
         vsc.setThrowToServer(options.isUseServer() && terminologyClientManager.hasClient());
@@ -1551,20 +1825,23 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       return new ValidationResult(IssueSeverity.ERROR,formatMessage(I18nConstants.ERROR_VALIDATING_CODE_RUNNING_WITHOUT_TERMINOLOGY_SERVICES, code.getCode(), code.getSystem()), TerminologyServiceErrorClass.NOSERVICE, issues);
     }
 
-    Set<String> systems = findRelevantSystems(code, vs);
-    TerminologyClientContext tc = terminologyClientManager.chooseServer(vs, systems, false);
-    
-    String csumm = cachingAllowed && txCache != null ? txCache.summary(code) : null;
-    if (cachingAllowed && txCache != null) {
-      txLog("$validate "+csumm+(vs == null ? "" : " for "+ txCache.summary(vs))+" on "+tc.getAddress());
-    } else {
-      txLog("$validate "+csumm+" before cache exists on "+tc.getAddress());
-    }
-    try {
-      Parameters pIn = constructParameters(options, code);
-      res = validateOnServer2(tc, vs, pIn, options, systems);
-    } catch (Exception e) {
-      res = new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), null).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(TerminologyServiceErrorClass.SERVER_ERROR);
+    res = takePrefetchedValidation(cacheToken);
+    if (res == null) {
+      Set<String> systems = findRelevantSystems(code, vs);
+      TerminologyClientContext tc = terminologyClientManager.chooseServer(vs, systems, false);
+
+      String csumm = cachingAllowed && txCache != null ? txCache.summary(code) : null;
+      if (cachingAllowed && txCache != null) {
+        txLog("$validate "+csumm+(vs == null ? "" : " for "+ txCache.summary(vs))+" on "+tc.getAddress());
+      } else {
+        txLog("$validate "+csumm+" before cache exists on "+tc.getAddress());
+      }
+      try {
+        Parameters pIn = constructParameters(options, code);
+        res = validateOnServer2(tc, vs, pIn, options, systems);
+      } catch (Exception e) {
+        res = new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), null).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(TerminologyServiceErrorClass.SERVER_ERROR);
+      }
     }
     if (!res.isOk() && res.getErrorClass() == TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED && (localError != null && !localError.equals(ValueSetValidator.NO_TRY_THE_SERVER))) {
       res = new ValidationResult(IssueSeverity.ERROR, localError, null).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(type);
@@ -1827,19 +2104,22 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     if (noTerminologyServer) {
       return new ValidationResult(IssueSeverity.ERROR, "Error validating code: running without terminology services", TerminologyServiceErrorClass.NOSERVICE, null);
     }
-    Set<String> systems = findRelevantSystems(code, vs);
-    TerminologyClientContext tc = terminologyClientManager.chooseServer(vs, systems, false);
+    res = takePrefetchedValidation(cacheToken);
+    if (res == null) {
+      Set<String> systems = findRelevantSystems(code, vs);
+      TerminologyClientContext tc = terminologyClientManager.chooseServer(vs, systems, false);
 
-    txLog("$validate "+txCache.summary(code)+" for "+ txCache.summary(vs)+" on "+tc.getAddress());
-    try {
-      Parameters pIn = constructParameters(options, code);
-      res = validateOnServer2(tc, vs, pIn, options, systems);
-    } catch (Exception e) {
-      issues.clear();
-      OperationOutcomeIssueComponent iss = new OperationOutcomeIssueComponent(org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity.ERROR, org.hl7.fhir.r5.model.OperationOutcome.IssueType.EXCEPTION);
-      iss.getDetails().setText(e.getMessage());
-      issues.add(iss);
-      res = new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), issues).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(TerminologyServiceErrorClass.SERVER_ERROR);
+      txLog("$validate "+txCache.summary(code)+" for "+ txCache.summary(vs)+" on "+tc.getAddress());
+      try {
+        Parameters pIn = constructParameters(options, code);
+        res = validateOnServer2(tc, vs, pIn, options, systems);
+      } catch (Exception e) {
+        issues.clear();
+        OperationOutcomeIssueComponent iss = new OperationOutcomeIssueComponent(org.hl7.fhir.r5.model.OperationOutcome.IssueSeverity.ERROR, org.hl7.fhir.r5.model.OperationOutcome.IssueType.EXCEPTION);
+        iss.getDetails().setText(e.getMessage());
+        issues.add(iss);
+        res = new ValidationResult(IssueSeverity.ERROR, e.getMessage() == null ? e.getClass().getName() : e.getMessage(), issues).setTxLink(txLog == null ? null : txLog.getLastId()).setErrorClass(TerminologyServiceErrorClass.SERVER_ERROR);
+      }
     }
     if (cachingAllowed) {
       txCache.cacheValidation(cacheToken, res, TerminologyCache.PERMANENT);
@@ -1920,15 +2200,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   
   protected ValidationResult validateOnServer2(TerminologyClientContext tc, ValueSet vs, Parameters pin, ValidationOptions options, Set<String> systems) throws FHIRException {
 
-    if (vs != null) {
-      for (ConceptSetComponent inc : vs.getCompose().getInclude()) {
-        codeSystemsUsed.add(inc.getSystem());
-      }
-      for (ConceptSetComponent inc : vs.getCompose().getExclude()) {
-        codeSystemsUsed.add(inc.getSystem());
-      }
-    }
-
+    seeCodeSystemsUsed(vs);
     addServerValidationParameters(null, tc, vs, pin, options, systems);
     
     if (txLog != null) {
@@ -1946,6 +2218,17 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     return processValidationResult(pOut, vs == null ? null : vs.getUrl(), tc.getClient().getAddress());
   }
 
+  private void seeCodeSystemsUsed(ValueSet vs) {
+    if (vs != null) {
+      for (ConceptSetComponent inc : vs.getCompose().getInclude()) {
+        codeSystemsUsed.add(inc.getSystem());
+      }
+      for (ConceptSetComponent inc : vs.getCompose().getExclude()) {
+        codeSystemsUsed.add(inc.getSystem());
+      }
+    }
+  }
+
   protected void addServerValidationParameters(ITerminologyOperationDetails opCtxt, TerminologyClientContext terminologyClientContext, ValueSet vs, Parameters pin, ValidationOptions options) {
     addServerValidationParameters(opCtxt, terminologyClientContext, vs, pin, options, null);
   }
@@ -2984,6 +3267,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
   }
 
   public void dropResource(String fhirType, String id) {
+    checkNotFrozen();
     synchronized (lock) {
 
       Map<String, ResourceProxy> map = allResourcesById.get(fhirType);
@@ -3148,7 +3432,9 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
        // structureDefinition.setGeneratingSnapshot(true);
         try {
-          new ContextUtilities(this).generateSnapshot(structureDefinition);
+          ContextUtilities cu = new ContextUtilities(this);
+          cu.setSnapshotCache(snapshotCache);
+          cu.generateSnapshot(structureDefinition);
         } finally {
           //structureDefinition.setGeneratingSnapshot(false);
         }
@@ -3304,7 +3590,9 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
       for (StructureDefinition sd : listStructures()) {
         try {
           if (sd.getSnapshot().isEmpty()) { 
-            new ContextUtilities(this).generateSnapshot(sd);
+            ContextUtilities cu = new ContextUtilities(this);
+            cu.setSnapshotCache(snapshotCache);
+            cu.generateSnapshot(sd);
             //          new XmlParser().setOutputStyle(OutputStyle.PRETTY).compose(ManagedFileAccess.outStream(Utilities.path("[tmp]", "snapshot", tail(sd.getUrl())+".xml")), sd);
           }
         } catch (Exception e) {
@@ -3499,7 +3787,7 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
 
 
   public void unload() {
-
+    checkNotFrozen();
     codeSystems.unload();
     valueSets.unload();
     maps.unload();
@@ -3522,6 +3810,56 @@ public abstract class BaseWorkerContext extends I18nBase implements IWorkerConte
     validationCache.clear();
     txCache.unload();
 }
+
+  private CanonicalResourceEvictionPolicy evictionPolicy;
+  private SnapshotCache snapshotCache;
+
+  public CanonicalResourceEvictionPolicy getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  /**
+   * Set a policy that limits how many of the resources loaded on demand from packages stay 
+   * loaded, across all the kinds of resources in this context. null means that resources stay 
+   * loaded once they've been used. 
+   * 
+   * StructureDefinitions are never unloaded: their snapshots are generated in place (see 
+   * finishLoading() and freeze()), and the types are held by the TypeManager as well
+   */
+  public void setEvictionPolicy(CanonicalResourceEvictionPolicy evictionPolicy) {
+    this.evictionPolicy = evictionPolicy;
+    codeSystems.setEvictionPolicy(evictionPolicy);
+    valueSets.setEvictionPolicy(evictionPolicy);
+    maps.setEvictionPolicy(evictionPolicy);
+    transforms.setEvictionPolicy(evictionPolicy);
+    measures.setEvictionPolicy(evictionPolicy);
+    libraries.setEvictionPolicy(evictionPolicy);
+    guides.setEvictionPolicy(evictionPolicy);
+    capstmts.setEvictionPolicy(evictionPolicy);
+    searchParameters.setEvictionPolicy(evictionPolicy);
+    questionnaires.setEvictionPolicy(evictionPolicy);
+    operations.setEvictionPolicy(evictionPolicy);
+    plans.setEvictionPolicy(evictionPolicy);
+    actors.setEvictionPolicy(evictionPolicy);
+    requirements.setEvictionPolicy(evictionPolicy);
+    systems.setEvictionPolicy(evictionPolicy);
+  }
+
+  public SnapshotCache getSnapshotCache() {
+    return snapshotCache;
+  }
+
+  /**
+   * Use an on-disk cache for the snapshots generated by this context (see SnapshotCache). Null means no cache
+   */
+  public void setSnapshotCache(SnapshotCache snapshotCache) {
+    this.snapshotCache = snapshotCache;
+  }
+
+  List<CanonicalResourceManager<?>> getResourceManagers() {
+    return Arrays.asList(codeSystems, valueSets, maps, transforms, structures, measures, libraries, guides, capstmts,
+        searchParameters, questionnaires, operations, plans, actors, requirements, systems);
+  }
   
   private <T extends Resource> T doFindTxResource(Class<T> class_, String canonical) {
     // well, we haven't found it locally. We're going look it up
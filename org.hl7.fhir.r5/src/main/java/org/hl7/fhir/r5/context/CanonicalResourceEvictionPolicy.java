@@ -0,0 +1,148 @@
+package org.hl7.fhir.r5.context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of resources loaded on demand from packages (through a CanonicalResourceProxy)
+ * that stay on the heap. One policy is shared by all the resource managers in a worker context - see
+ * BaseWorkerContext.setEvictionPolicy().
+ *
+ * When more than maxLoaded resources are loaded, the least recently used tenth of them are
+ * unloaded, and they'll be loaded from the package again if they are used again. Pinned resources
+ * are never unloaded, and nor are StructureDefinitions: a reloaded StructureDefinition would be the 
+ * package content, without the snapshot that was generated in place when it was loaded, and the
+ * TypeManager keeps the type definitions anyway (so unloading them saves nothing, and a reload 
+ * would make a second copy). 
+ *
+ * Note that any changes made to a resource after it was loaded are lost when it is unloaded, so
+ * this is intended for contexts that treat the package content as read only (e.g. a long running
+ * validation service)
+ */
+public class CanonicalResourceEvictionPolicy {
+
+  private final Set<CanonicalResourceManager<?>.CachedCanonicalResource<?>> loaded = ConcurrentHashMap.newKeySet();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder reloads = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private volatile int maxLoaded;
+  private volatile int releaseCount;
+
+  /**
+   * @param maxLoaded the maximum number of unpinned resources to keep loaded. 0 means no limit
+   */
+  public CanonicalResourceEvictionPolicy(int maxLoaded) {
+    this.maxLoaded = maxLoaded;
+  }
+
+  void hit(CanonicalResourceManager<?>.CachedCanonicalResource<?> cr) {
+    hits.increment();
+    cr.setLastUsed(System.nanoTime());
+  }
+
+  void loaded(CanonicalResourceManager<?>.CachedCanonicalResource<?> cr, boolean reload) {
+    misses.increment();
+    if (reload) {
+      reloads.increment();
+    }
+    cr.setLastUsed(System.nanoTime());
+    if (isPinned(cr)) {
+      return;
+    }
+    loaded.add(cr);
+    int max = maxLoaded;
+    if (max > 0 && loaded.size() > max) {
+      evict(max);
+    }
+  }
+
+  private boolean isPinned(CanonicalResourceManager<?>.CachedCanonicalResource<?> cr) {
+    return cr.isPinned() || cr.isStructureDefinition();
+  }
+
+  private synchronized void evict(int max) {
+    if (loaded.size() <= max) {
+      return; // another thread got here first
+    }
+    int target = max - max / 10;
+    List<CanonicalResourceManager<?>.CachedCanonicalResource<?>> list = new ArrayList<>(loaded);
+    list.sort((cr1, cr2) -> Long.compare(cr1.getLastUsed(), cr2.getLastUsed()));
+    boolean released = false;
+    for (int i = 0; i < list.size() && loaded.size() > target; i++) {
+      CanonicalResourceManager<?>.CachedCanonicalResource<?> cr = list.get(i);
+      loaded.remove(cr);
+      if (!isPinned(cr) && cr.release()) {
+        evictions.increment();
+        released = true;
+      }
+    }
+    if (released) {
+      releaseCount++;
+    }
+  }
+
+  /**
+   * Changes each time resources are unloaded. Caches that hold on to parts of the loaded
+   * resources (e.g. ProfileUtilities.getPropertyCache()) check this and drop their content 
+   * when it changes, so that they don't keep the unloaded resources on the heap
+   */
+  public int getReleaseCount() {
+    return releaseCount;
+  }
+
+  public int getMaxLoaded() {
+    return maxLoaded;
+  }
+
+  /**
+   * @param maxLoaded the maximum number of unpinned resources to keep loaded. 0 means no limit
+   */
+  public void setMaxLoaded(int maxLoaded) {
+    this.maxLoaded = maxLoaded;
+    if (maxLoaded > 0 && loaded.size() > maxLoaded) {
+      evict(maxLoaded);
+    }
+  }
+
+  /**
+   * @return the number of unpinned resources that are currently loaded
+   */
+  public int getLoadedCount() {
+    return loaded.size();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return the number of times a resource was loaded again after it was unloaded
+   */
+  public long getReloads() {
+    return reloads.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public void resetStatistics() {
+    hits.reset();
+    misses.reset();
+    reloads.reset();
+    evictions.reset();
+  }
+
+  public String summary() {
+    return "Canonical resources: "+loaded.size()+"/"+maxLoaded+" loaded, "+getHits()+" hits, "+getMisses()+" misses, "
+        +getReloads()+" reloads, "+getEvictions()+" evictions";
+  }
+}
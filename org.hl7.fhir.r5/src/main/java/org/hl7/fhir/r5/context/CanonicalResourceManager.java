@@ -156,9 +156,12 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
   public class CachedCanonicalResource<T1 extends CanonicalResource> {
-    private T1 resource;
+    private volatile T1 resource;
     private CanonicalResourceProxy proxy;
     private PackageInformation packageInfo;
+    private volatile long lastUsed; // for the eviction policy
+    private volatile boolean pinned;
+    private boolean unloaded;
 
     public CachedCanonicalResource(T1 resource, PackageInformation packageInfo) {
       super();
@@ -173,39 +176,63 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     }
     
     public T1 getResource() {
-      if (resource == null) {
-        @SuppressWarnings("unchecked")
-        T1 res = (T1) proxy.getResource();
-        if (res == null) {
-          throw new Error("Proxy loading a resource from "+packageInfo+" failed and returned null");
-        }
+      T1 res = resource;
+      CanonicalResourceEvictionPolicy policy = evictionPolicy;
+      if (res == null) {
+        boolean reload;
         synchronized (this) {
-          resource = res;
+          res = resource;
+          if (res != null) {
+            return res;
+          }
+          @SuppressWarnings("unchecked")
+          T1 loaded = (T1) proxy.getResource();
+          if (loaded == null) {
+            throw new Error("Proxy loading a resource from "+packageInfo+" failed and returned null");
+          }
+          loaded.setSourcePackage(packageInfo);
+          resource = loaded;
+          res = loaded;
+          reload = unloaded;
+          if (!frozen && policy == null) {
+            // once frozen, other threads may still be reading the proxy for url/version etc
+            // and if there's an eviction policy, the proxy is needed to load the resource again
+            proxy = null;
+          }
+        }
+        if (policy != null) {
+          // not while holding the lock, since the policy may unload other resources 
+          policy.loaded(this, reload);
         }
-        resource.setSourcePackage(packageInfo);
-        proxy = null;
+      } else if (policy != null && proxy != null) {
+        policy.hit(this);
       }
-      return resource;
+      return res;
     }
     
     public PackageInformation getPackageInfo() {
       return packageInfo;
     }
     public String getUrl() {
-      return resource != null ? resource.getUrl() : proxy.getUrl();
+      T1 res = resource;
+      return res != null ? res.getUrl() : proxy.getUrl();
     }
     public String getId() {
-      return resource != null ? resource.getId() : proxy.getId();
+      T1 res = resource;
+      return res != null ? res.getId() : proxy.getId();
     }
     public String getVersion() {
-      return resource != null ? resource.getVersion() : proxy.getVersion();
+      T1 res = resource;
+      return res != null ? res.getVersion() : proxy.getVersion();
     }
     public boolean hasVersion() {
-      return resource != null ? resource.hasVersion() : proxy.getVersion() != null;
+      T1 res = resource;
+      return res != null ? res.hasVersion() : proxy.getVersion() != null;
     }
     public String getContent() {
-      if (this.resource instanceof CodeSystem) {
-        CodeSystemContentMode cnt = ((CodeSystem) resource).getContent();
+      T1 res = resource;
+      if (res instanceof CodeSystem) {
+        CodeSystemContentMode cnt = ((CodeSystem) res).getContent();
         return cnt == null ? null : cnt.toCode();
       } else if (proxy != null) {
         return proxy.getContent();
@@ -216,30 +243,75 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
     
     @Override
     public String toString() {
-      return resource != null ? resource.fhirType()+"/"+resource.getId()+"["+resource.getUrl()+"|"+resource.getVersion()+"]" : proxy.toString();
+      T1 res = resource;
+      return res != null ? res.fhirType()+"/"+res.getId()+"["+res.getUrl()+"|"+res.getVersion()+"]" : proxy.toString();
     }
 
     public String supplements() {
-      if (resource == null) {
+      T1 res = resource;
+      if (res == null) {
         return proxy.getSupplements(); 
       } else {
-        return resource instanceof CodeSystem ? ((CodeSystem) resource).getSupplements() : null;
+        return res instanceof CodeSystem ? ((CodeSystem) res).getSupplements() : null;
       }
     }
 
     public Object getDerivation() {
-      if (resource == null) {
+      T1 res = resource;
+      if (res == null) {
         return proxy.getDerivation(); 
       } else {
-        return resource instanceof StructureDefinition ? ((StructureDefinition) resource).getDerivationElement().primitiveValue() : null;
+        return res instanceof StructureDefinition ? ((StructureDefinition) res).getDerivationElement().primitiveValue() : null;
       }
     }
 
     public void unload() {
-      if (proxy != null) {
-        resource = null;
+      if (proxy != null && !frozen) {
+        release();
       }      
     }  
+
+    /**
+     * drops the loaded resource, so that it is loaded from the proxy again next time it is used. 
+     * Unlike unload(), this works on a frozen manager, since the proxy is kept once frozen
+     */
+    synchronized boolean release() {
+      if (proxy == null || resource == null) {
+        return false;
+      }
+      resource = null;
+      proxy.setResource(null);
+      unloaded = true;
+      return true;
+    }
+
+    boolean isLoaded() {
+      return resource != null;
+    }
+
+    boolean isStructureDefinition() {
+      T1 res = resource;
+      return res != null ? res instanceof StructureDefinition : proxy != null && "StructureDefinition".equals(proxy.getType());
+    }
+
+    long getLastUsed() {
+      return lastUsed;
+    }
+
+    void setLastUsed(long lastUsed) {
+      this.lastUsed = lastUsed;
+    }
+
+    /**
+     * A pinned resource is never unloaded by the eviction policy
+     */
+    public boolean isPinned() {
+      return pinned;
+    }
+
+    public void setPinned(boolean pinned) {
+      this.pinned = pinned;
+    }
   }
 
   public class MetadataResourceVersionComparator<T1 extends CachedCanonicalResource<T>> implements Comparator<T1> {
@@ -291,6 +363,8 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   private Map<String, CachedCanonicalResource<T>> map;
   private Map<String, List<CachedCanonicalResource<T>>> supplements; // general index based on CodeSystem.supplements
   private String version; // for debugging purposes
+  private volatile boolean frozen; // see freeze()
+  private volatile CanonicalResourceEvictionPolicy evictionPolicy; // see setEvictionPolicy()
   
   
   public CanonicalResourceManager(boolean enforceUniqueId, boolean minimalMemory) {
@@ -315,7 +389,40 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
 
+  /**
+   * Once frozen, the content of the manager can no longer be changed, and the 
+   * indexes can be read by multiple threads without locking. Resources that are 
+   * still deferred are loaded on demand, once, under a lock on the cached entry
+   */
+  public void freeze() {
+    frozen = true;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  public CanonicalResourceEvictionPolicy getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  /**
+   * If there is an eviction policy, resources that are loaded on demand from a proxy 
+   * may be unloaded again when the policy decides there are too many loaded. Resources 
+   * that were added directly (not by proxy) are never unloaded
+   */
+  public void setEvictionPolicy(CanonicalResourceEvictionPolicy evictionPolicy) {
+    this.evictionPolicy = evictionPolicy;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new FHIRException("Unable to change the content of a frozen resource manager"+(version == null ? "" : " ("+version+")"));
+    }
+  }
+
   public void copy(CanonicalResourceManager<T> source) {
+    checkNotFrozen();
     list.clear();
     map.clear();
     list.addAll(source.list);
@@ -323,6 +430,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
   
   public void register(CanonicalResourceProxy r, PackageInformation packgeInfo) {
+    checkNotFrozen();
     if (!r.hasId()) {
       throw new FHIRException("An id is required for a deferred load resource");
     }
@@ -341,6 +449,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
 
   public void see(CachedCanonicalResource<T> cr) {
+    checkNotFrozen();
     // -- 1. exit conditions -----------------------------------------------------------------------------
 
     // ignore UTG NUCC erroneous code system
@@ -446,6 +555,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
 
 
   public void drop(CachedCanonicalResource<T> cr) {
+    checkNotFrozen();
     while (map.values().remove(cr)); 
     while (listForId.values().remove(cr)); 
     while (listForUrl.values().remove(cr)); 
@@ -701,6 +811,7 @@ public class CanonicalResourceManager<T extends CanonicalResource> {
   }
   
   public void clear() {
+    checkNotFrozen();
     list.clear();
     map.clear();
     
@@ -1,5 +1,6 @@
 package org.hl7.fhir.r5.context;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -56,6 +57,7 @@ public class ContextUtilities implements ProfileKnowledgeProvider {
   private List<String> concreteResourceNames;
   private Set<String> concreteResourceNameSet;
   private List<String> suppressedMappings;
+  private SnapshotCache snapshotCache;
 
   public ContextUtilities(IWorkerContext context) {
     super();
@@ -69,6 +71,17 @@ public class ContextUtilities implements ProfileKnowledgeProvider {
     this.suppressedMappings = suppressedMappings;
   }
 
+  public SnapshotCache getSnapshotCache() {
+    return snapshotCache;
+  }
+
+  /**
+   * if set, generated snapshots are looked up in and stored to this cache
+   */
+  public void setSnapshotCache(SnapshotCache snapshotCache) {
+    this.snapshotCache = snapshotCache;
+  }
+
   @Deprecated
   public boolean isSuppressDebugMessages() {
     return false;
@@ -274,6 +287,19 @@ public class ContextUtilities implements ProfileKnowledgeProvider {
       if (sd == null) {
         throw new DefinitionException(context.formatMessage(I18nConstants.PROFILE___BASE__COULD_NOT_BE_RESOLVED, p.getName(), p.getUrl(), p.getBaseDefinition()));
       }
+      String cacheKey = null;
+      // publication renders the profiles, and the renderers need the user data a cached snapshot doesn't have
+      if (snapshotCache != null && !p.hasSnapshot() && !context.isForPublication()) {
+        try {
+          cacheKey = snapshotCache.key(context, p, sd, context.isForPublication(), suppressedMappings);
+        } catch (IOException e) {
+          log.warn("Unable to make a snapshot cache key for "+p.getVersionedUrl()+": "+e.getMessage());
+        }
+        if (cacheKey != null && snapshotCache.fetch(cacheKey, p)) {
+          p.setGeneratedSnapshot(true);
+          return;
+        }
+      }
       List<ValidationMessage> msgs = new ArrayList<ValidationMessage>();
       List<String> errors = new ArrayList<String>();
       ProfileUtilities pu = new ProfileUtilities(context, msgs, this);
@@ -304,13 +330,43 @@ public class ContextUtilities implements ProfileKnowledgeProvider {
       }
       if (!p.hasSnapshot())
         throw new FHIRException(context.formatMessage(I18nConstants.PROFILE___ERROR_GENERATING_SNAPSHOT, p.getName(), p.getUrl()));
+      if (cacheKey != null && !hasErrors(msgs)) {
+        snapshotCache.store(cacheKey, p);
+      }
       pu = null;
     }
     p.setGeneratedSnapshot(true);
   }
   
 
+  private boolean hasErrors(List<ValidationMessage> msgs) {
+    for (ValidationMessage msg : msgs) {
+      if (msg.isError()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   // work around the fact that some Implementation guides were published with old snapshot generators that left invalid snapshots behind.
+  /**
+   * A snapshot that came from the snapshot cache doesn't have the user data that snapshot generation
+   * leaves on the elements for the renderers. Generate it again (without the cache) before rendering
+   */
+  public void regenerateCachedSnapshot(StructureDefinition p) throws DefinitionException, FHIRException {
+    if (p.hasUserData(UserDataNames.SNAPSHOT_FROM_CACHE)) {
+      p.clearUserData(UserDataNames.SNAPSHOT_FROM_CACHE);
+      p.setSnapshot(null);
+      SnapshotCache cache = snapshotCache;
+      snapshotCache = null;
+      try {
+        generateSnapshot(p);
+      } finally {
+        snapshotCache = cache;
+      }
+    }
+  }
+
   private boolean isProfileNeedsRegenerate(StructureDefinition p) {
     boolean needs = !p.hasUserData(UserDataNames.SNAPSHOT_regeneration_tracker) && Utilities.existsInList(p.getUrl(), "http://hl7.org/fhir/uv/sdc/StructureDefinition/sdc-questionnaireresponse");
     if (needs) {
@@ -123,4 +123,14 @@ public interface IContextResourceLoader {
    * @return
    */
   PackageResourceLoader editInfo(PackageResourceLoader pri);
+
+  /**
+   * whether loadBundle() can be called from more than one thread at once. If it can, packages that 
+   * are loaded in full are parsed in parallel (see SimpleWorkerContext.setParallelLoading())
+   * 
+   * @return
+   */
+  default boolean isThreadSafe() {
+    return false;
+  }
 }
\ No newline at end of file
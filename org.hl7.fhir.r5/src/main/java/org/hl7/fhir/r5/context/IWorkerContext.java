@@ -644,6 +644,23 @@ public interface IWorkerContext {
   public void validateCodeBatch(ValidationOptions options, List<? extends CodingValidationRequest> codes, ValueSet vs);
   public void validateCodeBatchByRef(ValidationOptions options, List<? extends CodingValidationRequest> codes, String vsUrl);
 
+  /**
+   * Get ready for a set of validateCode calls that are about to be made - the Coding (or CodeableConcept) 
+   * in each request, against the vsObj in the request (or on its own). Anything that can't be answered 
+   * locally or from the cache is sent to the terminology server(s) in a few batches, and the answers are 
+   * kept, so that when validateCode is called with the same parameters, it doesn't need to go to the server. 
+   * 
+   * Nothing is reported; if this fails, validateCode will just go to the server as usual. By default, this 
+   * does nothing, and returns 0
+   * 
+   * @param options - validation options (as they will be passed to validateCode)
+   * @param codes
+   * @return the number of requests sent to the server
+   */
+  public default int prefetchValidateCode(ValidationOptions options, List<? extends CodingValidationRequest> codes) {
+    return 0;
+  }
+
 
   // todo: figure these out
   public Map<String, NamingSystem> getNSUrlMap();
@@ -774,6 +791,11 @@ public interface IWorkerContext {
   public boolean isForPublication();
   public void setForPublication(boolean value);
 
+  /**
+   * @return true if the definitions in the context are frozen, and resources can no longer be cached in it
+   */
+  public boolean isFrozen();
+
   /**
    * 
    * @param oid
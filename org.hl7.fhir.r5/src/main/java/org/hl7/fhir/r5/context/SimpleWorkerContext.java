@@ -30,6 +30,7 @@ package org.hl7.fhir.r5.context;
  */
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -41,6 +42,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -195,6 +198,7 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
   private boolean canNoTS;
   private XVerExtensionManager xverManager;
   private boolean allowLazyLoading = true;
+  private boolean parallelLoading = true;
   private List<String> suppressedMappings;
 
   private SimpleWorkerContext() throws IOException, FHIRException {
@@ -227,9 +231,36 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     canNoTS = other.canNoTS;
     xverManager = other.xverManager;
     allowLazyLoading = other.allowLazyLoading;
+    parallelLoading = other.parallelLoading;
     questionnaire = other.questionnaire;
   }
 
+  private SimpleWorkerContext(SimpleWorkerContext frozen, TimeTracker clock) throws IOException, FHIRException {
+    super(frozen, clock);
+    revision = frozen.revision;
+    date = frozen.date;
+    validatorFactory = frozen.validatorFactory;
+    progress = frozen.progress;
+    loadedPackages.addAll(frozen.loadedPackages);
+    canNoTS = frozen.canNoTS;
+    xverManager = frozen.xverManager;
+    allowLazyLoading = frozen.allowLazyLoading;
+    parallelLoading = frozen.parallelLoading;
+    questionnaire = frozen.questionnaire;
+    suppressedMappings = frozen.suppressedMappings;
+  }
+
+  /**
+   * Get a lightweight overlay on this context for use by a single thread. Unlike the copy 
+   * constructor, this doesn't copy the definitions, it shares them, so the context must 
+   * be frozen first (see {@link #freeze()})
+   * 
+   * @param clock - the time tracker for the overlay, or null to create a new one
+   */
+  public SimpleWorkerContext overlay(TimeTracker clock) throws IOException, FHIRException {
+    return new SimpleWorkerContext(this, clock == null ? new TimeTracker() : clock);
+  }
+
 
   public List<String> getLoadedPackages() {
     return loadedPackages;
@@ -327,6 +358,24 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
       return build(context);
     }
 
+    /**
+     * Load the working context from an image written by SimpleWorkerContext.saveImage()
+     *
+     * @param loader the loader for the FHIR version of the image. The resources in the image have already
+     *   been converted, so this is only used for the terminology client factory
+     */
+    public SimpleWorkerContext fromImage(File image, IContextResourceLoader loader) throws IOException, FHIRException {
+      SimpleWorkerContext context = getSimpleWorkerContextInstance();
+      context.setAllowLoadingDuplicates(allowLoadingDuplicates);
+      context.terminologyClientManager.setFactory(loader == null ? TerminologyClientR5.factory() : loader.txFactory());
+      context.loadImage(image);
+      context.finishLoading(false);
+      if (defaultExpParams) {
+        context.setExpansionParameters(makeExpProfile());
+      }
+      return build(context);
+    }
+
     /**
      * Load the working context from the validation pack
      *
@@ -453,6 +502,10 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
   }
   
 	public Resource loadFromFile(InputStream stream, String name, IContextResourceLoader loader, ILoadFilter filter) throws FHIRException {
+	  return registerFromFile(parseFile(stream, name, loader), name, loader, filter);
+	}
+
+  private Resource parseFile(InputStream stream, String name, IContextResourceLoader loader) throws FHIRException {
 		Resource f;
 		try {
 		  if (loader != null)
@@ -466,6 +519,10 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     } catch (Exception e1) {
 			throw new org.hl7.fhir.exceptions.FHIRFormatError(formatMessage(I18nConstants.ERROR_PARSING_, name, e1.getMessage()), e1);
 		}
+		return f;
+  }
+
+  private Resource registerFromFile(Resource f, String name, IContextResourceLoader loader, ILoadFilter filter) throws FHIRException {
 		if (f instanceof Bundle) {
 		  Bundle bnd = (Bundle) f;
 		  for (BundleEntryComponent e : bnd.getEntry()) {
@@ -493,22 +550,31 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
 	}
 
   private Resource loadFromFileJson(InputStream stream, String name, IContextResourceLoader loader, ILoadFilter filter, PackageInformation pi) throws IOException, FHIRException {
-    Bundle f = null;
+    return registerFromFileJson(parseFileJson(stream, loader), loader, filter, pi);
+  }
+
+  private Resource parseFileJson(InputStream stream, IContextResourceLoader loader) throws IOException, FHIRException {
     try {
       if (loader != null)
-        f = loader.loadBundle(stream, true);
+        return loader.loadBundle(stream, true);
       else {
         JsonParser json = new JsonParser();
-        Resource r = json.parse(stream);
-        if (r instanceof Bundle)
-          f = (Bundle) r;
-        else if (filter == null || filter.isOkToLoad(f)) {
-          cacheResourceFromPackage(r, pi);
-        }
+        return json.parse(stream);
       }
     } catch (FHIRFormatError e1) {
       throw new org.hl7.fhir.exceptions.FHIRFormatError(e1.getMessage(), e1);
     }
+  }
+
+  private Resource registerFromFileJson(Resource r, IContextResourceLoader loader, ILoadFilter filter, PackageInformation pi) throws IOException, FHIRException {
+    Bundle f = null;
+    if (loader != null)
+      f = (Bundle) r;
+    else if (r instanceof Bundle)
+      f = (Bundle) r;
+    else if (filter == null || filter.isOkToLoad(f)) {
+      cacheResourceFromPackage(r, pi);
+    }
     if (f != null)
       for (BundleEntryComponent e : f.getEntry()) {
         if (filter == null || filter.isOkToLoad(e.getResource())) {
@@ -552,23 +618,117 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     return loadFromPackageAndDependenciesInt(pi, loader, pcm, pi.name()+"#"+pi.version());
   }
   public int loadFromPackageAndDependenciesInt(NpmPackage pi, IContextResourceLoader loader, BasePackageCacheManager pcm, String path) throws IOException, FHIRException {
+    // work out the order first (dependencies before the packages that use them), so that all the packages 
+    // can be parsed at the same time, and then registered one at a time in that order
+    List<NpmPackage> packages = new ArrayList<>();
+    List<IContextResourceLoader> loaders = new ArrayList<>();
+    listPackageAndDependencies(pi, loader, pcm, path, new HashSet<>(), packages, loaders);
+
+    List<PackageParse> parses = new ArrayList<>();
+    for (int i = 0; i < packages.size(); i++) {
+      parses.add(startParsing(packages.get(i), loaders.get(i), loaders.get(i).getTypes()));
+    }
     int t = 0;
+    for (int i = 0; i < packages.size(); i++) {
+      t = t + loadFromPackageInt(packages.get(i), loaders.get(i), loaders.get(i).getTypes(), parses.get(i));
+    }
+    return t;
+  }
 
+  private void listPackageAndDependencies(NpmPackage pi, IContextResourceLoader loader, BasePackageCacheManager pcm, String path, Set<String> seen,
+      List<NpmPackage> packages, List<IContextResourceLoader> loaders) throws IOException {
     for (String e : pi.dependencies()) {
-      if (!loadedPackages.contains(e) && !VersionUtilities.isCorePackage(e)) {
+      if (!loadedPackages.contains(e) && !VersionUtilities.isCorePackage(e) && seen.add(e)) {
         NpmPackage npm = pcm.loadPackage(e);
         if (!VersionUtilities.versionsMatch(version, npm.fhirVersion())) {
           log.info(formatMessage(I18nConstants.PACKAGE_VERSION_MISMATCH, e, version, npm.fhirVersion(), path));
         }
-        t = t + loadFromPackageAndDependenciesInt(npm, loader.getNewLoader(npm), pcm, path+" -> "+npm.name()+"#"+npm.version());
+        listPackageAndDependencies(npm, loader.getNewLoader(npm), pcm, path+" -> "+npm.name()+"#"+npm.version(), seen, packages, loaders);
       }
     }
-    t = t + loadFromPackageInt(pi, loader, loader.getTypes());
-    return t;
+    packages.add(pi);
+    loaders.add(loader);
+  }
+
+  private static class ParsedItem {
+    private Resource resource;
+    private Exception error;
+  }
+
+  /**
+   * The resources of a package that is loaded in full, being parsed on the fork-join pool
+   */
+  private static class PackageParse {
+    private final List<String> names;
+    private final List<ForkJoinTask<ParsedItem>> items = new ArrayList<>(); // null for items that aren't parsed
+
+    private PackageParse(List<String> names) {
+      this.names = names;
+    }
+
+    private ParsedItem get(int i) {
+      ForkJoinTask<ParsedItem> task = items.get(i);
+      return task == null ? null : task.join();
+    }
+  }
+
+  private boolean isLoadedInFull(NpmPackage pi) throws IOException {
+    // can't lazy load R2 because of valueset/codesystem implementation
+    return VersionUtilities.isR2Ver(pi.fhirVersion()) || !pi.canLazyLoad() || !allowLazyLoading;
+  }
+
+  private Set<String> typesToLoadInFull(Set<String> types, IContextResourceLoader loader) {
+    if ((types == null || types.size() == 0) &&  loader != null) {
+      types = loader.getTypes();
+    }
+    if (types == null || types.size() == 0) {
+      types = Utilities.stringSet("ImplementationGuide", "StructureDefinition", "ValueSet", "SearchParameter", "OperationDefinition", "Questionnaire", "ConceptMap", "StructureMap", "NamingSystem" );
+    }
+    return types;
+  }
+
+  /**
+   * @return the parse, or null if the package isn't parsed in parallel (lazy loaded, already loaded, or the loader isn't thread safe)
+   */
+  private PackageParse startParsing(NpmPackage pi, IContextResourceLoader loader, Set<String> types) throws IOException {
+    if (!parallelLoading || !isLoadedInFull(pi) || (loader != null && !loader.isThreadSafe()) || loadedPackages.contains(pi.id()+"#"+pi.version())) {
+      return null;
+    }
+    PackageParse parse = new PackageParse(pi.listResources(typesToLoadInFull(types, loader)));
+    for (String s : parse.names) {
+      if (s.endsWith(".json") || s.endsWith(".xml")) {
+        parse.items.add(ForkJoinPool.commonPool().submit(() -> parseDefinitionItem(pi, s, loader)));
+      } else {
+        parse.items.add(null);
+      }
+    }
+    return parse;
+  }
+
+  private ParsedItem parseDefinitionItem(NpmPackage pi, String name, IContextResourceLoader loader) {
+    ParsedItem item = new ParsedItem();
+    try {
+      InputStream stream = pi.load("package", name);
+      item.resource = name.endsWith(".xml") ? parseFile(stream, name, loader) : parseFileJson(stream, loader);
+    } catch (Exception e) {
+      item.error = e;
+    }
+    return item;
+  }
+
+  private Resource registerDefinitionItem(String name, ParsedItem item, IContextResourceLoader loader, ILoadFilter filter, PackageInformation pi) throws Exception {
+    if (item.error != null) {
+      throw item.error;
+    }
+    return name.endsWith(".xml") ? registerFromFile(item.resource, name, loader, filter) : registerFromFileJson(item.resource, loader, filter, pi);
   }
 
 
   public int loadFromPackageInt(NpmPackage pi, IContextResourceLoader loader, Set<String> types) throws IOException, FHIRException {
+    return loadFromPackageInt(pi, loader, types, null);
+  }
+
+  private int loadFromPackageInt(NpmPackage pi, IContextResourceLoader loader, Set<String> types, PackageParse parse) throws IOException, FHIRException {
     int t = 0;
     if (progress) {
       log.info("Load Package "+pi.name()+"#"+pi.version());
@@ -592,14 +752,17 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     }
     boolean hasIG = false;
     PackageInformation pii = new PackageInformation(pi);
-    if (VersionUtilities.isR2Ver(pi.fhirVersion()) || !pi.canLazyLoad() || !allowLazyLoading) {
-      // can't lazy load R2 because of valueset/codesystem implementation
-      if (types == null || types.size() == 0) {
-        types = Utilities.stringSet("ImplementationGuide", "StructureDefinition", "ValueSet", "SearchParameter", "OperationDefinition", "Questionnaire", "ConceptMap", "StructureMap", "NamingSystem" );
+    if (isLoadedInFull(pi)) {
+      types = typesToLoadInFull(types, loader);
+      if (parse == null) {
+        parse = startParsing(pi, loader, types);
       }
-      for (String s : pi.listResources(types)) {
+      List<String> names = parse == null ? pi.listResources(types) : parse.names;
+      for (int i = 0; i < names.size(); i++) {
+        String s = names.get(i);
         try {
-          Resource r = loadDefinitionItem(s, pi.load("package", s), loader, null, pii);
+          ParsedItem item = parse == null ? null : parse.get(i);
+          Resource r = item == null ? loadDefinitionItem(s, pi.load("package", s), loader, null, pii) : registerDefinitionItem(s, item, loader, null, pii);
           if (r != null) {
             hasIG = "ImplementationGuide".equals(r.fhirType()) || hasIG;
           }
@@ -661,6 +824,50 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
 	  return t;
 	}
 
+  /**
+   * Write an image of the resources loaded from packages into this context (see WorkerContextImage). 
+   * 
+   * All the resources are loaded and all the snapshots are generated first
+   */
+  public void saveImage(File file) throws IOException {
+    WorkerContextImage.save(this, file);
+  }
+
+  /**
+   * Load the resources in an image written by saveImage(). The resources are only parsed when they are used. 
+   * 
+   * @return the number of resources registered
+   */
+  public int loadImage(File file) throws IOException, FHIRException {
+    WorkerContextImage image = WorkerContextImage.read(file);
+    if (progress) {
+      log.info("Load Context Image "+file.getAbsolutePath()+": "+image.getResourceCount()+" resources from "+image.getLoadedPackages());
+    }
+    if (version == null) {
+      version = image.getVersion();
+    }
+    for (String p : image.getLoadedPackages()) {
+      if (!loadedPackages.contains(p)) {
+        loadedPackages.add(p);
+        if (packageTracker != null) {
+          packageTracker.packageLoaded(p.substring(0, p.indexOf("#")), p.substring(p.indexOf("#")+1));
+        }
+      }
+    }
+    for (String[] os : image.getOidSources()) {
+      oidSources.add(new OIDSource(os[0], os[1]));
+    }
+    binaries.putAll(image.getBinaries());
+    // the image was made from a context that accepted these resources, whatever its settings were
+    boolean dups = isAllowLoadingDuplicates();
+    setAllowLoadingDuplicates(true);
+    try {
+      return image.register(this);
+    } finally {
+      setAllowLoadingDuplicates(dups);
+    }
+  }
+
   private CanonicalResourceProxy makeIgResource(NpmPackage pi) {
     ImplementationGuide ig = new ImplementationGuide();
     ig.setId(pi.name());
@@ -833,7 +1040,9 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     if (r instanceof StructureDefinition) {
       StructureDefinition p = (StructureDefinition)r;
       try {
-        new ContextUtilities(this, suppressedMappings).generateSnapshot(p);
+        ContextUtilities cu = new ContextUtilities(this, suppressedMappings);
+        cu.setSnapshotCache(getSnapshotCache());
+        cu.generateSnapshot(p);
       } catch (Exception e) {
         // not sure what to do in this case?
         log.error("Unable to generate snapshot @3 for "+uri+": "+e.getMessage());
@@ -947,6 +1156,19 @@ public class SimpleWorkerContext extends BaseWorkerContext implements IWorkerCon
     this.allowLazyLoading = allowLazyLoading;
   }
 
+  public boolean isParallelLoading() {
+    return parallelLoading;
+  }
+
+  /**
+   * When packages are loaded in full (not lazily), whether the resources are parsed on the common 
+   * fork-join pool (as long as the loader is thread safe - see IContextResourceLoader.isThreadSafe()). 
+   * Either way, the resources are registered in the same order
+   */
+  public void setParallelLoading(boolean parallelLoading) {
+    this.parallelLoading = parallelLoading;
+  }
+
   public String loadedPackageSummary() {
      return loadedPackages.toString();
   }
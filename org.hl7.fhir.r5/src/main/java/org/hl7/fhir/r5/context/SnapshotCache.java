@@ -0,0 +1,220 @@
+package org.hl7.fhir.r5.context;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.CanonicalType;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.ElementDefinition.TypeRefComponent;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.utils.UserDataNames;
+import org.hl7.fhir.utilities.FileUtilities;
+import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.VersionUtil;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+import org.hl7.fhir.utilities.npm.FilesystemPackageCacheManagerLocks;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An on-disk cache of generated snapshots, kept in a 'snapshots' folder in the package cache.
+ *
+ * Entries are content addressed: the key is a hash of the profile as it was loaded (without a snapshot),
+ * the url, version and date of the base definition (and the key of the base, if its snapshot was generated
+ * too), the same for the types and profiles (including extension definitions) that the differential uses,
+ * along with their differentials, the generation settings, and the version of this library. So a changed
+ * profile, dependency or tool just misses the cache, and there's nothing to invalidate. The folder is removed with the rest of the
+ * package cache when the cache is cleared.
+ *
+ * Only snapshots that were generated without errors are stored. The folder is shared with other processes
+ * using the same package cache, so reads and writes are done under the package cache locks, and entries
+ * are written to a temporary file and then moved into place.
+ *
+ * A cached snapshot doesn't have the user data that snapshot generation leaves on the elements for the
+ * renderers (e.g. SNAPSHOT_DERIVATION_POINTER), so fetched profiles are marked with SNAPSHOT_FROM_CACHE, 
+ * and the cache isn't used when generating for publication
+ */
+@Slf4j
+@MarkedToMoveToAdjunctPackage
+public class SnapshotCache {
+
+  private static final int FORMAT_VERSION = 2;
+  private static final String FOLDER = "snapshots";
+
+  private final File folder;
+  private final FilesystemPackageCacheManagerLocks locks;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder stores = new LongAdder();
+
+  /**
+   * @param packageCacheFolder the folder of the package cache (FilesystemPackageCacheManager.getFolder())
+   */
+  public SnapshotCache(String packageCacheFolder) throws IOException {
+    File cacheFolder = ManagedFileAccess.file(packageCacheFolder);
+    this.folder = ManagedFileAccess.file(Utilities.path(packageCacheFolder, FOLDER));
+    this.locks = FilesystemPackageCacheManagerLocks.getFilesystemPackageCacheManagerLocks(cacheFolder);
+  }
+
+  public File getFolder() {
+    return folder;
+  }
+
+  /**
+   * @return the key for the snapshot of the profile, which must not have a snapshot yet
+   */
+  public String key(IWorkerContext context, StructureDefinition profile, StructureDefinition base, boolean forPublication, List<String> suppressedMappings) throws IOException {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      StringBuilder b = new StringBuilder();
+      b.append("snapshot-").append(FORMAT_VERSION).append("|").append(VersionUtil.getVersion());
+      b.append("|").append(forPublication).append("|").append(suppressedMappings);
+      b.append("|").append(base.getUrl()).append("|").append(base.getVersion()).append("|").append(base.getDateElement().asStringValue());
+      b.append("|").append(base.getUserString(UserDataNames.SNAPSHOT_CACHE_KEY));
+      md.update(b.toString().getBytes(StandardCharsets.UTF_8));
+      md.update(new JsonParser().composeBytes(profile));
+      for (String url : dependencies(profile)) {
+        StructureDefinition sd = context == null ? null : context.fetchResource(StructureDefinition.class, url);
+        md.update(("|"+url).getBytes(StandardCharsets.UTF_8));
+        if (sd != null) {
+          md.update(("|"+sd.getVersion()+"|"+sd.getDateElement().asStringValue()+"|"+sd.getUserString(UserDataNames.SNAPSHOT_CACHE_KEY)).getBytes(StandardCharsets.UTF_8));
+          if (sd.hasDifferential()) {
+            StructureDefinition diff = new StructureDefinition();
+            diff.setDifferential(sd.getDifferential());
+            md.update(new JsonParser().composeBytes(diff));
+          }
+        }
+      }
+      StringBuilder key = new StringBuilder();
+      for (byte v : md.digest()) {
+        key.append(Character.forDigit((v >> 4) & 0xF, 16));
+        key.append(Character.forDigit(v & 0xF, 16));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * The types and profiles the differential refers to. Snapshot generation reads the definitions of 
+   * these (e.g. extension definitions for slices on extensions), so they change the snapshot too
+   */
+  private Set<String> dependencies(StructureDefinition profile) {
+    Set<String> res = new TreeSet<>();
+    for (ElementDefinition ed : profile.getDifferential().getElement()) {
+      for (TypeRefComponent tr : ed.getType()) {
+        if (tr.hasCode()) {
+          res.add(Utilities.isAbsoluteUrl(tr.getWorkingCode()) ? tr.getWorkingCode() : "http://hl7.org/fhir/StructureDefinition/"+tr.getWorkingCode());
+        }
+        for (CanonicalType ct : tr.getProfile()) {
+          if (ct.hasValue()) {
+            res.add(ct.getValue());
+          }
+        }
+      }
+    }
+    return res;
+  }
+
+  private File entry(String key) throws IOException {
+    return ManagedFileAccess.file(Utilities.path(folder.getAbsolutePath(), key.substring(0, 2), key+".json"));
+  }
+
+  /**
+   * If there's an entry for the key, replace the snapshot and differential of the profile with the cached ones.
+   *
+   * @return true if the entry was found
+   */
+  public boolean fetch(String key, StructureDefinition profile) {
+    try {
+      File f = entry(key);
+      byte[] content = locks.getPackageLock(FOLDER).doReadWithLock(() -> f.exists() ? FileUtilities.fileToBytes(f) : null, null);
+      if (content == null) {
+        misses.increment();
+        return false;
+      }
+      StructureDefinition sd = (StructureDefinition) new JsonParser().setStreaming(true).parse(content);
+      profile.setDifferential(sd.getDifferential());
+      profile.setSnapshot(sd.getSnapshot());
+      profile.setUserData(UserDataNames.SNAPSHOT_CACHE_KEY, key);
+      profile.setUserData(UserDataNames.SNAPSHOT_FROM_CACHE, true);
+      hits.increment();
+      return true;
+    } catch (Exception e) {
+      // the cache is only an optimisation, so any problem with it is a miss
+      log.warn("Unable to read snapshot cache entry "+key+" for "+profile.getVersionedUrl()+": "+e.getMessage());
+      misses.increment();
+      return false;
+    }
+  }
+
+  /**
+   * Store the snapshot (and differential) of the profile under the key
+   */
+  public void store(String key, StructureDefinition profile) {
+    profile.setUserData(UserDataNames.SNAPSHOT_CACHE_KEY, key);
+    try {
+      StructureDefinition sd = new StructureDefinition();
+      sd.setUrl(profile.getUrl());
+      sd.setVersion(profile.getVersion());
+      sd.setDifferential(profile.getDifferential());
+      sd.setSnapshot(profile.getSnapshot());
+      byte[] content = new JsonParser().composeBytes(sd);
+      File f = entry(key);
+      locks.getPackageLock(FOLDER).doWriteWithLock(() -> {
+        if (!f.exists()) {
+          FileUtilities.createDirectory(f.getParent());
+          File tmp = ManagedFileAccess.file(f.getAbsolutePath()+".tmp");
+          FileUtilities.bytesToFile(content, tmp);
+          try {
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE);
+          } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+          }
+        }
+        return null;
+      }, null);
+      stores.increment();
+    } catch (Exception e) {
+      log.warn("Unable to write snapshot cache entry "+key+" for "+profile.getVersionedUrl()+": "+e.getMessage());
+    }
+  }
+
+  public void clear() throws IOException {
+    locks.getPackageLock(FOLDER).doWriteWithLock(() -> {
+      if (folder.exists()) {
+        FileUtilities.clearDirectory(folder.getAbsolutePath());
+      }
+      return null;
+    }, null);
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getStores() {
+    return stores.sum();
+  }
+
+  public String summary() {
+    return "Snapshot cache: "+getHits()+" hits, "+getMisses()+" misses, "+getStores()+" stored";
+  }
+}
@@ -25,6 +25,7 @@ public class TypeManager {
   private Map<String, Set<StructureDefinition>> fhirTypeDefinitions = new HashMap<>();
   private Set<String> primitiveNames = new HashSet<>();
   private Set<String> dataTypeNames = new HashSet<>();
+  private volatile boolean frozen; // see freeze()
   
   public TypeManager(CanonicalResourceManager<StructureDefinition> structures) {
     super();
@@ -32,7 +33,25 @@ public class TypeManager {
     reload();
   }
 
+  /**
+   * after this, the type indexes are read only, and can be shared between threads
+   */
+  public void freeze() {
+    frozen = true;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new FHIRException("Unable to change the types of a frozen type manager");
+    }
+  }
+
   public void reload() {
+    checkNotFrozen();
     typeDefinitions.clear();
     primitiveNames.clear();
     dataTypeNames.clear();
@@ -54,6 +73,7 @@ public class TypeManager {
   }
 
   public void see(StructureDefinition sd) {
+    checkNotFrozen();
     if (sd.getDerivation() != TypeDerivationRule.CONSTRAINT && (sd.getSourcePackage() == null || !sd.getSourcePackage().isExamplesPackage())) {
       String type = sd.getType();
       Set<StructureDefinition> types = typeDefinitions.get(type);
@@ -135,7 +155,7 @@ public class TypeManager {
   }
 
   public void unload() {
-
+    checkNotFrozen();
     structures.unload();
     typeDefinitions.clear(); 
     fhirTypeDefinitions.clear();
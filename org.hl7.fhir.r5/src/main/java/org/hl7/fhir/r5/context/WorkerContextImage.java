@@ -0,0 +1,438 @@
+package org.hl7.fhir.r5.context;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.context.BaseWorkerContext.IByteProvider;
+import org.hl7.fhir.r5.context.CanonicalResourceManager.CanonicalResourceProxy;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.CanonicalResource;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.PackageInformation;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.utils.UserDataNames;
+import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.VersionUtil;
+import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
+
+/**
+ * A context image is a single file that holds everything a SimpleWorkerContext loaded from
+ * a set of packages, with the snapshots already generated, so that the next context for the
+ * same set of packages can be started without opening the packages at all.
+ *
+ * The file is memory mapped when it is read. Only the index is read up front - the proxies
+ * that are registered parse their resource from the mapped file when it is first used.
+ *
+ * The layout is:
+ *   header:  magic, format version
+ *   content: the resources (compact R5 JSON) and the binaries, one after the other
+ *   index:   fhir version, packages, oid sources, resources and binaries, with the offset and length of their content
+ *   trailer: offset of the index, magic
+ *
+ * An image is only valid for the exact set of packages it was built from, and for the version
+ * of this library that built it. Use imageFile() to find the image for a set of packages;
+ * the key in the name includes the library version
+ */
+@MarkedToMoveToAdjunctPackage
+public class WorkerContextImage {
+
+  private static final int MAGIC = 0x46484349; // FHCI
+  private static final int FORMAT_VERSION = 2;
+
+  private static final int FLAG_CUSTOM_RESOURCE = 1;
+  private static final int FLAG_FAKE_IG = 2;
+  private static final int FLAG_GENERATED_SNAPSHOT = 4;
+
+  private final File file;
+  private final ByteBuffer content;
+  private String version;
+  private final List<String> loadedPackages = new ArrayList<>();
+  private final List<String[]> oidSources = new ArrayList<>();
+  private final List<PackageInformation> packages = new ArrayList<>();
+  private final List<ImageResourceProxy> resources = new ArrayList<>();
+  private final Map<String, IByteProvider> binaries = new HashMap<>();
+
+  private WorkerContextImage(File file, ByteBuffer content) {
+    this.file = file;
+    this.content = content;
+  }
+
+  /**
+   * @return a key for the image for the given set of packages (id#version). The order of the packages doesn't matter
+   */
+  public static String key(Collection<String> packages) {
+    List<String> list = new ArrayList<>(packages);
+    Collections.sort(list);
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(("image-"+FORMAT_VERSION+"|"+VersionUtil.getVersion()).getBytes(StandardCharsets.UTF_8));
+      for (String s : list) {
+        md.update(("|"+s).getBytes(StandardCharsets.UTF_8));
+      }
+      StringBuilder b = new StringBuilder();
+      for (byte v : md.digest()) {
+        b.append(Character.forDigit((v >> 4) & 0xF, 16));
+        b.append(Character.forDigit(v & 0xF, 16));
+      }
+      return b.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error(e);
+    }
+  }
+
+  public static File imageFile(String folder, Collection<String> packages) throws IOException {
+    return ManagedFileAccess.file(Utilities.path(folder, "context-"+key(packages)+".image"));
+  }
+
+  // -- writing ---------------------------------------------------------------------------------
+
+  /**
+   * Write an image of all the resources in the context that were loaded from a package. Resources
+   * added directly to the context (without package information) are not included.
+   *
+   * All the resources are loaded, and all the snapshots generated, before the image is written,
+   * so this can take a while. The context must not be modified while the image is being written.
+   * The image is written to a temporary file first, so readers never see a partial image
+   */
+  public static void save(SimpleWorkerContext context, File file) throws IOException {
+    for (CanonicalResourceManager<?> manager : context.getResourceManagers()) {
+      for (CanonicalResourceManager<?>.CachedCanonicalResource<?> cr : manager.getCachedList()) {
+        if (cr.getPackageInfo() != null && cr.getResource() instanceof StructureDefinition) {
+          context.generateSnapshot((StructureDefinition) cr.getResource(), "image");
+        }
+      }
+    }
+
+    File tmp = ManagedFileAccess.file(file.getAbsolutePath()+".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(ManagedFileAccess.outStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+
+      Map<PackageInformation, Integer> packages = new IdentityHashMap<>();
+      List<PackageInformation> packageList = new ArrayList<>();
+      // the resource index is built in memory while the content is written, and written after the package list
+      ByteArrayOutputStream index = new ByteArrayOutputStream();
+      DataOutputStream ix = new DataOutputStream(index);
+      int count = 0;
+      JsonParser json = new JsonParser();
+      for (CanonicalResourceManager<?> manager : context.getResourceManagers()) {
+        for (CanonicalResourceManager<?>.CachedCanonicalResource<?> cr : manager.getCachedList()) {
+          PackageInformation pi = cr.getPackageInfo();
+          if (pi == null) {
+            continue;
+          }
+          Integer pii = packages.get(pi);
+          if (pii == null) {
+            pii = packageList.size();
+            packages.put(pi, pii);
+            packageList.add(pi);
+          }
+          CanonicalResource r = cr.getResource();
+          int offset = out.size();
+          out.write(json.composeBytes(r));
+          String supplements = null;
+          String content = null;
+          String derivation = null;
+          if (r instanceof CodeSystem) {
+            supplements = ((CodeSystem) r).getSupplements();
+            content = ((CodeSystem) r).getContentElement().asStringValue();
+          }
+          if (r instanceof StructureDefinition) {
+            derivation = ((StructureDefinition) r).getDerivationElement().asStringValue();
+          }
+          int flags = 0;
+          if ("true".equals(r.getUserString(UserDataNames.loader_custom_resource))) {
+            flags = flags | FLAG_CUSTOM_RESOURCE;
+          }
+          if (r.hasUserData(UserDataNames.IG_FAKE)) {
+            flags = flags | FLAG_FAKE_IG;
+          }
+          if (r instanceof StructureDefinition && ((StructureDefinition) r).isGeneratedSnapshot()) {
+            flags = flags | FLAG_GENERATED_SNAPSHOT;
+          }
+          writeString(ix, r.fhirType());
+          writeString(ix, cr.getId());
+          writeString(ix, cr.getUrl());
+          writeString(ix, cr.getVersion());
+          writeString(ix, supplements);
+          writeString(ix, derivation);
+          writeString(ix, content);
+          ix.writeInt(pii);
+          ix.writeInt(flags);
+          ix.writeInt(offset);
+          ix.writeInt(out.size() - offset);
+          count++;
+        }
+      }
+      ByteArrayOutputStream binaries = new ByteArrayOutputStream();
+      DataOutputStream bx = new DataOutputStream(binaries);
+      bx.writeInt(context.binaries.size());
+      for (Map.Entry<String, IByteProvider> e : context.binaries.entrySet()) {
+        int offset = out.size();
+        out.write(e.getValue().bytes());
+        bx.writeUTF(e.getKey());
+        bx.writeInt(offset);
+        bx.writeInt(out.size() - offset);
+      }
+
+      int indexOffset = out.size();
+      writeString(out, context.getVersion());
+      out.writeInt(context.getLoadedPackages().size());
+      for (String s : context.getLoadedPackages()) {
+        out.writeUTF(s);
+      }
+      out.writeInt(context.oidSources.size());
+      for (BaseWorkerContext.OIDSource os : context.oidSources) {
+        writeString(out, os.getFolder());
+        writeString(out, os.getPid());
+      }
+      out.writeInt(packageList.size());
+      for (PackageInformation pi : packageList) {
+        writeString(out, pi.getId());
+        writeString(out, pi.getVersion());
+        writeString(out, pi.getFhirVersion());
+        out.writeLong(pi.getDate() == null ? Long.MIN_VALUE : pi.getDate().getTime());
+        writeString(out, pi.getName());
+        writeString(out, pi.getCanonical());
+        writeString(out, pi.getWeb());
+        out.writeInt(pi.getDependencies().size());
+        for (String s : pi.getDependencies()) {
+          out.writeUTF(s);
+        }
+      }
+      out.writeInt(count);
+      index.writeTo(out);
+      binaries.writeTo(out);
+      if (out.size() > Integer.MAX_VALUE - 8) { // size() stops counting at Integer.MAX_VALUE
+        throw new IOException("The context is too big for an image");
+      }
+      out.writeInt(indexOffset);
+      out.writeInt(MAGIC);
+    }
+    try {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  // -- reading ---------------------------------------------------------------------------------
+
+  /**
+   * Map the image, and read its index. Nothing is loaded into a context until register() is called
+   */
+  public static WorkerContextImage read(File file) throws IOException {
+    ByteBuffer content;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      long size = channel.size();
+      if (size < 16 || size > Integer.MAX_VALUE) {
+        throw new IOException("The file "+file.getAbsolutePath()+" is not a context image");
+      }
+      // the mapping stays valid after the channel is closed
+      MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      content = map;
+    }
+    int size = content.capacity();
+    if (content.getInt(0) != MAGIC || content.getInt(size - 4) != MAGIC) {
+      throw new IOException("The file "+file.getAbsolutePath()+" is not a context image");
+    }
+    if (content.getInt(4) != FORMAT_VERSION) {
+      throw new IOException("The context image "+file.getAbsolutePath()+" has format version "+content.getInt(4)+", not "+FORMAT_VERSION);
+    }
+    WorkerContextImage image = new WorkerContextImage(file, content);
+    image.readIndex(content.getInt(size - 8));
+    return image;
+  }
+
+  private void readIndex(int offset) throws IOException {
+    ByteBuffer buffer = content.duplicate();
+    buffer.position(offset);
+    DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+    version = readString(in);
+    int c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      loadedPackages.add(in.readUTF());
+    }
+    c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      oidSources.add(new String[] { readString(in), readString(in) });
+    }
+    c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      String id = readString(in);
+      String ver = readString(in);
+      String fver = readString(in);
+      long date = in.readLong();
+      PackageInformation pi = new PackageInformation(id, ver, fver, date == Long.MIN_VALUE ? null : new Date(date), readString(in), readString(in), readString(in));
+      int dc = in.readInt();
+      for (int j = 0; j < dc; j++) {
+        pi.getDependencies().add(in.readUTF());
+      }
+      packages.add(pi);
+    }
+    c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      String[] s = new String[7];
+      for (int j = 0; j < 7; j++) {
+        s[j] = readString(in);
+      }
+      PackageInformation pi = packages.get(in.readInt());
+      int flags = in.readInt();
+      int start = in.readInt();
+      int length = in.readInt();
+      resources.add(new ImageResourceProxy(s[0], s[1], s[2], s[3], s[4], s[5], s[6], pi, flags, start, length));
+    }
+    c = in.readInt();
+    for (int i = 0; i < c; i++) {
+      String name = in.readUTF();
+      int start = in.readInt();
+      int length = in.readInt();
+      binaries.put(name, () -> bytes(start, length));
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private byte[] bytes(int start, int length) {
+    byte[] b = new byte[length];
+    ByteBuffer buffer = content.duplicate();
+    buffer.position(start);
+    buffer.get(b);
+    return b;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  /**
+   * @return the packages (id#version) that were loaded in the context the image was made from
+   */
+  public List<String> getLoadedPackages() {
+    return loadedPackages;
+  }
+
+  public int getResourceCount() {
+    return resources.size();
+  }
+
+  Map<String, IByteProvider> getBinaries() {
+    return binaries;
+  }
+
+  List<String[]> getOidSources() {
+    return oidSources;
+  }
+
+  /**
+   * register a proxy for every resource in the image with the context
+   *
+   * @return the number of resources registered
+   */
+  int register(BaseWorkerContext context) throws FHIRException {
+    for (ImageResourceProxy proxy : resources) {
+      context.registerResourceFromPackage(proxy, proxy.packageInformation);
+    }
+    return resources.size();
+  }
+
+  private class ImageResourceProxy extends CanonicalResourceProxy {
+
+    private final PackageInformation packageInformation;
+    private final int flags;
+    private final int start;
+    private final int length;
+
+    private ImageResourceProxy(String type, String id, String url, String version, String supplements, String derivation, String content,
+        PackageInformation packageInformation, int flags, int start, int length) {
+      super(type, id, url, version, supplements, derivation, content);
+      this.packageInformation = packageInformation;
+      this.flags = flags;
+      this.start = start;
+      this.length = length;
+    }
+
+    @Override
+    public CanonicalResource loadResource() throws FHIRException {
+      try {
+        CanonicalResource cr = (CanonicalResource) new JsonParser().setStreaming(true).parse(bytes(start, length));
+        cr.setSourcePackage(packageInformation);
+        if ((flags & FLAG_CUSTOM_RESOURCE) != 0) {
+          cr.setUserData(UserDataNames.loader_custom_resource, "true");
+        }
+        if ((flags & FLAG_FAKE_IG) != 0) {
+          cr.setUserData(UserDataNames.IG_FAKE, true);
+        }
+        if ((flags & FLAG_GENERATED_SNAPSHOT) != 0) {
+          // the snapshot was generated when the image was made. If that failed, it will be tried again when it's used
+          ((StructureDefinition) cr).setGeneratedSnapshot(true);
+        }
+        return cr;
+      } catch (Exception e) {
+        throw new FHIRException("Error loading "+getType()+"/"+getId()+" from the context image "+file.getAbsolutePath()+": "+e.getMessage(), e);
+      }
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+  }
+}
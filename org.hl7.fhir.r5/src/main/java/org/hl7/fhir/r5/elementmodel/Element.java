@@ -143,38 +143,53 @@ public class Element extends Base implements NamedItem {
     }
 	}
 
-	private List<String> comments;// not relevant for production, but useful in documentation
+  /**
+   * State that most elements don't have. It's kept out of the element itself, and only created
+   * when one of these is set, since there can be millions of elements in a parsed bundle
+   */
+  private static class Extras {
+    private List<String> comments;// not relevant for production, but useful in documentation
+    private Property elementProperty; // this is used when special is set to true - it tracks the underlying element property which is used in a few places
+    private SpecialElement special;
+    private XhtmlNode xhtml; // if this is populated, then value will also hold the string representation
+    private String explicitType; // for xsi:type attribute
+    private List<ValidationMessage> messages;
+    private int descendentCount;
+    private Object nativeObject;
+    private List<SliceDefinition> sliceDefinitions;
+    private String webPath;
+  }
+
+  private static final byte FLAG_NULL = 1;
+  private static final byte FLAG_PROHIBITED = 2;
+  private static final byte FLAG_REQUIRED = 4;
+  private static final byte FLAG_IGNORE_PROPERTY_ORDER = 8;
+  private static final byte FLAG_ELIDED = 16;
+  private static final byte FLAG_HAS_PARENT_FOR_VALIDATOR = 32;
+
 	private String name;
 	private String type;
 	private String value;
 	private int index = -1;
 	private NamedItemList<Element> children;
 	private Property property;
-  private Property elementProperty; // this is used when special is set to true - it tracks the underlying element property which is used in a few places
 	private int line;
 	private int col;
-	private SpecialElement special;
-	private XhtmlNode xhtml; // if this is populated, then value will also hold the string representation
-	private String explicitType; // for xsi:type attribute
 	private Element parentForValidator;
-	private boolean hasParentForValidator;
-	private String path;
-	private List<ValidationMessage> messages;
-	private boolean prohibited;
-	private boolean required;
-  private int descendentCount;
   private int instanceId;
-  private boolean isNull;
   private Base source;
-  private boolean ignorePropertyOrder;
   private FhirFormat format;
-  private Object nativeObject;
-  private List<SliceDefinition> sliceDefinitions;
-  private boolean elided;
+  private byte flags;
+  private Extras extras;
+  // the path is either explicit (pathParent is null, and pathName is the path), or it's worked out from the parent 
+  // the first time it's needed, and then kept as an explicit path
+  private Element pathParent;
+  private String pathName;
+  private int pathRepeat = -1;
   
 	public Element(String name) {
 		super();
-		this.name = name;
+		this.name = intern(name);
 	}
 
   public Element(Element other) {
@@ -182,13 +197,15 @@ public class Element extends Base implements NamedItem {
     name = other.name;
     type = other.type;
     property = other.property;
-    elementProperty = other.elementProperty;
-    special = other.special;
+    if (other.extras != null && (other.extras.elementProperty != null || other.extras.special != null)) {
+      extras().elementProperty = other.extras.elementProperty;
+      extras().special = other.extras.special;
+    }
   }
   
   public Element(String name, Property property) {
 		super();
-		this.name = name;
+		this.name = intern(name);
 		this.property = property;
 		if (property.isResource()) {
 		  children = new NamedItemList<>();
@@ -197,20 +214,46 @@ public class Element extends Base implements NamedItem {
 
 	public Element(String name, Property property, String type, String value) {
 		super();
-		this.name = name;
+		this.name = intern(name);
 		this.property = property;
-		this.type = type;
+		this.type = intern(type);
 		this.value = value;
 	}
 
+  // element names and types come from a small vocabulary, but the parsers create a new string for each occurrence
+  private static String intern(String s) {
+    return s == null ? null : s.intern();
+  }
+
+  private Extras extras() {
+    if (extras == null) {
+      extras = new Extras();
+    }
+    return extras;
+  }
+
+  private boolean hasFlag(byte flag) {
+    return (flags & flag) != 0;
+  }
+
+  private void setFlag(byte flag, boolean value) {
+    if (value) {
+      flags |= flag;
+    } else {
+      flags &= ~flag;
+    }
+  }
+
 	public void updateProperty(Property property, SpecialElement special, Property elementProperty) {
 		this.property = property;
-    this.elementProperty = elementProperty;
-		this.special = special;
+		if (extras != null || special != null || elementProperty != null) {
+      extras().elementProperty = elementProperty;
+		  extras().special = special;
+		}
 	}
 
 	public SpecialElement getSpecial() {
-		return special;
+		return extras == null ? null : extras.special;
 	}
 
   public String getName() {
@@ -243,13 +286,13 @@ public class Element extends Base implements NamedItem {
 	}
 
 	public boolean hasComments() {
-		return !(comments == null || comments.isEmpty());
+		return !(extras == null || extras.comments == null || extras.comments.isEmpty());
 	}
 
 	public List<String> getComments() {
-		if (comments == null)
-			comments = new ArrayList<String>();
-		return comments;
+		if (extras().comments == null)
+			extras.comments = new ArrayList<String>();
+		return extras.comments;
 	}
 
 	public Property getProperty() {
@@ -261,17 +304,17 @@ public class Element extends Base implements NamedItem {
 	}
 
 	public Element setType(String type) {
-		this.type = type;
+		this.type = intern(type);
 		return this;
 
 	}
 
 	public boolean isNull() {
-    return isNull;
+    return hasFlag(FLAG_NULL);
   }
 
   public void setNull(boolean isNull) {
-    this.isNull = isNull;
+    setFlag(FLAG_NULL, isNull);
   }
 
   public boolean hasValue() {
@@ -459,7 +502,7 @@ public class Element extends Base implements NamedItem {
   @Override
   public Base setProperty(int hash, String name, Base value) throws FHIRException {
     if ("xhtml".equals(getType()) && (hash == "value".hashCode())) {
-      this.xhtml = TypeConvertor.castToXhtml(value);
+      extras().xhtml = TypeConvertor.castToXhtml(value);
       this.value =  TypeConvertor.castToXhtmlString(value);
       return this;
     }
@@ -532,10 +575,10 @@ public class Element extends Base implements NamedItem {
       if (childForValue.property.getName().endsWith("[x]"))
         childForValue.name = name+Utilities.capitalize(childForValue.type);
       else if (value.isResource()) {
-        if (childForValue.elementProperty == null)
-          childForValue.elementProperty = childForValue.property;
+        if (childForValue.getElementProperty() == null)
+          childForValue.extras().elementProperty = childForValue.property;
         childForValue.property = ve.property;
-        childForValue.special = SpecialElement.BUNDLE_ENTRY;
+        childForValue.extras().special = SpecialElement.BUNDLE_ENTRY;
       }
       if (ve.children != null) {
         if (childForValue.children == null)
@@ -814,11 +857,11 @@ public class Element extends Base implements NamedItem {
 
   
 	public XhtmlNode getXhtml() {
-		return xhtml;
+		return extras == null ? null : extras.xhtml;
 	}
 
 	public Element setXhtml(XhtmlNode xhtml) {
-		this.xhtml = xhtml;
+		extras().xhtml = xhtml;
 		try {
       value = new XhtmlComposer(true, false).compose(xhtml);
     } catch (IOException e) {
@@ -844,11 +887,11 @@ public class Element extends Base implements NamedItem {
 	}
 
   public Property getElementProperty() {
-    return elementProperty;
+    return extras == null ? null : extras.elementProperty;
   }
 
   public boolean hasElementProperty() {
-    return elementProperty != null;
+    return getElementProperty() != null;
   }
 
   public boolean hasChild(String name) {
@@ -960,15 +1003,15 @@ public class Element extends Base implements NamedItem {
   }
 
   public boolean isList() {
-    if (elementProperty != null)
-      return elementProperty.isList();
+    if (hasElementProperty())
+      return getElementProperty().isList();
     else
       return property.isList();
   }
   
   public boolean isBaseList() {
-    if (elementProperty != null)
-      return elementProperty.isBaseList();
+    if (hasElementProperty())
+      return getElementProperty().isBaseList();
     else
       return property.isBaseList();
   }
@@ -1018,7 +1061,7 @@ public class Element extends Base implements NamedItem {
       return Integer.compare(i0, i1);
     }
     private int find(Element e0) {
-      int i =  e0.elementProperty != null ? children.indexOf(e0.elementProperty.getDefinition()) :  children.indexOf(e0.property.getDefinition());
+      int i =  e0.hasElementProperty() ? children.indexOf(e0.getElementProperty().getDefinition()) :  children.indexOf(e0.property.getDefinition());
       return i; 
     }
 
@@ -1120,11 +1163,13 @@ public class Element extends Base implements NamedItem {
   }
 
   public String getExplicitType() {
-    return explicitType;
+    return extras == null ? null : extras.explicitType;
   }
 
   public void setExplicitType(String explicitType) {
-    this.explicitType = explicitType;
+    if (extras != null || explicitType != null) {
+      extras().explicitType = explicitType;
+    }
   }
 
   public boolean hasDescendant(Element element) {
@@ -1213,7 +1258,7 @@ public class Element extends Base implements NamedItem {
    * this is set by the instance validator. There's no reason to maintain this when working with an element tree, and so it should be ignored outside the validator
    */
   public Element getParentForValidator() {
-    if (!hasParentForValidator) {
+    if (!hasFlag(FLAG_HAS_PARENT_FOR_VALIDATOR)) {
       throw new Error("Parent not set");
     }
     return parentForValidator;
@@ -1221,43 +1266,64 @@ public class Element extends Base implements NamedItem {
 
   public void setParentForValidator(Element parentForValidator) {
     this.parentForValidator = parentForValidator;
-    this.hasParentForValidator = true;
+    setFlag(FLAG_HAS_PARENT_FOR_VALIDATOR, true);
   }
   
   public boolean hasParentForValidator() {
-    return hasParentForValidator;
+    return hasFlag(FLAG_HAS_PARENT_FOR_VALIDATOR);
   }
 
   public void clear() {
-    comments = null;
     children.clear();
     property = null;
-    elementProperty = null;
-    xhtml = null;
-    path = null;
+    if (extras != null) {
+      extras.comments = null;
+      extras.elementProperty = null;
+      extras.xhtml = null;
+    }
+    setPath(null);
   }
 
   public String getPath() {
-    return path;
+    if (pathParent != null) {
+      // the validator asks for paths over and over, so it's only built once
+      pathName = pathParent.getPath()+"."+pathName+(pathRepeat == -1 ? "" : "["+pathRepeat+"]");
+      pathParent = null;
+      pathRepeat = -1;
+    }
+    return pathName;
   }
 
   public void setPath(String path) {
-    this.path = path;
+    this.pathParent = null;
+    this.pathName = path;
+    this.pathRepeat = -1;
   }  
+
+  /**
+   * Sets the path as parent.getPath()+"."+name, with "["+repeat+"]" after it if repeat isn't -1. The
+   * path isn't built until it's asked for, so parsing doesn't make a path string for every element; once
+   * it has been asked for, it's kept, and doesn't change if the parent's path does
+   */
+  public void setPath(Element parent, String name, int repeat) {
+    this.pathParent = parent;
+    this.pathName = name;
+    this.pathRepeat = repeat;
+  }
   
   public void addMessage(ValidationMessage vm) {
-    if (messages == null) {
-      messages = new ArrayList<>();
+    if (extras().messages == null) {
+      extras.messages = new ArrayList<>();
     }
-    messages.add(vm);
+    extras.messages.add(vm);
   }
 
   public boolean hasMessages() {
-    return messages != null && !messages.isEmpty();
+    return extras != null && extras.messages != null && !extras.messages.isEmpty();
   }
 
   public List<ValidationMessage> getMessages() {
-    return messages;
+    return extras == null ? null : extras.messages;
   }
 
   public void removeChild(String name) {
@@ -1273,41 +1339,51 @@ public class Element extends Base implements NamedItem {
   }
 
   public boolean isProhibited() {
-    return prohibited;
+    return hasFlag(FLAG_PROHIBITED);
   }
 
   public void setProhibited(boolean prohibited) {
-    this.prohibited = prohibited;
+    setFlag(FLAG_PROHIBITED, prohibited);
   }
 
   public boolean isRequired() {
-    return required;
+    return hasFlag(FLAG_REQUIRED);
   }
 
   public void setRequired(boolean required) {
-    this.required = required;
+    setFlag(FLAG_REQUIRED, required);
   }
 
   public int getDescendentCount() {
-    return descendentCount;
+    return extras == null ? 0 : extras.descendentCount;
   }
 
   public void setDescendentCount(int descendentCount) {
-    this.descendentCount = descendentCount;
+    if (extras != null || descendentCount != 0) {
+      extras().descendentCount = descendentCount;
+    }
   }
 
+  /**
+   * The count is kept on this element (but not on the descendents, which would mean extra state for most of the tree)
+   */
   public int countDescendents() {
-    if (descendentCount > 0) {
-      return descendentCount;
-    } else if (children != null) {
-      descendentCount = children.size();
-      for (Element e : children) {
-        descendentCount = descendentCount + e.countDescendents();
-      }
-    } else {
-      descendentCount = 0;
+    if (getDescendentCount() > 0) {
+      return getDescendentCount();
+    }
+    setDescendentCount(countChildren(this));
+    return getDescendentCount();
+  }
+
+  private static int countChildren(Element element) {
+    if (element.children == null) {
+      return 0;
+    }
+    int count = element.children.size();
+    for (Element e : element.children) {
+      count = count + (e.getDescendentCount() > 0 ? e.getDescendentCount() : countChildren(e));
     }
-    return descendentCount;
+    return count;
   }
 
   public int getInstanceId() {
@@ -1362,18 +1438,20 @@ public class Element extends Base implements NamedItem {
   }
 
   private void printToOutput(PrintStream out, String indent) {
+    SpecialElement special = getSpecial();
+    String explicitType = getExplicitType();
     String s = indent+name +(index == -1 ? "" : "["+index+"]") +(special != null ? "$"+special.toHuman(): "")+ (type!= null || explicitType != null ? " : "+type+(explicitType != null ? "/'"+explicitType+"'" : "") : "");
-    if (isNull) {
+    if (isNull()) {
       s = s + " = (null)";
     } else if (value != null) {
       s = s + " = '"+value+"'";      
-    } else if (xhtml != null) {
+    } else if (getXhtml() != null) {
       s = s + " = (xhtml)";
     }
     if (property != null) {
       s = s +" {"+property.summary();
-      if (elementProperty != null) {
-        s = s +" -> "+elementProperty.summary();
+      if (hasElementProperty()) {
+        s = s +" -> "+getElementProperty().summary();
       }
       s = s + "}";
     }
@@ -1393,7 +1471,7 @@ public class Element extends Base implements NamedItem {
     int e = 0;
     int w = 0;
     int h = 0;
-    for (ValidationMessage msg : messages) {
+    for (ValidationMessage msg : getMessages()) {
       switch (msg.getLevel()) {
       case ERROR:
         e++;
@@ -1491,8 +1569,13 @@ public class Element extends Base implements NamedItem {
 
   @Override
   public Base copy() {
+    return copy(null);
+  }
+
+  // destPathParent is the copy of the element this element's path is worked out from, if that's being copied too
+  private Element copy(Element destPathParent) {
     Element element = new Element(this);
-    this.copyValues(element);
+    this.copyValues(element, destPathParent);
     if (this.isElided())
       element.setElided(true);
     return element;
@@ -1500,36 +1583,50 @@ public class Element extends Base implements NamedItem {
 
   @Override
   public void copyValues(Base dst) {
-    super.copyValues(dst);
+    copyValues((Element) dst, null);
+  }
+
+  private void copyValues(Element dest, Element destPathParent) {
+    super.copyValues(dest);
     
-    Element dest = (Element) dst;
-    if (comments != null) {
-      dest.comments = new ArrayList<>();
-      dest.comments.addAll(comments);
-    } else {
-      dest.comments = null;
+    if (hasComments()) {
+      dest.extras().comments = new ArrayList<>();
+      dest.extras.comments.addAll(extras.comments);
+    } else if (dest.extras != null) {
+      dest.extras.comments = null;
     }
     dest.value = value;
     if (children != null) {
       dest.children = new NamedItemList<>();
       for (Element child : children) {
-        dest.children.add((Element) child.copy());
+        dest.children.add(child.copy(child.pathParent == this ? dest : null));
       }
     } else {
       dest.children = null;
     }    
     dest.line = line;
     dest.col = col;
-    dest.xhtml = xhtml;
-    dest.explicitType = explicitType;
-    dest.hasParentForValidator = false;
-    dest.path = path;
-    dest.messages = null;
-    dest.prohibited = prohibited;
-    dest.required = required;
-    dest.descendentCount = descendentCount;
+    if (getXhtml() != null || dest.getXhtml() != null) {
+      dest.extras().xhtml = getXhtml();
+    }
+    dest.setExplicitType(getExplicitType());
+    dest.setFlag(FLAG_HAS_PARENT_FOR_VALIDATOR, false);
+    if (destPathParent != null) {
+      dest.pathParent = destPathParent;
+      dest.pathName = pathName;
+      dest.pathRepeat = pathRepeat;
+    } else {
+      // not pathParent, which would keep the tree this element is in alive as long as the copy
+      dest.setPath(getPath());
+    }
+    if (dest.extras != null) {
+      dest.extras.messages = null;
+    }
+    dest.setProhibited(isProhibited());
+    dest.setRequired(isRequired());
+    dest.setDescendentCount(getDescendentCount());
     dest.instanceId = instanceId;
-    dest.isNull = isNull;
+    dest.setNull(isNull());
     dest.source = source;
     dest.format = format;
   }
@@ -1540,11 +1637,11 @@ public class Element extends Base implements NamedItem {
   }
 
   public boolean isIgnorePropertyOrder() {
-    return ignorePropertyOrder;
+    return hasFlag(FLAG_IGNORE_PROPERTY_ORDER);
   }
 
   public void setIgnorePropertyOrder(boolean ignorePropertyOrder) {
-    this.ignorePropertyOrder = ignorePropertyOrder;
+    setFlag(FLAG_IGNORE_PROPERTY_ORDER, ignorePropertyOrder);
     if (children != null) {
       for (Element e : children) {
         e.setIgnorePropertyOrder(ignorePropertyOrder);
@@ -1553,15 +1650,16 @@ public class Element extends Base implements NamedItem {
   }
   
 
-  private String webPath;
   public boolean hasWebPath() {
-    return webPath != null;
+    return getWebPath() != null;
   }
   public String getWebPath() {
-    return webPath;
+    return extras == null ? null : extras.webPath;
   }
   public void setWebPath(String webPath) {
-    this.webPath = webPath;
+    if (extras != null || webPath != null) {
+      extras().webPath = webPath;
+    }
   }
 
   public String getTranslation(String lang) {
@@ -1664,11 +1762,13 @@ public class Element extends Base implements NamedItem {
   }
 
   public Object getNativeObject() {
-    return nativeObject;
+    return extras == null ? null : extras.nativeObject;
   }
 
   public Element setNativeObject(Object nativeObject) {
-    this.nativeObject = nativeObject;
+    if (extras != null || nativeObject != null) {
+      extras().nativeObject = nativeObject;
+    }
     return this;
   }
 
@@ -1685,15 +1785,15 @@ public class Element extends Base implements NamedItem {
   }
 
   public void addSliceDefinition(StructureDefinition profile, ElementDefinition definition, ElementDefinition slice) {
-    if (sliceDefinitions == null) {
-      sliceDefinitions = new ArrayList<>();
+    if (extras().sliceDefinitions == null) {
+      extras.sliceDefinitions = new ArrayList<>();
     }
-    sliceDefinitions.add(new SliceDefinition(profile, definition, slice));
+    extras.sliceDefinitions.add(new SliceDefinition(profile, definition, slice));
   }
 
   public boolean hasSlice(StructureDefinition sd, String sliceName) {
-    if (sliceDefinitions != null) {
-      for (SliceDefinition def : sliceDefinitions) {
+    if (extras != null && extras.sliceDefinitions != null) {
+      for (SliceDefinition def : extras.sliceDefinitions) {
         if (def.profile == sd && sliceName.equals(def.definition.getSliceName())) {
           return true;
         }
@@ -1707,11 +1807,11 @@ public class Element extends Base implements NamedItem {
   }
 
   public void setElided(boolean elided) {
-    this.elided = elided;
+    setFlag(FLAG_ELIDED, elided);
   }
 
   public boolean isElided() {
-    return this.elided;
+    return hasFlag(FLAG_ELIDED);
   }
   
   public void stripLocations() {
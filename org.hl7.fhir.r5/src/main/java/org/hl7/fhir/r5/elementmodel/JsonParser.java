@@ -153,12 +153,29 @@ public class JsonParser extends ParserBase {
   public List<ValidatedFragment> parse(InputStream inStream, int line) throws IOException, FHIRException {
 //    long start = System.currentTimeMillis();
     byte[] content = FileUtilities.streamToBytes(inStream);
-    ValidatedFragment focusFragment = new ValidatedFragment(ValidatedFragment.FOCUS_NAME, "json", content, false);
     
     ByteArrayInputStream stream = new ByteArrayInputStream(content);
     
     // if we're parsing at this point, then we're going to use the custom parser
     String source = FileUtilities.streamToString(stream);
+    List<ValidatedFragment> res = new ArrayList<>();
+    res.add(parseFragment(content, source, line));
+
+    return res;
+  }
+
+  /**
+   * Parse a single fragment where the source is already in memory as a string (e.g. a line of an NDJSON file)
+   * 
+   * @param source - the json source 
+   * @param line - the line the source starts on, for error reporting
+   */
+  public ValidatedFragment parseFragment(String source, int line) throws IOException, FHIRException {
+    return parseFragment(source.getBytes(StandardCharsets.UTF_8), source.replace("\uFEFF", ""), line);
+  }
+
+  private ValidatedFragment parseFragment(byte[] content, String source, int line) throws IOException, FHIRException {
+    ValidatedFragment focusFragment = new ValidatedFragment(ValidatedFragment.FOCUS_NAME, "json", content, false);
     JsonObject obj = null;
     
     if (policy == ValidationPolicy.EVERYTHING) {
@@ -174,10 +191,7 @@ public class JsonParser extends ParserBase {
     if (obj != null) {
       focusFragment.setElement(parse(focusFragment.getErrors(), obj));
     }
-    List<ValidatedFragment> res = new ArrayList<>();
-    res.add(focusFragment);
-
-    return res;
+    return focusFragment;
   }
 
   public Element parse(List<ValidationMessage> errors, JsonObject object) throws FHIRException {
@@ -417,7 +431,6 @@ public class JsonParser extends ParserBase {
 
   private void parseChildComplex(List<ValidationMessage> errors, String path, JsonProperty p, Element element, Property property, String name, boolean isJsonName) throws FHIRException {
     String npath = path+"."+property.getName();
-    String fpath = element.getPath()+"."+property.getName();
     if (p != null) { p.setTag(1); }
     JsonElement e = p == null ? null : p.getValue();
     if (property.isList() && !property.isJsonKeyArray() && (e instanceof JsonArray)) {
@@ -435,7 +448,7 @@ public class JsonParser extends ParserBase {
       int c = 0;
       List<Property> properties = null;
       for (JsonElement am : arr) {
-        properties = parseChildComplexInstance(errors, npath+"["+c+"]", fpath+"["+c+"]", element, property, name, am, c == 0 ? arr : null, path, properties);
+        properties = parseChildComplexInstance(errors, npath+"["+c+"]", c, element, property, name, am, c == 0 ? arr : null, path, properties);
         c++;
       }
     } else if (property.isJsonKeyArray()) {
@@ -473,16 +486,14 @@ public class JsonParser extends ParserBase {
             }
             // create an array entry
             String npathArr = path+"."+property.getName()+"["+i+"]";
-            String fpathArr = element.getPath()+"."+property.getName()+"["+i+"]";
             
             Element n = new Element(name, property).markLocation(line(pv.getValue()), col(pv.getValue())).setFormat(FhirFormat.JSON);
-            n.setPath(fpath);
+            n.setPath(element, property.getName(), i);
             element.getChildren().add(n);
             // handle the key
-            String fpathKey = fpathArr+"."+propK.getName();
             Element nKey = new Element(code, propK).markLocation(line(pv.getValue()), col(pv.getValue())).setFormat(FhirFormat.JSON);
-            checkComments(errors, pv.getValue(), n, fpathArr);
-            nKey.setPath(fpathKey);
+            checkComments(errors, pv.getValue(), n, n.getPath());
+            nKey.setPath(n, propK.getName(), -1);
             n.getChildren().add(nKey);
             nKey.setValue(pv.getName());
             
@@ -506,11 +517,10 @@ public class JsonParser extends ParserBase {
             if (ok) {
               // handle the value
               String npathV = npathArr+"."+pvl.getName();
-              String fpathV = fpathArr+"."+pvl.getName();
               if (propV.isPrimitive(pvl.getType(null))) {
-                parseChildPrimitiveInstance(errors, n, pvl, pvl.getName(), false, npathV, fpathV, pv.getValue(), null);
+                parseChildPrimitiveInstance(errors, n, pvl, pvl.getName(), false, npathV, pv.getValue(), null);
               } else if (pv.getValue() instanceof JsonObject || pv.getValue() instanceof JsonNull) {
-                parseChildComplexInstance(errors, npathV, fpathV, n, pvl, pvl.getName(), pv.getValue(), null, null, null);
+                parseChildComplexInstance(errors, npathV, -1, n, pvl, pvl.getName(), pv.getValue(), null, null, null);
               } else {
                 logError(errors, ValidationMessage.NO_RULE_DATE, line(e), col(e), npath, IssueType.INVALID, context.formatMessage(I18nConstants.THIS_PROPERTY_MUST_BE_AN_OBJECT_NOT_, describe(pv.getValue())), IssueSeverity.ERROR);                       
               }
@@ -523,7 +533,7 @@ public class JsonParser extends ParserBase {
       if (property.isJsonList()) {
         logError(errors, ValidationMessage.NO_RULE_DATE, line(e), col(e), npath, IssueType.INVALID, context.formatMessage(I18nConstants.THIS_PROPERTY_MUST_BE_AN_ARRAY_NOT_, describe(e), name, path), IssueSeverity.ERROR);
       }
-      parseChildComplexInstance(errors, npath, fpath, element, property, name, e, null, null, null);
+      parseChildComplexInstance(errors, npath, -1, element, property, name, e, null, null, null);
     }
   }
 
@@ -535,7 +545,7 @@ public class JsonParser extends ParserBase {
     return b.toString();
   }
 
-  private List<Property> parseChildComplexInstance(List<ValidationMessage> errors, String npath, String fpath, Element element, Property property, String name, JsonElement e, JsonElement commentContext, String commentPath, List<Property> properties) throws FHIRException {
+  private List<Property> parseChildComplexInstance(List<ValidationMessage> errors, String npath, int repeat, Element element, Property property, String name, JsonElement e, JsonElement commentContext, String commentPath, List<Property> properties) throws FHIRException {
     if (property.hasTypeSpecifier()) {
       FHIRPathEngine fpe = new FHIRPathEngine(context);
       String type = null;
@@ -569,7 +579,7 @@ public class JsonParser extends ParserBase {
     if (e instanceof JsonObject) {
       JsonObject child = (JsonObject) e;
       Element n = new Element(name, property).markLocation(line(child), col(child)).setFormat(FhirFormat.JSON);
-      n.setPath(fpath);
+      n.setPath(element, property.getName(), repeat);
       checkComments(errors, commentContext, n, commentPath);        
       checkObject(errors, child, n, npath);
       element.getChildren().add(n);
@@ -583,8 +593,8 @@ public class JsonParser extends ParserBase {
       JsonNull child = (JsonNull) e;
       Element n = new Element(name, property).markLocation(line(child), col(child)).setFormat(FhirFormat.JSON);
       checkComments(errors, commentContext, n, commentPath);        
-      checkComments(errors, child, n, fpath);
-      n.setPath(fpath);
+      n.setPath(element, property.getName(), repeat);
+      checkComments(errors, child, n, n.getPath());
       element.getChildren().add(n);
       n.setNull(true);
       // nothing to do, it's ok, but we treat it like it doesn't exist
@@ -619,7 +629,6 @@ public class JsonParser extends ParserBase {
 //  JsonProperty fork = children.containsKey("_"+name) ? children.get("_"+name) : null;
   private void parseChildPrimitive(List<ValidationMessage> errors, JsonProperty main, JsonProperty fork, Element element, Property property, String path, String name, boolean isJsonName) throws FHIRException {
     String npath = path+"."+property.getName();
-    String fpath = element.getPath()+"."+property.getName();
     if (main != null) { main.setTag(1); }
     if (fork != null) { fork.setTag(1); }
     
@@ -653,11 +662,11 @@ public class JsonParser extends ParserBase {
             if (m != null && m.isJsonString() && arr1.isUnquoted(i)) {
               logError(errors, "2022-11-26", line(m), col(m), path+"."+name+"["+i+"]", IssueType.INVALID, context.formatMessage(I18nConstants.JSON_PROPERTY_VALUE_NO_QUOTES, "item", m.asString()), IssueSeverity.ERROR);
             }
-            parseChildPrimitiveInstance(errors, element, property, name, isJsonName, npath, fpath, m, f);
+            parseChildPrimitiveInstance(errors, element, property, name, isJsonName, npath, m, f);
           }
         }
       } else {
-        parseChildPrimitiveInstance(errors, element, property, name, isJsonName, npath, fpath, main == null ? null : main.getValue(), fork == null ? null : fork.getValue());
+        parseChildPrimitiveInstance(errors, element, property, name, isJsonName, npath, main == null ? null : main.getValue(), fork == null ? null : fork.getValue());
       }
     }
   }
@@ -670,7 +679,7 @@ public class JsonParser extends ParserBase {
     return arr == null ? 0 : arr.size();
   }
 
-  private void parseChildPrimitiveInstance(List<ValidationMessage> errors, Element element, Property property, String name, boolean isJsonName, String npath, String fpath, JsonElement main, JsonElement fork) throws FHIRException {
+  private void parseChildPrimitiveInstance(List<ValidationMessage> errors, Element element, Property property, String name, boolean isJsonName, String npath, JsonElement main, JsonElement fork) throws FHIRException {
     if (main != null && !(main.isJsonBoolean() || main.isJsonNumber() || main.isJsonString())) {
       logError(errors, ValidationMessage.NO_RULE_DATE, line(main), col(main), npath, IssueType.INVALID, context.formatMessage(
           I18nConstants.THIS_PROPERTY_MUST_BE_AN_SIMPLE_VALUE_NOT_, describe(main), name, npath), IssueSeverity.ERROR);
@@ -684,7 +693,7 @@ public class JsonParser extends ParserBase {
       if (fork != null) {
         checkComments(errors, fork, n, npath);
       }
-      n.setPath(fpath);
+      n.setPath(element, property.getName(), -1);
       element.getChildren().add(n);
       if (main != null) {
         JsonPrimitive p = (JsonPrimitive) main;
@@ -1,7 +1,5 @@
 package org.hl7.fhir.r5.elementmodel;
 
-import java.io.ByteArrayInputStream;
-
 /*
   Copyright (c) 2011+, HL7, Inc.
   All rights reserved.
@@ -33,7 +31,9 @@ import java.io.ByteArrayInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -43,7 +43,6 @@ import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
 import org.hl7.fhir.r5.context.IWorkerContext;
 import org.hl7.fhir.r5.formats.IParser.OutputStyle;
 import org.hl7.fhir.r5.formats.JsonCreator;
-import org.hl7.fhir.utilities.FileUtilities;
 import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
 import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.i18n.I18nConstants;
@@ -63,55 +62,67 @@ public class NDJsonParser extends ParserBase {
     super(context);
   }
   
-  private ValidatedFragment processLine(int lineCount, String line) throws FHIRException, IOException {
-    List<ValidatedFragment> list = new JsonParser(context).parse(new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8)), lineCount);
-    return list.get(0);
+  /**
+   * Called for each line of an NDJSON source as it is parsed. The fragment (and the element
+   * in it) is not retained by the parser once the handler returns
+   */
+  public interface INDJsonLineHandler {
+    void handle(ValidatedFragment fragment) throws FHIRException, IOException;
+  }
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private ValidatedFragment processLine(JsonParser parser, int lineCount, StringBuilder b) throws FHIRException, IOException {
+    int length = b.length();
+    if (length > 0 && b.charAt(length-1) == '\r') {
+      length--;
+    }
+    String line = b.substring(0, length);
+    if (Utilities.noString(line.trim())) {
+      ValidatedFragment vf = new ValidatedFragment(ValidatedFragment.ITEM_NAME, null, null, false);
+      logError(vf.getErrors(), "2024-06-30", lineCount+1, 1, null, IssueType.INFORMATIONAL, context.formatMessage(I18nConstants.NDJSON_EMPTY_LINE_WARNING), IssueSeverity.WARNING);
+      return vf;
+    } else {
+      return parser.parseFragment(line, lineCount);
+    }
   }
 
   @Override
   public List<ValidatedFragment> parse(InputStream inStream) throws IOException, FHIRException {
-    String source = FileUtilities.streamToString(inStream);
-    int length = source.length();
-    int start = 0;
-    int cursor = start;
-    int lineCount = 0;
-
     List<ValidatedFragment> res = new ArrayList<>();
-    while (cursor < length) {
-      while (cursor < length && source.charAt(cursor) != '\n') {
-        cursor++;
-      }
-      if (cursor < length) {
-        String line = source.substring(start, cursor);
-        if (line.endsWith("\r")) {
-          line = line.substring(0, line.length()-1);
-        }
-        if (Utilities.noString(line.trim())) {
-          ValidatedFragment vf = new ValidatedFragment(ValidatedFragment.ITEM_NAME, null, null, false);
-          logError(vf.getErrors(), "2024-06-30", lineCount+1, 1, null, IssueType.INFORMATIONAL, context.formatMessage(I18nConstants.NDJSON_EMPTY_LINE_WARNING), IssueSeverity.WARNING);
-          res.add(vf);
-        } else {
-          res.add(processLine(lineCount, line));
-        }
-        start = cursor+1;
-      } else if (cursor > start) {
-        String line = source.substring(start, cursor);
-        if (line.endsWith("\r")) {
-          line = line.substring(0, line.length()-1);
-        }
-        if (Utilities.noString(line.trim())) {
-          ValidatedFragment vf = new ValidatedFragment(ValidatedFragment.ITEM_NAME, null, null, false);
-          logError(vf.getErrors(), "2024-06-30", lineCount+1, 1, null, IssueType.INFORMATIONAL, context.formatMessage(I18nConstants.NDJSON_EMPTY_LINE_WARNING), IssueSeverity.WARNING);
-          res.add(vf);
-        } else {
-          res.add(processLine(lineCount, line));
+    parse(inStream, res::add);
+    return res;
+  }
+
+  /**
+   * Parse the NDJSON source a line at a time, passing each line to the handler as it is
+   * parsed, so that the whole source (or all the parsed lines) never has to be in memory 
+   * at once
+   */
+  public void parse(InputStream inStream, INDJsonLineHandler handler) throws IOException, FHIRException {
+    JsonParser parser = new JsonParser(context, getProfileUtilities());
+    parser.setupValidation(policy);
+    Reader reader = new InputStreamReader(inStream, StandardCharsets.UTF_8);
+    char[] buffer = new char[BUFFER_SIZE];
+    StringBuilder b = new StringBuilder();
+    int lineCount = 0;
+    int count;
+    while ((count = reader.read(buffer)) != -1) {
+      int start = 0;
+      for (int i = 0; i < count; i++) {
+        if (buffer[i] == '\n') {
+          b.append(buffer, start, i - start);
+          handler.handle(processLine(parser, lineCount, b));
+          b.setLength(0);
+          lineCount++;
+          start = i + 1;
         }
-        start = cursor+1;
       }
-      lineCount++;
-      cursor++;
+      b.append(buffer, start, count - start);
+    }
+    if (b.length() > 0) {
+      handler.handle(processLine(parser, lineCount, b));
     }
-    return res;
   }
   
   @Override
@@ -379,8 +379,8 @@ public class Property {
 
 
   public List<Property> getChildProperties(String elementName, String statedType) throws FHIRException {
-    String cacheKey = structure.getVUrl()+"#"+definition.getPath()+":"+elementName+"/"+statedType;
-    List<Property> cached = profileUtilities.getCachedPropertyList().get(cacheKey);
+    PropertyCache cache = profileUtilities.getPropertyCache();
+    List<Property> cached = cache.get(structure, definition, elementName, statedType);
     if (cached != null) {
       return cached;
     }
@@ -468,8 +468,7 @@ public class Property {
     for (ElementDefinition child : children.getList()) {
       properties.add(new Property(context, child, sd, this.profileUtilities, this.utils));
     }
-    profileUtilities.getCachedPropertyList().put(cacheKey, properties);
-    return properties;
+    return cache.put(structure, definition, elementName, statedType, properties);
   }
 
   private StructureDefinition findAncestor(String type, StructureDefinition sdt) {
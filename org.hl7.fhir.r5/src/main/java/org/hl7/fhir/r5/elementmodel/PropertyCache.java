@@ -0,0 +1,130 @@
+package org.hl7.fhir.r5.elementmodel;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r5.context.CanonicalResourceEvictionPolicy;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
+
+/**
+ * Caches the child properties worked out by Property.getChildProperties(), so that they're
+ * worked out once for each element definition, element name and stated type, rather than
+ * for every element that is parsed.
+ *
+ * Entries are keyed by the identity of the element definition (ElementDefinition doesn't
+ * override equals/hashCode), and then by the element name and the stated type, so a lookup
+ * doesn't build a string key. The cache is safe to share between threads; if two threads
+ * work out the same entry at the same time, the first one stored is the one both use.
+ *
+ * The entries hold on to the definitions, so the cache has to be cleared when the definitions
+ * are unloaded from the context - see clearOnRelease()
+ */
+@MarkedToMoveToAdjunctPackage
+public class PropertyCache {
+
+  // ConcurrentHashMap doesn't allow null keys, and the element name is null for some XML content
+  private static final String NO_NAME = "\u0000";
+
+  private static class Entry {
+    private final StructureDefinition structure;
+    private final Map<String, List<Property>> untyped = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, List<Property>>> typed = new ConcurrentHashMap<>();
+
+    private Entry(StructureDefinition structure) {
+      this.structure = structure;
+    }
+
+    private List<Property> get(String name, String statedType) {
+      if (statedType == null) {
+        return untyped.get(name);
+      }
+      Map<String, List<Property>> map = typed.get(statedType);
+      return map == null ? null : map.get(name);
+    }
+
+    private List<Property> put(String name, String statedType, List<Property> properties) {
+      Map<String, List<Property>> map = statedType == null ? untyped : typed.computeIfAbsent(statedType, t -> new ConcurrentHashMap<>());
+      List<Property> existing = map.putIfAbsent(name, properties);
+      return existing == null ? properties : existing;
+    }
+
+    private int size() {
+      int res = untyped.size();
+      for (Map<String, List<Property>> map : typed.values()) {
+        res = res + map.size();
+      }
+      return res;
+    }
+  }
+
+  private final Map<ElementDefinition, Entry> entries = new ConcurrentHashMap<>();
+  private volatile int releaseCount;
+
+  /**
+   * @return the cached properties, or null if there aren't any
+   */
+  public List<Property> get(StructureDefinition structure, ElementDefinition definition, String name, String statedType) {
+    Entry entry = entries.get(definition);
+    if (entry == null || entry.structure != structure) {
+      return null;
+    }
+    return entry.get(name == null ? NO_NAME : name, statedType);
+  }
+
+  /**
+   * Store the properties, unless another thread already has.
+   *
+   * @return the properties that are in the cache, which the caller should use
+   */
+  public List<Property> put(StructureDefinition structure, ElementDefinition definition, String name, String statedType, List<Property> properties) {
+    Entry entry = entries.get(definition);
+    if (entry == null) {
+      entry = new Entry(structure);
+      Entry existing = entries.putIfAbsent(definition, entry);
+      if (existing != null) {
+        entry = existing;
+      }
+    }
+    if (entry.structure != structure) {
+      // the same definition used in a different structure - rare enough not to bother caching
+      return properties;
+    }
+    return entry.put(name == null ? NO_NAME : name, statedType, properties);
+  }
+
+  /**
+   * @return the number of property lists in the cache
+   */
+  public int size() {
+    int res = 0;
+    for (Entry entry : entries.values()) {
+      res = res + entry.size();
+    }
+    return res;
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * Clear the cache if the eviction policy has unloaded any resources since this was last called
+   *
+   * @return true if the cache was cleared
+   */
+  public boolean clearOnRelease(CanonicalResourceEvictionPolicy policy) {
+    if (policy == null) {
+      return false;
+    }
+    int count = policy.getReleaseCount();
+    if (count == releaseCount) {
+      return false;
+    }
+    releaseCount = count;
+    clear();
+    return true;
+  }
+}
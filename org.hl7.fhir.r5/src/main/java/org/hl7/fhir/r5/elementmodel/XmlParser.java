@@ -42,9 +42,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
@@ -104,6 +109,8 @@ public class XmlParser extends ParserBase {
 
   private String schemaPath;
   private boolean markedXhtml;
+  private boolean streaming;
+  private DocumentBuilder domBuilder;
 
   public String getSchemaPath() {
     return schemaPath;
@@ -120,10 +127,31 @@ public class XmlParser extends ParserBase {
     this.allowXsiLocation = allowXsiLocation;
   }
 
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * When streaming, the element model is built directly from a StAX reader, and no DOM is built 
+   * for the resource. The only exception is narrative (xhtml), which is still handed to the 
+   * xhtml parser as a (small) DOM so that it's processed exactly as it always has been. 
+   * 
+   * Native objects are not available for non-xhtml elements in this mode
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
   public List<ValidatedFragment> parse(InputStream inStream) throws FHIRFormatError, DefinitionException, FHIRException, IOException {
 
     byte[] content = FileUtilities.streamToBytes(inStream);
     ValidatedFragment focusFragment = new ValidatedFragment(ValidatedFragment.FOCUS_NAME, "xml", content, false);
+    if (streaming) {
+      focusFragment.setElement(parseStreaming(focusFragment.getErrors(), content));
+      List<ValidatedFragment> res = new ArrayList<>();
+      res.add(focusFragment);
+      return res;
+    }
 
     ByteArrayInputStream stream = new ByteArrayInputStream(content);
     Document doc = null;
@@ -279,30 +307,30 @@ public class XmlParser extends ParserBase {
     if (policy == ValidationPolicy.EVERYTHING) {
       if (empty(element) && FormatUtilities.FHIR_NS.equals(element.getNamespaceURI())) // this rule only applies to FHIR Content
         logError(errors, ValidationMessage.NO_RULE_DATE, line(element, false), col(element, false), path, IssueType.INVALID, context.formatMessage(I18nConstants.ELEMENT_MUST_HAVE_SOME_CONTENT), IssueSeverity.ERROR);
-      String ns = prop.getXmlNamespace();
-      String elementNs = element.getNamespaceURI();
-      if (elementNs == null) {
-        elementNs = "noNamespace";
-      }
-      if (!elementNs.equals(ns)) {
-        logError(errors, ValidationMessage.NO_RULE_DATE, line(element, false), col(element, false), path, IssueType.INVALID, context.formatMessage(I18nConstants.WRONG_NAMESPACE__EXPECTED_, ns), IssueSeverity.ERROR);
-      }
-      if (!xsiTypeChecked) {
-        String xsiType = element.getAttributeNS(FormatUtilities.NS_XSI, "type");
-        if (!Utilities.noString(xsiType)) {
-          String actualType = prop.getXmlTypeName();
-          if (xsiType.equals(actualType)) {
-            logError(errors, "2023-10-12", line(element, false), col(element, false), path, IssueType.INVALID, context.formatMessage(I18nConstants.XSI_TYPE_UNNECESSARY), IssueSeverity.INFORMATION);            
-          } else {
-            StructureDefinition sd = findLegalConstraint(xsiType, actualType);
-            if (sd != null) {
-              e.setType(sd.getType());
-              e.setExplicitType(xsiType);
-            } else {
-              logError(errors, "2023-10-12", line(element, false), col(element, false), path, IssueType.INVALID, context.formatMessage(I18nConstants.XSI_TYPE_WRONG, xsiType, actualType), IssueSeverity.ERROR);           
-            }  
-          }
-        }
+      checkNamespaceAndType(errors, element.getNamespaceURI(), xsiTypeChecked ? null : element.getAttributeNS(FormatUtilities.NS_XSI, "type"), e, path, prop, line(element, false), col(element, false));
+    }
+  }
+
+  private void checkNamespaceAndType(List<ValidationMessage> errors, String elementNs, String xsiType, Element e, String path, Property prop, int line, int col) throws FHIRFormatError {
+    String ns = prop.getXmlNamespace();
+    if (elementNs == null) {
+      elementNs = "noNamespace";
+    }
+    if (!elementNs.equals(ns)) {
+      logError(errors, ValidationMessage.NO_RULE_DATE, line, col, path, IssueType.INVALID, context.formatMessage(I18nConstants.WRONG_NAMESPACE__EXPECTED_, ns), IssueSeverity.ERROR);
+    }
+    if (!Utilities.noString(xsiType)) {
+      String actualType = prop.getXmlTypeName();
+      if (xsiType.equals(actualType)) {
+        logError(errors, "2023-10-12", line, col, path, IssueType.INVALID, context.formatMessage(I18nConstants.XSI_TYPE_UNNECESSARY), IssueSeverity.INFORMATION);            
+      } else {
+        StructureDefinition sd = findLegalConstraint(xsiType, actualType);
+        if (sd != null) {
+          e.setType(sd.getType());
+          e.setExplicitType(xsiType);
+        } else {
+          logError(errors, "2023-10-12", line, col, path, IssueType.INVALID, context.formatMessage(I18nConstants.XSI_TYPE_WRONG, xsiType, actualType), IssueSeverity.ERROR);           
+        }  
       }
     }
   }
@@ -347,16 +375,16 @@ public class XmlParser extends ParserBase {
         if ("ED.data[x]".equals(property.getDefinition().getId()) || (property.getDefinition()!=null && property.getDefinition().getBase()!=null && "ED.data[x]".equals(property.getDefinition().getBase().getPath()))) {
           if ("B64".equals(node.getAttribute("representation"))) {
             Element n = new Element("dataBase64Binary", property, "base64Binary", text).markLocation(line, col).setFormat(FhirFormat.XML);
-            n.setPath(element.getPath()+"."+property.getName());
+            n.setPath(element, property.getName(), -1);
             element.getChildren().add(n);
           } else {
             Element n = new Element("dataString", property, "string", text).markLocation(line, col).setFormat(FhirFormat.XML);
-            n.setPath(element.getPath()+"."+property.getName());
+            n.setPath(element, property.getName(), -1);
             element.getChildren().add(n);
           }
         } else {
           Element n = new Element(property.getName(), property, property.getType(), text).markLocation(line, col).setFormat(FhirFormat.XML);
-          n.setPath(element.getPath()+"."+property.getName());
+          n.setPath(element, property.getName(), -1);
           element.getChildren().add(n);
         }
       } else {
@@ -403,7 +431,7 @@ public class XmlParser extends ParserBase {
             }
             for (String v : vl) {
               Element n = new Element(property.getName(), property, property.getType(), v).markLocation(line, col).setFormat(FhirFormat.XML);
-              n.setPath(element.getPath()+"."+property.getName());
+              n.setPath(element, property.getName(), -1);
               element.getChildren().add(n);
             }
           }
@@ -451,7 +479,7 @@ public class XmlParser extends ParserBase {
               }
             }
             Element n = new Element(property.getName(), property, "xhtml", new XhtmlComposer(XhtmlComposer.XML, false).compose(xhtml)).setXhtml(xhtml).markLocation(line(child, false), col(child, false)).setFormat(FhirFormat.XML).setNativeObject(child);
-            n.setPath(element.getPath()+"."+property.getName());
+            n.setPath(element, property.getName(), -1);
             element.getChildren().add(n);
           } else {
             String npath = path+"/"+pathPrefix(child.getNamespaceURI())+child.getLocalName();
@@ -461,9 +489,9 @@ public class XmlParser extends ParserBase {
             }
             Element n = new Element(name, property).markLocation(line(child, false), col(child, false)).setFormat(FhirFormat.XML).setNativeObject(child);
             if (property.isList()) {
-              n.setPath(element.getPath()+"."+property.getName()+"["+repeatCount+"]");    				  
+              n.setPath(element, property.getName(), repeatCount);    				  
             } else {
-              n.setPath(element.getPath()+"."+property.getName());
+              n.setPath(element, property.getName(), -1);
             }
             boolean xsiTypeChecked = false;
             boolean ok = true;
@@ -511,14 +539,14 @@ public class XmlParser extends ParserBase {
               String npath = path+"/"+pathPrefix(cgProp.getXmlNamespace())+cgProp.getName();
               String name = cgProp.getName();
               Element cgn = new Element(cgProp.getName(), cgProp).setFormat(FhirFormat.XML);
-              cgn.setPath(element.getPath()+"."+cgProp.getName()+"["+repeatCount+"]"); 
+              cgn.setPath(element, cgProp.getName(), repeatCount); 
               element.getChildren().add(cgn);
 
               npath = npath+"/"+pathPrefix(child.getNamespaceURI())+child.getLocalName();
               name = child.getLocalName();
               Element n = new Element(name, property).markLocation(line(child, false), col(child, false)).setFormat(FhirFormat.XML).setNativeObject(child);
               cgn.getChildren().add(n);
-              n.setPath(element.getPath()+"."+property.getName());
+              n.setPath(element, property.getName(), -1);
               checkElement(errors, (org.w3c.dom.Element) child, n, npath, n.getProperty(), false);
               parseChildren(errors, npath, (org.w3c.dom.Element) child, n);
             }
@@ -538,14 +566,14 @@ public class XmlParser extends ParserBase {
         String npath = path+"/"+pathPrefix(cgProp.getXmlNamespace())+cgProp.getName();
         String name = cgProp.getName();
         Element cgn = new Element(cgProp.getName(), cgProp).setFormat(FhirFormat.XML);
-        cgn.setPath(element.getPath()+"."+cgProp.getName()+"["+repeatCount+"]"); 
+        cgn.setPath(element, cgProp.getName(), repeatCount); 
         element.getChildren().add(cgn);
 
         npath = npath+"/text()";
         name = mtProp.getName();
         Element n = new Element(name, mtProp, mtProp.getType(), child.getTextContent().trim()).markLocation(line(child, false), col(child, false)).setFormat(FhirFormat.XML).setNativeObject(child);
         cgn.getChildren().add(n);
-        n.setPath(element.getPath()+"."+mtProp.getName());
+        n.setPath(element, mtProp.getName(), -1);
 
 
       } else if (child.getNodeType() == Node.CDATA_SECTION_NODE) {
@@ -557,6 +585,557 @@ public class XmlParser extends ParserBase {
     }
   }
 
+  // --- streaming (StAX) parsing -----------------------------------------------------------
+  // this follows the DOM based routines above, and produces the same element tree and the same messages
+
+  private static class StreamAttribute {
+    private String name;
+    private String localName;
+    private String namespace;
+    private String value;
+
+    private StreamAttribute(String name, String localName, String namespace, String value) {
+      this.name = name;
+      this.localName = localName;
+      this.namespace = namespace;
+      this.value = value;
+    }
+  }
+
+  private static class StreamText {
+    private String text;
+    private int line;
+    private int col;
+
+    private StreamText(String text, int line, int col) {
+      this.text = text;
+      this.line = line;
+      this.col = col;
+    }
+  }
+
+  private Element parseStreaming(List<ValidationMessage> errors, byte[] content) throws FHIRFormatError, DefinitionException, FHIRException, IOException {
+    ByteArrayInputStream stream = new ByteArrayInputStream(content);
+    if (policy == ValidationPolicy.EVERYTHING) {
+      stream.mark(1024);
+      version = checkHeader(errors, stream);
+      stream.reset();
+    }
+    int start = errors == null ? 0 : errors.size();
+    XMLStreamReader xml = null;
+    try {
+      xml = XMLUtil.newXXEProtectedXMLInputFactory().createXMLStreamReader(stream);
+      return parseDocument(errors, xml);
+    } catch (XMLStreamException e) {
+      // the DOM parser doesn't produce anything but the error when the xml isn't well formed, so neither do we
+      if (errors != null) {
+        errors.subList(start, errors.size()).clear();
+      }
+      int line = e.getLocation() == null ? 0 : e.getLocation().getLineNumber();
+      int col = e.getLocation() == null ? 0 : e.getLocation().getColumnNumber();
+      String msg = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+      if (msg.contains("Message: ")) {
+        msg = msg.substring(msg.indexOf("Message: ")+9).trim();
+      }
+      logError(errors, ValidationMessage.NO_RULE_DATE, line, col, "(xml)", IssueType.INVALID, msg, IssueSeverity.FATAL);
+      return null;
+    } finally {
+      if (xml != null) {
+        try {
+          xml.close();
+        } catch (XMLStreamException e) {
+          // nothing
+        }
+      }
+    }
+  }
+
+  private Element parseDocument(List<ValidationMessage> errors, XMLStreamReader xml) throws XMLStreamException, FHIRFormatError, DefinitionException, FHIRException, IOException {
+    int index = errors == null ? 0 : errors.size();
+    List<String> comments = new ArrayList<>();
+    boolean hasPI = false;
+    int event = xml.getEventType();
+    while (event != XMLStreamConstants.START_ELEMENT) {
+      if (event == XMLStreamConstants.COMMENT) {
+        comments.add(xml.getText());
+      } else if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+        hasPI = true;
+      } else if (event == XMLStreamConstants.DTD) {
+        throw new XMLStreamException("DOCTYPE is disallowed when the feature \""+XMLUtil.APACHE_XML_FEATURES_DISALLOW_DOCTYPE_DECL+"\" set to true.", xml.getLocation());
+      }
+      if (!xml.hasNext()) {
+        throw new XMLStreamException("Premature end of file.", xml.getLocation());
+      }
+      event = xml.next();
+    }
+    String ns = namespace(xml);
+    String name = xml.getLocalName();
+    String path = "/"+pathPrefix(ns)+name;
+    int line = xml.getLocation().getLineNumber();
+    int col = xml.getLocation().getColumnNumber();
+
+    Element result = null;
+    StructureDefinition sd = getDefinition(errors, line, col, (ns == null ? "noNamespace" : ns), name);
+    if (sd == null) {
+      skipElement(xml);
+    } else {
+      result = new Element(name, new Property(context, sd.getSnapshot().getElement().get(0), sd, getProfileUtilities(), getContextUtilities())).setFormat(FhirFormat.XML);
+      result.setPath(name);
+      int errorIndex = errors == null ? 0 : errors.size();
+      boolean hasAttributes = xml.getAttributeCount() > 0;
+      checkElement(errors, ns, xml.getAttributeValue(FormatUtilities.NS_XSI, "type"), result, path, result.getProperty(), false, line, col);
+      result.markLocation(line, col);
+      result.setType(name);
+      boolean hasContent = parseChildren(errors, path, xml, result, comments);
+      checkNotEmpty(errors, errorIndex, ns, hasAttributes || hasContent, path, line, col);
+      result.numberChildren();
+    }
+    while (xml.hasNext()) {
+      if (xml.next() == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+        hasPI = true;
+      }
+    }
+    if (hasPI && policy == ValidationPolicy.EVERYTHING && FormatUtilities.FHIR_NS.equals(ns)) {
+      logErrorAt(errors, index, ValidationMessage.NO_RULE_DATE, 0, 0, "(document)", IssueType.INVALID, context.formatMessage(
+          I18nConstants.NO_PROCESSING_INSTRUCTIONS_ALLOWED_IN_RESOURCES), IssueSeverity.ERROR);
+    }
+    return result;
+  }
+
+  private void checkElement(List<ValidationMessage> errors, String elementNs, String xsiType, Element e, String path, Property prop, boolean xsiTypeChecked, int line, int col) throws FHIRFormatError {
+    if (policy == ValidationPolicy.EVERYTHING) {
+      checkNamespaceAndType(errors, elementNs, xsiTypeChecked ? null : xsiType, e, path, prop, line, col);
+    }
+  }
+
+  /**
+   * the DOM parser checks for empty elements up front, but we only know once we've seen the
+   * end of the element, so the message is inserted where it would have been
+   */
+  private void checkNotEmpty(List<ValidationMessage> errors, int index, String ns, boolean hasContent, String path, int line, int col) throws FHIRFormatError {
+    if (policy == ValidationPolicy.EVERYTHING && !hasContent && FormatUtilities.FHIR_NS.equals(ns)) { // this rule only applies to FHIR Content
+      logErrorAt(errors, index, ValidationMessage.NO_RULE_DATE, line, col, path, IssueType.INVALID, context.formatMessage(I18nConstants.ELEMENT_MUST_HAVE_SOME_CONTENT), IssueSeverity.ERROR);
+    }
+  }
+
+  private boolean logErrorAt(List<ValidationMessage> errors, int index, String ruleDate, int line, int col, String path, IssueType type, String message, IssueSeverity level) throws FHIRFormatError {
+    int count = errors == null ? 0 : errors.size();
+    logError(errors, ruleDate, line, col, path, type, message, level);
+    if (errors != null && errors.size() > count) {
+      errors.add(index, errors.remove(errors.size() - 1));
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * The reader is positioned on the start of the element. When this returns, it's positioned on the end of the element
+   *
+   * @return true if the element has any content (apart from attributes, which the caller knows about)
+   */
+  private boolean parseChildren(List<ValidationMessage> errors, String path, XMLStreamReader xml, Element element, List<String> comments) throws FHIRFormatError, FHIRException, IOException, DefinitionException, XMLStreamException {
+    // this parsing routine retains the original order in a the XML file, to support validation
+    element.getComments().addAll(0, comments);
+    List<Property> properties = element.getProperty().getChildProperties(element.getName(), xml.getAttributeValue(FormatUtilities.NS_XSI, "type"));
+    Property cgProp = getChoiceGroupProp(properties);
+    Property mtProp = cgProp == null ? null : getTextProp(cgProp.getChildProperties(null, null));
+
+    String ns = namespace(xml);
+    String nodeName = Utilities.noString(xml.getPrefix()) ? xml.getLocalName() : xml.getPrefix()+":"+xml.getLocalName();
+    String representation = xml.getAttributeValue(null, "representation");
+    int line = xml.getLocation().getLineNumber();
+    int col = xml.getLocation().getColumnNumber();
+    int textIndex = element.getChildren().size();
+    int errorIndex = errors == null ? 0 : errors.size();
+
+    for (StreamAttribute attr : readAttributes(xml)) {
+      if (!validAttrValue(attr.value)) {
+        logError(errors, ValidationMessage.NO_RULE_DATE, line, col, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.XML_ATTR_VALUE_INVALID, attr.name), IssueSeverity.ERROR);
+      }
+      if (!(attr.name.equals("xmlns") || attr.name.startsWith("xmlns:"))) {
+        Property property = getAttrProp(properties, attr.localName, attr.namespace);
+        if (property != null) {
+          String av = attr.value;
+          if (ToolingExtensions.hasExtension(property.getDefinition(), ToolingExtensions.EXT_DATE_FORMAT))
+            av = convertForDateFormatFromExternal(ToolingExtensions.readStringExtension(property.getDefinition(), ToolingExtensions.EXT_DATE_FORMAT), av);
+          if (property.getName().equals("value") && element.isPrimitive())
+            element.setValue(av);
+          else {
+            String[] vl = {av};
+            if (property.isList() && av.contains(" ")) {
+              vl = av.split(" ");
+            }
+            for (String v : vl) {
+              Element n = new Element(property.getName(), property, property.getType(), v).markLocation(line, col).setFormat(FhirFormat.XML);
+              n.setPath(element, property.getName(), -1);
+              element.getChildren().add(n);
+            }
+          }
+        } else {
+          boolean ok = false;
+          if (FormatUtilities.FHIR_NS.equals(ns)) {
+            if (attr.localName.equals("schemaLocation") && FormatUtilities.NS_XSI.equals(attr.namespace)) {
+              ok = ok || allowXsiLocation;
+            }
+          } else
+            ok = ok || (attr.localName.equals("schemaLocation")); // xsi:schemalocation allowed for non FHIR content
+          ok = ok || (hasTypeAttr(element) && attr.localName.equals("type") && FormatUtilities.NS_XSI.equals(attr.namespace)); // xsi:type allowed if element says so
+          if (!ok) {
+            logError(errors, ValidationMessage.NO_RULE_DATE, line, col, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.UNDEFINED_ATTRIBUTE__ON__FOR_TYPE__PROPERTIES__, attr.name, nodeName, element.fhirType(), properties), IssueSeverity.ERROR);
+          }
+        }
+      }
+    }
+
+    boolean hasContent = false;
+    boolean hasChildElement = false;
+    StringBuilder directText = new StringBuilder();
+    List<StreamText> strayText = new ArrayList<>();
+    List<String> pendingComments = new ArrayList<>();
+    StreamText text = null;
+    String lastName = null;
+    int repeatCount = 0;
+    int event = xml.next();
+    while (true) {
+      if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+        if (text == null) {
+          text = new StreamText(xml.getText(), xml.getLocation().getLineNumber(), xml.getLocation().getColumnNumber());
+        } else {
+          text.text = text.text + xml.getText();
+        }
+        event = xml.next();
+        continue;
+      }
+      if (text != null) {
+        // a complete text node
+        directText.append(text.text);
+        if (!Utilities.noString(text.text.trim())) {
+          hasContent = true;
+          if (mtProp != null) {
+            if (cgProp.getName().equals(lastName)) {
+              repeatCount++;
+            } else {
+              lastName = cgProp.getName();
+              repeatCount = 0;
+            }
+
+            Element cgn = new Element(cgProp.getName(), cgProp).setFormat(FhirFormat.XML);
+            cgn.setPath(element, cgProp.getName(), repeatCount);
+            element.getChildren().add(cgn);
+
+            Element n = new Element(mtProp.getName(), mtProp, mtProp.getType(), text.text.trim()).markLocation(text.line, text.col).setFormat(FhirFormat.XML);
+            cgn.getChildren().add(n);
+            n.setPath(element, mtProp.getName(), -1);
+          } else {
+            strayText.add(text);
+          }
+        }
+        text = null;
+      }
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        break;
+      }
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        hasContent = true;
+        hasChildElement = true;
+        List<String> childComments = pendingComments;
+        pendingComments = new ArrayList<>();
+        String cns = namespace(xml);
+        String cname = xml.getLocalName();
+        int cline = xml.getLocation().getLineNumber();
+        int ccol = xml.getLocation().getColumnNumber();
+        Property property = getElementProp(properties, cname, cns);
+
+        if (property != null) {
+          if (property.getName().equals(lastName)) {
+            repeatCount++;
+          } else {
+            lastName = property.getName();
+            repeatCount = 0;
+          }
+          if (!property.isChoice() && "xhtml".equals(property.getType())) {
+            org.w3c.dom.Element child = readDom(xml);
+            XhtmlNode xhtml;
+            if (property.getDefinition().hasRepresentation(PropertyRepresentation.CDATEXT))
+              xhtml = new CDANarrativeFormat().convert(child);
+            else {
+              XhtmlParser xp = new XhtmlParser();
+              xhtml = xp.parseHtmlNode(child);
+              if (policy == ValidationPolicy.EVERYTHING) {
+                for (StringPair s : xp.getValidationIssues()) {
+                  logError(errors, "2022-11-17", cline, ccol, path, IssueType.INVALID, context.formatMessage(s.getName(), s.getValue()), IssueSeverity.ERROR);
+                }
+              }
+            }
+            Element n = new Element(property.getName(), property, "xhtml", new XhtmlComposer(XhtmlComposer.XML, false).compose(xhtml)).setXhtml(xhtml).markLocation(cline, ccol).setFormat(FhirFormat.XML).setNativeObject(child);
+            n.setPath(element, property.getName(), -1);
+            element.getChildren().add(n);
+          } else {
+            String npath = path+"/"+pathPrefix(cns)+cname;
+            String name = cname;
+            if (!property.isChoice() && !name.equals(property.getName())) {
+              name = property.getName();
+            }
+            Element n = new Element(name, property).markLocation(cline, ccol).setFormat(FhirFormat.XML);
+            if (property.isList()) {
+              n.setPath(element, property.getName(), repeatCount);
+            } else {
+              n.setPath(element, property.getName(), -1);
+            }
+            boolean xsiTypeChecked = false;
+            boolean ok = true;
+            if (property.isChoice()) {
+              if (property.getDefinition().hasRepresentation(PropertyRepresentation.TYPEATTR)) {
+                String xsiType = xml.getAttributeValue(FormatUtilities.NS_XSI, "type");
+                if (Utilities.noString(xsiType)) {
+                  if (ToolingExtensions.hasExtension(property.getDefinition(), "http://hl7.org/fhir/StructureDefinition/elementdefinition-defaulttype")) {
+                    xsiType = ToolingExtensions.readStringExtension(property.getDefinition(), "http://hl7.org/fhir/StructureDefinition/elementdefinition-defaulttype");
+                    n.setType(xsiType);
+                  } else {
+                    logError(errors, ValidationMessage.NO_RULE_DATE, cline, ccol, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.NO_TYPE_FOUND_ON_, cname), IssueSeverity.ERROR);
+                    ok = false;
+                  }
+                } else {
+                  if (xsiType.contains(":"))
+                    xsiType = xsiType.substring(xsiType.indexOf(":")+1);
+                  n.setType(xsiType);
+                  n.setExplicitType(xsiType);
+                }
+                xsiTypeChecked = true;
+              } else
+                n.setType(n.getType());
+            }
+            int childErrorIndex = errors == null ? 0 : errors.size();
+            boolean childHasAttributes = xml.getAttributeCount() > 0;
+            checkElement(errors, cns, xml.getAttributeValue(FormatUtilities.NS_XSI, "type"), n, npath, n.getProperty(), xsiTypeChecked, cline, ccol);
+            element.getChildren().add(n);
+            boolean childHasContent;
+            if (ok) {
+              if (property.isResource())
+                childHasContent = parseResource(errors, npath, xml, n, property);
+              else
+                childHasContent = parseChildren(errors, npath, xml, n, childComments);
+            } else {
+              childHasContent = skipElement(xml);
+            }
+            checkNotEmpty(errors, childErrorIndex, cns, childHasAttributes || childHasContent, npath, cline, ccol);
+          }
+        } else {
+          if (cgProp != null) {
+            property = getElementProp(cgProp.getChildProperties(null, null), cname, cns);
+            if (property != null) {
+              if (cgProp.getName().equals(lastName)) {
+                repeatCount++;
+              } else {
+                lastName = cgProp.getName();
+                repeatCount = 0;
+              }
+
+              String npath = path+"/"+pathPrefix(cgProp.getXmlNamespace())+cgProp.getName();
+              Element cgn = new Element(cgProp.getName(), cgProp).setFormat(FhirFormat.XML);
+              cgn.setPath(element, cgProp.getName(), repeatCount);
+              element.getChildren().add(cgn);
+
+              npath = npath+"/"+pathPrefix(cns)+cname;
+              Element n = new Element(cname, property).markLocation(cline, ccol).setFormat(FhirFormat.XML);
+              cgn.getChildren().add(n);
+              n.setPath(element, property.getName(), -1);
+              int childErrorIndex = errors == null ? 0 : errors.size();
+              boolean childHasAttributes = xml.getAttributeCount() > 0;
+              checkElement(errors, cns, xml.getAttributeValue(FormatUtilities.NS_XSI, "type"), n, npath, n.getProperty(), false, cline, ccol);
+              boolean childHasContent = parseChildren(errors, npath, xml, n, childComments);
+              checkNotEmpty(errors, childErrorIndex, cns, childHasAttributes || childHasContent, npath, cline, ccol);
+            }
+          }
+          if (property == null) {
+            logError(errors, ValidationMessage.NO_RULE_DATE, cline, ccol, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.UNDEFINED_ELEMENT_, cname, path), IssueSeverity.ERROR);
+            skipElement(xml);
+          }
+        }
+      } else if (event == XMLStreamConstants.COMMENT) {
+        pendingComments.add(xml.getText());
+      } else if (event == XMLStreamConstants.CDATA) {
+        if (!Utilities.noString(xml.getText().trim())) {
+          hasContent = true;
+        }
+        logError(errors, ValidationMessage.NO_RULE_DATE, xml.getLocation().getLineNumber(), xml.getLocation().getColumnNumber(), path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.CDATA_IS_NOT_ALLOWED), IssueSeverity.ERROR);
+      } else if (event == XMLStreamConstants.PROCESSING_INSTRUCTION || event == XMLStreamConstants.ENTITY_REFERENCE) {
+        String nodeType = event == XMLStreamConstants.PROCESSING_INSTRUCTION ? "7" : "5"; // the DOM node types
+        logError(errors, ValidationMessage.NO_RULE_DATE, xml.getLocation().getLineNumber(), xml.getLocation().getColumnNumber(), path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.NODE_TYPE__IS_NOT_ALLOWED, nodeType), IssueSeverity.ERROR);
+      }
+      event = xml.next();
+    }
+    if (hasChildElement) {
+      element.getComments().addAll(pendingComments);
+    }
+
+    // the text is only known now, but it goes before everything else
+    String txt = directText.toString().trim();
+    if (mtProp == null && !Utilities.noString(txt)) {
+      Property property = getTextProp(properties);
+      if (property != null) {
+        Element n;
+        if ("ED.data[x]".equals(property.getDefinition().getId()) || (property.getDefinition()!=null && property.getDefinition().getBase()!=null && "ED.data[x]".equals(property.getDefinition().getBase().getPath()))) {
+          if ("B64".equals(representation)) {
+            n = new Element("dataBase64Binary", property, "base64Binary", txt).markLocation(line, col).setFormat(FhirFormat.XML);
+          } else {
+            n = new Element("dataString", property, "string", txt).markLocation(line, col).setFormat(FhirFormat.XML);
+          }
+        } else {
+          n = new Element(property.getName(), property, property.getType(), txt).markLocation(line, col).setFormat(FhirFormat.XML);
+        }
+        n.setPath(element, property.getName(), -1);
+        element.getChildren().add(textIndex, n);
+      } else {
+        int index = errorIndex;
+        for (StreamText st : strayText) {
+          if (logErrorAt(errors, index, ValidationMessage.NO_RULE_DATE, st.line, st.col, path, IssueType.STRUCTURE, context.formatMessage(I18nConstants.TEXT_SHOULD_NOT_BE_PRESENT, Utilities.makeSingleLine(st.text.trim())), IssueSeverity.ERROR)) {
+            index++;
+          }
+        }
+      }
+    }
+    return hasContent;
+  }
+
+  private boolean parseResource(List<ValidationMessage> errors, String string, XMLStreamReader xml, Element parent, Property elementProperty) throws FHIRFormatError, DefinitionException, FHIRException, IOException, XMLStreamException {
+    List<String> comments = new ArrayList<>();
+    int event = xml.next();
+    while (event != XMLStreamConstants.START_ELEMENT) {
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        throw new FHIRFormatError(context.formatMessage(I18nConstants.CONTAINED_RESOURCE_DOES_NOT_APPEAR_TO_BE_A_FHIR_RESOURCE_UNKNOWN_NAME_, "(none)"));
+      }
+      if (event == XMLStreamConstants.COMMENT) {
+        comments.add(xml.getText());
+      }
+      event = xml.next();
+    }
+    String name = xml.getLocalName();
+    StructureDefinition sd = context.fetchResource(StructureDefinition.class, ProfileUtilities.sdNs(name, null));
+    if (sd == null)
+      throw new FHIRFormatError(context.formatMessage(I18nConstants.CONTAINED_RESOURCE_DOES_NOT_APPEAR_TO_BE_A_FHIR_RESOURCE_UNKNOWN_NAME_, name));
+    parent.updateProperty(new Property(context, sd.getSnapshot().getElement().get(0), sd, getProfileUtilities(), getContextUtilities()), SpecialElement.fromProperty(parent.getProperty()), elementProperty);
+    parent.setType(name);
+    parseChildren(errors, name, xml, parent, comments);
+    skipElement(xml); // anything after the resource is ignored
+    return true;
+  }
+
+  /**
+   * reads to the end of the element the reader is in (or at the start of)
+   *
+   * @return true if any child elements or text were seen
+   */
+  private boolean skipElement(XMLStreamReader xml) throws XMLStreamException {
+    boolean hasContent = false;
+    int depth = 1;
+    while (depth > 0) {
+      int event = xml.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+        hasContent = true;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      } else if ((event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) && !Utilities.noString(xml.getText().trim())) {
+        hasContent = true;
+      }
+    }
+    return hasContent;
+  }
+
+  /**
+   * Attributes in the order the DOM presents them (sorted by name), including namespace declarations
+   */
+  private List<StreamAttribute> readAttributes(XMLStreamReader xml) {
+    List<StreamAttribute> list = new ArrayList<>();
+    for (int i = 0; i < xml.getNamespaceCount(); i++) {
+      String prefix = xml.getNamespacePrefix(i);
+      String name = Utilities.noString(prefix) ? "xmlns" : "xmlns:"+prefix;
+      list.add(new StreamAttribute(name, Utilities.noString(prefix) ? "xmlns" : prefix, XMLConstants.XMLNS_ATTRIBUTE_NS_URI, xml.getNamespaceURI(i)));
+    }
+    for (int i = 0; i < xml.getAttributeCount(); i++) {
+      String prefix = xml.getAttributePrefix(i);
+      String localName = xml.getAttributeLocalName(i);
+      String ns = xml.getAttributeNamespace(i);
+      list.add(new StreamAttribute(Utilities.noString(prefix) ? localName : prefix+":"+localName, localName, Utilities.noString(ns) ? null : ns, xml.getAttributeValue(i)));
+    }
+    if (list.size() > 1) {
+      list.sort((a1, a2) -> a1.name.compareTo(a2.name));
+    }
+    return list;
+  }
+
+  private String namespace(XMLStreamReader xml) {
+    String ns = xml.getNamespaceURI();
+    return Utilities.noString(ns) ? null : ns;
+  }
+
+  /**
+   * Builds a DOM for the element the reader is positioned on (used for xhtml)
+   */
+  private org.w3c.dom.Element readDom(XMLStreamReader xml) throws XMLStreamException {
+    if (domBuilder == null) {
+      try {
+        DocumentBuilderFactory factory = XMLUtil.newXXEProtectedDocumentBuilderFactory();
+        factory.setNamespaceAware(true);
+        domBuilder = factory.newDocumentBuilder();
+      } catch (ParserConfigurationException e) {
+        throw new FHIRException(e.getMessage(), e);
+      }
+    }
+    Document doc = domBuilder.newDocument();
+    org.w3c.dom.Element root = createDomElement(doc, xml);
+    doc.appendChild(root);
+    Node focus = root;
+    while (focus != null && focus != doc) {
+      switch (xml.next()) {
+      case XMLStreamConstants.START_ELEMENT:
+        org.w3c.dom.Element e = createDomElement(doc, xml);
+        focus.appendChild(e);
+        focus = e;
+        break;
+      case XMLStreamConstants.END_ELEMENT:
+        focus = focus.getParentNode();
+        break;
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.SPACE:
+        if (focus.getLastChild() != null && focus.getLastChild().getNodeType() == Node.TEXT_NODE) {
+          ((org.w3c.dom.Text) focus.getLastChild()).appendData(xml.getText());
+        } else {
+          focus.appendChild(doc.createTextNode(xml.getText()));
+        }
+        break;
+      case XMLStreamConstants.CDATA:
+        focus.appendChild(doc.createCDATASection(xml.getText()));
+        break;
+      case XMLStreamConstants.COMMENT:
+        focus.appendChild(doc.createComment(xml.getText()));
+        break;
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        focus.appendChild(doc.createProcessingInstruction(xml.getPITarget(), xml.getPIData()));
+        break;
+      default:
+        // nothing
+      }
+    }
+    return root;
+  }
+
+  private org.w3c.dom.Element createDomElement(Document doc, XMLStreamReader xml) {
+    String prefix = xml.getPrefix();
+    org.w3c.dom.Element e = doc.createElementNS(namespace(xml), Utilities.noString(prefix) ? xml.getLocalName() : prefix+":"+xml.getLocalName());
+    for (int i = 0; i < xml.getNamespaceCount(); i++) {
+      String p = xml.getNamespacePrefix(i);
+      e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, Utilities.noString(p) ? "xmlns" : "xmlns:"+p, xml.getNamespaceURI(i));
+    }
+    for (int i = 0; i < xml.getAttributeCount(); i++) {
+      String p = xml.getAttributePrefix(i);
+      String ns = xml.getAttributeNamespace(i);
+      e.setAttributeNS(Utilities.noString(ns) ? null : ns, Utilities.noString(p) ? xml.getAttributeLocalName(i) : p+":"+xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+    }
+    return e;
+  }
+
   private Property getChoiceGroupProp(List<Property> properties) {
     for (Property p : properties) {
       if (p.getDefinition().hasExtension(ToolingExtensions.EXT_ID_CHOICE_GROUP)) {
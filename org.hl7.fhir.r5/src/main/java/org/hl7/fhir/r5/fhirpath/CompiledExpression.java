@@ -0,0 +1,41 @@
+package org.hl7.fhir.r5.fhirpath;
+
+/**
+ * A FHIRPath expression that has been compiled by FHIRPathEngine.compile(). Evaluate it with
+ * the FHIRPathEngine.evaluate() / evaluateToBoolean() overloads that take a compiled expression.
+ *
+ * Compiled expressions are immutable, and can be cached and used by multiple threads, but
+ * only with the engine that compiled them
+ */
+public class CompiledExpression {
+
+  private final FHIRPathEngine engine;
+  private final ExpressionNode expression;
+  private final FHIRPathCompiler.Executor executor;
+
+  CompiledExpression(FHIRPathEngine engine, ExpressionNode expression, FHIRPathCompiler.Executor executor) {
+    this.engine = engine;
+    this.expression = expression;
+    this.executor = executor;
+  }
+
+  /**
+   * @return the parsed expression this was compiled from
+   */
+  public ExpressionNode getExpression() {
+    return expression;
+  }
+
+  FHIRPathEngine getEngine() {
+    return engine;
+  }
+
+  FHIRPathCompiler.Executor getExecutor() {
+    return executor;
+  }
+
+  @Override
+  public String toString() {
+    return expression.toString();
+  }
+}
@@ -388,6 +388,7 @@ public class ExpressionNode {
 	private SourceLocation opEnd;
 	private TypeDetails types;
 	private TypeDetails opTypes;
+	private boolean shared; // in the parse cache, so seen by other threads, and not to be changed
 
 
 	public ExpressionNode(int uniqueId) {
@@ -701,6 +702,9 @@ public class ExpressionNode {
 		return Integer.toString(start.getLine())+", "+Integer.toString(start.getColumn());
 	}
 
+	/**
+	 * @return the types worked out by FHIRPathEngine.check(), which are only recorded on trees from parseUncached()
+	 */
 	public TypeDetails getTypes() {
 		return types;
 	}
@@ -717,6 +721,31 @@ public class ExpressionNode {
 		this.opTypes = opTypes;
 	}
 
+	/**
+	 * @return true if this node is part of a tree from the shared parse cache, which must not be changed
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+
+	void markShared() {
+		shared = true;
+		if (parameters != null) {
+			for (ExpressionNode n : parameters) {
+				n.markShared();
+			}
+		}
+		if (inner != null) {
+			inner.markShared();
+		}
+		if (group != null) {
+			group.markShared();
+		}
+		if (opNext != null) {
+			opNext.markShared();
+		}
+	}
+
   public List<String> getDistalNames() {
     List<String> names = new ArrayList<String>();
     if (operation != null) {
@@ -0,0 +1,592 @@
+package org.hl7.fhir.r5.fhirpath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.fhirpath.ExpressionNode.Function;
+import org.hl7.fhir.r5.fhirpath.ExpressionNode.Kind;
+import org.hl7.fhir.r5.fhirpath.ExpressionNode.Operation;
+import org.hl7.fhir.r5.fhirpath.FHIRPathEngine.Equality;
+import org.hl7.fhir.r5.fhirpath.FHIRPathEngine.ExecutionContext;
+import org.hl7.fhir.r5.fhirpath.FHIRPathUtilityClasses.FHIRConstant;
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.BooleanType;
+import org.hl7.fhir.r5.model.IntegerType;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition.StructureDefinitionKind;
+import org.hl7.fhir.utilities.Utilities;
+
+import ca.uhn.fhir.util.ElementUtil;
+
+/**
+ * Compiles parsed FHIRPath expressions for FHIRPathEngine.compile().
+ *
+ * Each node is lowered to an executor that is bound to the node when it is compiled, so evaluation
+ * doesn't dispatch on the node kind or function, and doesn't copy the execution context unless the
+ * expression defines variables. exists(), empty(), count(), where(), ofType(), memberOf() and
+ * hasValue() have specialised executors, with shortcuts for single item collections, and a child
+ * name followed by exists() or count() is counted without building the list of children. Type name
+ * tests are cached per type.
+ *
+ * Everything else is delegated to the engine, so a compiled expression always gives the same
+ * result as the interpreter
+ */
+class FHIRPathCompiler {
+
+  static abstract class Executor {
+    abstract List<Base> execute(ExecutionContext context, List<Base> focus) throws FHIRException;
+  }
+
+  private final FHIRPathEngine engine;
+
+  FHIRPathCompiler(FHIRPathEngine engine) {
+    this.engine = engine;
+  }
+
+  CompiledExpression compile(ExpressionNode expression) {
+    return new CompiledExpression(engine, expression, compile(expression, true));
+  }
+
+  private Executor compile(ExpressionNode exp, boolean atEntry) {
+    return new NodeExecutor(exp, atEntry);
+  }
+
+  /**
+   * the interpreter copies the context for each node so that variables defined in one part of the
+   * expression are not visible in the others. The copy is only needed if something defines a variable
+   */
+  private boolean definesVariables(ExpressionNode exp) {
+    if (exp == null) {
+      return false;
+    }
+    if (exp.getKind() == Kind.Function && exp.getFunction() == Function.DefineVariable) {
+      return true;
+    }
+    if (exp.getParameters() != null) {
+      for (ExpressionNode p : exp.getParameters()) {
+        if (definesVariables(p)) {
+          return true;
+        }
+      }
+    }
+    return definesVariables(exp.getGroup()) || definesVariables(exp.getInner()) || definesVariables(exp.getOpNext());
+  }
+
+  private Executor compileHead(ExpressionNode exp, boolean atEntry) {
+    switch (exp.getKind()) {
+    case Unary:
+      return new UnaryExecutor();
+    case Name:
+      if (atEntry && exp.getName().equals("$this")) {
+        return new ThisExecutor();
+      } else if (atEntry && exp.getName().equals("$total")) {
+        return new TotalExecutor();
+      } else if (atEntry && exp.getName().equals("$index")) {
+        return new IndexExecutor();
+      } else if (atEntry) {
+        return new EntryNameExecutor(exp);
+      } else {
+        return new ChildExecutor(exp.getName());
+      }
+    case Function:
+      return compileFunction(exp);
+    case Constant:
+      return new ConstantExecutor(exp);
+    case Group:
+      return compile(exp.getGroup(), atEntry);
+    default:
+      return new EmptyCollectionExecutor();
+    }
+  }
+
+  private Executor compileFunction(ExpressionNode exp) {
+    switch (exp.getFunction()) {
+    case Empty:
+      return new EmptyExecutor();
+    case Exists:
+      return exp.getParameters().size() == 1 ? new ExistsCriteriaExecutor(exp, compile(exp.getParameters().get(0), true)) : new ExistsExecutor();
+    case Count:
+      return new CountExecutor();
+    case Where:
+      return new WhereExecutor(exp, compile(exp.getParameters().get(0), true));
+    case OfType:
+      return compileOfType(exp);
+    case MemberOf:
+      return compileMemberOf(exp);
+    case HasValue:
+      return new HasValueExecutor();
+    default:
+      return new FunctionExecutor(exp);
+    }
+  }
+
+  private Executor compileOfType(ExpressionNode exp) {
+    ExpressionNode p = exp.getParameters().get(0);
+    String tn = p.getInner() != null ? p.getName()+"."+p.getInner().getName() : "FHIR."+p.getName();
+    // unknown types are an error, which the interpreter reports when it is evaluated
+    if (tn.startsWith("FHIR.") && engine.isKnownType(tn)) {
+      return new OfTypeExecutor(tn.substring(5));
+    } else {
+      return new FunctionExecutor(exp);
+    }
+  }
+
+  private Executor compileMemberOf(ExpressionNode exp) {
+    ExpressionNode p = exp.getParameters().get(0);
+    if (p.getKind() == Kind.Constant && p.getConstant() != null && !(p.getConstant() instanceof FHIRConstant)
+        && p.getInner() == null && p.getOperation() == null && p.getConstant().primitiveValue() != null) {
+      return new MemberOfExecutor(p.getConstant().primitiveValue());
+    } else {
+      return new FunctionExecutor(exp);
+    }
+  }
+
+  /**
+   * a child name followed by exists() or count() - the children don't need to be collected
+   */
+  private boolean canFuse(ExpressionNode exp, boolean atEntry) {
+    ExpressionNode fn = exp.getInner();
+    // getChildrenByName can be overridden
+    return !atEntry && exp.getKind() == Kind.Name && engine.getClass() == FHIRPathEngine.class
+        && fn != null && fn.getKind() == Kind.Function && !(fn.isProximal() && fn.getOperation() != null)
+        && ((fn.getFunction() == Function.Exists && fn.getParameters().isEmpty()) || fn.getFunction() == Function.Count);
+  }
+
+  private class NodeExecutor extends Executor {
+    private final ExpressionNode exp;
+    private final boolean copyContext;
+    private final Executor head;
+    private final Executor inner;
+    private final Operation[] operations;
+    private final ExpressionNode[] holders;
+    private final ExpressionNode[] operands;
+    // null for is and as, where the operand is a type name
+    private final Executor[] operandExecutors;
+
+    private NodeExecutor(ExpressionNode exp, boolean atEntry) {
+      this.exp = exp;
+      copyContext = definesVariables(exp);
+      ExpressionNode rest = exp.getInner();
+      if (canFuse(exp, atEntry)) {
+        head = new ChildCountExecutor(exp.getName(), rest.getFunction() == Function.Count, compileHead(rest, false));
+        rest = rest.getInner();
+      } else {
+        head = compileHead(exp, atEntry);
+      }
+      inner = rest == null ? null : compile(rest, false);
+
+      int count = 0;
+      if (exp.isProximal() && exp.getOperation() != null) {
+        for (ExpressionNode next = exp.getOpNext(); next != null; next = next.getOpNext()) {
+          count++;
+        }
+      }
+      operations = new Operation[count];
+      holders = new ExpressionNode[count];
+      operands = new ExpressionNode[count];
+      operandExecutors = new Executor[count];
+      ExpressionNode last = exp;
+      for (int i = 0; i < count; i++) {
+        ExpressionNode next = last.getOpNext();
+        operations[i] = last.getOperation();
+        holders[i] = last;
+        operands[i] = next;
+        operandExecutors[i] = operations[i] == Operation.Is || operations[i] == Operation.As ? null : compile(next, true);
+        last = next;
+      }
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext inContext, List<Base> focus) throws FHIRException {
+      ExecutionContext context = copyContext ? engine.contextForParameter(inContext) : inContext;
+      List<Base> work = head.execute(context, focus);
+      if (inner != null) {
+        work = inner.execute(context, work);
+      }
+      for (int i = 0; i < operations.length; i++) {
+        if (copyContext) {
+          context = engine.contextForParameter(inContext);
+        }
+        List<Base> work2 = engine.preOperate(work, operations[i], exp);
+        if (work2 != null) {
+          work = work2;
+        } else if (operandExecutors[i] == null) {
+          work = engine.operate(context, work, operations[i], engine.executeTypeName(context, focus, operands[i], false), holders[i]);
+        } else {
+          work = engine.operate(context, work, operations[i], operandExecutors[i].execute(context, focus), holders[i]);
+        }
+      }
+      return work;
+    }
+  }
+
+  private class UnaryExecutor extends Executor {
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      List<Base> result = new ArrayList<Base>(1);
+      result.add(new IntegerType(0));
+      return result;
+    }
+  }
+
+  private class EmptyCollectionExecutor extends Executor {
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      return new ArrayList<Base>();
+    }
+  }
+
+  private class ThisExecutor extends Executor {
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      List<Base> result = new ArrayList<Base>(1);
+      result.add(context.getThisItem());
+      return result;
+    }
+  }
+
+  private class TotalExecutor extends Executor {
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      return new ArrayList<Base>(context.getTotal());
+    }
+  }
+
+  private class IndexExecutor extends Executor {
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      List<Base> result = new ArrayList<Base>(1);
+      result.add(context.getIndex());
+      return result;
+    }
+  }
+
+  /**
+   * the first name in an expression can be a constant known to the host, or a type name
+   */
+  private class EntryNameExecutor extends Executor {
+    private final ExpressionNode exp;
+    private final String name;
+    private final boolean typeName;
+    private final Map<String, Boolean> types = new ConcurrentHashMap<>();
+
+    private EntryNameExecutor(ExpressionNode exp) {
+      this.exp = exp;
+      this.name = exp.getName();
+      this.typeName = Character.isUpperCase(name.charAt(0));
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) throws FHIRException {
+      List<Base> result = new ArrayList<Base>();
+      if (context.getAppInfo() != null && engine.getHostServices() != null) {
+        for (Base item : focus) {
+          for (Base base : engine.execute(context, item, exp, true)) {
+            if (base != null) {
+              result.add(base);
+            }
+          }
+        }
+      } else if (typeName) {
+        for (Base item : focus) {
+          if (isType(item)) {
+            result.add(item);
+          }
+        }
+      } else {
+        for (Base item : focus) {
+          engine.getChildrenByName(item, name, result);
+        }
+      }
+      return result;
+    }
+
+    private boolean isType(Base item) {
+      String type = item.fhirType();
+      Boolean res = types.get(type);
+      if (res == null) {
+        StructureDefinition sd = engine.getWorker().fetchTypeDefinition(type);
+        if (sd == null) {
+          // logical model
+          return name.equals(type);
+        }
+        res = false;
+        while (sd != null) {
+          if (sd.getType().equals(name) || sd.getTypeTail().equals(name)) {
+            res = true;
+            break;
+          }
+          sd = engine.getWorker().fetchResource(StructureDefinition.class, sd.getBaseDefinition(), sd);
+        }
+        types.put(type, res);
+      }
+      return res;
+    }
+  }
+
+  private class ChildExecutor extends Executor {
+    private final String name;
+
+    private ChildExecutor(String name) {
+      this.name = name;
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) throws FHIRException {
+      List<Base> result = new ArrayList<Base>();
+      for (Base item : focus) {
+        engine.getChildrenByName(item, name, result);
+      }
+      return result;
+    }
+  }
+
+  private class ChildCountExecutor extends Executor {
+    private final String name;
+    private final boolean count;
+    private final Executor function;
+
+    private ChildCountExecutor(String name, boolean count, Executor function) {
+      this.name = name;
+      this.count = count;
+      this.function = function;
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) throws FHIRException {
+      if (engine.isAllowPolymorphicNames()) {
+        List<Base> children = new ArrayList<Base>();
+        for (Base item : focus) {
+          engine.getChildrenByName(item, name, children);
+        }
+        return function.execute(context, children);
+      }
+      int n = 0;
+      boolean exists = false;
+      for (Base item : focus) {
+        Base[] list = item.listChildrenByName(name, false);
+        if (list != null) {
+          for (Base v : list) {
+            if (v != null) {
+              n++;
+              if (!count && !engine.filterIdType(v).isEmpty()) {
+                exists = true;
+                break;
+              }
+            }
+          }
+        }
+        if (exists) {
+          break;
+        }
+      }
+      return count ? makeInteger(n) : makeBoolean(exists);
+    }
+  }
+
+  private class ConstantExecutor extends Executor {
+    private final ExpressionNode exp;
+    private final Base constant;
+    private final boolean literal;
+
+    private ConstantExecutor(ExpressionNode exp) {
+      this.exp = exp;
+      this.constant = exp.getConstant();
+      this.literal = !(constant instanceof FHIRConstant);
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) throws FHIRException {
+      if (constant == null) {
+        return new ArrayList<Base>();
+      } else if (literal) {
+        List<Base> result = new ArrayList<Base>(1);
+        result.add(constant);
+        return result;
+      } else {
+        // this can be the value of a variable, so it's copied
+        return new ArrayList<Base>(engine.resolveConstant(context, constant, false, exp, true));
+      }
+    }
+  }
+
+  private class FunctionExecutor extends Executor {
+    private final ExpressionNode exp;
+
+    private FunctionExecutor(ExpressionNode exp) {
+      this.exp = exp;
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) throws FHIRException {
+      return new ArrayList<Base>(engine.evaluateFunction(context, focus, exp));
+    }
+  }
+
+  private class EmptyExecutor extends Executor {
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      return makeBoolean(ElementUtil.isEmpty(focus));
+    }
+  }
+
+  private class ExistsExecutor extends Executor {
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      if (focus.size() == 1) {
+        return makeBoolean(!focus.get(0).isEmpty());
+      }
+      for (Base f : focus) {
+        if (!f.isEmpty()) {
+          return makeBoolean(true);
+        }
+      }
+      return makeBoolean(false);
+    }
+  }
+
+  private class ExistsCriteriaExecutor extends Executor {
+    private final ExpressionNode exp;
+    private final Executor criteria;
+
+    private ExistsCriteriaExecutor(ExpressionNode exp, Executor criteria) {
+      this.exp = exp;
+      this.criteria = criteria;
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) throws FHIRException {
+      // every item is tested, as the interpreter does, so that errors are reported the same way
+      boolean exists = false;
+      List<Base> pc = new ArrayList<Base>(1);
+      for (Base f : focus) {
+        pc.clear();
+        pc.add(f);
+        if (engine.asBool(criteria.execute(engine.changeThis(context, f), pc), exp) == Equality.True) {
+          exists = true;
+        }
+      }
+      return makeBoolean(exists);
+    }
+  }
+
+  private class CountExecutor extends Executor {
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      return makeInteger(focus.size());
+    }
+  }
+
+  private class WhereExecutor extends Executor {
+    private final ExpressionNode exp;
+    private final Executor criteria;
+
+    private WhereExecutor(ExpressionNode exp, Executor criteria) {
+      this.exp = exp;
+      this.criteria = criteria;
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) throws FHIRException {
+      List<Base> pc = new ArrayList<Base>(1);
+      if (focus.size() == 1) {
+        Base item = focus.get(0);
+        pc.add(item);
+        if (engine.asBool(criteria.execute(engine.changeThis(context, item), pc), exp) == Equality.True) {
+          return pc;
+        }
+        return new ArrayList<Base>();
+      }
+      List<Base> result = new ArrayList<Base>();
+      for (Base item : focus) {
+        pc.clear();
+        pc.add(item);
+        if (engine.asBool(criteria.execute(engine.changeThis(context, item), pc), exp) == Equality.True) {
+          result.add(item);
+        }
+      }
+      return result;
+    }
+  }
+
+  private class OfTypeExecutor extends Executor {
+    private final String type;
+    private final Map<String, Boolean> types = new ConcurrentHashMap<>();
+
+    private OfTypeExecutor(String type) {
+      this.type = type;
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      List<Base> result = new ArrayList<Base>();
+      for (Base b : focus) {
+        if (isType(b.fhirType())) {
+          result.add(b);
+        }
+      }
+      return result;
+    }
+
+    private boolean isType(String ft) {
+      if (ft.equals(type)) {
+        return true;
+      }
+      Boolean res = types.get(ft);
+      if (res == null) {
+        StructureDefinition sd = engine.getWorker().fetchTypeDefinition(ft);
+        if (sd == null) {
+          return false;
+        }
+        res = false;
+        while (sd != null) {
+          if (type.equals(sd.getType())) {
+            res = true;
+            break;
+          }
+          sd = sd.getKind() == StructureDefinitionKind.PRIMITIVETYPE ? null : engine.getWorker().fetchResource(StructureDefinition.class, sd.getBaseDefinition(), sd);
+        }
+        types.put(ft, res);
+      }
+      return res;
+    }
+  }
+
+  private class MemberOfExecutor extends Executor {
+    private final String url;
+
+    private MemberOfExecutor(String url) {
+      this.url = url;
+    }
+
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      if (focus.size() != 1) {
+        return new ArrayList<Base>();
+      }
+      return engine.memberOf(context, focus.get(0), url);
+    }
+  }
+
+  private class HasValueExecutor extends Executor {
+    @Override
+    List<Base> execute(ExecutionContext context, List<Base> focus) {
+      return makeBoolean(focus.size() == 1 && !Utilities.noString(engine.convertToString(focus.get(0))));
+    }
+  }
+
+  private List<Base> makeBoolean(boolean b) {
+    List<Base> res = new ArrayList<Base>(1);
+    res.add(new BooleanType(b).noExtensions());
+    return res;
+  }
+
+  private List<Base> makeInteger(int i) {
+    List<Base> res = new ArrayList<Base>(1);
+    res.add(new IntegerType(i).noExtensions());
+    return res;
+  }
+}
@@ -72,6 +72,7 @@ import org.hl7.fhir.utilities.FhirPublication;
 import org.hl7.fhir.utilities.MarkDownProcessor;
 import org.hl7.fhir.utilities.MergedList;
 import org.hl7.fhir.utilities.MergedList.MergeNode;
+import org.hl7.fhir.utilities.RegexCache;
 import org.hl7.fhir.utilities.SourceLocation;
 import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.VersionUtilities;
@@ -167,7 +168,7 @@ public class FHIRPathEngine {
 
   }
 
-  private enum Equality { Null, True, False }
+  enum Equality { Null, True, False }
   
   private IWorkerContext worker;
   private IEvaluationContext hostServices;
@@ -186,6 +187,9 @@ public class FHIRPathEngine {
   private boolean allowDoubleQuotes;
   private List<IssueMessage> typeWarnings = new ArrayList<>();
   private boolean emitSQLonFHIRWarning;
+  private boolean usedCustomFunction; // set while parsing: expressions that use host functions depend on the host, so aren't cached
+
+  private static final FHIRPathExpressionCache expressionCache = new FHIRPathExpressionCache(FHIRPathExpressionCache.DEFAULT_MAX_SIZE);
 
   // if the fhir path expressions are allowed to use constants beyond those defined in the specification
   // the application can implement them by providing a constant resolver 
@@ -304,6 +308,14 @@ public class FHIRPathEngine {
   // if you don't override, it falls through to the using the base reference implementation 
   // HAPI overrides to these to support extending the base model
 
+  /**
+   * The cache of parsed expressions shared by all engines. Use this to see the hit/miss 
+   * statistics, or to change the size of the cache (0 turns it off)
+   */
+  public static FHIRPathExpressionCache getExpressionCache() {
+    return expressionCache;
+  }
+
   public IEvaluationContext getHostServices() {
     return hostServices;
   }
@@ -362,7 +374,7 @@ public class FHIRPathEngine {
     }
   }
 
-  private Base filterIdType(Base v) {
+  Base filterIdType(Base v) {
     if (v instanceof IIdType) {
       return (Base) ((IIdType) v).toUnqualifiedVersionless().withResourceType(null);
     }
@@ -416,6 +428,29 @@ public class FHIRPathEngine {
   }
 
   public ExpressionNode parse(String path, String name) throws FHIRLexerException {
+    String key = FHIRPathExpressionCache.key(path, allowDoubleQuotes);
+    ExpressionNode result = expressionCache.get(key);
+    if (result == null) {
+      usedCustomFunction = false;
+      result = parseUncached(path, name);
+      if (!usedCustomFunction) {
+        result.markShared();
+        expressionCache.put(key, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Parse a path without consulting the shared expression cache. The trees returned by 
+   * parse() may be shared with other callers, so use this when the caller is going to 
+   * modify the tree
+   */
+  public ExpressionNode parseUncached(String path) throws FHIRLexerException {
+    return parseUncached(path, null);
+  }
+
+  public ExpressionNode parseUncached(String path, String name) throws FHIRLexerException {
     FHIRLexer lexer = new FHIRLexer(path, name, false, allowDoubleQuotes);
     if (lexer.done()) {
       throw lexer.error("Path cannot be empty");
@@ -881,6 +916,77 @@ public class FHIRPathEngine {
     return execute(new ExecutionContext(appContext, focusResource, rootResource, base, base), list, exp, true);
   }
 
+  /**
+   * compile a parsed expression to a tree of executors bound to this engine. Compiled 
+   * expressions give the same results as the parsed expression, but avoid most of the 
+   * per-evaluation dispatch and allocation, so compile expressions that are evaluated 
+   * many times (e.g. invariants). The expression doesn't need to have been checked 
+   * 
+   * The compiled expression can be shared between threads, but it can only be evaluated 
+   * by this engine 
+   * 
+   * @param expressionNode - the parsed ExpressionNode statement to compile
+   * @return
+   */
+  public CompiledExpression compile(ExpressionNode expressionNode) {
+    return new FHIRPathCompiler(this).compile(expressionNode);
+  }
+
+  /**
+   * parse and compile a path (see compile(ExpressionNode))
+   * 
+   * @param path - the FHIR Path statement to compile
+   * @return
+   * @throws FHIRException 
+   */
+  public CompiledExpression compile(String path) throws FHIRException {
+    return compile(parse(path));
+  }
+
+  /**
+   * evaluate a compiled path and return the matching elements
+   * 
+   * @param base - the object against which the path is being evaluated
+   * @param expression - the compiled expression to use
+   * @return
+   * @throws FHIRException 
+   */
+  public List<Base> evaluate(Base base, CompiledExpression expression) throws FHIRException {
+    return evaluate(null, base != null && base.isResource() ? base : null, base != null && base.isResource() ? base : null, base, expression);
+  }
+
+  /**
+   * evaluate a compiled path and return the matching elements
+   * 
+   * @param base - the object against which the path is being evaluated
+   * @param expression - the compiled expression to use
+   * @return
+   * @throws FHIRException 
+   */
+  public List<Base> evaluate(Object appContext, Base focusResource, Base rootResource, Base base, CompiledExpression expression) throws FHIRException {
+    if (expression.getEngine() != this) {
+      throw new FHIRException("The expression '"+expression.getExpression()+"' was compiled by a different FHIRPathEngine");
+    }
+    List<Base> list = new ArrayList<Base>();
+    if (base != null) {
+      list.add(base);
+    }
+    log = new StringBuilder();
+    return expression.getExecutor().execute(new ExecutionContext(appContext, focusResource, rootResource, base, base), list);
+  }
+
+  /**
+   * evaluate a compiled path and return true or false (e.g. for an invariant)
+   * 
+   * @param appInfo - application context
+   * @param base - the object against which the path is being evaluated
+   * @return
+   * @throws FHIRException 
+   */
+  public boolean evaluateToBoolean(Object appInfo, Base focusResource, Base rootResource, Base base, CompiledExpression expression) throws FHIRException {
+    return convertToBoolean(evaluate(appInfo, focusResource, rootResource, base, expression));
+  }
+
   /**
    * evaluate a path and return true or false (e.g. for an invariant)
    * 
@@ -1036,7 +1142,7 @@ public class FHIRPathEngine {
     }
   }
 
-  private class ExecutionContext {
+  class ExecutionContext {
     private Object appInfo;
     private Base focusResource;
     private Base rootResource;
@@ -1054,6 +1160,9 @@ public class FHIRPathEngine {
       this.thisItem = thisItem;
       this.index = 0;
     }
+    public Object getAppInfo() {
+      return appInfo;
+    }
     public Base getFocusResource() {
       return focusResource;
     }
@@ -1250,6 +1359,7 @@ public class FHIRPathEngine {
             throw lexer.error("The name "+result.getName()+" is not a valid function name");
           }
           f = Function.Custom;
+          usedCustomFunction = true;
         }
         result.setKind(Kind.Function);
         result.setFunction(f);
@@ -1550,7 +1660,7 @@ public class FHIRPathEngine {
     return false;
   }
 
-  private List<Base> execute(ExecutionContext inContext, List<Base> focus, ExpressionNode exp, boolean atEntry) throws FHIRException {
+  List<Base> execute(ExecutionContext inContext, List<Base> focus, ExpressionNode exp, boolean atEntry) throws FHIRException {
     ExecutionContext context = contextForParameter(inContext);
     List<Base> work = new ArrayList<Base>();
     switch (exp.getKind()) {
@@ -1614,7 +1724,7 @@ public class FHIRPathEngine {
     return work;
   }
 
-  private List<Base> executeTypeName(ExecutionContext context, List<Base> focus, ExpressionNode next, boolean atEntry) {
+  List<Base> executeTypeName(ExecutionContext context, List<Base> focus, ExpressionNode next, boolean atEntry) {
     List<Base> result = new ArrayList<Base>();
     if (next.getInner() != null) {
       result.add(new StringType(next.getName()+"."+next.getInner().getName()));
@@ -1625,7 +1735,7 @@ public class FHIRPathEngine {
   }
 
 
-  private List<Base> preOperate(List<Base> left, Operation operation, ExpressionNode expr) throws PathEngineException {
+  List<Base> preOperate(List<Base> left, Operation operation, ExpressionNode expr) throws PathEngineException {
     if (left.size() == 0) {
       return null;
     }
@@ -1642,7 +1752,7 @@ public class FHIRPathEngine {
     }
   }
 
-  private List<Base> makeBoolean(boolean b) {
+  List<Base> makeBoolean(boolean b) {
     List<Base> res = new ArrayList<Base>();
     res.add(new BooleanType(b).noExtensions());
     return res;
@@ -1698,7 +1808,10 @@ public class FHIRPathEngine {
     case Group:
       result.update(executeType(context, focus, exp.getGroup(), elementDependencies, atEntry, canBeNone, exp));
     }
-    exp.setTypes(result);
+    // trees from the parse cache are shared with other threads, so the types are only recorded on trees from parseUncached()
+    if (!exp.isShared()) {
+      exp.setTypes(result);
+    }
 
     if (exp.getInner() != null) {
       result = executeType(context, result, exp.getInner(), elementDependencies, false, false, exp);
@@ -1719,7 +1832,9 @@ public class FHIRPathEngine {
         last = next;
         next = next.getOpNext();
       }
-      exp.setOpTypes(result);
+      if (!exp.isShared()) {
+        exp.setOpTypes(result);
+      }
     }
     return result;
   }
@@ -1736,7 +1851,7 @@ public class FHIRPathEngine {
       }
     }
   }
-  private List<Base> resolveConstant(ExecutionContext context, Base constant, boolean beforeContext, ExpressionNode expr, boolean explicitConstant) throws PathEngineException {
+  List<Base> resolveConstant(ExecutionContext context, Base constant, boolean beforeContext, ExpressionNode expr, boolean explicitConstant) throws PathEngineException {
     if (constant == null) {
       return new ArrayList<Base>();
     }
@@ -1924,7 +2039,7 @@ public class FHIRPathEngine {
   }
 
 
-  private List<Base> operate(ExecutionContext context, List<Base> left, Operation operation, List<Base> right, ExpressionNode holder) throws FHIRException {
+  List<Base> operate(ExecutionContext context, List<Base> left, Operation operation, List<Base> right, ExpressionNode holder) throws FHIRException {
     switch (operation) {
     case Equals: return opEquals(left, right, holder);
     case Equivalent: return opEquivalent(left, right, holder);
@@ -1985,7 +2100,7 @@ public class FHIRPathEngine {
     }
   }
 
-  private boolean isKnownType(String tn) {
+  boolean isKnownType(String tn) {
     if (!tn.contains(".")) {
       if (Utilities.existsInList(tn, "String", "Boolean", "Integer", "Decimal", "Quantity", "DateTime", "Time", "SimpleTypeInfo", "ClassInfo")) {
         return true;
@@ -3261,7 +3376,7 @@ public class FHIRPathEngine {
     }
   }
 
-  private List<Base> execute(ExecutionContext context, Base item, ExpressionNode exp, boolean atEntry) throws FHIRException {
+  List<Base> execute(ExecutionContext context, Base item, ExpressionNode exp, boolean atEntry) throws FHIRException {
     List<Base> result = new ArrayList<Base>(); 
     if (atEntry && context.appInfo != null && hostServices != null) {
       // we'll see if the name matches a constant known by the context.
@@ -3997,7 +4112,7 @@ public class FHIRPathEngine {
   //		return s.equals("boolean") || s.equals("integer") || s.equals("decimal") || s.equals("base64Binary") || s.equals("instant") || s.equals("string") || s.equals("uri") || s.equals("date") || s.equals("dateTime") || s.equals("time") || s.equals("code") || s.equals("oid") || s.equals("id") || s.equals("unsignedInt") || s.equals("positiveInt") || s.equals("markdown");
   //	}
 
-  private List<Base> evaluateFunction(ExecutionContext context, List<Base> focus, ExpressionNode exp) throws FHIRException {
+  List<Base> evaluateFunction(ExecutionContext context, List<Base> focus, ExpressionNode exp) throws FHIRException {
     switch (exp.getFunction()) {
     case Empty : return funcEmpty(context, focus, exp);
     case Not : return funcNot(context, focus, exp);
@@ -4803,7 +4918,7 @@ public class FHIRPathEngine {
   }
 
 
-  private ExecutionContext changeThis(ExecutionContext context, Base newThis) {
+  ExecutionContext changeThis(ExecutionContext context, Base newThis) {
     ExecutionContext newContext = new ExecutionContext(context.appInfo, context.focusResource, context.rootResource, context.context, newThis);
     // append all of the defined variables from the context into the new context
     if (context.definedVariables != null) {
@@ -4814,7 +4929,7 @@ public class FHIRPathEngine {
     return newContext;
   }
 
-  private ExecutionContext contextForParameter(ExecutionContext context) {
+  ExecutionContext contextForParameter(ExecutionContext context) {
     ExecutionContext newContext = new ExecutionContext(context.appInfo, context.focusResource, context.rootResource, context.context, context.thisItem);
     newContext.total = context.total;
     newContext.index = context.index;
@@ -4869,12 +4984,14 @@ public class FHIRPathEngine {
       return new ArrayList<Base>();
     }
 
-    String url = nl.get(0).primitiveValue();
+    return memberOf(context, focus.get(0), nl.get(0).primitiveValue());
+  }
+
+  List<Base> memberOf(ExecutionContext context, Base l, String url) {
     ValueSet vs = hostServices != null ? hostServices.resolveValueSet(this, context.appInfo, url) : worker.findTxResource(ValueSet.class, url);
     if (vs == null) {
       return new ArrayList<Base>();
     }
-    Base l = focus.get(0);
     if (Utilities.existsInList(l.fhirType(), "code", "string", "uri")) {
       return makeBoolean(worker.validateCode(terminologyServiceOptions.withGuessSystem(), TypeConvertor.castToCoding(l), vs).isOk());
     } else if (l.fhirType().equals("Coding")) {
@@ -4953,7 +5070,7 @@ public class FHIRPathEngine {
       //
     } else if (focus.size() == 1 && !Utilities.noString(regex)) {
       if (focus.get(0).hasType(FHIR_TYPES_STRING) || doImplicitStringConversion) {
-        result.add(new StringType(convertToString(focus.get(0)).replaceAll(regex, repl)).noExtensions());
+        result.add(new StringType(RegexCache.compile(regex).matcher(convertToString(focus.get(0))).replaceAll(repl)).noExtensions());
       }
     } else {
       result.add(new StringType(convertToString(focus.get(0))).noExtensions());
@@ -5753,7 +5870,7 @@ public class FHIRPathEngine {
         if (Utilities.noString(st)) {
           result.add(new BooleanType(false).noExtensions());
         } else {
-          Pattern p = Pattern.compile("(?s)" + sw);
+          Pattern p = RegexCache.compile("(?s)" + sw);
           Matcher m = p.matcher(st);
           boolean ok = m.find();
           result.add(new BooleanType(ok).noExtensions());
@@ -5775,7 +5892,7 @@ public class FHIRPathEngine {
         if (Utilities.noString(st)) {
           result.add(new BooleanType(false).noExtensions());
         } else {
-          Pattern p = Pattern.compile("(?s)" + sw);
+          Pattern p = RegexCache.compile("(?s)" + sw);
           Matcher m = p.matcher(st);
           boolean ok = m.matches();
           result.add(new BooleanType(ok).noExtensions());
@@ -6934,7 +7051,7 @@ public class FHIRPathEngine {
     return path.substring(path.lastIndexOf(".") + 1);
   }
 
-  private Equality asBool(List<Base> items, ExpressionNode expr) throws PathEngineException {
+  Equality asBool(List<Base> items, ExpressionNode expr) throws PathEngineException {
     if (items.size() == 0) {
       return Equality.Null;
     } else if (items.size() == 1 && items.get(0).isBooleanPrimitive()) {
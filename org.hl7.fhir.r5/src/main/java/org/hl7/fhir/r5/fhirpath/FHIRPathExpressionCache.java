@@ -0,0 +1,133 @@
+package org.hl7.fhir.r5.fhirpath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of parsed FHIRPath expressions, shared by all the FHIRPathEngine instances
+ * in the JVM. Parsed expressions are keyed by the expression text and the engine options
+ * that affect parsing.
+ *
+ * Cached trees are shared between callers, so they must not be modified - use
+ * FHIRPathEngine.parseUncached() to get a tree that can be changed.
+ *
+ * When the cache is full, the least recently used tenth of the entries is dropped
+ */
+public class FHIRPathExpressionCache {
+
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  private static class CacheEntry {
+    private final ExpressionNode node;
+    private volatile long lastUsed;
+
+    private CacheEntry(ExpressionNode node, long lastUsed) {
+      this.node = node;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+  private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong clock = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private volatile int maxSize;
+
+  public FHIRPathExpressionCache(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  static String key(String path, boolean allowDoubleQuotes) {
+    return (allowDoubleQuotes ? "\"" : "'")+path;
+  }
+
+  ExpressionNode get(String key) {
+    if (maxSize <= 0) {
+      return null;
+    }
+    CacheEntry entry = entries.get(key);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    entry.lastUsed = clock.incrementAndGet();
+    return entry.node;
+  }
+
+  void put(String key, ExpressionNode node) {
+    if (maxSize <= 0) {
+      return;
+    }
+    entries.put(key, new CacheEntry(node, clock.incrementAndGet()));
+    if (entries.size() > maxSize) {
+      evict();
+    }
+  }
+
+  private synchronized void evict() {
+    int target = maxSize - maxSize / 10;
+    if (entries.size() <= maxSize) {
+      return; // another thread got here first
+    }
+    List<Map.Entry<String, CacheEntry>> list = new ArrayList<>(entries.entrySet());
+    list.sort((e1, e2) -> Long.compare(e1.getValue().lastUsed, e2.getValue().lastUsed));
+    for (int i = 0; i < list.size() - target; i++) {
+      if (entries.remove(list.get(i).getKey()) != null) {
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @param maxSize the maximum number of expressions to hold. 0 turns caching off
+   */
+  public void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+    if (maxSize <= 0) {
+      entries.clear();
+    } else if (entries.size() > maxSize) {
+      evict();
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  public void resetStatistics() {
+    hits.set(0);
+    misses.set(0);
+    evictions.set(0);
+  }
+
+  public String summary() {
+    long total = hits.get() + misses.get();
+    return "FHIRPath expression cache: "+size()+"/"+maxSize+" entries, "+hits.get()+" hits, "+misses.get()+" misses"
+        +(total == 0 ? "" : " ("+(hits.get() * 100 / total)+"% hit rate)")+", "+evictions.get()+" evictions";
+  }
+}
@@ -73,6 +73,7 @@ import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
 import org.hl7.fhir.r5.model.Resource;
 import org.hl7.fhir.utilities.FileUtilities;
+import org.hl7.fhir.utilities.PrimitiveSyntax;
 
 public abstract class FormatUtilities {
   public static final String ID_REGEX = "[A-Za-z0-9\\-\\.]{1,64}";
@@ -107,7 +108,7 @@ public abstract class FormatUtilities {
   }
   
 	public static boolean isValidId(String tail) {
-	  return tail == null ? false : tail.matches(ID_REGEX);
+	  return PrimitiveSyntax.isId(tail);
   }
 
   public static String makeId(String candidate) {
@@ -59,16 +59,21 @@ POSSIBILITY OF SUCH DAMAGE.
 
 */
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.NotImplementedException;
+import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.exceptions.FHIRFormatError;
 import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r5.model.Base;
@@ -77,8 +82,11 @@ import org.hl7.fhir.r5.model.DomainResource;
 import org.hl7.fhir.r5.model.Element;
 import org.hl7.fhir.r5.model.IdType;
 import org.hl7.fhir.r5.model.NamedElementExtension;
+import org.hl7.fhir.r5.model.Narrative;
 import org.hl7.fhir.r5.model.PrimitiveType;
+import org.hl7.fhir.r5.model.Property;
 import org.hl7.fhir.r5.model.Resource;
+import org.hl7.fhir.r5.model.ResourceFactory;
 import org.hl7.fhir.r5.model.StringType;
 import org.hl7.fhir.r5.test.utils.ClassesLoadedFlags;
 import org.hl7.fhir.utilities.FileUtilities;
@@ -93,6 +101,9 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
 
 /**
  * General parser for JSON content. You instantiate an JsonParser of these, but you 
@@ -138,6 +149,14 @@ public abstract class JsonParserBase extends ParserBase implements IParser {
    */
   @Override
   public Resource parse(InputStream input) throws IOException, FHIRFormatError {
+    if (streaming && !allowComments && !allowUnknownContent && !handleComments) {
+      JsonReader reader = new JsonReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+      try {
+        return parseResource(reader);
+      } catch (IllegalStateException | NumberFormatException | EOFException | MalformedJsonException e) {
+        throw new FHIRFormatError(e.getMessage(), e);
+      }
+    }
     JsonObject json = loadJson(input);
     return parseResource(json);
   }
@@ -285,6 +304,165 @@ public abstract class JsonParserBase extends ParserBase implements IParser {
     }
   }
   
+  // -- streaming parser ------------------------------------------------
+
+  private boolean streaming;
+
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * If streaming is true, parse(InputStream) fills the model directly from the JSON token stream,
+   * rather than loading the whole source into a JSON tree first. This doesn't apply when comments,
+   * unknown content, or fhir_comments are being handled - those parse the tree as before
+   */
+  public JsonParserBase setStreaming(boolean streaming) {
+    this.streaming = streaming;
+    return this;
+  }
+
+  private Resource parseResource(JsonReader reader) throws IOException, FHIRFormatError {
+    reader.beginObject();
+    if (!reader.hasNext()) {
+      throw new FHIRFormatError("Unable to find resource type - maybe not a FHIR resource?");
+    }
+    String name = reader.nextName();
+    if (!"resourceType".equals(name) || reader.peek() != JsonToken.STRING) {
+      return parseResource(bufferObject(reader, name));
+    }
+    String t = reader.nextString();
+    if (Utilities.noString(t)) {
+      throw new FHIRFormatError("Unable to find resource type - maybe not a FHIR resource?");
+    }
+    if (customResourceHandlers.containsKey(t)) {
+      JsonObject json = bufferObject(reader, null);
+      json.addProperty("resourceType", t);
+      return parseResource(json);
+    }
+    Resource res;
+    try {
+      res = ResourceFactory.createResource(t);
+    } catch (FHIRException e) {
+      throw new FHIRFormatError("Unknown/Unrecognised resource type '"+t+"' (in property 'resourceType')");
+    }
+    parseProperties(reader, res);
+    reader.endObject();
+    return res;
+  }
+
+  /**
+   * reads the rest of an object into a tree, for content the streaming parser hands off to the tree based parser
+   */
+  private JsonObject bufferObject(JsonReader reader, String name) throws IOException {
+    JsonObject json = new JsonObject();
+    if (name != null) {
+      json.add(name, com.google.gson.JsonParser.parseReader(reader));
+    }
+    while (reader.hasNext()) {
+      name = reader.nextName();
+      json.add(name, com.google.gson.JsonParser.parseReader(reader));
+    }
+    reader.endObject();
+    return json;
+  }
+
+  /**
+   * Fills base from the properties of the current object. Only the _[name] primitive extension
+   * fragments are buffered, and they are applied once the object is complete, since they may
+   * come before the primitive values they belong to
+   */
+  private void parseProperties(JsonReader reader, Base base) throws IOException, FHIRFormatError {
+    Map<String, JsonElement> fragments = null;
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.startsWith("_")) {
+        if (fragments == null) {
+          fragments = new LinkedHashMap<>();
+        }
+        fragments.put(name.substring(1), com.google.gson.JsonParser.parseReader(reader));
+        continue;
+      }
+      Property p = base.getNamedProperty(name);
+      if (p == null && base instanceof Narrative && "div".equals(name)) {
+        ((Narrative) base).setDiv(parseXhtml(reader.nextString())); // not exposed as a named property
+      } else if (p == null) {
+        reader.skipValue(); // unknown content is ignored, as in the tree based parser
+      } else if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          parseValue(reader, base, name, p);
+        }
+        reader.endArray();
+      } else {
+        parseValue(reader, base, name, p);
+      }
+    }
+    if (fragments != null) {
+      for (Map.Entry<String, JsonElement> f : fragments.entrySet()) {
+        parseFragments(base, f.getKey(), f.getValue());
+      }
+    }
+  }
+
+  private void parseValue(JsonReader reader, Base base, String name, Property p) throws IOException, FHIRFormatError {
+    String type = p.getTypeCode();
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      if (p.isList()) {
+        makeChild(base, name, p); // keeps the positions of the _[name] fragments aligned
+      }
+    } else if ("Resource".equals(type) || "DomainResource".equals(type)) {
+      base.setProperty(name, parseResource(reader));
+    } else if (!Utilities.noString(type) && Character.isLowerCase(type.charAt(0))) {
+      Base child = makeChild(base, name, p);
+      if (!(child instanceof PrimitiveType)) {
+        throw new FHIRFormatError("Unexpected primitive value for "+name+" on "+base.fhirType());
+      }
+      String value = reader.peek() == JsonToken.BOOLEAN ? Boolean.toString(reader.nextBoolean()) : reader.nextString();
+      ((PrimitiveType<?>) child).setValueAsString(value);
+    } else {
+      Base child = makeChild(base, name, p);
+      reader.beginObject();
+      parseProperties(reader, child);
+      reader.endObject();
+    }
+  }
+
+  private Base makeChild(Base base, String name, Property p) throws FHIRException {
+    if (p.getName().endsWith("[x]")) {
+      return base.addChild(name);
+    } else {
+      return base.makeProperty(name.hashCode(), name);
+    }
+  }
+
+  private void parseFragments(Base base, String name, JsonElement json) throws IOException, FHIRFormatError {
+    Property p = base.getNamedProperty(name);
+    if (p == null) {
+      return;
+    }
+    if (json.isJsonArray()) {
+      JsonArray array = json.getAsJsonArray();
+      for (int i = 0; i < array.size(); i++) {
+        List<Base> values = base.getNamedProperty(name).getValues();
+        while (values.size() <= i) {
+          makeChild(base, name, p);
+          values = base.getNamedProperty(name).getValues();
+        }
+        if (array.get(i).isJsonObject() && values.get(i) instanceof Element) {
+          parseElementProperties(array.get(i).getAsJsonObject(), (Element) values.get(i));
+        }
+      }
+    } else if (json.isJsonObject()) {
+      List<Base> values = p.getValues();
+      Base value = values.isEmpty() ? makeChild(base, name, p) : values.get(0);
+      if (value instanceof Element) {
+        parseElementProperties(json.getAsJsonObject(), (Element) value);
+      }
+    }
+  }
+
   protected void parseElementProperties(JsonObject json, Element e) throws IOException, FHIRFormatError {
     if (json != null && json.has("id"))
       e.setId(json.get("id").getAsString());
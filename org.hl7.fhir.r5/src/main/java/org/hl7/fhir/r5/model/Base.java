@@ -131,6 +131,9 @@ public abstract class Base implements Serializable, IBase, IElement {
   
   /**
    * User appended data items - allow users to add extra information to the class
+   * 
+   * Access is synchronised on this object, since definitions in a frozen worker context 
+   * are shared by several threads, and the validator and renderers keep information on them
    */
   private transient Map<String, Object> userData; 
 
@@ -152,25 +155,25 @@ public abstract class Base implements Serializable, IBase, IElement {
   private List<ValidationMessage> validationMessages; 
    
   
-  public Object getUserData(String name) {
+  public synchronized Object getUserData(String name) {
     if (userData == null)
       return null;
     return userData.get(name);
   }
   
-  public void setUserData(String name, Object value) {
+  public synchronized void setUserData(String name, Object value) {
     if (userData == null)
       userData = new HashMap<String, Object>();
     userData.put(name, value);
   }
 
-  public void clearUserData(String name) {
+  public synchronized void clearUserData(String name) {
     if (userData != null)
       userData.remove(name);
   }
  
   
-  public void setUserDataINN(String name, Object value) {
+  public synchronized void setUserDataINN(String name, Object value) {
     if (value == null)
       return;
     
@@ -179,7 +182,7 @@ public abstract class Base implements Serializable, IBase, IElement {
     userData.put(name, value);
   }
 
-  public boolean hasUserData(String name) {
+  public synchronized boolean hasUserData(String name) {
     if (userData == null)
       return false;
     else
@@ -202,14 +205,21 @@ public abstract class Base implements Serializable, IBase, IElement {
   }
 
   public void copyUserData(Base other) {
-    if (other.userData != null) {
-      if (userData == null) {
-        userData = new HashMap<>();
+    Map<String, Object> src = other.userDataCopy();
+    if (src != null) {
+      synchronized (this) {
+        if (userData == null) {
+          userData = new HashMap<>();
+        }
+        userData.putAll(src);
       }
-      userData.putAll(other.userData);
     }
   }      
 
+  private synchronized Map<String, Object> userDataCopy() {
+    return userData == null ? null : new HashMap<>(userData);
+  }
+
   public boolean hasFormatComment() {
     return hasFormatCommentPre() || hasFormatCommentPost();
   }
@@ -554,9 +564,13 @@ public abstract class Base implements Serializable, IBase, IElement {
   public abstract Base copy();
   
   public void copyValues(Base dst) {  
-    if (isCopyUserData() && userData != null) {
-      dst.userData = new HashMap<>();
-      dst.userData.putAll(userData);
+    if (isCopyUserData()) {
+      Map<String, Object> src = userDataCopy();
+      if (src != null) {
+        synchronized (dst) {
+          dst.userData = src;
+        }
+      }
     }
   }
 
@@ -96,7 +96,7 @@ public class StructureDefinitionMappingProvider extends ModelMappingProvider {
       return l;
     } else {
       try {
-        ExpressionNode exp = fpe.parse(s);
+        ExpressionNode exp = fpe.parseUncached(s);
         stripFunctions(exp);
         return exp.toString();
       } catch (Exception e) {
@@ -121,7 +121,7 @@ public class StructureDefinitionMappingProvider extends ModelMappingProvider {
       }
     } else {
       try {
-        ExpressionNode exp = fpe.parse(s);
+        ExpressionNode exp = fpe.parseUncached(s);
         stripFunctions(exp);
         String p = exp.toString();
         if (dest.getSnapshot().getElementById(p) != null) {
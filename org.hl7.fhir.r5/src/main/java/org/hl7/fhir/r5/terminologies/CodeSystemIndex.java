@@ -0,0 +1,353 @@
+package org.hl7.fhir.r5.terminologies;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptPropertyComponent;
+import org.hl7.fhir.r5.model.Extension;
+import org.hl7.fhir.r5.terminologies.utilities.ContentStamp;
+import org.hl7.fhir.r5.terminologies.utilities.ValueSetProcessBase.AlternateCodesProcessingRules;
+import org.hl7.fhir.r5.utils.UserDataNames;
+import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
+
+/**
+ * An index of the concepts in a CodeSystem, so that finding a code doesn't mean walking the
+ * whole concept tree. The index is by code, by case folded code, and by alternate code, and
+ * it knows the parent of each concept in the tree.
+ *
+ * The index is built the first time it's asked for, and kept on the CodeSystem (see get()). 
+ * Checking that it's still right is done in two steps, so that a lookup doesn't cost a walk of the tree:
+ *  - get() checks the url, version, meta and number of root concepts, and builds the index again if they've changed
+ *  - a lookup that doesn't find the code, or finds a concept that no longer has the code, works out a 64 bit hash 
+ *    of the codes and alternate codes in the concept tree, and if that's changed since the index was built, builds 
+ *    the index again and looks again. This costs a walk of the tree, which is what a miss cost before there was an index
+ * 
+ * So a concept that's added or renamed anywhere in the tree is found. Removing a concept from below the root
+ * isn't noticed until clear() is called. Code that changes a CodeSystem concept by concept (e.g. an importer) 
+ * shouldn't use the index on the way through, since every change means another build. Cross links aren't 
+ * in the hash either - CodeSystemUtilities.crossLinkCodeSystem clears the index.
+ *
+ * Where more than one concept matches a code, the index finds the concept that a depth first
+ * walk of the concepts (following the cross links made by CodeSystemUtilities.crossLinkCodeSystem)
+ * would have found first, so the answers are the same as the walks it replaces
+ */
+@MarkedToMoveToAdjunctPackage
+public class CodeSystemIndex {
+
+  private static class Node {
+    private ConceptDefinitionComponent parent;
+    private int exactOrder = -1; // when the walk first compared this concept's code
+    private int fullOrder = -1; // when the walk first compared the case folded and alternate codes too
+    private boolean expanded;
+  }
+
+  private static class AltCode {
+    private final ConceptDefinitionComponent concept;
+    private final ConceptPropertyComponent property;
+
+    private AltCode(ConceptDefinitionComponent concept, ConceptPropertyComponent property) {
+      this.concept = concept;
+      this.property = property;
+    }
+  }
+
+  private final CodeSystem cs;
+  private final long stamp;
+  private final long contentStamp;
+  private final Map<ConceptDefinitionComponent, Node> nodes = new IdentityHashMap<>();
+  private final Map<String, ConceptDefinitionComponent> codes = new HashMap<>();
+  private final Map<String, ConceptDefinitionComponent> foldedCodes = new HashMap<>();
+  private final Map<String, List<AltCode>> altCodes = new HashMap<>();
+  private int order;
+
+  private CodeSystemIndex(CodeSystem cs, long stamp, long contentStamp) {
+    this.cs = cs;
+    this.stamp = stamp;
+    this.contentStamp = contentStamp;
+    indexList(cs.getConcept(), null);
+  }
+
+  /**
+   * @return the index for the CodeSystem, which is built if there isn't one, or the CodeSystem has changed
+   */
+  public static CodeSystemIndex get(CodeSystem cs) {
+    // the CodeSystem may be shared by several threads (see BaseWorkerContext.freeze())
+    synchronized (cs) {
+      long stamp = stampCodeSystem(cs);
+      Object o = cs.getUserData(UserDataNames.tx_cs_index);
+      if (o instanceof CodeSystemIndex && stamp == ((CodeSystemIndex) o).stamp) {
+        return (CodeSystemIndex) o;
+      }
+      CodeSystemIndex index = new CodeSystemIndex(cs, stamp, stampConcepts(ContentStamp.SEED, cs.getConcept()));
+      cs.setUserData(UserDataNames.tx_cs_index, index);
+      return index;
+    }
+  }
+
+  /**
+   * called when a lookup misses, or finds a concept that has changed
+   * 
+   * @return this, if the concepts haven't changed, or an index of the concepts as they are now
+   */
+  private CodeSystemIndex current() {
+    synchronized (cs) {
+      long content = stampConcepts(ContentStamp.SEED, cs.getConcept());
+      Object o = cs.getUserData(UserDataNames.tx_cs_index);
+      if (o instanceof CodeSystemIndex && ((CodeSystemIndex) o).contentStamp == content && ((CodeSystemIndex) o).stamp == stampCodeSystem(cs)) {
+        return (CodeSystemIndex) o;
+      }
+      if (content == contentStamp) {
+        return this;
+      }
+      CodeSystemIndex index = new CodeSystemIndex(cs, stampCodeSystem(cs), content);
+      cs.setUserData(UserDataNames.tx_cs_index, index);
+      return index;
+    }
+  }
+
+  private static long stampCodeSystem(CodeSystem cs) {
+    long h = ContentStamp.stamp(ContentStamp.SEED, cs.getUrl());
+    h = ContentStamp.stamp(h, cs.getVersion());
+    if (cs.hasMeta()) {
+      h = ContentStamp.stamp(h, cs.getMeta().getVersionId());
+      h = ContentStamp.stamp(h, cs.getMeta().hasLastUpdated() ? cs.getMeta().getLastUpdatedElement().asStringValue() : null);
+    }
+    return 31 * h + cs.getConcept().size();
+  }
+
+  private static long stampConcepts(long h, List<ConceptDefinitionComponent> list) {
+    for (ConceptDefinitionComponent cc : list) {
+      h = ContentStamp.stamp(h, cc.getCode());
+      if (cc.hasProperty()) {
+        for (ConceptPropertyComponent p : cc.getProperty()) {
+          if ("alternateCode".equals(p.getCode()) && p.hasValue()) {
+            h = ContentStamp.stamp(h, p.getValue().primitiveValue());
+            if (p.hasExtension()) {
+              for (Extension ext : p.getExtension()) {
+                h = ContentStamp.stamp(h, ext.getUrl());
+                h = ContentStamp.stamp(h, ext.hasValue() ? ext.getValue().primitiveValue() : null);
+              }
+            }
+          }
+        }
+      }
+      if (cc.hasConcept()) {
+        h = ContentStamp.stamp(h, "(");
+        h = stampConcepts(h, cc.getConcept());
+        h = ContentStamp.stamp(h, ")");
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Throw away the index, if there is one (call this after changing the concepts)
+   */
+  public static void clear(CodeSystem cs) {
+    synchronized (cs) {
+      cs.clearUserData(UserDataNames.tx_cs_index);
+    }
+  }
+
+  // a concept is compared on its code, case folded code and alternate codes when
+  // it's found in a list of concepts, but only on its code when it's found by a cross link
+  private void indexList(List<ConceptDefinitionComponent> list, ConceptDefinitionComponent parent) {
+    for (ConceptDefinitionComponent cc : list) {
+      Node node = node(cc);
+      node.parent = parent;
+      if (node.fullOrder == -1) {
+        node.fullOrder = order++;
+        if (node.exactOrder == -1) {
+          node.exactOrder = node.fullOrder;
+        }
+        if (cc.hasCode()) {
+          codes.putIfAbsent(cc.getCode(), cc);
+          foldedCodes.putIfAbsent(fold(cc.getCode()), cc);
+        }
+        for (ConceptPropertyComponent p : cc.getProperty()) {
+          if ("alternateCode".equals(p.getCode()) && p.hasValue() && p.getValue().isPrimitive() && p.getValue().primitiveValue() != null) {
+            altCodes.computeIfAbsent(p.getValue().primitiveValue(), k -> new ArrayList<>()).add(new AltCode(cc, p));
+          }
+        }
+      }
+      indexConcept(cc, node);
+    }
+  }
+
+  private void indexConcept(ConceptDefinitionComponent cc, Node node) {
+    if (node.exactOrder == -1) {
+      node.exactOrder = order++;
+      if (cc.hasCode()) {
+        codes.putIfAbsent(cc.getCode(), cc);
+      }
+    }
+    if (node.expanded) {
+      return;
+    }
+    node.expanded = true;
+    indexList(cc.getConcept(), cc);
+    if (cc.hasUserData(CodeSystemUtilities.USER_DATA_CROSS_LINK)) {
+      @SuppressWarnings("unchecked")
+      List<ConceptDefinitionComponent> children = (List<ConceptDefinitionComponent>) cc.getUserData(CodeSystemUtilities.USER_DATA_CROSS_LINK);
+      for (ConceptDefinitionComponent c : children) {
+        indexConcept(c, node(c));
+      }
+    }
+  }
+
+  // a concept can be reached by a cross link before its parent in the tree is
+  private Node node(ConceptDefinitionComponent cc) {
+    Node node = nodes.get(cc);
+    if (node == null) {
+      node = new Node();
+      nodes.put(cc, node);
+    }
+    return node;
+  }
+
+  // the same as String.equalsIgnoreCase(), which compares each character in upper and then lower case
+  private static String fold(String code) {
+    StringBuilder b = null;
+    for (int i = 0; i < code.length(); i++) {
+      char c = code.charAt(i);
+      char f = Character.toLowerCase(Character.toUpperCase(c));
+      if (f != c && b == null) {
+        b = new StringBuilder(code.length());
+        b.append(code, 0, i);
+      }
+      if (b != null) {
+        b.append(f);
+      }
+    }
+    return b == null ? code : b.toString();
+  }
+
+  /**
+   * @return the number of concepts in the CodeSystem
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   * @return the concept with the code (an exact match), or null
+   */
+  public ConceptDefinitionComponent findCode(String code) {
+    if (code == null) {
+      return null;
+    }
+    ConceptDefinitionComponent cc = codes.get(code);
+    if (cc != null && code.equals(cc.getCode())) {
+      return cc;
+    }
+    CodeSystemIndex current = current();
+    return current == this ? null : current.findCode(code);
+  }
+
+  /**
+   * Find a concept the way the validator does: by code, or case insensitively if the CodeSystem isn't
+   * case sensitive, or by an alternate code that the rules allow
+   *
+   * @param altCodeRules which alternate codes to consider (null for none)
+   * @return the concept, or null
+   */
+  public ConceptDefinitionComponent findCode(String code, boolean caseSensitive, AlternateCodesProcessingRules altCodeRules) {
+    if (code == null) {
+      return null;
+    }
+    ConceptDefinitionComponent best = codes.get(code);
+    int bestOrder = best == null ? Integer.MAX_VALUE : nodes.get(best).exactOrder;
+    if (!caseSensitive) {
+      ConceptDefinitionComponent cc = foldedCodes.get(fold(code));
+      if (cc != null && nodes.get(cc).fullOrder < bestOrder) {
+        best = cc;
+        bestOrder = nodes.get(cc).fullOrder;
+      }
+    }
+    if (altCodeRules != null) {
+      for (AltCode ac : altCodes.getOrDefault(code, new ArrayList<>())) {
+        if (altCodeRules.passes(ac.property.getExtension())) {
+          if (nodes.get(ac.concept).fullOrder < bestOrder) {
+            best = ac.concept;
+          }
+          break;
+        }
+      }
+    }
+    if (best != null && stillMatches(best, code, caseSensitive)) {
+      return best;
+    }
+    CodeSystemIndex current = current();
+    return current == this ? best : current.findCode(code, caseSensitive, altCodeRules);
+  }
+
+  private boolean stillMatches(ConceptDefinitionComponent cc, String code, boolean caseSensitive) {
+    if (code.equals(cc.getCode()) || (!caseSensitive && cc.hasCode() && fold(cc.getCode()).equals(fold(code)))) {
+      return true;
+    }
+    for (ConceptPropertyComponent p : cc.getProperty()) {
+      if ("alternateCode".equals(p.getCode()) && p.hasValue() && code.equals(p.getValue().primitiveValue())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param use the use an alternate code must have (or null for any alternate code)
+   * @return the concept with the code, or with the code as an alternate code, or null
+   */
+  public ConceptDefinitionComponent findCodeOrAltCode(String code, String use) {
+    if (code == null) {
+      return null;
+    }
+    ConceptDefinitionComponent best = codes.get(code);
+    int bestOrder = best == null ? Integer.MAX_VALUE : nodes.get(best).exactOrder;
+    for (AltCode ac : altCodes.getOrDefault(code, new ArrayList<>())) {
+      if (use == null || CodeSystemUtilities.hasUse(ac.property, use)) {
+        if (nodes.get(ac.concept).fullOrder < bestOrder) {
+          best = ac.concept;
+        }
+        break;
+      }
+    }
+    if (best != null && stillMatches(best, code, true)) {
+      return best;
+    }
+    CodeSystemIndex current = current();
+    return current == this ? best : current.findCodeOrAltCode(code, use);
+  }
+
+  /**
+   * @return the parent of the concept in the concept tree (not by cross links), or null if it's a root concept (or isn't in the CodeSystem)
+   */
+  public ConceptDefinitionComponent getParent(ConceptDefinitionComponent cc) {
+    Node node = nodes.get(cc);
+    return node == null ? null : node.parent;
+  }
+
+  /**
+   * @return the concept and its parents in the concept tree, root first, or null if the code isn't found
+   */
+  public List<ConceptDefinitionComponent> findCodeWithParents(String code) {
+    if (code == null) {
+      return null;
+    }
+    ConceptDefinitionComponent cc = codes.get(code);
+    if (cc == null || !code.equals(cc.getCode())) {
+      CodeSystemIndex current = current();
+      return current == this ? null : current.findCodeWithParents(code);
+    }
+    List<ConceptDefinitionComponent> res = new ArrayList<>();
+    while (cc != null) {
+      res.add(0, cc);
+      cc = getParent(cc);
+    }
+    return res;
+  }
+}
@@ -577,7 +577,7 @@ public class CodeSystemUtilities extends TerminologyUtilities {
     return null;
   }
 
-  private static boolean hasUse(ConceptPropertyComponent p, String use) {
+  static boolean hasUse(ConceptPropertyComponent p, String use) {
     for (Extension ext : p.getExtensionsByUrl(ToolingExtensions.EXT_CS_ALTERNATE_USE)) {
       if (ext.hasValueCoding() && use.equals(ext.getValueCoding().getCode())) {
         return true;
@@ -692,35 +692,16 @@ public class CodeSystemUtilities extends TerminologyUtilities {
   }
 
   public static ConceptDefinitionComponent getCode(CodeSystem cs, String code) {
-    if (code == null) {
-      return null;
-    }
-    for (ConceptDefinitionComponent cc : cs.getConcept()) {
-      ConceptDefinitionComponent cd = getCode(cc, code);
-      if (cd != null) {
-        return cd;
-      }
-    }
-    return null;
-  }
-
-  private static ConceptDefinitionComponent getCode(ConceptDefinitionComponent cc, String code) {
-    if (code.equals(cc.getCode())) {
-      return cc;
-    }
-    for (ConceptDefinitionComponent c : cc.getConcept()) {
-      ConceptDefinitionComponent cd = getCode(c, code);
-      if (cd != null) {
-        return cd;
-      }
-    }
-    return null;
+    return CodeSystemIndex.get(cs).findCode(code);
   }
 
   public static void crossLinkCodeSystem(CodeSystem cs) {
     String parent = getPropertyByUrl(cs, "http://hl7.org/fhir/concept-properties#parent");
     if ((parent != null)) {
-      crossLinkConcepts(cs.getConcept(), cs.getConcept(), parent);
+      CodeSystemIndex.clear(cs);
+      crossLinkConcepts(CodeSystemIndex.get(cs), cs.getConcept(), parent);
+      // the index follows the cross links, so it has to be built again
+      CodeSystemIndex.clear(cs);
     }
   }
 
@@ -733,12 +714,12 @@ public class CodeSystemUtilities extends TerminologyUtilities {
     return null;
   }
 
-  private static void crossLinkConcepts(List<ConceptDefinitionComponent> root, List<ConceptDefinitionComponent> focus, String parent) {
+  private static void crossLinkConcepts(CodeSystemIndex root, List<ConceptDefinitionComponent> focus, String parent) {
     for (ConceptDefinitionComponent def : focus) {
       List<ConceptPropertyComponent> pcl = getPropertyValues(def, parent);
       for (ConceptPropertyComponent pc : pcl) {
         String code = pc.getValue().primitiveValue();
-        ConceptDefinitionComponent tgt = findCode(root, code);
+        ConceptDefinitionComponent tgt = root.findCode(code);
         if (!tgt.hasUserData(USER_DATA_CROSS_LINK)) {
           tgt.setUserData(USER_DATA_CROSS_LINK, new ArrayList<>());
         }
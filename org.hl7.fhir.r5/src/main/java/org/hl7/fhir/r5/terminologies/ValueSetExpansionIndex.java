@@ -0,0 +1,150 @@
+package org.hl7.fhir.r5.terminologies;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionComponent;
+import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.hl7.fhir.r5.terminologies.utilities.ContentStamp;
+import org.hl7.fhir.r5.utils.UserDataNames;
+import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
+
+/**
+ * An index of the codes in a ValueSet expansion, by system and code, so that checking whether
+ * a code is in the expansion doesn't mean walking all of it. It knows the parent of each entry
+ * in a hierarchical expansion.
+ *
+ * The index is built the first time it's asked for, and kept on the expansion (see get()). It's
+ * checked the same way as CodeSystemIndex: get() checks the identifier, timestamp and number of root entries,
+ * and a lookup that misses (or finds an entry that no longer has the code) works out a hash of the systems 
+ * and codes of all the entries, and builds the index again if that's changed. 
+ *
+ * Where a code is in the expansion more than once, the index finds the entry that a depth first
+ * walk of the expansion would have found first
+ */
+@MarkedToMoveToAdjunctPackage
+public class ValueSetExpansionIndex {
+
+  private static final String SEP = "\u0001";
+
+  private final ValueSetExpansionComponent exp;
+  private final long stamp;
+  private final long contentStamp;
+  private final Map<String, ValueSetExpansionContainsComponent> codes = new HashMap<>();
+  private final Map<ValueSetExpansionContainsComponent, ValueSetExpansionContainsComponent> parents = new IdentityHashMap<>();
+
+  private ValueSetExpansionIndex(ValueSetExpansionComponent exp, long stamp, long contentStamp) {
+    this.exp = exp;
+    this.stamp = stamp;
+    this.contentStamp = contentStamp;
+    index(exp.getContains(), null);
+  }
+
+  /**
+   * @return the index for the expansion, which is built if there isn't one, or the expansion has changed
+   */
+  public static ValueSetExpansionIndex get(ValueSetExpansionComponent exp) {
+    // the expansion may be shared by several threads (see BaseWorkerContext.freeze())
+    synchronized (exp) {
+      long stamp = stampExpansion(exp);
+      Object o = exp.getUserData(UserDataNames.tx_vs_expansion_index);
+      if (o instanceof ValueSetExpansionIndex && stamp == ((ValueSetExpansionIndex) o).stamp) {
+        return (ValueSetExpansionIndex) o;
+      }
+      ValueSetExpansionIndex index = new ValueSetExpansionIndex(exp, stamp, stampContains(ContentStamp.SEED, exp.getContains()));
+      exp.setUserData(UserDataNames.tx_vs_expansion_index, index);
+      return index;
+    }
+  }
+
+  /**
+   * @return this, if the entries haven't changed, or an index of the entries as they are now
+   */
+  private ValueSetExpansionIndex current() {
+    synchronized (exp) {
+      long content = stampContains(ContentStamp.SEED, exp.getContains());
+      Object o = exp.getUserData(UserDataNames.tx_vs_expansion_index);
+      if (o instanceof ValueSetExpansionIndex && ((ValueSetExpansionIndex) o).contentStamp == content && ((ValueSetExpansionIndex) o).stamp == stampExpansion(exp)) {
+        return (ValueSetExpansionIndex) o;
+      }
+      if (content == contentStamp) {
+        return this;
+      }
+      ValueSetExpansionIndex index = new ValueSetExpansionIndex(exp, stampExpansion(exp), content);
+      exp.setUserData(UserDataNames.tx_vs_expansion_index, index);
+      return index;
+    }
+  }
+
+  private static long stampExpansion(ValueSetExpansionComponent exp) {
+    long h = ContentStamp.stamp(ContentStamp.SEED, exp.getIdentifier());
+    h = ContentStamp.stamp(h, exp.hasTimestamp() ? exp.getTimestampElement().asStringValue() : null);
+    return 31 * h + exp.getContains().size();
+  }
+
+  private static long stampContains(long h, List<ValueSetExpansionContainsComponent> list) {
+    for (ValueSetExpansionContainsComponent c : list) {
+      h = ContentStamp.stamp(h, c.getSystem());
+      h = ContentStamp.stamp(h, c.getCode());
+      if (c.hasContains()) {
+        h = ContentStamp.stamp(h, "(");
+        h = stampContains(h, c.getContains());
+        h = ContentStamp.stamp(h, ")");
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Throw away the index, if there is one (call this after changing the expansion)
+   */
+  public static void clear(ValueSetExpansionComponent exp) {
+    synchronized (exp) {
+      exp.clearUserData(UserDataNames.tx_vs_expansion_index);
+    }
+  }
+
+  private void index(List<ValueSetExpansionContainsComponent> list, ValueSetExpansionContainsComponent parent) {
+    for (ValueSetExpansionContainsComponent c : list) {
+      if (parents.containsKey(c)) {
+        continue;
+      }
+      parents.put(c, parent);
+      if (c.hasSystem() && c.hasCode()) {
+        codes.putIfAbsent(c.getSystem()+SEP+c.getCode(), c);
+      }
+      index(c.getContains(), c);
+    }
+  }
+
+  /**
+   * @return the number of entries in the expansion
+   */
+  public int size() {
+    return parents.size();
+  }
+
+  /**
+   * @return the entry for the code, or null if it isn't in the expansion
+   */
+  public ValueSetExpansionContainsComponent find(String system, String code) {
+    if (system == null || code == null) {
+      return null;
+    }
+    ValueSetExpansionContainsComponent c = codes.get(system+SEP+code);
+    if (c != null && system.equals(c.getSystem()) && code.equals(c.getCode())) {
+      return c;
+    }
+    ValueSetExpansionIndex current = current();
+    return current == this ? null : current.find(system, code);
+  }
+
+  /**
+   * @return the entry that the entry is in, or null if it's a root entry (or isn't in the expansion)
+   */
+  public ValueSetExpansionContainsComponent getParent(ValueSetExpansionContainsComponent c) {
+    return parents.get(c);
+  }
+}
@@ -0,0 +1,219 @@
+package org.hl7.fhir.r5.terminologies.client;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.Resource;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
+
+/**
+ * Runs terminology operations against a server in the background, so that the caller can have several
+ * requests in flight at once instead of waiting for each network round trip in turn.
+ *
+ * - no more than maxInFlight requests are in flight at once; when the window is full, the caller
+ *   waits for a request to finish before the next one is sent
+ * - a request that is the same as one that is already in flight isn't sent again; the caller gets
+ *   the answer to the one in flight (so answers can be shared, and must not be modified)
+ * - the latency of each request is recorded (see getMetrics())
+ *
+ * The client must be safe to use from more than one thread, as TerminologyClientR5 is, as long as it
+ * isn't reconfigured while requests are in flight. Connections to the server are kept alive and reused
+ * by the underlying http client (see ManagedFhirWebAccessor)
+ */
+@MarkedToMoveToAdjunctPackage
+public class AsyncTerminologyClient implements AutoCloseable {
+
+  /**
+   * Latency of the requests made to a server
+   */
+  public static class Metrics {
+    private final String address;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private Metrics(String address) {
+      this.address = address;
+    }
+
+    private void record(long nanos, boolean error) {
+      requests.incrementAndGet();
+      if (error) {
+        errors.incrementAndGet();
+      }
+      totalNanos.addAndGet(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public String getAddress() {
+      return address;
+    }
+
+    /**
+     * @return the number of requests sent to the server
+     */
+    public long getRequests() {
+      return requests.get();
+    }
+
+    /**
+     * @return the number of requests that failed
+     */
+    public long getErrors() {
+      return errors.get();
+    }
+
+    /**
+     * @return the number of requests that weren't sent, because the same request was already in flight
+     */
+    public long getCoalesced() {
+      return coalesced.get();
+    }
+
+    public double getMeanMillis() {
+      long count = requests.get();
+      return count == 0 ? 0 : totalNanos.get() / (count * 1000000.0);
+    }
+
+    public double getMaxMillis() {
+      return maxNanos.get() / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+      return address+": "+getRequests()+" requests ("+getErrors()+" failed, "+getCoalesced()+" coalesced), mean "+String.format("%.1f", getMeanMillis())+"ms, max "+String.format("%.1f", getMaxMillis())+"ms";
+    }
+  }
+
+  private static final AtomicInteger threadCount = new AtomicInteger();
+
+  private final ITerminologyClient client;
+  private final ExecutorService executor;
+  private final Semaphore window;
+  private final Map<String, CompletableFuture<? extends Resource>> inFlight = new ConcurrentHashMap<>();
+  private final Metrics metrics;
+
+  public AsyncTerminologyClient(ITerminologyClient client, int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least 1");
+    }
+    this.client = client;
+    this.window = new Semaphore(maxInFlight);
+    this.metrics = new Metrics(client.getAddress());
+    this.executor = Executors.newFixedThreadPool(maxInFlight, r -> {
+      Thread t = new Thread(r, "tx-client-"+threadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  public ITerminologyClient getClient() {
+    return client;
+  }
+
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  public CompletableFuture<Parameters> validateCS(Parameters pin) {
+    return submit("validate-cs", () -> client.validateCS(pin), pin);
+  }
+
+  public CompletableFuture<Parameters> validateVS(Parameters pin) {
+    return submit("validate-vs", () -> client.validateVS(pin), pin);
+  }
+
+  public CompletableFuture<Parameters> lookupCode(Parameters params) {
+    return submit("lookup", () -> client.lookupCode(params), params);
+  }
+
+  public CompletableFuture<Parameters> subsumes(Parameters pin) {
+    return submit("subsumes", () -> client.subsumes(pin), pin);
+  }
+
+  public CompletableFuture<Parameters> translate(Parameters params) {
+    return submit("translate", () -> client.translate(params), params);
+  }
+
+  public CompletableFuture<ValueSet> expandValueset(ValueSet vs, Parameters p) {
+    return submit("expand", () -> client.expandValueset(vs, p), vs, p);
+  }
+
+  public CompletableFuture<Bundle> validateBatch(Bundle batch) {
+    return submit("batch", () -> client.validateBatch(batch), batch);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Resource> CompletableFuture<T> submit(String operation, Supplier<T> call, Resource... request) {
+    String key = requestKey(operation, request);
+    CompletableFuture<T> future = new CompletableFuture<>();
+    CompletableFuture<? extends Resource> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      metrics.coalesced.incrementAndGet();
+      // a dependent future, so that the caller can't cancel the request for everyone else
+      return ((CompletableFuture<T>) existing).thenApply(r -> r);
+    }
+    window.acquireUninterruptibly();
+    try {
+      executor.execute(() -> run(key, future, call));
+    } catch (RejectedExecutionException e) {
+      window.release();
+      inFlight.remove(key);
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  private <T extends Resource> void run(String key, CompletableFuture<T> future, Supplier<T> call) {
+    long start = System.nanoTime();
+    try {
+      T result = call.get();
+      metrics.record(System.nanoTime() - start, false);
+      inFlight.remove(key);
+      future.complete(result);
+    } catch (Throwable e) {
+      metrics.record(System.nanoTime() - start, true);
+      inFlight.remove(key);
+      future.completeExceptionally(e);
+    } finally {
+      window.release();
+    }
+  }
+
+  private String requestKey(String operation, Resource... request) {
+    StringBuilder b = new StringBuilder(operation);
+    JsonParser json = new JsonParser();
+    for (Resource r : request) {
+      try {
+        b.append('\u0001').append(r == null ? "" : json.composeString(r));
+      } catch (IOException e) {
+        throw new FHIRException(e);
+      }
+    }
+    return b.toString();
+  }
+
+  /**
+   * Requests that are in flight are finished, but no new requests are accepted
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+}
@@ -1,5 +1,6 @@
 package org.hl7.fhir.r5.terminologies.utilities;
 
+import org.hl7.fhir.r5.model.CodeableConcept;
 import org.hl7.fhir.r5.model.Coding;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache.CacheToken;
@@ -8,6 +9,7 @@ import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
 @MarkedToMoveToAdjunctPackage
 public class CodingValidationRequest {
   private Coding coding;
+  private CodeableConcept codeableConcept;
   private ValidationResult result;
   private CacheToken cacheToken;
   private String vs;
@@ -30,6 +32,16 @@ public class CodingValidationRequest {
     this.vsObj = vsObj;
   }
 
+  /**
+   * A request to validate a CodeableConcept, as a whole, against a value set (or on its own, if vsObj is null). 
+   * Only used by IWorkerContext.prefetchValidateCode
+   */
+  public CodingValidationRequest(CodeableConcept codeableConcept, ValueSet vsObj) {
+    super();
+    this.codeableConcept = codeableConcept;
+    this.vsObj = vsObj;
+  }
+
   public String getVs() {
     return vs;
   }
@@ -50,6 +62,14 @@ public class CodingValidationRequest {
     return coding;
   }
 
+  public CodeableConcept getCodeableConcept() {
+    return codeableConcept;
+  }
+
+  public boolean hasCodeableConcept() {
+    return codeableConcept != null;
+  }
+
   public boolean hasResult() {
     return result != null;
   }
@@ -0,0 +1,24 @@
+package org.hl7.fhir.r5.terminologies.utilities;
+
+import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
+
+/**
+ * Builds a cheap 64 bit hash of some strings, for noticing whether a resource has been changed
+ * since something was worked out from it. This is not a cryptographic hash; it's only meant to
+ * catch edits, not collisions that someone has constructed on purpose
+ *
+ * usage: long h = ContentStamp.SEED; h = ContentStamp.stamp(h, s1); h = ContentStamp.stamp(h, s2);...
+ */
+@MarkedToMoveToAdjunctPackage
+public class ContentStamp {
+
+  public static final long SEED = 1125899906842597L;
+
+  /**
+   * @return h with s added to it. null is distinct from "", and the length is included so that 
+   * moving text between adjacent strings changes the stamp
+   */
+  public static long stamp(long h, String s) {
+    return 31 * h + (s == null ? 0x9E3779B97F4A7C15L : s.hashCode() + ((long) s.length() << 32));
+  }
+}
@@ -0,0 +1,220 @@
+package org.hl7.fhir.r5.terminologies.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
+
+/**
+ * Keeps the terminology cache in a SQLite database, which can be shared by validators running
+ * in more than one process at the same time (the database is in WAL mode, so readers don't block
+ * the writer, and a writer waits for another process that is writing).
+ *
+ * Entries can be given a time to live, after which they aren't returned, and the database can be
+ * given a maximum number of entries, past which the entries that were least recently used are
+ * removed. Expired entries and the excess are removed every so often as entries are added
+ * (and when the store is opened)
+ */
+@MarkedToMoveToAdjunctPackage
+public class SqliteTerminologyCacheStore implements TerminologyCacheStore {
+
+  private static final int BUSY_TIMEOUT = 10000; // milliseconds
+  private static final long ACCESS_GRANULARITY = 60000; // milliseconds - don't note every read
+  private static final int EVICTION_INTERVAL = 100; // puts
+
+  private final File file;
+  private final long timeToLive;
+  private final int maxEntries;
+  private final Connection db;
+  private int putCount;
+
+  /**
+   * @param file the database file (created if it doesn't exist)
+   * @param timeToLive how long an entry is good for, in milliseconds (0 for no limit)
+   * @param maxEntries the most entries to keep (0 for no limit)
+   */
+  public SqliteTerminologyCacheStore(File file, long timeToLive, int maxEntries) throws IOException {
+    this.file = file;
+    this.timeToLive = timeToLive;
+    this.maxEntries = maxEntries;
+    try {
+      db = DriverManager.getConnection("jdbc:sqlite:"+file.getAbsolutePath());
+      try (Statement stmt = db.createStatement()) {
+        stmt.execute("PRAGMA busy_timeout = "+BUSY_TIMEOUT);
+        stmt.execute("PRAGMA journal_mode = WAL");
+        stmt.execute("PRAGMA synchronous = NORMAL");
+        stmt.execute("CREATE TABLE IF NOT EXISTS Entries (\r\n"+
+            "Name      nvarchar NOT NULL,\r\n"+
+            "Key       nvarchar NOT NULL,\r\n"+
+            "Request   nvarchar NOT NULL,\r\n"+
+            "Result    nvarchar NOT NULL,\r\n"+
+            "Stored    integer NOT NULL,\r\n"+
+            "Accessed  integer NOT NULL,\r\n"+
+            "PRIMARY KEY (Name, Key))\r\n");
+        stmt.execute("CREATE INDEX IF NOT EXISTS EntriesAccessed ON Entries (Accessed)");
+      }
+    } catch (SQLException e) {
+      throw new IOException("Unable to open terminology cache database "+file.getAbsolutePath()+": "+e.getMessage(), e);
+    }
+    evict();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  protected long now() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public synchronized StoredEntry get(String name, String key) throws IOException {
+    try {
+      long now = now();
+      try (PreparedStatement psql = db.prepareStatement("Select Request, Result, Stored, Accessed from Entries where Name = ? and Key = ?")) {
+        psql.setString(1, name);
+        psql.setString(2, key);
+        try (ResultSet rs = psql.executeQuery()) {
+          if (!rs.next()) {
+            return null;
+          }
+          if (timeToLive > 0 && rs.getLong(3) < now - timeToLive) {
+            return null;
+          }
+          StoredEntry entry = new StoredEntry(rs.getString(1), rs.getString(2));
+          if (rs.getLong(4) < now - ACCESS_GRANULARITY) {
+            touch(name, key, now);
+          }
+          return entry;
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  private void touch(String name, String key, long now) throws SQLException {
+    try (PreparedStatement psql = db.prepareStatement("Update Entries set Accessed = ? where Name = ? and Key = ?")) {
+      psql.setLong(1, now);
+      psql.setString(2, name);
+      psql.setString(3, key);
+      psql.executeUpdate();
+    }
+  }
+
+  @Override
+  public synchronized void put(String name, String key, String request, String result) throws IOException {
+    try {
+      long now = now();
+      try (PreparedStatement psql = db.prepareStatement("Insert or Replace into Entries (Name, Key, Request, Result, Stored, Accessed) values (?, ?, ?, ?, ?, ?)")) {
+        psql.setString(1, name);
+        psql.setString(2, key);
+        psql.setString(3, request);
+        psql.setString(4, result);
+        psql.setLong(5, now);
+        psql.setLong(6, now);
+        psql.executeUpdate();
+      }
+    } catch (SQLException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    if (++putCount % EVICTION_INTERVAL == 0) {
+      evict();
+    }
+  }
+
+  /**
+   * Remove expired entries, and then the least recently used entries past the maximum
+   *
+   * @return the number of entries removed
+   */
+  public synchronized int evict() throws IOException {
+    int count = 0;
+    try {
+      if (timeToLive > 0) {
+        try (PreparedStatement psql = db.prepareStatement("Delete from Entries where Stored < ?")) {
+          psql.setLong(1, now() - timeToLive);
+          count = count + psql.executeUpdate();
+        }
+      }
+      if (maxEntries > 0) {
+        int size = size();
+        if (size > maxEntries) {
+          try (PreparedStatement psql = db.prepareStatement("Delete from Entries where rowid in (Select rowid from Entries order by Accessed, rowid limit ?)")) {
+            psql.setInt(1, size - maxEntries);
+            count = count + psql.executeUpdate();
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    return count;
+  }
+
+  public synchronized int size() throws IOException {
+    try (Statement stmt = db.createStatement(); ResultSet rs = stmt.executeQuery("Select count(*) from Entries")) {
+      return rs.next() ? rs.getInt(1) : 0;
+    } catch (SQLException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public synchronized List<String> names() throws IOException {
+    List<String> list = new ArrayList<>();
+    try (Statement stmt = db.createStatement(); ResultSet rs = stmt.executeQuery("Select distinct Name from Entries order by Name")) {
+      while (rs.next()) {
+        list.add(rs.getString(1));
+      }
+    } catch (SQLException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    return list;
+  }
+
+  @Override
+  public synchronized List<StoredEntry> list(String name) throws IOException {
+    List<StoredEntry> list = new ArrayList<>();
+    try (PreparedStatement psql = db.prepareStatement("Select Request, Result, Stored from Entries where Name = ? order by rowid")) {
+      psql.setString(1, name);
+      long now = now();
+      try (ResultSet rs = psql.executeQuery()) {
+        while (rs.next()) {
+          if (timeToLive <= 0 || rs.getLong(3) >= now - timeToLive) {
+            list.add(new StoredEntry(rs.getString(1), rs.getString(2)));
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    return list;
+  }
+
+  @Override
+  public synchronized void clear() throws IOException {
+    try (Statement stmt = db.createStatement()) {
+      stmt.execute("Delete from Entries");
+    } catch (SQLException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      db.close();
+    } catch (SQLException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+}
@@ -33,9 +33,20 @@ package org.hl7.fhir.r5.terminologies.utilities;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -46,6 +57,7 @@ import org.hl7.fhir.r5.formats.IParser.OutputStyle;
 import org.hl7.fhir.r5.formats.JsonParser;
 import org.hl7.fhir.r5.model.*;
 import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.model.Parameters.ParametersParameterComponent;
 import org.hl7.fhir.r5.model.ValueSet.ConceptSetComponent;
 import org.hl7.fhir.r5.model.ValueSet.ConceptSetFilterComponent;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
@@ -69,6 +81,19 @@ import com.google.gson.JsonPrimitive;
  *  
  * the cache is a series of pairs: a map, and a list. the map is the loaded cache, the list is the persistent cache, carefully maintained in order for version control consistency
  * 
+ * By default, every persistent insert rewrites the whole [name].cache file. When journalling is turned on 
+ * (setJournalling(true)), new entries are appended to a [name].journal file instead, and a background 
+ * thread compacts the journal back into the [name].cache file, which stays the canonical form. Any 
+ * journal left behind (e.g. the process ended before compaction) is replayed and compacted when the cache is loaded.
+ * 
+ * Alternatively, the persistent entries can be kept in a TerminologyCacheStore (e.g. SqliteTerminologyCacheStore, 
+ * which can be shared between processes). Then nothing is loaded up front; an entry is read from the store 
+ * the first time it's asked for, and new entries are written straight to the store. The .cache files are 
+ * still the format for exchanging caches - see importText() and exportText()
+ * 
+ * Reads don't take the context lock; each named cache has its own concurrent map, and writes to a 
+ * named cache are serialised on that named cache only
+ * 
  * @author graha
  *
  */
@@ -152,6 +177,8 @@ public class TerminologyCache {
   private static final String ENTRY_MARKER = "-------------------------------------------------------------------------------------";
   private static final String BREAK = "####";
   private static final String CACHE_FILE_EXTENSION = ".cache";
+  private static final String JOURNAL_FILE_EXTENSION = ".journal";
+  private static final long COMPACTION_DELAY = 2000; // milliseconds
   private static final String CAPABILITY_STATEMENT_TITLE = ".capabilityStatement";
   private static final String TERMINOLOGY_CAPABILITIES_TITLE = ".terminologyCapabilities";
   private static final String FIXED_CACHE_VERSION = "4"; // last change: change the way tx.fhir.org handles expansions
@@ -159,12 +186,24 @@ public class TerminologyCache {
 
   private SystemNameKeyGenerator systemNameKeyGenerator = new SystemNameKeyGenerator();
 
+  private interface RequestBuilder {
+    String build(JsonParser json) throws IOException;
+  }
+
+  /**
+   * A cache token has two keys. The digest is built cheaply from the structure of the
+   * request (and a memoised digest of any ValueSet), and is what repeated lookups use.
+   * The request is the JSON that is written to the persistent cache - it's only built
+   * when an entry is stored, or when a digest lookup misses and the entries loaded
+   * from disk (which are keyed by the hash of the request) need to be checked
+   */
   public class CacheToken {
     @Getter
     private String name;
     private String key;
-    @Getter
+    private String digest;
     private String request;
+    private RequestBuilder builder;
     @Accessors(fluent = true)
     @Getter
     private boolean hasVersion;
@@ -176,8 +215,63 @@ public class TerminologyCache {
       else if (!systemName.equals(name))
         name = NAME_FOR_NO_SYSTEM;
     }
+
+    public String getRequest() {
+      if (request == null && builder != null) {
+        try {
+          JsonParser json = new JsonParser();
+          json.setOutputStyle(OutputStyle.PRETTY);
+          request = builder.build(json);
+        } catch (IOException e) {
+          throw new Error(e);
+        }
+        builder = null;
+      }
+      return request;
+    }
+
+    /**
+     * @return the cheap key for the request; two tokens with the same digest are the same request
+     */
+    public String getDigest() {
+      return digest;
+    }
+
+    private String getKey() {
+      if (key == null && getRequest() != null) {
+        key = hashJson(request);
+      }
+      return key;
+    }
+
+    private boolean hasKey() {
+      return digest != null;
+    }
+  }
+
+  /**
+   * What the cache needs to know about a ValueSet to build cache tokens. This is memoised
+   * on the ValueSet (see {@link UserDataNames#tx_cache_vs_digest}) so that repeated lookups
+   * against the same ValueSet don't serialise it each time. 
+   * <p>
+   * Each token build checks a stamp of the fields that change when a ValueSet is replaced or 
+   * re-expanded (the url, version, meta, the number of includes and excludes, and the expansion 
+   * identifier, timestamp and size), and works the digest out again if it's changed. This costs 
+   * the same however big the ValueSet is, and doesn't create any elements on it. Walking the content
+   * on every probe would cost as much as serialising it did, so changes to the content of a ValueSet 
+   * edited in place that don't change those fields need {@link TerminologyCache#valueSetChanged(ValueSet)}
+   */
+  private static class ValueSetDigest {
+    private long stamp;
+    private List<String> systems = new ArrayList<>();
+    private boolean hasSystem;
+    private boolean lastHasVersion;
+    private volatile String content;
+    private volatile String essence;
   }
 
+  private static final char SEP = '\u0001';
+
   public static class SubsumesResult {
     
     private Boolean result;
@@ -274,19 +368,21 @@ public class TerminologyCache {
 
   private class NamedCache {
     private String name; 
-    private List<CacheEntry> list = new ArrayList<CacheEntry>(); // persistent entries
-    private Map<String, CacheEntry> map = new HashMap<String, CacheEntry>();
+    private List<CacheEntry> list = new ArrayList<CacheEntry>(); // persistent entries - access synchronised on the NamedCache
+    private Map<String, CacheEntry> map = new ConcurrentHashMap<String, CacheEntry>(); // by hash of request
+    private Map<String, CacheEntry> digests = new ConcurrentHashMap<String, CacheEntry>(); // by digest of request
+    private boolean dirty; // journal has entries that are not yet in the .cache file
   }
 
 
   private Object lock;
   private String folder;
-  @Getter private int requestCount;
-  @Getter private int hitCount;
-  @Getter private int networkCount;
+  private AtomicInteger requestCount = new AtomicInteger();
+  private AtomicInteger hitCount = new AtomicInteger();
+  private AtomicInteger networkCount = new AtomicInteger();
   private Map<String, CapabilityStatement> capabilityStatementCache = new HashMap<>();
   private Map<String, TerminologyCapabilities> terminologyCapabilitiesCache = new HashMap<>();
-  private Map<String, NamedCache> caches = new HashMap<String, NamedCache>();
+  private Map<String, NamedCache> caches = new ConcurrentHashMap<String, NamedCache>();
   private Map<String, SourcedValueSetEntry> vsCache = new HashMap<>();
   private Map<String, SourcedCodeSystemEntry> csCache = new HashMap<>();
   private Map<String, String> serverMap = new HashMap<>();
@@ -294,11 +390,23 @@ public class TerminologyCache {
 
   @Getter @Setter private static boolean cacheErrors;
 
+  @Getter @Setter private static boolean journalling;
+  private ScheduledExecutorService compactor;
+  private TerminologyCacheStore store;
+
 
   // use lock from the context
   public TerminologyCache(Object lock, String folder) throws FileNotFoundException, IOException, FHIRException {
+    this(lock, folder, null);
+  }
+
+  /**
+   * @param store where to keep the persistent entries, instead of the .cache files in the folder (can be null)
+   */
+  public TerminologyCache(Object lock, String folder, TerminologyCacheStore store) throws FileNotFoundException, IOException, FHIRException {
     super();
     this.lock = lock;
+    this.store = store;
     if (folder == null) {
       folder = Utilities.path("[tmp]", "default-tx-cache");
     } else if ("n/a".equals(folder)) {
@@ -306,9 +414,6 @@ public class TerminologyCache {
       folder = null;
     }
     this.folder = folder;
-    requestCount = 0;
-    hitCount = 0;
-    networkCount = 0;
 
     if (folder != null) {
       File f = ManagedFileAccess.file(folder);
@@ -358,15 +463,31 @@ public class TerminologyCache {
   
   public void unload() {
     // not useable after this is called
+    save();
     caches.clear();
     vsCache.clear();
     csCache.clear();
+    if (store != null) {
+      try {
+        store.close();
+      } catch (IOException e) {
+        log.error("error closing terminology cache store: "+e.getMessage(), e);
+      }
+    }
   }
   
   public void clear() throws IOException {
     if (folder != null) {
       FileUtilities.clearDirectory(folder);
     }
+    if (store != null) {
+      store.clear();
+    }
+    for (NamedCache nc : caches.values()) {
+      synchronized (nc) {
+        nc.dirty = false;
+      }
+    }
     caches.clear();
     vsCache.clear();
     csCache.clear();
@@ -407,55 +528,56 @@ public class TerminologyCache {
 
 
   public CacheToken generateValidationToken(ValidationOptions options, Coding code, ValueSet vs, Parameters expParameters) {
-    try {
-      CacheToken ct = new CacheToken();
-      if (code.hasSystem()) {
-        ct.setName(code.getSystem());
-        ct.hasVersion = code.hasVersion();
-      }
-      else
-        ct.name = NAME_FOR_NO_SYSTEM;
-      nameCacheToken(vs, ct);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = expParameters == null ? "" : json.composeString(expParameters);
+    CacheToken ct = new CacheToken();
+    if (code.hasSystem()) {
+      ct.setName(code.getSystem());
+      ct.hasVersion = code.hasVersion();
+    }
+    else
+      ct.name = NAME_FOR_NO_SYSTEM;
+    nameCacheToken(vs, ct);
 
-      if (vs != null && vs.hasUrl() && vs.hasVersion()) {
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())
-        +"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}\r\n";
-      } else if (options.getVsAsUrl()) {
-        ct.request = "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+extracted(json, vs)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      } else {
+    StringBuilder b = new StringBuilder();
+    b.append("vc").append(SEP);
+    digest(b, code);
+    if (vs != null && vs.hasUrl() && vs.hasVersion()) {
+      b.append(vs.getUrl()).append('|').append(vs.getVersion());
+      ct.builder = json -> "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())
+        +"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+(expParameters == null ? "" : json.composeString(expParameters))+"}\r\n";
+    } else if (options.getVsAsUrl()) {
+      b.append(getValueSetDigest(vs, false));
+      ct.builder = json -> "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+extracted(json, vs)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+(expParameters == null ? "" : json.composeString(expParameters))+"}";
+    } else {
+      b.append(vs == null ? "null" : getValueSetDigest(vs, true));
+      ct.builder = json -> {
         ValueSet vsc = getVSEssense(vs);
-        ct.request = "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsc == null ? "null" : extracted(json, vsc))+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      }
-      ct.key = String.valueOf(hashJson(ct.request));
-      return ct;
-    } catch (IOException e) {
-      throw new Error(e);
+        return "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsc == null ? "null" : extracted(json, vsc))+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+(expParameters == null ? "" : json.composeString(expParameters))+"}";
+      };
     }
+    b.append(SEP);
+    digest(b, options, expParameters);
+    ct.digest = b.toString();
+    return ct;
   }
 
   public CacheToken generateValidationToken(ValidationOptions options, Coding code, String vsUrl, Parameters expParameters) {
-    try {
-      CacheToken ct = new CacheToken();
-      if (code.hasSystem()) {
-        ct.setName(code.getSystem());
-        ct.hasVersion = code.hasVersion();
-      } else {
-        ct.name = NAME_FOR_NO_SYSTEM;
-      }
-      ct.setName(vsUrl);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
-
-      ct.request = "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsUrl == null ? "null" : vsUrl)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      ct.key = String.valueOf(hashJson(ct.request));
-      return ct;
-    } catch (IOException e) {
-      throw new Error(e);
+    CacheToken ct = new CacheToken();
+    if (code.hasSystem()) {
+      ct.setName(code.getSystem());
+      ct.hasVersion = code.hasVersion();
+    } else {
+      ct.name = NAME_FOR_NO_SYSTEM;
     }
+    ct.setName(vsUrl);
+
+    StringBuilder b = new StringBuilder();
+    b.append("vu").append(SEP);
+    digest(b, code);
+    b.append(vsUrl).append(SEP);
+    digest(b, options, expParameters);
+    ct.digest = b.toString();
+    ct.builder = json -> "{\"code\" : "+json.composeString(code, "code")+", \"valueSet\" :"+(vsUrl == null ? "null" : vsUrl)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";
+    return ct;
   }
 
   public String extracted(JsonParser json, ValueSet vsc) throws IOException {
@@ -469,32 +591,36 @@ public class TerminologyCache {
   }
 
   public CacheToken generateValidationToken(ValidationOptions options, CodeableConcept code, ValueSet vs, Parameters expParameters) {
-    try {
-      CacheToken ct = new CacheToken();
-      for (Coding c : code.getCoding()) {
-        if (c.hasSystem()) {
-          ct.setName(c.getSystem());
-          ct.hasVersion = c.hasVersion();
-        }
+    CacheToken ct = new CacheToken();
+    for (Coding c : code.getCoding()) {
+      if (c.hasSystem()) {
+        ct.setName(c.getSystem());
+        ct.hasVersion = c.hasVersion();
       }
-      nameCacheToken(vs, ct);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
-      if (vs != null && vs.hasUrl() && vs.hasVersion()) {
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+
-            "\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}\r\n";      
-      } else if (vs == null) { 
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";        
-      } else {
+    }
+    nameCacheToken(vs, ct);
+
+    StringBuilder b = new StringBuilder();
+    b.append("cc").append(SEP);
+    digest(b, code);
+    if (vs != null && vs.hasUrl() && vs.hasVersion()) {
+      b.append(vs.getUrl()).append('|').append(vs.getVersion());
+      ct.builder = json -> "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+
+          "\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\""+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}\r\n";
+    } else if (vs == null) {
+      b.append("null");
+      ct.builder = json -> "{\"code\" : "+json.composeString(code, "codeableConcept")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";
+    } else {
+      b.append(getValueSetDigest(vs, true));
+      ct.builder = json -> {
         ValueSet vsc = getVSEssense(vs);
-        ct.request = "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"valueSet\" :"+extracted(json, vsc)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      }
-      ct.key = String.valueOf(hashJson(ct.request));
-      return ct;
-    } catch (IOException e) {
-      throw new Error(e);
+        return "{\"code\" : "+json.composeString(code, "codeableConcept")+", \"valueSet\" :"+extracted(json, vsc)+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";
+      };
     }
+    b.append(SEP);
+    digest(b, options, expParameters);
+    ct.digest = b.toString();
+    return ct;
   }
 
   public ValueSet getVSEssense(ValueSet vs) {
@@ -513,51 +639,196 @@ public class TerminologyCache {
     CacheToken ct = new CacheToken();
     nameCacheToken(vs, ct);
     if (vs.hasUrl() && vs.hasVersion()) {
-      ct.request = "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\"}\r\n";      
+      ct.request = "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"url\": \""+Utilities.escapeJson(vs.getUrl())+"\", \"version\": \""+Utilities.escapeJson(vs.getVersion())+"\"}\r\n";
+      ct.digest = "xv"+SEP+hierarchical+SEP+vs.getUrl()+'|'+vs.getVersion();
     } else {
-      ValueSet vsc = getVSEssense(vs);
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      try {
-        ct.request = "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"valueSet\" :"+extracted(json, vsc)+"}\r\n";
-      } catch (IOException e) {
-        throw new Error(e);
-      }
+      ct.digest = "xe"+SEP+hierarchical+SEP+getValueSetDigest(vs, true);
+      ct.builder = json -> "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"valueSet\" :"+extracted(json, getVSEssense(vs))+"}\r\n";
     }
-    ct.key = String.valueOf(hashJson(ct.request));
     return ct;
   }
-  
+
   public CacheToken generateExpandToken(String url, boolean hierarchical) {
     CacheToken ct = new CacheToken();
-    ct.request = "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"url\": \""+Utilities.escapeJson(url)+"\"}\r\n";      
-    ct.key = String.valueOf(hashJson(ct.request));
+    ct.request = "{\"hierarchical\" : "+(hierarchical ? "true" : "false")+", \"url\": \""+Utilities.escapeJson(url)+"\"}\r\n";
+    ct.digest = "xu"+SEP+hierarchical+SEP+url;
     return ct;
   }
 
   public void nameCacheToken(ValueSet vs, CacheToken ct) {
     if (vs != null) {
-      for (ConceptSetComponent inc : vs.getCompose().getInclude()) {
-        if (inc.hasSystem()) {
-          ct.setName(inc.getSystem());
-          ct.hasVersion = inc.hasVersion();
+      ValueSetDigest d = getValueSetDigest(vs);
+      for (String system : d.systems) {
+        ct.setName(system);
+      }
+      if (d.hasSystem) {
+        ct.hasVersion = d.lastHasVersion;
+      }
+    }
+  }
+
+  private ValueSetDigest getValueSetDigest(ValueSet vs) {
+    // the ValueSet may be shared by several threads (see BaseWorkerContext.freeze()), but the
+    // digest is only built under the lock; the user data is safe to read without it
+    long stamp = stampValueSet(vs);
+    Object o = vs.getUserData(UserDataNames.tx_cache_vs_digest);
+    if (o instanceof ValueSetDigest && stamp == ((ValueSetDigest) o).stamp) {
+      return (ValueSetDigest) o;
+    }
+    synchronized (vs) {
+      o = vs.getUserData(UserDataNames.tx_cache_vs_digest);
+      if (o instanceof ValueSetDigest && stamp == ((ValueSetDigest) o).stamp) {
+        return (ValueSetDigest) o;
+      }
+      ValueSetDigest d = new ValueSetDigest();
+      d.stamp = stamp;
+      Set<String> systems = new HashSet<>();
+      if (vs.hasCompose()) {
+        for (ConceptSetComponent inc : vs.getCompose().getInclude()) {
+          if (inc.hasSystem()) {
+            noteSystem(d, systems, inc.getSystem(), inc.hasVersion());
+          }
+        }
+        for (ConceptSetComponent inc : vs.getCompose().getExclude()) {
+          if (inc.hasSystem()) {
+            noteSystem(d, systems, inc.getSystem(), inc.hasVersion());
+          }
         }
       }
-      for (ConceptSetComponent inc : vs.getCompose().getExclude()) {
-        if (inc.hasSystem()) {
-          ct.setName(inc.getSystem());
-          ct.hasVersion = inc.hasVersion();
+      if (vs.hasExpansion()) {
+        for (ValueSetExpansionContainsComponent inc : vs.getExpansion().getContains()) {
+          if (inc.hasSystem()) {
+            noteSystem(d, systems, inc.getSystem(), inc.hasVersion());
+          }
+        }
+      }
+      vs.setUserData(UserDataNames.tx_cache_vs_digest, d);
+      return d;
+    }
+  }
+
+  private static long stampValueSet(ValueSet vs) {
+    long h = ContentStamp.stamp(ContentStamp.SEED, vs.getUrl());
+    h = ContentStamp.stamp(h, vs.getVersion());
+    if (vs.hasMeta()) {
+      h = ContentStamp.stamp(h, vs.getMeta().getVersionId());
+      h = ContentStamp.stamp(h, vs.getMeta().hasLastUpdated() ? vs.getMeta().getLastUpdatedElement().asStringValue() : null);
+    }
+    if (vs.hasCompose()) {
+      h = 31 * h + vs.getCompose().getInclude().size();
+      h = 31 * h + vs.getCompose().getExclude().size();
+    }
+    if (vs.hasExpansion()) {
+      h = ContentStamp.stamp(h, vs.getExpansion().getIdentifier());
+      h = ContentStamp.stamp(h, vs.getExpansion().hasTimestamp() ? vs.getExpansion().getTimestampElement().asStringValue() : null);
+      h = 31 * h + vs.getExpansion().getContains().size();
+    }
+    return h;
+  }
+
+  /**
+   * Throw away what's been worked out about the ValueSet for building cache tokens. Code that
+   * changes the content of a ValueSet in place after it has been used with the cache (without 
+   * changing its url, version, meta, or the number of includes, excludes or contains) must call this
+   */
+  public static void valueSetChanged(ValueSet vs) {
+    synchronized (vs) {
+      vs.clearUserData(UserDataNames.tx_cache_vs_digest);
+    }
+  }
+
+  private void noteSystem(ValueSetDigest d, Set<String> systems, String system, boolean hasVersion) {
+    if (systems.add(system)) {
+      d.systems.add(system);
+    }
+    d.hasSystem = true;
+    d.lastHasVersion = hasVersion;
+  }
+
+  /**
+   * The digest of the ValueSet content as it is put in a cache request: either the whole
+   * ValueSet, or just its compose and expansion (see getVSEssense)
+   */
+  private String getValueSetDigest(ValueSet vs, boolean essence) {
+    ValueSetDigest d = getValueSetDigest(vs);
+    String digest = essence ? d.essence : d.content;
+    if (digest != null) {
+      return digest;
+    }
+    synchronized (d) {
+      if ((essence ? d.essence : d.content) == null) {
+        try {
+          String s = extracted(new JsonParser(), essence ? getVSEssense(vs) : vs);
+          s = s.length()+":"+hashJson(s);
+          if (essence) {
+            d.essence = s;
+          } else {
+            d.content = s;
+          }
+        } catch (IOException e) {
+          throw new Error(e);
         }
       }
-      for (ValueSetExpansionContainsComponent inc : vs.getExpansion().getContains()) {
-        if (inc.hasSystem()) {
-          ct.setName(inc.getSystem());
-          ct.hasVersion = inc.hasVersion();
+      return essence ? d.essence : d.content;
+    }
+  }
+
+  private void digest(StringBuilder b, Coding c) {
+    if (c.hasId() || c.hasExtension()) {
+      b.append(composeForDigest(c));
+    } else {
+      b.append(c.getSystem()).append(SEP).append(c.getVersion()).append(SEP).append(c.getCode()).append(SEP).append(c.getDisplay()).append(SEP).append(c.getUserSelectedElement().asStringValue());
+    }
+    b.append(SEP);
+  }
+
+  private void digest(StringBuilder b, CodeableConcept cc) {
+    if (cc.hasId() || cc.hasExtension()) {
+      b.append(composeForDigest(cc)).append(SEP);
+    } else {
+      for (Coding c : cc.getCoding()) {
+        digest(b, c);
+      }
+      b.append(cc.getText()).append(SEP);
+    }
+  }
+
+  private void digest(StringBuilder b, ValidationOptions options, Parameters expParameters) {
+    b.append(options == null ? "" : options.toJson()).append(SEP);
+    if (expParameters == null) {
+      b.append("null");
+    } else if (expParameters.hasId() || expParameters.hasMeta() || expParameters.hasLanguage() || expParameters.hasImplicitRules()) {
+      b.append(composeForDigest(expParameters));
+    } else {
+      for (ParametersParameterComponent pp : expParameters.getParameter()) {
+        if (pp.hasId() || pp.hasExtension() || pp.hasPart() || pp.hasResource() || (pp.hasValue() && (!pp.getValue().isPrimitive() || pp.getValue().hasExtension() || pp.getValue().hasId()))) {
+          Parameters p = new Parameters();
+          p.addParameter(pp.copy());
+          b.append(composeForDigest(p)); // rare enough not to matter
+        } else {
+          b.append(pp.getName()).append('=').append(pp.hasValue() ? pp.getValue().fhirType()+":"+pp.getValue().primitiveValue() : "");
         }
+        b.append(SEP);
       }
     }
   }
 
+  private String composeForDigest(DataType dt) {
+    try {
+      return new JsonParser().composeString(dt, "value");
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+  }
+
+  private String composeForDigest(Resource r) {
+    try {
+      return new JsonParser().composeString(r);
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+  }
+
   private String normalizeSystemPath(String path) {
     return path.replace("/", "").replace('|','X');
   }
@@ -568,36 +839,68 @@ public class TerminologyCache {
 
     final String cacheName = cacheToken.name == null ? "null" : cacheToken.name;
 
-    NamedCache nc = caches.get(cacheName);
+    return caches.computeIfAbsent(cacheName, n -> {
+      NamedCache nc = new NamedCache();
+      nc.name = n;
+      return nc;
+    });
+  }
 
-    if (nc == null) {
-      nc = new NamedCache();
-      nc.name = cacheName;
-      caches.put(nc.name, nc);
+  /**
+   * Find an entry by its digest, and if that's not known, by the hash of the request,
+   * which is how entries loaded from disk are known. After that, the digest will find it
+   */
+  private CacheEntry lookup(NamedCache nc, CacheToken cacheToken) {
+    CacheEntry e = nc.digests.get(cacheToken.digest);
+    if (e == null && !nc.map.isEmpty()) {
+      e = nc.map.get(cacheToken.getKey());
+      if (e != null) {
+        nc.digests.put(cacheToken.digest, e);
+      }
+    }
+    if (e == null && store != null && !noCaching) {
+      e = readFromStore(nc, cacheToken);
     }
-    return nc;
+    return e;
   }
 
-  public ValueSetExpansionOutcome getExpansion(CacheToken cacheToken) {
-    synchronized (lock) {
-      NamedCache nc = getNamedCache(cacheToken);
-      CacheEntry e = nc.map.get(cacheToken.key);
-      if (e == null)
+  private CacheEntry readFromStore(NamedCache nc, CacheToken cacheToken) {
+    String key = cacheToken.getKey();
+    if (key == null) {
+      return null;
+    }
+    try {
+      TerminologyCacheStore.StoredEntry se = store.get(nc.name, key);
+      // the key is only a hash, so check that it's the same request
+      if (se == null || !normaliseRequest(se.getRequest()).equals(normaliseRequest(cacheToken.getRequest()))) {
         return null;
-      else
-        return e.e;
+      }
+      CacheEntry e = getCacheEntry(se.getRequest(), se.getResult().trim());
+      nc.map.put(key, e);
+      nc.digests.put(cacheToken.digest, e);
+      return e;
+    } catch (Exception ex) {
+      log.error("error reading "+nc.name+" from the terminology cache store: "+ex.getMessage(), ex);
+      return null;
     }
   }
 
+  public ValueSetExpansionOutcome getExpansion(CacheToken cacheToken) {
+    NamedCache nc = getNamedCache(cacheToken);
+    CacheEntry e = lookup(nc, cacheToken);
+    if (e == null)
+      return null;
+    else
+      return e.e;
+  }
+
   public void cacheExpansion(CacheToken cacheToken, ValueSetExpansionOutcome res, boolean persistent) {
-    synchronized (lock) {      
-      NamedCache nc = getNamedCache(cacheToken);
-      CacheEntry e = new CacheEntry();
-      e.request = cacheToken.request;
-      e.persistent = persistent;
-      e.e = res;
-      store(cacheToken, persistent, nc, e);
-    }    
+    NamedCache nc = getNamedCache(cacheToken);
+    CacheEntry e = new CacheEntry();
+    e.request = persistent ? cacheToken.getRequest() : null; // transient entries are only found by digest
+    e.persistent = persistent;
+    e.e = res;
+    store(cacheToken, persistent, nc, e);
   }
 
   public void store(CacheToken cacheToken, boolean persistent, NamedCache nc, CacheEntry e) {
@@ -612,57 +915,134 @@ public class TerminologyCache {
       return;
     }
 
-    boolean n = nc.map.containsKey(cacheToken.key);
-    nc.map.put(cacheToken.key, e);
-    if (persistent) {
-      if (n) {
-        for (int i = nc.list.size()- 1; i>= 0; i--) {
-          if (nc.list.get(i).request.equals(e.request)) {
-            nc.list.remove(i);
-          }
+    synchronized (nc) {
+      nc.digests.put(cacheToken.digest, e);
+      if (persistent && store != null) {
+        nc.map.put(cacheToken.getKey(), e);
+        writeToStore(nc, cacheToken.getKey(), e);
+      } else if (persistent) {
+        boolean n = nc.map.put(cacheToken.getKey(), e) != null;
+        if (n) {
+          removeFromList(nc, e.request);
         }
+        nc.list.add(e);
+        if (journalling && folder != null) {
+          appendToJournal(nc, e);
+        } else {
+          save(nc);
+        }
+      }
+    }
+  }
+
+  private void writeToStore(NamedCache nc, String key, CacheEntry e) {
+    try {
+      JsonParser json = new JsonParser();
+      json.setOutputStyle(OutputStyle.PRETTY);
+      StringWriter sw = new StringWriter();
+      writeResult(sw, json, e);
+      store.put(nc.name, key, e.request.trim(), sw.toString());
+    } catch (Exception ex) {
+      log.error("error writing "+nc.name+" to the terminology cache store: "+ex.getMessage(), ex);
+    }
+  }
+
+  private void removeFromList(NamedCache nc, String request) {
+    for (int i = nc.list.size()- 1; i>= 0; i--) {
+      if (nc.list.get(i).request.equals(request)) {
+        nc.list.remove(i);
       }
-      nc.list.add(e);
-      save(nc);  
     }
   }
 
   public ValidationResult getValidation(CacheToken cacheToken) {
-    if (cacheToken.key == null) {
+    if (!cacheToken.hasKey()) {
       return null;
     }
-    synchronized (lock) {
-      requestCount++;
-      NamedCache nc = getNamedCache(cacheToken);
-      CacheEntry e = nc.map.get(cacheToken.key);
-      if (e == null) {
-        networkCount++;
-        return null;
-      } else {
-        hitCount++;
-        return new ValidationResult(e.v);
-      }
+    NamedCache nc = getNamedCache(cacheToken);
+    CacheEntry e = lookup(nc, cacheToken);
+    requestCount.incrementAndGet();
+    if (e == null) {
+      networkCount.incrementAndGet();
+      return null;
+    } else {
+      hitCount.incrementAndGet();
+      return new ValidationResult(e.v);
     }
   }
 
   public void cacheValidation(CacheToken cacheToken, ValidationResult res, boolean persistent) {
-    if (cacheToken.key != null) {
-      synchronized (lock) {      
-        NamedCache nc = getNamedCache(cacheToken);
-        CacheEntry e = new CacheEntry();
-        e.request = cacheToken.request;
-        e.persistent = persistent;
-        e.v = new ValidationResult(res);
-        store(cacheToken, persistent, nc, e);
-      }    
+    if (cacheToken.hasKey()) {
+      NamedCache nc = getNamedCache(cacheToken);
+      CacheEntry e = new CacheEntry();
+      e.request = persistent ? cacheToken.getRequest() : null; // transient entries are only found by digest
+      e.persistent = persistent;
+      e.v = new ValidationResult(res);
+      store(cacheToken, persistent, nc, e);
     }
   }
 
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  public int getHitCount() {
+    return hitCount.get();
+  }
+
+  public int getNetworkCount() {
+    return networkCount.get();
+  }
 
   // persistence
 
+  /**
+   * Write any journalled entries into their .cache files now, rather than waiting for 
+   * the background compaction. Does nothing if journalling isn't in use 
+   */
   public void save() {
+    for (NamedCache nc : caches.values()) {
+      compact(nc);
+    }
+  }
+
+  private void appendToJournal(NamedCache nc, CacheEntry ce) {
+    try {
+      Writer sw = new OutputStreamWriter(new FileOutputStream(ManagedFileAccess.file(Utilities.path(folder, nc.name+JOURNAL_FILE_EXTENSION)), true), StandardCharsets.UTF_8);
+      try {
+        JsonParser json = new JsonParser();
+        json.setOutputStyle(OutputStyle.PRETTY);
+        writeEntry(sw, json, ce);
+      } finally {
+        sw.close();
+      }
+      if (!nc.dirty) {
+        nc.dirty = true;
+        scheduleCompaction(nc);
+      }
+    } catch (Exception e) {
+      log.error("error journalling "+nc.name+": "+e.getMessage(), e);
+      save(nc);
+    }
+  }
 
+  private synchronized void scheduleCompaction(NamedCache nc) {
+    if (compactor == null) {
+      compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "tx-cache-compactor");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    compactor.schedule(() -> compact(nc), COMPACTION_DELAY, TimeUnit.MILLISECONDS);
+  }
+
+  private void compact(NamedCache nc) {
+    synchronized (nc) {
+      if (nc.dirty) {
+        save(nc);
+      }
+    }
   }
 
   private <K extends Resource> void save(K resource, String title) {
@@ -682,103 +1062,122 @@ public class TerminologyCache {
     }
   }
 
+  // caller must hold the lock on nc
   private void save(NamedCache nc) {
     if (folder == null)
       return;
 
     try {
-      OutputStreamWriter sw = new OutputStreamWriter(ManagedFileAccess.outStream(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION)), "UTF-8");
-      sw.write(ENTRY_MARKER+"\r\n");
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      for (CacheEntry ce : nc.list) {
-        sw.write(ce.request.trim());
-        sw.write(BREAK+"\r\n");
-        if (ce.e != null) {
-          sw.write("e: {\r\n");
-          if (ce.e.isFromServer())
-            sw.write("  \"from-server\" : true,\r\n");
-          if (ce.e.getValueset() != null) {
-            if (ce.e.getValueset().hasUserData(UserDataNames.VS_EXPANSION_SOURCE)) {
-              sw.write("  \"source\" : "+Utilities.escapeJson(ce.e.getValueset().getUserString(UserDataNames.VS_EXPANSION_SOURCE)).trim()+",\r\n");              
-            }
-            sw.write("  \"valueSet\" : "+json.composeString(ce.e.getValueset()).trim()+",\r\n");
-          }
-          sw.write("  \"error\" : \""+Utilities.escapeJson(ce.e.getError()).trim()+"\"\r\n}\r\n");
-        } else if (ce.s != null) {
-          sw.write("s: {\r\n");
-          sw.write("  \"result\" : "+ce.s.result+"\r\n}\r\n");
-        } else {
-          sw.write("v: {\r\n");
-          boolean first = true;
-          if (ce.v.getDisplay() != null) {            
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"display\" : \""+Utilities.escapeJson(ce.v.getDisplay()).trim()+"\"");
-          }
-          if (ce.v.getCode() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"code\" : \""+Utilities.escapeJson(ce.v.getCode()).trim()+"\"");
-          }
-          if (ce.v.getSystem() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"system\" : \""+Utilities.escapeJson(ce.v.getSystem()).trim()+"\"");
-          }
-          if (ce.v.getVersion() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"version\" : \""+Utilities.escapeJson(ce.v.getVersion()).trim()+"\"");
-          }
-          if (ce.v.getSeverity() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"severity\" : "+"\""+ce.v.getSeverity().toCode().trim()+"\""+"");
-          }
-          if (ce.v.getMessage() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"error\" : \""+Utilities.escapeJson(ce.v.getMessage()).trim()+"\"");
-          }
-          if (ce.v.getErrorClass() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"class\" : \""+Utilities.escapeJson(ce.v.getErrorClass().toString())+"\"");
-          }
-          if (ce.v.getDefinition() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"definition\" : \""+Utilities.escapeJson(ce.v.getDefinition()).trim()+"\"");
-          }
-          if (ce.v.getStatus() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"status\" : \""+Utilities.escapeJson(ce.v.getStatus()).trim()+"\"");
-          }
-          if (ce.v.getServer() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"server\" : \""+Utilities.escapeJson(ce.v.getServer()).trim()+"\"");
-          }
-          if (ce.v.isInactive()) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"inactive\" : true");
-          }
-          if (ce.v.getUnknownSystems() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"unknown-systems\" : \""+Utilities.escapeJson(CommaSeparatedStringBuilder.join(",", ce.v.getUnknownSystems())).trim()+"\"");
-          }
-          if (ce.v.getParameters() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            sw.write("  \"parameters\" : "+json.composeString(ce.v.getParameters()).trim()+"\r\n");
-          }
-          if (ce.v.getIssues() != null) {
-            if (first) first = false; else sw.write(",\r\n");
-            OperationOutcome oo = new OperationOutcome();
-            oo.setIssue(ce.v.getIssues());
-            sw.write("  \"issues\" : "+json.composeString(oo).trim()+"\r\n");
-          }
-          sw.write("\r\n}\r\n");
-        }
+      File tmp = ManagedFileAccess.file(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION+".tmp"));
+      OutputStreamWriter sw = new OutputStreamWriter(ManagedFileAccess.outStream(tmp), "UTF-8");
+      try {
         sw.write(ENTRY_MARKER+"\r\n");
-      }      
-      sw.close();
+        JsonParser json = new JsonParser();
+        json.setOutputStyle(OutputStyle.PRETTY);
+        for (CacheEntry ce : nc.list) {
+          writeEntry(sw, json, ce);
+        }
+      } finally {
+        sw.close();
+      }
+      Files.move(tmp.toPath(), ManagedFileAccess.file(Utilities.path(folder, nc.name+CACHE_FILE_EXTENSION)).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      File journal = ManagedFileAccess.file(Utilities.path(folder, nc.name+JOURNAL_FILE_EXTENSION));
+      if (journal.exists()) {
+        journal.delete();
+      }
+      nc.dirty = false;
     } catch (Exception e) {
       log.error("error saving "+nc.name+": "+e.getMessage(), e);
     }
   }
 
+  private void writeEntry(Writer sw, JsonParser json, CacheEntry ce) throws IOException {
+    sw.write(ce.request.trim());
+    sw.write(BREAK+"\r\n");
+    writeResult(sw, json, ce);
+    sw.write(ENTRY_MARKER+"\r\n");
+  }
+
+  private void writeResult(Writer sw, JsonParser json, CacheEntry ce) throws IOException {
+    if (ce.e != null) {
+      sw.write("e: {\r\n");
+      if (ce.e.isFromServer())
+        sw.write("  \"from-server\" : true,\r\n");
+      if (ce.e.getValueset() != null) {
+        if (ce.e.getValueset().hasUserData(UserDataNames.VS_EXPANSION_SOURCE)) {
+          sw.write("  \"source\" : "+Utilities.escapeJson(ce.e.getValueset().getUserString(UserDataNames.VS_EXPANSION_SOURCE)).trim()+",\r\n");              
+        }
+        sw.write("  \"valueSet\" : "+json.composeString(ce.e.getValueset()).trim()+",\r\n");
+      }
+      sw.write("  \"error\" : \""+Utilities.escapeJson(ce.e.getError()).trim()+"\"\r\n}\r\n");
+    } else if (ce.s != null) {
+      sw.write("s: {\r\n");
+      sw.write("  \"result\" : "+ce.s.result+"\r\n}\r\n");
+    } else {
+      sw.write("v: {\r\n");
+      boolean first = true;
+      if (ce.v.getDisplay() != null) {            
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"display\" : \""+Utilities.escapeJson(ce.v.getDisplay()).trim()+"\"");
+      }
+      if (ce.v.getCode() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"code\" : \""+Utilities.escapeJson(ce.v.getCode()).trim()+"\"");
+      }
+      if (ce.v.getSystem() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"system\" : \""+Utilities.escapeJson(ce.v.getSystem()).trim()+"\"");
+      }
+      if (ce.v.getVersion() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"version\" : \""+Utilities.escapeJson(ce.v.getVersion()).trim()+"\"");
+      }
+      if (ce.v.getSeverity() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"severity\" : "+"\""+ce.v.getSeverity().toCode().trim()+"\""+"");
+      }
+      if (ce.v.getMessage() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"error\" : \""+Utilities.escapeJson(ce.v.getMessage()).trim()+"\"");
+      }
+      if (ce.v.getErrorClass() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"class\" : \""+Utilities.escapeJson(ce.v.getErrorClass().toString())+"\"");
+      }
+      if (ce.v.getDefinition() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"definition\" : \""+Utilities.escapeJson(ce.v.getDefinition()).trim()+"\"");
+      }
+      if (ce.v.getStatus() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"status\" : \""+Utilities.escapeJson(ce.v.getStatus()).trim()+"\"");
+      }
+      if (ce.v.getServer() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"server\" : \""+Utilities.escapeJson(ce.v.getServer()).trim()+"\"");
+      }
+      if (ce.v.isInactive()) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"inactive\" : true");
+      }
+      if (ce.v.getUnknownSystems() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"unknown-systems\" : \""+Utilities.escapeJson(CommaSeparatedStringBuilder.join(",", ce.v.getUnknownSystems())).trim()+"\"");
+      }
+      if (ce.v.getParameters() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        sw.write("  \"parameters\" : "+json.composeString(ce.v.getParameters()).trim()+"\r\n");
+      }
+      if (ce.v.getIssues() != null) {
+        if (first) first = false; else sw.write(",\r\n");
+        OperationOutcome oo = new OperationOutcome();
+        oo.setIssue(ce.v.getIssues());
+        sw.write("  \"issues\" : "+json.composeString(oo).trim()+"\r\n");
+      }
+      sw.write("\r\n}\r\n");
+    }
+  }
+
   private boolean isCapabilityCache(String fn) {
     if (fn == null) {
       return false;
@@ -868,13 +1267,30 @@ public class TerminologyCache {
   }
 
   private void loadNamedCache(String fn) {
+    String title = fn.substring(0, fn.lastIndexOf("."));
+    if (caches.containsKey(title)) {
+      return; // already loaded along with its .cache / .journal partner
+    }
+    NamedCache nc = new NamedCache();
+    nc.name = title;
+    caches.put(nc.name, nc);
+    loadEntries(nc, folder, title+CACHE_FILE_EXTENSION);
+    if (loadEntries(nc, folder, title+JOURNAL_FILE_EXTENSION)) {
+      // left over from a previous session that didn't get to compact it
+      synchronized (nc) {
+        save(nc);
+      }
+    }
+  }
+
+  private boolean loadEntries(NamedCache nc, String dir, String fn) {
     int c = 0;
     try {
-      String src = FileUtilities.fileToString(Utilities.path(folder, fn));
-      String title = fn.substring(0, fn.lastIndexOf("."));
-
-      NamedCache nc = new NamedCache();
-      nc.name = title;
+      File f = ManagedFileAccess.file(Utilities.path(dir, fn));
+      if (!f.exists()) {
+        return false;
+      }
+      String src = FileUtilities.fileToString(f);
 
       if (src.startsWith("?"))
         src = src.substring(1);
@@ -891,13 +1307,17 @@ public class TerminologyCache {
 
           CacheEntry cacheEntry = getCacheEntry(request, p);
 
-          nc.map.put(String.valueOf(hashJson(cacheEntry.request)), cacheEntry);
+          String key = String.valueOf(hashJson(cacheEntry.request));
+          if (nc.map.put(key, cacheEntry) != null) {
+            removeFromList(nc, cacheEntry.request);
+          }
           nc.list.add(cacheEntry);
         }
-        caches.put(nc.name, nc);
       }        
+      return c > 0;
     } catch (Exception e) {
       log.error("Error loading "+fn+": "+e.getMessage()+" entry "+c+" - ignoring it", e);
+      return false;
     }
   }
 
@@ -914,12 +1334,14 @@ public class TerminologyCache {
         try {
           if (isCapabilityCache(fn)) {
             loadCapabilityCache(fn);
-          } else {
+          } else if (store == null) {
             loadNamedCache(fn);
           }
         } catch (FHIRException e) {
           throw e;
         }
+      } else if (fn.endsWith(JOURNAL_FILE_EXTENSION) && store == null) {
+        loadNamedCache(fn);
       }
     }
     try {
@@ -967,6 +1389,10 @@ public class TerminologyCache {
     return s;
   }
 
+  private String normaliseRequest(String s) {
+    return s.trim().replaceAll("\\r\\n?", "\n");
+  }
+
   public String hashJson(String s) {
     return String.valueOf(s
       .trim()
@@ -1027,18 +1453,78 @@ public class TerminologyCache {
   }
 
   public void removeCS(String url) {
-    synchronized (lock) {
-      String name = getSystemNameKeyGenerator().getNameForSystem(url);
-      if (caches.containsKey(name)) {
-        caches.remove(name);
-      }
-    }   
+    String name = getSystemNameKeyGenerator().getNameForSystem(url);
+    caches.remove(name);
   }
 
   public String getFolder() {
     return folder;
   }
 
+  public TerminologyCacheStore getStore() {
+    return store;
+  }
+
+  /**
+   * Copy the entries in the .cache (and .journal) files in the folder into the store
+   * 
+   * @return the number of entries copied
+   */
+  public int importText(String dir) throws IOException {
+    if (store == null) {
+      throw new FHIRException("This terminology cache doesn't have a store");
+    }
+    Map<String, NamedCache> loaded = new TreeMap<>();
+    for (String fn : ManagedFileAccess.file(dir).list()) {
+      if (((fn.endsWith(CACHE_FILE_EXTENSION) && !fn.equals("validation" + CACHE_FILE_EXTENSION)) || fn.endsWith(JOURNAL_FILE_EXTENSION)) && !isCapabilityCache(fn)) {
+        String title = fn.substring(0, fn.lastIndexOf("."));
+        if (!loaded.containsKey(title)) {
+          NamedCache nc = new NamedCache();
+          nc.name = title;
+          loaded.put(title, nc);
+          loadEntries(nc, dir, title+CACHE_FILE_EXTENSION);
+          loadEntries(nc, dir, title+JOURNAL_FILE_EXTENSION);
+        }
+      }
+    }
+    int count = 0;
+    for (NamedCache nc : loaded.values()) {
+      for (CacheEntry ce : nc.list) {
+        writeToStore(nc, hashJson(ce.request), ce);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Write the entries in the store to .cache files in the folder
+   * 
+   * @return the number of entries written
+   */
+  public int exportText(String dir) throws IOException {
+    if (store == null) {
+      throw new FHIRException("This terminology cache doesn't have a store");
+    }
+    int count = 0;
+    for (String name : store.names()) {
+      Writer sw = new OutputStreamWriter(ManagedFileAccess.outStream(Utilities.path(dir, name+CACHE_FILE_EXTENSION)), StandardCharsets.UTF_8);
+      try {
+        sw.write(ENTRY_MARKER+"\r\n");
+        for (TerminologyCacheStore.StoredEntry se : store.list(name)) {
+          sw.write(se.getRequest().trim());
+          sw.write(BREAK+"\r\n");
+          sw.write(se.getResult());
+          sw.write(ENTRY_MARKER+"\r\n");
+          count++;
+        }
+      } finally {
+        sw.close();
+      }
+    }
+    return count;
+  }
+
   public Map<String, String> servers() {
     Map<String, String> servers = new HashMap<>();
 //    servers.put("http://local.fhir.org/r2", "tx.fhir.org");
@@ -1168,55 +1654,48 @@ public class TerminologyCache {
   }
 
   public CacheToken generateSubsumesToken(ValidationOptions options, Coding parent, Coding child, Parameters expParameters) {
-    try {
-      CacheToken ct = new CacheToken();
-      if (parent.hasSystem()) {
-        ct.setName(parent.getSystem());
-      }
-      if (child.hasSystem()) {
-        ct.setName(child.getSystem());
-      }
-      ct.hasVersion = parent.hasVersion() || child.hasVersion();
-      JsonParser json = new JsonParser();
-      json.setOutputStyle(OutputStyle.PRETTY);
-      String expJS = json.composeString(expParameters);
-      ct.request = "{\"op\": \"subsumes\", \"parent\" : "+json.composeString(parent, "code")+", \"child\" :"+json.composeString(child, "code")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+expJS+"}";
-      ct.key = String.valueOf(hashJson(ct.request));
-      return ct;
-    } catch (IOException e) {
-      throw new Error(e);
+    CacheToken ct = new CacheToken();
+    if (parent.hasSystem()) {
+      ct.setName(parent.getSystem());
     }
+    if (child.hasSystem()) {
+      ct.setName(child.getSystem());
+    }
+    ct.hasVersion = parent.hasVersion() || child.hasVersion();
+    StringBuilder b = new StringBuilder();
+    b.append("ss").append(SEP);
+    digest(b, parent);
+    digest(b, child);
+    digest(b, options, expParameters);
+    ct.digest = b.toString();
+    ct.builder = json -> "{\"op\": \"subsumes\", \"parent\" : "+json.composeString(parent, "code")+", \"child\" :"+json.composeString(child, "code")+(options == null ? "" : ", "+options.toJson())+", \"profile\": "+json.composeString(expParameters)+"}";
+    return ct;
   }
 
   public Boolean getSubsumes(CacheToken cacheToken) {
-   if (cacheToken.key == null) {
+   if (!cacheToken.hasKey()) {
      return null;
    }
-   synchronized (lock) {
-     requestCount++;
-     NamedCache nc = getNamedCache(cacheToken);
-     CacheEntry e = nc.map.get(cacheToken.key);
-     if (e == null) {
-       networkCount++;
-       return null;
-     } else {
-       hitCount++;
-       return e.s.result;
-     }
+   NamedCache nc = getNamedCache(cacheToken);
+   CacheEntry e = lookup(nc, cacheToken);
+   requestCount.incrementAndGet();
+   if (e == null) {
+     networkCount.incrementAndGet();
+     return null;
+   } else {
+     hitCount.incrementAndGet();
+     return e.s.result;
    }
-   
   }
 
   public void cacheSubsumes(CacheToken cacheToken, Boolean b, boolean persistent) {
-    if (cacheToken.key != null) {
-      synchronized (lock) {      
-        NamedCache nc = getNamedCache(cacheToken);
-        CacheEntry e = new CacheEntry();
-        e.request = cacheToken.request;
-        e.persistent = persistent;
-        e.s = new SubsumesResult(b);
-        store(cacheToken, persistent, nc, e);
-      }    
+    if (cacheToken.hasKey()) {
+      NamedCache nc = getNamedCache(cacheToken);
+      CacheEntry e = new CacheEntry();
+      e.request = persistent ? cacheToken.getRequest() : null; // transient entries are only found by digest
+      e.persistent = persistent;
+      e.s = new SubsumesResult(b);
+      store(cacheToken, persistent, nc, e);
     }
   }
 
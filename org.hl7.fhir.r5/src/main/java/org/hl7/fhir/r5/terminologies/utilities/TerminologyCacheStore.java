@@ -0,0 +1,63 @@
+package org.hl7.fhir.r5.terminologies.utilities;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.hl7.fhir.utilities.MarkedToMoveToAdjunctPackage;
+
+/**
+ * Where the persistent entries of a TerminologyCache are kept, if not in the .cache files in the
+ * cache folder.
+ *
+ * Entries are read one at a time, when the cache is asked for them, rather than all being loaded
+ * up front. Each entry is the request and the result, in the same text form as the .cache files,
+ * and belongs to a named cache (e.g. 'loinc', 'snomed'), where it is found by the hash of the request
+ *
+ * Implementations must be safe to use from more than one thread
+ */
+@MarkedToMoveToAdjunctPackage
+public interface TerminologyCacheStore extends AutoCloseable {
+
+  public static class StoredEntry {
+    private final String request;
+    private final String result;
+
+    public StoredEntry(String request, String result) {
+      this.request = request;
+      this.result = result;
+    }
+
+    public String getRequest() {
+      return request;
+    }
+
+    public String getResult() {
+      return result;
+    }
+  }
+
+  /**
+   * @return the entry for the key in the named cache, or null if there isn't one (or it has expired)
+   */
+  StoredEntry get(String name, String key) throws IOException;
+
+  /**
+   * Add the entry, replacing any existing entry with the same key in the named cache
+   */
+  void put(String name, String key, String request, String result) throws IOException;
+
+  /**
+   * @return the names of the caches that have entries
+   */
+  List<String> names() throws IOException;
+
+  /**
+   * @return all the entries in the named cache, in the order they were stored
+   */
+  List<StoredEntry> list(String name) throws IOException;
+
+  void clear() throws IOException;
+
+  @Override
+  void close() throws IOException;
+}
@@ -1,6 +1,7 @@
 package org.hl7.fhir.r5.terminologies.utilities;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 import lombok.extern.slf4j.Slf4j;
 import org.hl7.fhir.exceptions.FHIRException;
@@ -50,59 +51,135 @@ public class TerminologyOperationContext {
 
   }
 
+  /**
+   * The time budget of an operation, and what it has been doing, which is shared by the
+   * copies of the context that are made for nested operations.
+   *
+   * The notes are kept in a ring buffer, so only the most recent ones are kept, and they
+   * aren't turned into strings unless the operation runs out of time. Notes are timed with
+   * the last clock reading, so they're only as accurate as the interval between checks
+   */
+  private static class Budget {
+    private final long startNanos;
+    private final long deadNanos; // 0 if there's no limit
+    private long nowNanos;
+    private long checks;
+    private long clockReads;
+    private int maxNesting;
+
+    private final String[] notes = new String[NOTE_COUNT];
+    private final Object[] details = new Object[NOTE_COUNT];
+    private final int[] nesting = new int[NOTE_COUNT];
+    private final long[] times = new long[NOTE_COUNT];
+    private long noteCount;
+
+    private Budget(long limitNanos) {
+      startNanos = System.nanoTime();
+      nowNanos = startNanos;
+      deadNanos = limitNanos == 0 ? 0 : startNanos + limitNanos;
+    }
+
+    private long readClock() {
+      clockReads++;
+      nowNanos = System.nanoTime();
+      return nowNanos;
+    }
+
+    private void note(int nest, String note, Object detail) {
+      int i = (int) (noteCount % NOTE_COUNT);
+      notes[i] = note;
+      details[i] = detail;
+      nesting[i] = nest;
+      times[i] = nowNanos;
+      noteCount++;
+    }
+
+    private List<String> formatNotes() {
+      List<String> list = new ArrayList<>();
+      long first = Math.max(0, noteCount - NOTE_COUNT);
+      if (first > 0) {
+        list.add("("+first+" earlier notes not kept)");
+      }
+      for (long n = first; n < noteCount; n++) {
+        int i = (int) (n % NOTE_COUNT);
+        list.add(Utilities.padLeft("", ' ', nesting[i])+" "+((times[i] - startNanos) / 1000000)+" "+notes[i]+(details[i] == null ? "" : " "+format(details[i])));
+      }
+      return list;
+    }
+
+    private Object format(Object detail) {
+      return detail instanceof Supplier ? ((Supplier<?>) detail).get() : detail;
+    }
+  }
+
   public static boolean debugging = java.lang.management.ManagementFactory.getRuntimeMXBean().getInputArguments().toString().indexOf("-agentlib:jdwp") > 0;
   private static final int EXPANSION_DEAD_TIME_SECS = 60;
-  private long deadTime;
+  private static final int CHECK_INTERVAL = 32; // how many checks between looking at the clock
+  private static final int NOTE_COUNT = 200; // how many notes to keep for when the operation runs out of time
+  private Budget budget;
   private int nestCount = 0;
-  private long startTime;
   private List<String> contexts = new ArrayList<>();
   private IWorkerContext worker;
   private boolean original;
   private ValidationOptions options;
   private String name;
-  private List<String> notes = new ArrayList<>();
   
   public TerminologyOperationContext(IWorkerContext worker, ValidationOptions options, String name) {
+    this(worker, options, name, EXPANSION_DEAD_TIME_SECS == 0 || debugging ? 0 : EXPANSION_DEAD_TIME_SECS * 1000000000L);
+  }
+
+  TerminologyOperationContext(IWorkerContext worker, ValidationOptions options, String name, long limitNanos) {
     super();
     this.worker = worker;
     this.original = true;
     this.options = options;
     this.name = name;
-    this.startTime = System.currentTimeMillis();
-    
-    if (EXPANSION_DEAD_TIME_SECS == 0 || debugging) {
-      deadTime = 0;
-    } else {
-      deadTime = System.currentTimeMillis() + (EXPANSION_DEAD_TIME_SECS * 1000);      
-    }
+    this.budget = new Budget(limitNanos);
   }
   
   private TerminologyOperationContext(ValidationOptions options, String name) {
     super();
     this.options = options;
     this.name = name;
-    this.startTime = System.currentTimeMillis();
   }
 
   public TerminologyOperationContext copy() {
     TerminologyOperationContext ret = new TerminologyOperationContext(this.options, name);
     ret.worker = worker;
     ret.contexts.addAll(contexts);
-    ret.deadTime = deadTime;
-    ret.notes = notes;
-    ret.startTime = startTime;
+    ret.budget = budget;
     ret.nestCount = nestCount + 1;
+    budget.maxNesting = Math.max(budget.maxNesting, ret.nestCount);
     return ret;
   }
   
+  /**
+   * Called in the loops of an operation, to stop it if it's taking too long. The clock is
+   * only read every so often, so this is cheap enough to call for every concept
+   *
+   * @param note what the operation is doing (a constant, so nothing is built on each call)
+   */
   public void deadCheck(String note) {
-    note(note);
-    if (deadTime != 0 &&  System.currentTimeMillis() > deadTime) {
-     log.error("Operation took too long - longer than "+(deadTime - startTime)+"ms");
-      for (String s : notes) {
-        log.error(s);
+    deadCheck(note, null);
+  }
+
+  /**
+   * @param detail what the operation is working on, which is only turned into a string if the operation runs out of time
+   */
+  public void deadCheck(String note, Object detail) {
+    Budget b = budget;
+    b.note(nestCount, note, detail);
+    if (++b.checks % CHECK_INTERVAL == 0) {
+      long now = b.readClock();
+      if (b.deadNanos != 0 && now - b.deadNanos > 0) {
+        log.error("Operation took too long - longer than "+((b.deadNanos - b.startNanos) / 1000000)+"ms ("+getCostSummary()+")");
+        List<String> notes = b.formatNotes();
+        for (String s : notes) {
+          log.error(s);
+        }
+        throw new TerminologyServiceProtectionException(worker.formatMessage(I18nConstants.VALUESET_TOO_COSTLY_TIME, contexts.get(0), (b.deadNanos - b.startNanos) / 1000000000L, name+" (local)"), TerminologyServiceErrorClass.TOO_COSTLY, IssueType.TOOCOSTLY,
+            String.join("\n", notes));
       }
-      throw new TerminologyServiceProtectionException(worker.formatMessage(I18nConstants.VALUESET_TOO_COSTLY_TIME, contexts.get(0), EXPANSION_DEAD_TIME_SECS, name+" (local)"), TerminologyServiceErrorClass.TOO_COSTLY, IssueType.TOOCOSTLY);
     }
   }
   
@@ -122,7 +199,51 @@ public class TerminologyOperationContext {
   }
 
   public void note(String s) {
-    s = Utilities.padLeft("", ' ', nestCount)+" "+(System.currentTimeMillis() - startTime)+" "+s;
-    notes.add(s);
+    note(s, (Object) null);
+  }
+
+  /**
+   * Records what the operation is doing, without reading the clock
+   *
+   * @param detail what the operation is working on, which is only turned into a string if the operation runs out of time
+   */
+  public void note(String s, Object detail) {
+    budget.note(nestCount, s, detail);
+  }
+
+  /**
+   * @param detail builds the description of what the operation is working on, and is only called if the operation runs out of time
+   */
+  public void note(String s, Supplier<String> detail) {
+    budget.note(nestCount, s, detail);
+  }
+
+  /**
+   * @return how many times the operation (including nested operations) has checked whether it's out of time
+   */
+  public long getChecks() {
+    return budget.checks;
+  }
+
+  public long getElapsedMillis() {
+    return (System.nanoTime() - budget.startNanos) / 1000000;
+  }
+
+  /**
+   * @return the deepest that operations have been nested within this operation
+   */
+  public int getMaxNesting() {
+    return budget.maxNesting;
+  }
+
+  public String getCostSummary() {
+    return name+": "+getElapsedMillis()+"ms, "+budget.checks+" checks, "+budget.clockReads+" clock reads, "+budget.noteCount+" notes, nesting "+budget.maxNesting;
+  }
+
+  /**
+   * @return the most recent notes, formatted, oldest first
+   */
+  public List<String> getNotes() {
+    return budget.formatNotes();
   }
 }
@@ -73,7 +73,9 @@ import org.hl7.fhir.r5.model.ValueSet.ConceptSetComponent;
 import org.hl7.fhir.r5.model.ValueSet.ConceptSetFilterComponent;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
 import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionParameterComponent;
+import org.hl7.fhir.r5.terminologies.CodeSystemIndex;
 import org.hl7.fhir.r5.terminologies.CodeSystemUtilities;
+import org.hl7.fhir.r5.terminologies.ValueSetExpansionIndex;
 import org.hl7.fhir.r5.terminologies.client.TerminologyClientManager;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
 import org.hl7.fhir.r5.terminologies.providers.CodeSystemProvider;
@@ -174,7 +176,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
   private void analyseValueSet() {
     opContext.note("analyse");
     if (valueset != null) {
-      opContext.note("vs = "+valueset.getVersionedUrl());
+      opContext.note("vs =", () -> valueset.getVersionedUrl());
       opContext.seeContext(valueset.getVersionedUrl());
       for (Extension s : valueset.getExtensionsByUrl(ExtensionConstants.EXT_VSSUPPLEMENT)) {
         requiredSupplements.add(s.getValue().primitiveValue());
@@ -213,15 +215,16 @@ public class ValueSetValidator extends ValueSetProcessBase {
 
   private void checkCodeSystemResolves(ConceptSetComponent c) {
     VersionInfo vi = new VersionInfo(this);
-    CodeSystem cs = resolveCodeSystem(c.getSystem(), vi.getVersion(c.getSystem(), c.getVersion()));
+    String version = vi.getVersion(c.getSystem(), c.getVersion());
+    CodeSystem cs = resolveCodeSystem(c.getSystem(), version);
     if (cs == null) {
       // well, it doesn't really matter at this point. Mainly we're triggering the supplement analysis to happen 
-      opContext.note("Unable to resolve "+c.getSystem()+"#"+vi.getVersion(c.getSystem(), c.getVersion()));
+      opContext.note("Unable to resolve", () -> c.getSystem()+"#"+version);
     }
   }
 
   private void analyseComponent(ConceptSetComponent i, String name) {
-    opContext.deadCheck("analyse Component "+name);
+    opContext.deadCheck("analyse Component", name);
     if (i.getSystemElement().hasExtension(ToolingExtensions.EXT_VALUESET_SYSTEM)) {
       String ref = i.getSystemElement().getExtensionString(ToolingExtensions.EXT_VALUESET_SYSTEM);
       if (ref.startsWith("#")) {
@@ -243,7 +246,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
   }
   
   public ValidationResult validateCode(String path, CodeableConcept code) throws FHIRException {
-    opContext.deadCheck("validate "+code.toString());
+    opContext.deadCheck("validate", code);
     checkValueSetOptions();
 
     // first, we validate the codings themselves
@@ -498,7 +501,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
   private String lookupDisplay(Coding c) {
     CodeSystem cs = resolveCodeSystem(c.getSystem(), c.getVersion());
     if (cs != null) {
-      ConceptDefinitionComponent cd = CodeSystemUtilities.findCodeOrAltCode(cs.getConcept(), c.getCode(), null);
+      ConceptDefinitionComponent cd = CodeSystemIndex.get(cs).findCodeOrAltCode(c.getCode(), null);
       if (cd != null) {
         return getPreferredDisplay(cd, cs); 
       }
@@ -549,7 +552,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
   }
   
   public ValidationResult validateCode(String path, Coding code) throws FHIRException {
-    opContext.deadCheck("validate "+code.toString());
+    opContext.deadCheck("validate", code);
     checkValueSetOptions();
     
     String warningMessage = null;
@@ -898,52 +901,33 @@ public class ValueSetValidator extends ValueSetProcessBase {
   private ValidationResult findCodeInExpansion(Coding code) {
     if (valueset==null || !valueset.hasExpansion())
       return null;
-    return findCodeInExpansion(code, valueset.getExpansion().getContains());
-  }
-
-  private ValidationResult findCodeInExpansion(Coding code, List<ValueSetExpansionContainsComponent> contains) {
-    for (ValueSetExpansionContainsComponent containsComponent: contains) {
-      opContext.deadCheck("findCodeInExpansion");
-      if (containsComponent.getSystem().equals(code.getSystem()) && containsComponent.getCode().equals(code.getCode())) {
-        ConceptDefinitionComponent ccd = new ConceptDefinitionComponent();
-        ccd.setCode(containsComponent.getCode());
-        ccd.setDisplay(containsComponent.getDisplay());
-        ValidationResult res = new ValidationResult(code.getSystem(), code.hasVersion() ? code.getVersion() : containsComponent.getVersion(), ccd, getPreferredDisplay(ccd, null));
-        return res;
-      }
-      if (containsComponent.hasContains()) {
-        ValidationResult res = findCodeInExpansion(code, containsComponent.getContains());
-        if (res != null) {
-          return res;
-        }
-      }
+    opContext.deadCheck("findCodeInExpansion");
+    ValueSetExpansionContainsComponent containsComponent = ValueSetExpansionIndex.get(valueset.getExpansion()).find(code.getSystem(), code.getCode());
+    if (containsComponent == null) {
+      return null;
     }
-    return null;
+    ConceptDefinitionComponent ccd = new ConceptDefinitionComponent();
+    ccd.setCode(containsComponent.getCode());
+    ccd.setDisplay(containsComponent.getDisplay());
+    ValidationResult res = new ValidationResult(code.getSystem(), code.hasVersion() ? code.getVersion() : containsComponent.getVersion(), ccd, getPreferredDisplay(ccd, null));
+    return res;
   }
 
   private boolean checkExpansion(Coding code, VersionInfo vi) {
     if (valueset==null || !valueset.hasExpansion()) {
       return false;
     }
-    return checkExpansion(code, valueset.getExpansion().getContains(), vi);
-  }
-
-  private boolean checkExpansion(Coding code, List<ValueSetExpansionContainsComponent> contains, VersionInfo vi) {
-    for (ValueSetExpansionContainsComponent containsComponent: contains) {
-      opContext.deadCheck("checkExpansion: "+code.toString());
-      if (containsComponent.hasSystem() && containsComponent.hasCode() && containsComponent.getSystem().equals(code.getSystem()) && containsComponent.getCode().equals(code.getCode())) {
-        vi.setExpansionVersion(containsComponent.getVersion());
-        return true;
-      }
-      if (containsComponent.hasContains() && checkExpansion(code, containsComponent.getContains(), vi)) {
-        return true;
-      }
+    opContext.deadCheck("checkExpansion:", code);
+    ValueSetExpansionContainsComponent containsComponent = ValueSetExpansionIndex.get(valueset.getExpansion()).find(code.getSystem(), code.getCode());
+    if (containsComponent == null) {
+      return false;
     }
-    return false;
+    vi.setExpansionVersion(containsComponent.getVersion());
+    return true;
   }
 
   private ValidationResult validateCode(String path, Coding code, CodeSystem cs, CodeableConcept vcc, ValidationProcessInfo info) {
-    ConceptDefinitionComponent cc = cs.hasUserData(UserDataNames.tx_cs_special) ? ((SpecialCodeSystem) cs.getUserData(UserDataNames.tx_cs_special)).findConcept(code) : findCodeInConcept(cs.getConcept(), code.getCode(), cs.getCaseSensitive(), allAltCodes);
+    ConceptDefinitionComponent cc = cs.hasUserData(UserDataNames.tx_cs_special) ? ((SpecialCodeSystem) cs.getUserData(UserDataNames.tx_cs_special)).findConcept(code) : CodeSystemIndex.get(cs).findCode(code.getCode(), cs.getCaseSensitive(), allAltCodes);
     if (cc == null) {
       cc = findSpecialConcept(code, cs);
     }
@@ -987,7 +971,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
     }
     
     for (ConceptDefinitionDesignationComponent ds : cc.getDesignation()) {
-      opContext.deadCheck("validateCode1 "+ds.toString());
+      opContext.deadCheck("validateCode1", ds);
       if (isOkLanguage(ds.getLanguage())) {
         b.append("'"+ds.getValue()+"' ("+ds.getLanguage()+")");
         if (code.getDisplay().equalsIgnoreCase(ds.getValue())) {
@@ -1009,7 +993,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
           }
         }
         for (ConceptReferenceDesignationComponent ds : vs.getCc().getDesignation()) {
-          opContext.deadCheck("validateCode2 "+ds.toString());
+          opContext.deadCheck("validateCode2", ds);
           if (isOkLanguage(ds.getLanguage())) {
             b.append("'"+ds.getValue()+"'");
             if (code.getDisplay().equalsIgnoreCase(ds.getValue())) {
@@ -1117,7 +1101,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
       return null;
     // if it has an expansion
     for (ValueSetExpansionContainsComponent exp : valueset.getExpansion().getContains()) {
-      opContext.deadCheck("findValueSetRef "+exp.toString());
+      opContext.deadCheck("findValueSetRef", exp);
       if (system.equals(exp.getSystem()) && code.equals(exp.getCode())) {
         ConceptReferenceComponent cc = new ConceptReferenceComponent();
         cc.setDisplay(exp.getDisplay());
@@ -1156,7 +1140,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
   }
 
   private ConceptDefinitionComponent findCodeInConcept(ConceptDefinitionComponent concept, String code, boolean caseSensitive, AlternateCodesProcessingRules altCodeRules) {
-    opContext.deadCheck("findCodeInConcept: "+code.toString()+", "+concept.toString());
+    opContext.deadCheck("findCodeInConcept:", code);
     if (code.equals(concept.getCode())) {
       return concept;
     }
@@ -1229,7 +1213,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
 
       int i = 0;
       for (ConceptSetComponent vsi : valueset.getCompose().getInclude()) {
-        opContext.deadCheck("scanForCodeInValueSet: "+code.toString());
+        opContext.deadCheck("scanForCodeInValueSet:", code);
         if (scanForCodeInValueSetInclude(code, sys, problems, i, vsi)) {
           return true;
         }
@@ -1291,7 +1275,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
               }
             }
           } else {
-            ConceptDefinitionComponent cc = findCodeInConcept(cs.getConcept(), code, cs.getCaseSensitive(), allAltCodes);
+            ConceptDefinitionComponent cc = CodeSystemIndex.get(cs).findCode(code, cs.getCaseSensitive(), allAltCodes);
             if (cc != null) {
               sys.add(vsi.getSystem());
             }
@@ -1352,7 +1336,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
    */
   private boolean checkSystems(List<ValueSetExpansionContainsComponent> contains, String code, Set<String> systems, List<StringWithCode> problems) {
     for (ValueSetExpansionContainsComponent c: contains) {
-      opContext.deadCheck("checkSystems "+code.toString());
+      opContext.deadCheck("checkSystems", code);
       if (c.getCode().equals(code)) {
         systems.add(c.getSystem());
       }
@@ -1366,7 +1350,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
     if (valueset == null) {
       return null;
     }
-    opContext.deadCheck("codeInValueSet: "+system+"#"+code);
+    opContext.deadCheck("codeInValueSet:", code);
     checkCanonical(info.getIssues(), path, valueset, valueset);
     Boolean result = false;
     VersionInfo vi = new VersionInfo(this);
@@ -1406,7 +1390,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
   }
 
   private Boolean inComponent(String path, ConceptSetComponent vsi, int vsiIndex, String system, String version, String code, boolean only, ValidationProcessInfo info, String vspath) throws FHIRException {
-    opContext.deadCheck("inComponent "+vsiIndex);
+    opContext.deadCheck("inComponent", vsiIndex);
     boolean ok = true;
     
     if (vsi.hasValueSet()) {
@@ -1455,7 +1439,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
         vs.setUrl(valueset.getUrl()+"--"+vsiIndex);
         vs.setVersion(valueset.getVersion());
         vs.getCompose().addInclude(vsi);
-        opContext.deadCheck("hit server "+vs.getVersionedUrl());
+        opContext.deadCheck("hit server", vs.getVersionedUrl());
         ValidationResult res = context.validateCode(options.withNoClient(), new Coding(system, code, null), vs);
         if (res.getErrorClass() == TerminologyServiceErrorClass.UNKNOWN || res.getErrorClass() == TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED || res.getErrorClass() == TerminologyServiceErrorClass.VALUESET_UNSUPPORTED) {
           if (info != null && res.getErrorClass() == TerminologyServiceErrorClass.CODESYSTEM_UNSUPPORTED) {
@@ -1513,8 +1497,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
         }
       }
 
-      List<ConceptDefinitionComponent> list = cs.getConcept();
-      ok = validateCodeInConceptList(code, cs, list, allAltCodes);
+      ok = validateCodeInCodeSystem(code, cs, allAltCodes);
       if (ok && vsi.hasConcept()) {
         for (ConceptReferenceComponent cc : vsi.getConcept()) {
           if (cc.getCode().equals(code)) { 
@@ -1524,7 +1507,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
         return false;
       } else {
         // recheck that this is a valid alternate code
-        ok = validateCodeInConceptList(code, cs, list, altCodeParams);
+        ok = validateCodeInCodeSystem(code, cs, altCodeParams);
         return ok;
       }
     }
@@ -1659,7 +1642,7 @@ public class ValueSetValidator extends ValueSetProcessBase {
     if (!excludeRoot && code.equals(f.getValue())) {
       return true;
     }
-    ConceptDefinitionComponent cc = findCodeInConcept(cs.getConcept(), f.getValue(), cs.getCaseSensitive(), altCodeParams);
+    ConceptDefinitionComponent cc = CodeSystemIndex.get(cs).findCode(f.getValue(), cs.getCaseSensitive(), altCodeParams);
     if (cc == null) {
       return false;
     }
@@ -1667,6 +1650,18 @@ public class ValueSetValidator extends ValueSetProcessBase {
     return cc2 != null && cc2 != cc;
   }
 
+  // the same as validateCodeInConceptList(code, def, def.getConcept(), altCodeRules), but using the index
+  private boolean validateCodeInCodeSystem(String code, CodeSystem def, AlternateCodesProcessingRules altCodeRules) {
+    opContext.deadCheck("validateCodeInConceptList");
+    if (def.hasUserData(UserDataNames.tx_cs_special)) {
+      return ((SpecialCodeSystem) def.getUserData(UserDataNames.tx_cs_special)).findConcept(new Coding().setCode(code)) != null; 
+    } else if (def.getCaseSensitive()) {
+      return CodeSystemIndex.get(def).findCode(code, true, altCodeRules) != null;
+    } else {
+      return CodeSystemIndex.get(def).findCode(code, false, null) != null;
+    }
+  }
+
   public boolean validateCodeInConceptList(String code, CodeSystem def, List<ConceptDefinitionComponent> list, AlternateCodesProcessingRules altCodeRules) {
     opContext.deadCheck("validateCodeInConceptList");
     if (def.hasUserData(UserDataNames.tx_cs_special)) {
@@ -27,6 +27,8 @@ public class UserDataNames {
   public static final String SNAPSHOT_SORT_ed_index = "ed.index";
   public static final String SNAPSHOT_diff_source = "diff-source";
   public static final String SNAPSHOT_regeneration_tracker = "hack.regnerated";
+  public static final String SNAPSHOT_CACHE_KEY = "snapshot.cache.key";
+  public static final String SNAPSHOT_FROM_CACHE = "snapshot.from.cache";
   
   public static final String LANGUTILS_ORPHAN = "translations.orphans";
   public static final String LANGUTILS_SOURCE_SUPPLEMENT = "translations.supplemented";
@@ -76,6 +78,9 @@ public class UserDataNames {
   public static final String TX_ASSOCIATED_CODESYSTEM = "cs";
   public static final String tx_cs_version_notes = "cs.version.notes";
   public static final String tx_known_supplements = "supplements.installed";
+  public static final String tx_cache_vs_digest = "tx.cache.vs.digest";
+  public static final String tx_cs_index = "tx.cs.index";
+  public static final String tx_vs_expansion_index = "tx.vs.expansion.index";
 
   public static final String validator_bundle_resolution = "validator.bundle.resolution";
   public static final String validator_bundle_resolved = "validator.bundle.resolved";
@@ -83,6 +88,7 @@ public class UserDataNames {
   public static final String validator_slice_expression_cache = "slice.expression.cache";
   public static final String validator_entry_map = "validator.entrymap";
   public static final String validator_entry_map_reverse = "validator.entrymapR";
+  public static final String validator_outcome_cache_hash = "validator.outcome.cache.hash";
   public static final String validation_bundle_error = "bundle.error.noted";
   
   public static final String map_profile = "profile";
@@ -6,6 +6,7 @@ import org.hl7.fhir.r5.terminologies.client.ITerminologyClient;
 import org.hl7.fhir.r5.terminologies.client.TerminologyClientContext;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpander;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
+import org.hl7.fhir.r5.terminologies.utilities.CodingValidationRequest;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
 import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
 import org.hl7.fhir.r5.terminologies.validation.ValueSetValidator;
@@ -447,6 +448,33 @@ public class BaseWorkerContextTests {
     Mockito.verify(context).validateOnServer2(same(terminologyClientContext), same(valueSet), same(pIn), same(validationOptions), eq(Collections.emptySet()));
   }
 
+  @Test
+  public void testPrefetchValidateCode() throws IOException {
+    ValidationOptions validationOptions = new ValidationOptions(FhirPublication.R5).withNoClient();
+    ValueSet valueSet = new ValueSet();
+    Coding coding = new Coding("http://loinc.org", "1234-5", null);
+
+    Mockito.doReturn(cacheToken).when(terminologyCache).generateValidationToken(validationOptions, coding, valueSet, expParameters);
+    Mockito.doReturn("dummyDigest").when(cacheToken).getDigest();
+    Parameters pOut = new Parameters();
+    pOut.addParameter("result", true);
+    Bundle resp = new Bundle();
+    resp.addEntry().setResource(pOut);
+    Mockito.doReturn(resp).when(terminologyClient).validateBatch(any());
+
+    List<CodingValidationRequest> requests = new ArrayList<>();
+    requests.add(new CodingValidationRequest(coding, valueSet));
+    requests.add(new CodingValidationRequest(coding, valueSet));
+    assertEquals(1, context.prefetchValidateCode(validationOptions, requests));
+
+    ValidationResult actualValidationResult = context.validateCode(validationOptions, coding, valueSet, new ValidationContextCarrier());
+    assertTrue(actualValidationResult.isOk());
+
+    Mockito.verify(terminologyClient).validateBatch(argThat(b -> b.getEntry().size() == 1));
+    Mockito.verify(context, times(0)).validateOnServer2(any(), any(), any(), any(), any());
+    Mockito.verify(terminologyCache).cacheValidation(eq(cacheToken), same(actualValidationResult), eq(true));
+  }
+
   @Test
   public void testExpandValueSetWithCache() throws IOException {
 
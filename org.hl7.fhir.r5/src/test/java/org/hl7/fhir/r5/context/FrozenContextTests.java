@@ -0,0 +1,87 @@
+package org.hl7.fhir.r5.context;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.context.SimpleWorkerContext.SimpleWorkerContextBuilder;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.Enumerations.CodeSystemContentMode;
+import org.hl7.fhir.r5.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.junit.jupiter.api.Test;
+
+public class FrozenContextTests {
+
+  private SimpleWorkerContext makeContext() throws IOException {
+    SimpleWorkerContext context = new SimpleWorkerContextBuilder().fromNothing();
+    for (int i = 0; i < 20; i++) {
+      CodeSystem cs = new CodeSystem();
+      cs.setId("cs"+i);
+      cs.setUrl("http://example.org/fhir/CodeSystem/cs"+i);
+      cs.setVersion("1.0.0");
+      cs.setStatus(PublicationStatus.ACTIVE);
+      cs.setContent(CodeSystemContentMode.COMPLETE);
+      cs.addConcept().setCode("a").setDisplay("A");
+      context.cacheResource(cs);
+      ValueSet vs = new ValueSet();
+      vs.setId("vs"+i);
+      vs.setUrl("http://example.org/fhir/ValueSet/vs"+i);
+      vs.setVersion("1.0.0");
+      vs.setStatus(PublicationStatus.ACTIVE);
+      vs.getCompose().addInclude().setSystem(cs.getUrl());
+      context.cacheResource(vs);
+    }
+    return context;
+  }
+
+  @Test
+  public void testFrozenCopyWithOverlays() throws Exception {
+    SimpleWorkerContext context = makeContext();
+    SimpleWorkerContext shared = new SimpleWorkerContext(context);
+    assertThrows(FHIRException.class, () -> shared.overlay(null));
+    shared.freeze();
+    assertTrue(shared.isFrozen());
+    // the context it was copied from can still be changed
+    assertFalse(context.isFrozen());
+    context.cacheResource(new ValueSet().setUrl("http://example.org/fhir/ValueSet/new"));
+    assertNotNull(context.fetchResource(ValueSet.class, "http://example.org/fhir/ValueSet/new"));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        SimpleWorkerContext overlay = shared.overlay(null);
+        assertTrue(overlay.isFrozen());
+        assertThrows(FHIRException.class, () -> overlay.cacheResource(new ValueSet().setUrl("http://example.org/fhir/ValueSet/other")));
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 20; i++) {
+            ValueSet vs = overlay.fetchResource(ValueSet.class, "http://example.org/fhir/ValueSet/vs"+i);
+            if (vs == null || overlay.fetchResource(CodeSystem.class, vs.getCompose().getIncludeFirstRep().getSystem()) == null) {
+              return false;
+            }
+            vs.setUserData("seen-"+Thread.currentThread().getName(), true);
+          }
+          return overlay.fetchResource(ValueSet.class, "http://example.org/fhir/ValueSet/new") == null;
+        }));
+      }
+      for (Future<Boolean> f : results) {
+        assertTrue(f.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    // the definitions are shared, not copied
+    assertSame(context.fetchResource(ValueSet.class, "http://example.org/fhir/ValueSet/vs3"), shared.fetchResource(ValueSet.class, "http://example.org/fhir/ValueSet/vs3"));
+  }
+}
@@ -10,15 +10,24 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Stream;
 
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Bundle.BundleType;
+import org.hl7.fhir.r5.model.CanonicalResource;
 import org.hl7.fhir.r5.model.CapabilityStatement;
 import org.hl7.fhir.r5.model.CodeableConcept;
 import org.hl7.fhir.r5.model.Coding;
 import org.hl7.fhir.r5.model.Enumerations;
 import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.Resource;
 import org.hl7.fhir.r5.model.TerminologyCapabilities;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.terminologies.client.ITerminologyClient;
@@ -28,9 +37,13 @@ import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
 import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
 import org.hl7.fhir.r5.terminologies.validation.ValueSetValidator;
+import org.hl7.fhir.r5.test.utils.TestPackageLoader;
 import org.hl7.fhir.r5.utils.validation.ValidationContextCarrier;
 import org.hl7.fhir.utilities.FhirPublication;
 import org.hl7.fhir.utilities.ToolingClientLogger;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.npm.BasePackageCacheManager;
+import org.hl7.fhir.utilities.npm.NpmPackage;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationOptions;
 import org.junit.jupiter.api.Assertions;
@@ -135,6 +148,96 @@ public class SimpleWorkerContextTests {
     assertEquals(expectedMessage, thrown.getMessage());
   }
 
+  private NpmPackage makePackage(Path folder, String name, String dependency, String... extra) throws IOException {
+    Path dir = folder.resolve(name).resolve("package");
+    Files.createDirectories(dir);
+    String deps = dependency == null ? "" : ", \"dependencies\" : { \""+dependency+"\" : \"1.0.0\" }";
+    Files.write(dir.resolve("package.json"), ("{ \"name\" : \""+name+"\", \"version\" : \"1.0.0\", \"fhirVersions\" : [\"5.0.0\"]"+deps+" }").getBytes(StandardCharsets.UTF_8));
+    for (int i = 0; i < 20; i++) {
+      writeValueSet(dir, name+i, "1.0.0", name);
+    }
+    for (String s : extra) {
+      Files.write(dir.resolve("ValueSet-"+s+".json"), ("{ \"resourceType\" : \"ValueSet\", \"id\" : \""+s+"\", \"url\" : \"http://example.org/fhir/ValueSet/"+s+"\", \"status\" : \"not-a-status\" }").getBytes(StandardCharsets.UTF_8));
+    }
+    return NpmPackage.fromFolder(folder.resolve(name).toString());
+  }
+
+  private void writeValueSet(Path dir, String id, String version, String title) throws IOException {
+    ValueSet vs = new ValueSet();
+    vs.setId(id);
+    vs.setUrl("http://example.org/fhir/ValueSet/"+id);
+    vs.setVersion(version);
+    vs.setTitle(title);
+    vs.setStatus(Enumerations.PublicationStatus.ACTIVE);
+    Files.write(dir.resolve("ValueSet-"+id+".json"), new JsonParser().composeBytes(vs));
+  }
+
+  private class ThreadSafeTestLoader extends TestPackageLoader {
+    private final Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+
+    public ThreadSafeTestLoader() {
+      super(Utilities.stringSet("ValueSet"));
+    }
+
+    @Override
+    public Bundle loadBundle(InputStream stream, boolean isJson) throws FHIRException, IOException {
+      threads.add(Thread.currentThread().getName());
+      Resource r = loadResource(stream, isJson);
+      Bundle b = new Bundle().setType(BundleType.COLLECTION);
+      b.addEntry().setResource(r).setFullUrl(((CanonicalResource) r).getUrl());
+      return b;
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+      return true;
+    }
+  }
+
+  private List<String> loadPackages(NpmPackage npm, BasePackageCacheManager pcm, boolean parallel, ThreadSafeTestLoader loader) throws IOException {
+    SimpleWorkerContext ctxt = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromNothing();
+    ctxt.setAllowLazyLoading(false);
+    ctxt.setParallelLoading(parallel);
+    List<String> res = new ArrayList<>();
+    res.add(String.valueOf(ctxt.loadFromPackageAndDependencies(npm, loader, pcm)));
+    res.add(ctxt.loadedPackageSummary());
+    for (ValueSet vs : ctxt.fetchResourcesByType(ValueSet.class)) {
+      res.add(vs.getUrl()+"|"+vs.getVersion()+"|"+vs.getTitle()+"|"+vs.getWebPath()+"|"+vs.getSourcePackage().getId());
+    }
+    return res;
+  }
+
+  @Test
+  public void testParallelPackageLoading() throws IOException {
+    Path folder = Files.createTempDirectory("packages");
+    NpmPackage dep = makePackage(folder, "example.fhir.dep", null);
+    NpmPackage main = makePackage(folder, "example.fhir.main", "example.fhir.dep");
+    BasePackageCacheManager pcm = mock(BasePackageCacheManager.class);
+    when(pcm.loadPackage("example.fhir.dep#1.0.0")).thenReturn(dep);
+
+    ThreadSafeTestLoader sequentialLoader = new ThreadSafeTestLoader();
+    List<String> sequential = loadPackages(main, pcm, false, sequentialLoader);
+    assertEquals("40", sequential.get(0));
+    assertEquals("[example.fhir.dep#1.0.0, example.fhir.main#1.0.0]", sequential.get(1));
+    assertEquals(42, sequential.size());
+    assertEquals(Collections.singleton(Thread.currentThread().getName()), sequentialLoader.threads);
+
+    ThreadSafeTestLoader parallelLoader = new ThreadSafeTestLoader();
+    List<String> parallel = loadPackages(main, pcm, true, parallelLoader);
+    assertTrue(parallelLoader.threads.stream().anyMatch(t -> t.contains("ForkJoinPool")), parallelLoader.threads.toString());
+    assertEquals(sequential, parallel);
+  }
+
+  @Test
+  public void testParallelPackageLoadingError() throws IOException {
+    Path folder = Files.createTempDirectory("packages");
+    NpmPackage npm = makePackage(folder, "example.fhir.bad", null, "bad");
+    SimpleWorkerContext ctxt = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromNothing();
+    ctxt.setAllowLazyLoading(false);
+    FHIRException e = assertThrows(FHIRException.class, () -> ctxt.loadFromPackage(npm, new ThreadSafeTestLoader()));
+    assertTrue(e.getMessage().contains("ValueSet-bad.json"), e.getMessage());
+  }
+
   @Test
   public void testLoadFromClasspathBinaries() throws IOException {
    SimpleWorkerContext simpleWorkerContext = new SimpleWorkerContext.SimpleWorkerContextBuilder().fromClassPath("zip-slip/zip-normal.zip");
@@ -0,0 +1,141 @@
+package org.hl7.fhir.r5.context;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.hl7.fhir.r5.context.SimpleWorkerContext.SimpleWorkerContextBuilder;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition.TypeDerivationRule;
+import org.hl7.fhir.r5.utils.UserDataNames;
+import org.hl7.fhir.utilities.FileUtilities;
+import org.junit.jupiter.api.Test;
+
+public class SnapshotCacheTests {
+
+  private StructureDefinition base() {
+    StructureDefinition sd = new StructureDefinition();
+    sd.setUrl("http://hl7.org/fhir/StructureDefinition/Patient");
+    sd.setVersion("5.0.0");
+    sd.setType("Patient");
+    sd.getSnapshot().addElement().setPath("Patient").setMin(0).setMax("*");
+    sd.getSnapshot().addElement().setPath("Patient.active").setMin(0).setMax("1");
+    return sd;
+  }
+
+  private StructureDefinition profile() {
+    StructureDefinition sd = new StructureDefinition();
+    sd.setUrl("http://example.org/fhir/StructureDefinition/test");
+    sd.setVersion("1.0.0");
+    sd.setType("Patient");
+    sd.setDerivation(TypeDerivationRule.CONSTRAINT);
+    sd.setBaseDefinition("http://hl7.org/fhir/StructureDefinition/Patient");
+    sd.getDifferential().addElement().setPath("Patient.active").setMin(1);
+    return sd;
+  }
+
+  @Test
+  public void testKey() throws IOException {
+    File folder = Files.createTempDirectory("packages").toFile();
+    try {
+      SnapshotCache cache = new SnapshotCache(folder.getAbsolutePath());
+      String key = cache.key(null, profile(), base(), false, new ArrayList<>());
+      assertEquals(key, cache.key(null, profile(), base(), false, new ArrayList<>()));
+      assertNotEquals(key, cache.key(null, profile(), base(), true, new ArrayList<>()));
+
+      StructureDefinition p = profile();
+      p.getDifferential().getElementFirstRep().setMin(0);
+      assertNotEquals(key, cache.key(null, p, base(), false, new ArrayList<>()));
+
+      StructureDefinition b = base();
+      b.setVersion("5.0.1");
+      assertNotEquals(key, cache.key(null, profile(), b, false, new ArrayList<>()));
+      b = base();
+      b.setUserData(UserDataNames.SNAPSHOT_CACHE_KEY, "abc");
+      assertNotEquals(key, cache.key(null, profile(), b, false, new ArrayList<>()));
+    } finally {
+      FileUtilities.clearDirectory(folder.getAbsolutePath());
+      folder.delete();
+    }
+  }
+
+  @Test
+  public void testKeyDependencies() throws IOException {
+    File folder = Files.createTempDirectory("packages").toFile();
+    try {
+      SnapshotCache cache = new SnapshotCache(folder.getAbsolutePath());
+      SimpleWorkerContext context = new SimpleWorkerContextBuilder().fromNothing();
+      StructureDefinition ext = new StructureDefinition();
+      ext.setUrl("http://example.org/fhir/StructureDefinition/ext");
+      ext.setVersion("1.0.0");
+      ext.setType("Extension");
+      ext.setDerivation(TypeDerivationRule.CONSTRAINT);
+      ext.setBaseDefinition("http://hl7.org/fhir/StructureDefinition/Extension");
+      ext.getDifferential().addElement().setPath("Extension.value[x]").addType().setCode("string");
+      context.cacheResource(ext);
+
+      StructureDefinition p = profile();
+      p.getDifferential().addElement().setPath("Patient.extension").setSliceName("ext").addType().setCode("Extension").addProfile(ext.getUrl());
+      String key = cache.key(context, p, base(), false, new ArrayList<>());
+      assertEquals(key, cache.key(context, p, base(), false, new ArrayList<>()));
+      // the key doesn't depend on the profile alone
+      assertNotEquals(key, cache.key(null, p, base(), false, new ArrayList<>()));
+
+      // a change to the extension definition (without a new version) changes the snapshot, so the key
+      ext.getDifferential().getElementFirstRep().getTypeFirstRep().setCode("code");
+      assertNotEquals(key, cache.key(context, p, base(), false, new ArrayList<>()));
+      ext.getDifferential().getElementFirstRep().getTypeFirstRep().setCode("string");
+      assertEquals(key, cache.key(context, p, base(), false, new ArrayList<>()));
+      ext.setUserData(UserDataNames.SNAPSHOT_CACHE_KEY, "abc");
+      assertNotEquals(key, cache.key(context, p, base(), false, new ArrayList<>()));
+    } finally {
+      FileUtilities.clearDirectory(folder.getAbsolutePath());
+      folder.delete();
+    }
+  }
+
+  @Test
+  public void testStoreAndFetch() throws IOException {
+    File folder = Files.createTempDirectory("packages").toFile();
+    try {
+      SnapshotCache cache = new SnapshotCache(folder.getAbsolutePath());
+      StructureDefinition p = profile();
+      String key = cache.key(null, p, base(), false, new ArrayList<>());
+      assertFalse(cache.fetch(key, p));
+      assertFalse(p.hasSnapshot());
+
+      p.getDifferential().getElementFirstRep().setId("Patient.active");
+      p.getSnapshot().addElement().setPath("Patient").setMin(0).setMax("*");
+      p.getSnapshot().addElement().setPath("Patient.active").setMin(1).setMax("1");
+      cache.store(key, p);
+      assertEquals(key, p.getUserString(UserDataNames.SNAPSHOT_CACHE_KEY));
+
+      // a second instance on the same folder
+      SnapshotCache other = new SnapshotCache(folder.getAbsolutePath());
+      StructureDefinition p2 = profile();
+      assertTrue(other.fetch(key, p2));
+      assertEquals(2, p2.getSnapshot().getElement().size());
+      assertEquals(1, p2.getSnapshot().getElement().get(1).getMin());
+      assertEquals("Patient.active", p2.getDifferential().getElementFirstRep().getId());
+      assertEquals(key, p2.getUserString(UserDataNames.SNAPSHOT_CACHE_KEY));
+      // so the renderers know that the snapshot has to be generated again
+      assertTrue(p2.hasUserData(UserDataNames.SNAPSHOT_FROM_CACHE));
+      assertFalse(p.hasUserData(UserDataNames.SNAPSHOT_FROM_CACHE));
+      assertEquals(1, other.getHits());
+      assertEquals(1, cache.getMisses());
+      assertEquals(1, cache.getStores());
+
+      cache.clear();
+      assertFalse(cache.fetch(key, profile()));
+    } finally {
+      FileUtilities.clearDirectory(folder.getAbsolutePath());
+      folder.delete();
+    }
+  }
+}
@@ -24,6 +24,7 @@ import org.hl7.fhir.r5.model.Parameters;
 import org.hl7.fhir.r5.model.TerminologyCapabilities;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.hl7.fhir.r5.terminologies.expansion.ValueSetExpansionOutcome;
+import org.hl7.fhir.r5.terminologies.utilities.SqliteTerminologyCacheStore;
 import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
 import org.hl7.fhir.r5.terminologies.utilities.ValidationResult;
 import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
@@ -212,6 +213,206 @@ public class TerminologyCacheTests implements ResourceLoaderTests {
     assertEquals("dummyInfo", retrievedCodeableConceptResult.getMessage());
   }
 
+  @Test
+  public void testJournalledCachePersistence() throws IOException {
+    Path tempCacheDirectory = createTempCacheDirectory();
+    TerminologyCache.setJournalling(true);
+    try {
+      ValueSet valueSet = new ValueSet();
+      valueSet.setUrl("dummyValueSetURL");
+
+      TerminologyCache terminologyCacheA = new TerminologyCache(new Object(), tempCacheDirectory.toString());
+      ValidationResult[] results = new ValidationResult[5];
+      for (int i = 0; i < results.length; i++) {
+        results[i] = new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "dummyInfo"+i, null);
+        TerminologyCache.CacheToken token = terminologyCacheA.generateValidationToken(CacheTestUtils.validationOptions,
+          new Coding().setCode("dummyCode"+i), valueSet, new Parameters());
+        terminologyCacheA.cacheValidation(token, results[i], true);
+      }
+      // the same request again replaces the earlier entry
+      results[2] = new ValidationResult(ValidationMessage.IssueSeverity.WARNING, "replaced", null);
+      terminologyCacheA.cacheValidation(terminologyCacheA.generateValidationToken(CacheTestUtils.validationOptions,
+          new Coding().setCode("dummyCode2"), valueSet, new Parameters()), results[2], true);
+
+      // nothing compacted yet: a second cache has to replay the journal
+      TerminologyCache terminologyCacheB = new TerminologyCache(new Object(), tempCacheDirectory.toString());
+      assertFalse(tempCacheDirectory.resolve("all-systems.journal").toFile().exists());
+      for (int i = 0; i < results.length; i++) {
+        ValidationResult retrieved = terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions,
+          new Coding().setCode("dummyCode"+i), valueSet, new Parameters()));
+        assertValidationResultEquals(results[i], retrieved);
+      }
+      String cache = new String(Files.readAllBytes(tempCacheDirectory.resolve("all-systems.cache")));
+      assertEquals(1, cache.split("dummyCode2\"").length - 1);
+
+      // and explicitly compacting writes the canonical form
+      terminologyCacheA.save();
+      assertFalse(tempCacheDirectory.resolve("all-systems.journal").toFile().exists());
+      assertEquals(cache, new String(Files.readAllBytes(tempCacheDirectory.resolve("all-systems.cache"))));
+    } finally {
+      TerminologyCache.setJournalling(false);
+      deleteTempCacheDirectory(tempCacheDirectory);
+    }
+  }
+
+  @Test
+  public void testStoreCachePersistence() throws IOException {
+    Path tempCacheDirectory = createTempCacheDirectory();
+    Path exportDirectory = createTempCacheDirectory();
+    Path importDirectory = createTempCacheDirectory();
+    File db = tempCacheDirectory.resolve("tx-cache.db").toFile();
+    try {
+      ValueSet valueSet = new ValueSet();
+      valueSet.setUrl("dummyValueSetURL");
+
+      TerminologyCache terminologyCacheA = new TerminologyCache(new Object(), tempCacheDirectory.toString(), new SqliteTerminologyCacheStore(db, 0, 0));
+      ValidationResult[] results = new ValidationResult[5];
+      for (int i = 0; i < results.length; i++) {
+        results[i] = new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "dummyInfo"+i, null);
+        TerminologyCache.CacheToken token = terminologyCacheA.generateValidationToken(CacheTestUtils.validationOptions,
+          new Coding().setCode("dummyCode"+i), valueSet, new Parameters());
+        terminologyCacheA.cacheValidation(token, results[i], true);
+      }
+      results[2] = new ValidationResult(ValidationMessage.IssueSeverity.WARNING, "replaced", null);
+      terminologyCacheA.cacheValidation(terminologyCacheA.generateValidationToken(CacheTestUtils.validationOptions,
+          new Coding().setCode("dummyCode2"), valueSet, new Parameters()), results[2], true);
+      assertFalse(tempCacheDirectory.resolve("all-systems.cache").toFile().exists());
+
+      // another process, with its own connection to the same database
+      SqliteTerminologyCacheStore storeB = new SqliteTerminologyCacheStore(db, 0, 0);
+      TerminologyCache terminologyCacheB = new TerminologyCache(new Object(), tempCacheDirectory.toString(), storeB);
+      assertEquals(5, storeB.size());
+      for (int i = 0; i < results.length; i++) {
+        ValidationResult retrieved = terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions,
+          new Coding().setCode("dummyCode"+i), valueSet, new Parameters()));
+        assertValidationResultEquals(results[i], retrieved);
+      }
+      assertNull(terminologyCacheB.getValidation(terminologyCacheB.generateValidationToken(CacheTestUtils.validationOptions,
+          new Coding().setCode("unknown"), valueSet, new Parameters())));
+
+      // the text form goes out, and can be read as a folder cache, or into another store
+      assertEquals(5, terminologyCacheB.exportText(exportDirectory.toString()));
+      TerminologyCache folderCache = new TerminologyCache(new Object(), exportDirectory.toString());
+      assertValidationResultEquals(results[2], folderCache.getValidation(folderCache.generateValidationToken(CacheTestUtils.validationOptions,
+          new Coding().setCode("dummyCode2"), valueSet, new Parameters())));
+      TerminologyCache terminologyCacheC = new TerminologyCache(new Object(), importDirectory.toString(), new SqliteTerminologyCacheStore(importDirectory.resolve("tx-cache.db").toFile(), 0, 0));
+      assertEquals(5, terminologyCacheC.importText(exportDirectory.toString()));
+      for (int i = 0; i < results.length; i++) {
+        ValidationResult retrieved = terminologyCacheC.getValidation(terminologyCacheC.generateValidationToken(CacheTestUtils.validationOptions,
+          new Coding().setCode("dummyCode"+i), valueSet, new Parameters()));
+        assertValidationResultEquals(results[i], retrieved);
+      }
+
+      terminologyCacheA.unload();
+      terminologyCacheB.unload();
+      terminologyCacheC.unload();
+    } finally {
+      deleteTempCacheDirectory(tempCacheDirectory);
+      deleteTempCacheDirectory(exportDirectory);
+      deleteTempCacheDirectory(importDirectory);
+    }
+  }
+
+  @Test
+  public void testStoreEviction() throws IOException {
+    Path tempCacheDirectory = createTempCacheDirectory();
+    long[] clock = new long[] { 0 };
+    SqliteTerminologyCacheStore store = new SqliteTerminologyCacheStore(tempCacheDirectory.resolve("tx-cache.db").toFile(), 1000000, 3) {
+      @Override
+      protected long now() {
+        return clock[0];
+      }
+    };
+    try {
+      for (String key : new String[] { "a", "b", "c", "d" }) {
+        store.put("test", key, "request "+key, "v: {}");
+      }
+      clock[0] = 100000;
+      assertEquals("request a", store.get("test", "a").getRequest());
+
+      // b is now the least recently used
+      assertEquals(1, store.evict());
+      assertNull(store.get("test", "b"));
+      assertNotNull(store.get("test", "a"));
+      assertEquals(Arrays.asList("test"), store.names());
+      assertEquals(3, store.list("test").size());
+
+      // everything has expired
+      clock[0] = 2000000;
+      assertNull(store.get("test", "a"));
+      assertEquals(3, store.evict());
+      assertEquals(0, store.size());
+    } finally {
+      store.close();
+      deleteTempCacheDirectory(tempCacheDirectory);
+    }
+  }
+
+  @Test
+  public void testCacheTokenDigestLookups() throws IOException {
+    TerminologyCache terminologyCache = createTerminologyCache();
+
+    ValueSet valueSet = new ValueSet();
+    valueSet.getCompose().addInclude().setSystem("http://example.org/cs").addConcept().setCode("a");
+    Coding coding = new Coding("http://example.org/cs", "a", null);
+
+    ValidationResult result = new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "dummyInfo", null);
+    terminologyCache.cacheValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters()), result, false);
+
+    // an equal request built from different objects finds the entry
+    ValueSet sameValueSet = valueSet.copy();
+    TerminologyCache.CacheToken token = terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding.copy(), sameValueSet, new Parameters());
+    assertValidationResultEquals(result, terminologyCache.getValidation(token));
+    assertEquals("http___example.org_cs", token.getName());
+
+    // but changes to the code, the value set content or the parameters don't
+    assertNull(terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, new Coding("http://example.org/cs", "b", null), valueSet, new Parameters())));
+    Parameters parameters = new Parameters();
+    parameters.addParameter("displayLanguage", "de");
+    assertNull(terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, parameters)));
+    sameValueSet.getCompose().addInclude().setSystem("http://example.org/cs2");
+    assertNull(terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, sameValueSet, new Parameters())));
+    assertEquals("all-systems", terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, sameValueSet, new Parameters()).getName());
+  }
+
+  @Test
+  public void testCacheTokenDigestSeesEditsInPlace() throws IOException {
+    TerminologyCache terminologyCache = createTerminologyCache();
+
+    // an unversioned value set, edited without changing the number of includes, concepts or contains
+    ValueSet valueSet = new ValueSet();
+    valueSet.getCompose().addInclude().setSystem("http://example.org/cs").addConcept().setCode("a");
+    valueSet.getExpansion().addContains().setSystem("http://example.org/cs").setCode("a").setDisplay("A");
+    Coding coding = new Coding("http://example.org/cs", "a", null);
+
+    ValidationResult result = new ValidationResult(ValidationMessage.IssueSeverity.INFORMATION, "dummyInfo", null);
+    terminologyCache.cacheValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters()), result, false);
+    assertValidationResultEquals(result, terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters())));
+    // working out the digest doesn't add anything to the value set
+    assertFalse(valueSet.hasMeta());
+    assertFalse(valueSet.getExpansion().hasTimestamp());
+    assertFalse(valueSet.getCompose().hasLockedDate());
+
+    // changes to the content in place are seen once the cache is told
+    valueSet.getCompose().getIncludeFirstRep().getConceptFirstRep().setCode("b");
+    TerminologyCache.valueSetChanged(valueSet);
+    assertNull(terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters())));
+    valueSet.getCompose().getIncludeFirstRep().getConceptFirstRep().setCode("a");
+    TerminologyCache.valueSetChanged(valueSet);
+    assertValidationResultEquals(result, terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters())));
+
+    valueSet.getExpansion().getContainsFirstRep().setDisplay("Not A");
+    TerminologyCache.valueSetChanged(valueSet);
+    assertNull(terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters())));
+
+    // and changes to the structure are seen without being told
+    valueSet.getExpansion().getContainsFirstRep().setDisplay("A");
+    TerminologyCache.valueSetChanged(valueSet);
+    assertValidationResultEquals(result, terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters())));
+    valueSet.getCompose().addExclude().setSystem("http://example.org/cs").addConcept().setCode("c");
+    assertNull(terminologyCache.getValidation(terminologyCache.generateValidationToken(CacheTestUtils.validationOptions, coding, valueSet, new Parameters())));
+  }
+
   private void assertCanonicalResourceEquals(CanonicalResource a, CanonicalResource b) {
     assertTrue(a.equalsDeep(b));
   }
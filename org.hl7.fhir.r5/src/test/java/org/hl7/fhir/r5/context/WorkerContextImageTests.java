@@ -0,0 +1,146 @@
+package org.hl7.fhir.r5.context;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.hl7.fhir.r5.context.SimpleWorkerContext.SimpleWorkerContextBuilder;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.Enumerations.CodeSystemContentMode;
+import org.hl7.fhir.r5.model.Enumerations.PublicationStatus;
+import org.hl7.fhir.r5.model.PackageInformation;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition.StructureDefinitionKind;
+import org.hl7.fhir.r5.model.StructureDefinition.TypeDerivationRule;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.junit.jupiter.api.Test;
+
+public class WorkerContextImageTests {
+
+  private static final String CS_URL = "http://example.org/fhir/CodeSystem/test";
+  private static final String VS_URL = "http://example.org/fhir/ValueSet/test";
+  private static final String SD_URL = "http://example.org/fhir/StructureDefinition/test";
+  private static final String SD_BROKEN_URL = "http://example.org/fhir/StructureDefinition/broken";
+
+  private SimpleWorkerContext makeContext() throws IOException {
+    SimpleWorkerContext context = new SimpleWorkerContextBuilder().fromNothing();
+    PackageInformation pi = new PackageInformation("example.fhir.test", "1.0.0", "5.0.0", new Date(), "Test", "http://example.org/fhir", "http://example.org/fhir/test");
+    pi.getDependencies().add("hl7.fhir.r5.core#5.0.0");
+    context.getLoadedPackages().add("example.fhir.test#1.0.0");
+
+    CodeSystem cs = new CodeSystem();
+    cs.setId("test");
+    cs.setUrl(CS_URL);
+    cs.setVersion("1.0.0");
+    cs.setStatus(PublicationStatus.ACTIVE);
+    cs.setContent(CodeSystemContentMode.COMPLETE);
+    cs.addConcept().setCode("a").setDisplay("A").addConcept().setCode("a1").setDisplay("A1");
+    context.cacheResourceFromPackage(cs, pi);
+
+    ValueSet vs = new ValueSet();
+    vs.setId("test");
+    vs.setUrl(VS_URL);
+    vs.setVersion("1.0.0");
+    vs.setStatus(PublicationStatus.ACTIVE);
+    vs.getCompose().addInclude().setSystem(CS_URL);
+    context.cacheResourceFromPackage(vs, pi);
+
+    StructureDefinition sd = new StructureDefinition();
+    sd.setId("test");
+    sd.setUrl(SD_URL);
+    sd.setVersion("1.0.0");
+    sd.setName("Test");
+    sd.setStatus(PublicationStatus.ACTIVE);
+    sd.setKind(StructureDefinitionKind.RESOURCE);
+    sd.setType("Patient");
+    sd.setDerivation(TypeDerivationRule.CONSTRAINT);
+    sd.setBaseDefinition("http://hl7.org/fhir/StructureDefinition/Patient");
+    sd.getSnapshot().addElement().setPath("Patient").setMin(0).setMax("*");
+    context.cacheResourceFromPackage(sd, pi);
+
+    // the snapshot can't be generated for this one, since the base isn't known
+    StructureDefinition broken = new StructureDefinition();
+    broken.setId("broken");
+    broken.setUrl(SD_BROKEN_URL);
+    broken.setVersion("1.0.0");
+    broken.setName("Broken");
+    broken.setStatus(PublicationStatus.ACTIVE);
+    broken.setKind(StructureDefinitionKind.RESOURCE);
+    broken.setType("Patient");
+    broken.setDerivation(TypeDerivationRule.CONSTRAINT);
+    broken.setBaseDefinition("http://example.org/fhir/StructureDefinition/missing");
+    broken.getDifferential().addElement().setPath("Patient.name").setMin(1);
+    context.cacheResourceFromPackage(broken, pi);
+
+    context.binaries.put("test.txt", context.new BytesProvider("test".getBytes(StandardCharsets.UTF_8)));
+    return context;
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    SimpleWorkerContext context = makeContext();
+    File file = File.createTempFile("context", ".image");
+    try {
+      context.saveImage(file);
+
+      SimpleWorkerContext loaded = new SimpleWorkerContextBuilder().fromImage(file, null);
+      assertTrue(loaded.hasPackage("example.fhir.test", "1.0.0"));
+      assertEquals("test", new String(loaded.getBinaryForKey("test.txt"), StandardCharsets.UTF_8));
+
+      // nothing is parsed until it is used
+      for (CanonicalResourceManager<?> manager : loaded.getResourceManagers()) {
+        for (CanonicalResourceManager<?>.CachedCanonicalResource<?> cr : manager.getCachedList()) {
+          if (cr.getPackageInfo() != null) {
+            assertFalse(cr.isLoaded(), cr.toString());
+          }
+        }
+      }
+
+      CodeSystem cs = loaded.fetchCodeSystem(CS_URL);
+      assertTrue(context.fetchCodeSystem(CS_URL).equalsDeep(cs));
+      assertEquals("example.fhir.test", cs.getSourcePackage().getId());
+      assertEquals("hl7.fhir.r5.core#5.0.0", cs.getSourcePackage().getDependencies().get(0));
+      assertEquals("A1", cs.getConceptFirstRep().getConceptFirstRep().getDisplay());
+
+      assertTrue(context.fetchResource(ValueSet.class, VS_URL).equalsDeep(loaded.fetchResource(ValueSet.class, VS_URL)));
+
+      StructureDefinition sd = loaded.fetchResource(StructureDefinition.class, SD_URL);
+      assertTrue(sd.isGeneratedSnapshot());
+      assertEquals(1, sd.getSnapshot().getElement().size());
+
+      // only marked as generated if it was when the image was made
+      StructureDefinition broken = loaded.fetchResource(StructureDefinition.class, SD_BROKEN_URL);
+      assertFalse(context.fetchResource(StructureDefinition.class, SD_BROKEN_URL).isGeneratedSnapshot());
+      assertFalse(broken.isGeneratedSnapshot());
+      assertFalse(broken.hasSnapshot());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testKey() {
+    assertEquals(WorkerContextImage.key(Arrays.asList("a#1.0.0", "b#2.0.0")), WorkerContextImage.key(Arrays.asList("b#2.0.0", "a#1.0.0")));
+    assertNotEquals(WorkerContextImage.key(Arrays.asList("a#1.0.0", "b#2.0.0")), WorkerContextImage.key(Arrays.asList("a#1.0.0", "b#2.0.1")));
+  }
+
+  @Test
+  public void testNotAnImage() throws IOException {
+    File file = File.createTempFile("context", ".image");
+    try {
+      Files.write(file.toPath(), "{\"resourceType\":\"Patient\",\"id\":\"example\"}".getBytes(StandardCharsets.UTF_8));
+      assertThrows(IOException.class, () -> WorkerContextImage.read(file));
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package org.hl7.fhir.r5.elementmodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ElementTest {
+
+  private Element child(Element parent, String name, int repeat) {
+    Element n = new Element(new String(name.toCharArray()));
+    n.setPath(parent, name, repeat);
+    parent.getChildren().add(n);
+    return n;
+  }
+
+  @Test
+  public void testPaths() {
+    Element bundle = new Element("Bundle");
+    bundle.setPath("Bundle");
+    Element entry = child(bundle, "entry", 3);
+    Element resource = child(entry, "resource", -1);
+    Element family = child(child(resource, "name", 0), "family", -1);
+    // the path follows the parent until it's asked for
+    bundle.setPath("Bundle/*b1*/");
+    assertEquals("Bundle/*b1*/.entry[3].resource.name[0].family", family.getPath());
+
+    // and then it's kept
+    String path = family.getPath();
+    assertSame(path, family.getPath());
+    bundle.setPath("Bundle");
+    assertEquals("Bundle/*b1*/.entry[3].resource.name[0].family", family.getPath());
+    assertEquals("Bundle/*b1*/.entry[3].resource", resource.getPath());
+
+    // unless it's set explicitly
+    family.setPath("Patient.name.family");
+    assertEquals("Patient.name.family", family.getPath());
+  }
+
+  @Test
+  public void testCopyPaths() {
+    Element bundle = new Element("Bundle");
+    bundle.setPath("Bundle");
+    Element entry = child(bundle, "entry", 3);
+    Element resource = child(entry, "resource", -1);
+    child(child(resource, "name", 0), "family", -1);
+
+    Element copy = (Element) resource.copy();
+    assertEquals("Bundle.entry[3].resource", copy.getPath());
+    // the copy's paths come from the copy, not from the tree it was copied from
+    copy.setPath("Patient");
+    assertEquals("Patient.name[0].family", copy.getChildren().get(0).getChildren().get(0).getPath());
+    assertEquals("Bundle.entry[3].resource.name[0].family", resource.getChildren().get(0).getChildren().get(0).getPath());
+  }
+
+  @Test
+  public void testNamesAreShared() {
+    Element bundle = new Element("Bundle");
+    Element e1 = child(bundle, "entry", 0);
+    Element e2 = child(bundle, "entry", 1);
+    assertSame(e1.getName(), e2.getName());
+  }
+
+  @Test
+  public void testOccasionalState() {
+    Element e = new Element("value");
+    assertFalse(e.isNull());
+    assertFalse(e.hasComments());
+    assertNull(e.getExplicitType());
+    assertNull(e.getMessages());
+
+    e.setNull(true);
+    e.setRequired(true);
+    e.getComments().add("a comment");
+    e.setExplicitType("Quantity");
+    assertTrue(e.isNull());
+    assertTrue(e.isRequired());
+    assertFalse(e.isProhibited());
+    assertTrue(e.hasComments());
+    assertEquals("Quantity", e.getExplicitType());
+
+    e.setNull(false);
+    assertFalse(e.isNull());
+    assertTrue(e.isRequired());
+  }
+
+  @Test
+  public void testCountDescendents() {
+    Element bundle = new Element("Bundle");
+    Element entry = child(bundle, "entry", 0);
+    child(child(entry, "resource", -1), "id", -1);
+    child(bundle, "entry", 1);
+    assertEquals(4, bundle.countDescendents());
+    assertEquals(2, entry.countDescendents());
+  }
+}
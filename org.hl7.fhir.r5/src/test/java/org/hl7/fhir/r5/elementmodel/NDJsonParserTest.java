@@ -0,0 +1,49 @@
+package org.hl7.fhir.r5.elementmodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.elementmodel.ParserBase.ValidationPolicy;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
+import org.junit.jupiter.api.Test;
+
+public class NDJsonParserTest {
+
+  private static final String SOURCE = "{\"a\" : 1}\n\n{\"resourceType\" : 1}\r\n{\"resourceType\" : \"Unknown\"}";
+
+  @Test
+  public void testStreamingParse() throws IOException {
+    NDJsonParser parser = new NDJsonParser(mock(IWorkerContext.class));
+    parser.setupValidation(ValidationPolicy.EVERYTHING);
+    List<ValidatedFragment> fragments = new ArrayList<>();
+    parser.parse(new ByteArrayInputStream(SOURCE.getBytes(StandardCharsets.UTF_8)), fragments::add);
+
+    assertEquals(4, fragments.size());
+    for (ValidatedFragment vf : fragments) {
+      assertNull(vf.getElement());
+      assertEquals(1, vf.getErrors().size());
+    }
+    assertEquals(IssueSeverity.FATAL, fragments.get(0).getErrors().get(0).getLevel());
+    assertEquals(IssueSeverity.WARNING, fragments.get(1).getErrors().get(0).getLevel());
+    assertEquals(2, fragments.get(1).getErrors().get(0).getLine());
+    assertEquals(IssueSeverity.FATAL, fragments.get(2).getErrors().get(0).getLevel());
+    assertEquals(IssueSeverity.FATAL, fragments.get(3).getErrors().get(0).getLevel());
+  }
+
+  @Test
+  public void testListParseMatchesStreaming() throws IOException {
+    NDJsonParser parser = new NDJsonParser(mock(IWorkerContext.class));
+    parser.setupValidation(ValidationPolicy.EVERYTHING);
+    List<ValidatedFragment> fragments = parser.parse(new ByteArrayInputStream((SOURCE+"\n").getBytes(StandardCharsets.UTF_8)));
+    assertEquals(4, fragments.size());
+    assertEquals("{\"resourceType\" : 1}", new String(fragments.get(2).getContent(), StandardCharsets.UTF_8));
+  }
+}
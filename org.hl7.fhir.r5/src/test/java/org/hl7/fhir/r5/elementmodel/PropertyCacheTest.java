@@ -0,0 +1,133 @@
+package org.hl7.fhir.r5.elementmodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.context.CanonicalResourceEvictionPolicy;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.junit.jupiter.api.Test;
+
+public class PropertyCacheTest {
+
+  private StructureDefinition structure() {
+    StructureDefinition sd = new StructureDefinition();
+    sd.setUrl("http://example.org/fhir/StructureDefinition/test");
+    sd.getSnapshot().addElement().setPath("Observation");
+    sd.getSnapshot().addElement().setPath("Observation.value[x]");
+    return sd;
+  }
+
+  @Test
+  public void testKeys() {
+    PropertyCache cache = new PropertyCache();
+    StructureDefinition sd = structure();
+    ElementDefinition ed = sd.getSnapshot().getElement().get(1);
+    List<Property> quantity = new ArrayList<>();
+    List<Property> string = new ArrayList<>();
+
+    assertNull(cache.get(sd, ed, "valueQuantity", null));
+    assertSame(quantity, cache.put(sd, ed, "valueQuantity", null, quantity));
+    assertSame(string, cache.put(sd, ed, "valueString", null, string));
+    assertSame(quantity, cache.get(sd, ed, new String("valueQuantity"), null));
+    assertSame(string, cache.get(sd, ed, "valueString", null));
+    assertNull(cache.get(sd, ed, "valueQuantity", "Quantity"));
+    assertNull(cache.get(sd, ed, null, null));
+
+    List<Property> typed = new ArrayList<>();
+    List<Property> unnamed = new ArrayList<>();
+    cache.put(sd, ed, "valueQuantity", "Quantity", typed);
+    cache.put(sd, ed, null, null, unnamed);
+    assertSame(typed, cache.get(sd, ed, "valueQuantity", "Quantity"));
+    assertSame(unnamed, cache.get(sd, ed, null, null));
+    assertEquals(4, cache.size());
+
+    // keyed by identity, not content
+    ElementDefinition copy = ed.copy();
+    assertNull(cache.get(sd, copy, "valueQuantity", null));
+    assertNull(cache.get(structure(), ed, "valueQuantity", null));
+
+    // the first one stored wins
+    assertSame(quantity, cache.put(sd, ed, "valueQuantity", null, new ArrayList<>()));
+
+    // not cached when the definition is used in a different structure
+    StructureDefinition other = structure();
+    List<Property> list = new ArrayList<>();
+    assertSame(list, cache.put(other, ed, "valueQuantity", null, list));
+    assertNull(cache.get(other, ed, "valueQuantity", null));
+    assertEquals(4, cache.size());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testClearOnRelease() {
+    PropertyCache cache = new PropertyCache();
+    StructureDefinition sd = structure();
+    ElementDefinition ed = sd.getSnapshot().getElement().get(1);
+    CanonicalResourceEvictionPolicy policy = mock(CanonicalResourceEvictionPolicy.class);
+    when(policy.getReleaseCount()).thenReturn(0, 0, 1, 1);
+
+    cache.put(sd, ed, "valueQuantity", null, new ArrayList<>());
+    assertFalse(cache.clearOnRelease(null));
+    assertFalse(cache.clearOnRelease(policy));
+    assertFalse(cache.clearOnRelease(policy));
+    assertEquals(1, cache.size());
+    // resources were unloaded, so the cache lets go of the definitions
+    assertTrue(cache.clearOnRelease(policy));
+    assertEquals(0, cache.size());
+    assertFalse(cache.clearOnRelease(policy));
+  }
+
+  @Test
+  public void testConcurrentUse() throws Exception {
+    PropertyCache cache = new PropertyCache();
+    StructureDefinition sd = structure();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<List<List<Property>>>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(() -> {
+          List<List<Property>> res = new ArrayList<>();
+          for (int i = 0; i < 1000; i++) {
+            for (ElementDefinition ed : sd.getSnapshot().getElement()) {
+              String name = "name" + (i % 10);
+              List<Property> list = cache.get(sd, ed, name, null);
+              if (list == null) {
+                list = cache.put(sd, ed, name, null, new ArrayList<>());
+              }
+              if (i < 10) {
+                res.add(list);
+              }
+            }
+          }
+          return res;
+        }));
+      }
+      List<List<Property>> first = futures.get(0).get();
+      for (Future<List<List<Property>>> future : futures) {
+        List<List<Property>> res = future.get();
+        for (int i = 0; i < first.size(); i++) {
+          assertSame(first.get(i), res.get(i));
+        }
+      }
+      assertEquals(20, cache.size());
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package org.hl7.fhir.r5.elementmodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.elementmodel.ParserBase.ValidationPolicy;
+import org.hl7.fhir.r5.formats.IParser.OutputStyle;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Bundle.BundleType;
+import org.hl7.fhir.r5.model.DecimalType;
+import org.hl7.fhir.r5.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r5.model.Enumerations.ObservationStatus;
+import org.hl7.fhir.r5.model.HumanName;
+import org.hl7.fhir.r5.model.Narrative.NarrativeStatus;
+import org.hl7.fhir.r5.model.Observation;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.model.Quantity;
+import org.hl7.fhir.r5.model.Reference;
+import org.hl7.fhir.r5.model.Resource;
+import org.hl7.fhir.r5.model.StringType;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.utilities.xhtml.XhtmlComposer;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
+import org.junit.jupiter.api.Test;
+
+public class XmlParserStreamingTest {
+
+  private List<ValidationMessage> parse(String source, boolean streaming) throws IOException {
+    XmlParser parser = new XmlParser(mock(IWorkerContext.class));
+    parser.setupValidation(ValidationPolicy.EVERYTHING);
+    parser.setStreaming(streaming);
+    List<ValidatedFragment> fragments = parser.parse(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(1, fragments.size());
+    assertNull(fragments.get(0).getElement());
+    return fragments.get(0).getErrors();
+  }
+
+  private void checkSame(String source) throws IOException {
+    List<ValidationMessage> dom = parse(source, false);
+    List<ValidationMessage> stax = parse(source, true);
+    assertEquals(dom.size(), stax.size());
+    for (int i = 0; i < dom.size(); i++) {
+      assertEquals(dom.get(i).getLevel(), stax.get(i).getLevel());
+      assertEquals(dom.get(i).getLine(), stax.get(i).getLine());
+      assertEquals(dom.get(i).getCol(), stax.get(i).getCol());
+      assertEquals(dom.get(i).getMessage(), stax.get(i).getMessage());
+    }
+  }
+
+  private ValidatedFragment parse(IWorkerContext context, String source, boolean streaming) throws IOException {
+    XmlParser parser = new XmlParser(context);
+    parser.setupValidation(ValidationPolicy.EVERYTHING);
+    parser.setStreaming(streaming);
+    List<ValidatedFragment> fragments = parser.parse(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(1, fragments.size());
+    return fragments.get(0);
+  }
+
+  private void checkSameTree(String source) throws IOException {
+    IWorkerContext context = TestingUtilities.getSharedWorkerContext();
+    ValidatedFragment dom = parse(context, source, false);
+    ValidatedFragment stax = parse(context, source, true);
+    assertNotNull(dom.getElement());
+    assertNotNull(stax.getElement());
+    checkSame(dom.getElement(), stax.getElement());
+    assertEquals(messages(dom.getErrors()), messages(stax.getErrors()));
+  }
+
+  private String messages(List<ValidationMessage> errors) {
+    StringBuilder b = new StringBuilder();
+    for (ValidationMessage vm : errors) {
+      b.append(vm.getLevel()+" @ "+vm.getLine()+":"+vm.getCol()+" "+vm.getLocation()+": "+vm.getMessage()+"\n");
+    }
+    return b.toString();
+  }
+
+  private void checkSame(Element dom, Element stax) throws IOException {
+    String path = dom.getPath();
+    assertEquals(path, stax.getPath());
+    assertEquals(dom.getName(), stax.getName(), path);
+    assertEquals(dom.getType(), stax.getType(), path);
+    assertEquals(dom.getValue(), stax.getValue(), path);
+    assertEquals(dom.getSpecial(), stax.getSpecial(), path);
+    assertEquals(dom.line(), stax.line(), path);
+    assertEquals(dom.col(), stax.col(), path);
+    assertEquals(dom.getComments(), stax.getComments(), path);
+    assertEquals(dom.getXhtml() == null, stax.getXhtml() == null, path);
+    if (dom.getXhtml() != null) {
+      assertEquals(new XhtmlComposer(true).compose(dom.getXhtml()), new XhtmlComposer(true).compose(stax.getXhtml()), path);
+    }
+    assertEquals(dom.getChildren().size(), stax.getChildren().size(), path);
+    for (int i = 0; i < dom.getChildren().size(); i++) {
+      checkSame(dom.getChildren().get(i), stax.getChildren().get(i));
+    }
+  }
+
+  private String compose(Resource resource) throws IOException {
+    return new org.hl7.fhir.r5.formats.XmlParser().setOutputStyle(OutputStyle.PRETTY).composeString(resource);
+  }
+
+  private Patient patient() {
+    Patient pat = new Patient();
+    pat.setId("p1");
+    pat.setActive(true);
+    pat.setGender(AdministrativeGender.FEMALE);
+    pat.getBirthDateElement().setValueAsString("1970-03-30");
+    pat.getBirthDateElement().addExtension("http://example.org/fhir/StructureDefinition/time", new StringType("10:30"));
+    HumanName name = pat.addName().setFamily("Chalmers");
+    name.addGiven("Peter");
+    name.addGivenElement().addExtension("http://example.org/fhir/StructureDefinition/nick", new StringType("Jim"));
+    name.addGiven("James");
+    pat.getText().setStatus(NarrativeStatus.GENERATED).setDivAsString("<div xmlns=\"http://www.w3.org/1999/xhtml\"><p>Peter <b>Chalmers</b></p></div>");
+    Observation obs = new Observation();
+    obs.setId("o1");
+    obs.setStatus(ObservationStatus.FINAL);
+    obs.setValue(new StringType("contained"));
+    pat.addContained(obs);
+    pat.addGeneralPractitioner(new Reference("#o1"));
+    return pat;
+  }
+
+  @Test
+  public void testPatient() throws IOException {
+    checkSameTree(compose(patient()));
+  }
+
+  @Test
+  public void testBundle() throws IOException {
+    Bundle bnd = new Bundle();
+    bnd.setType(BundleType.COLLECTION);
+    bnd.setTotal(2);
+    bnd.addEntry().setFullUrl("http://example.org/fhir/Patient/p1").setResource(patient());
+    Observation obs = new Observation();
+    obs.setStatus(ObservationStatus.FINAL);
+    obs.setValue(new Quantity().setValueElement(new DecimalType(new BigDecimal("1.50"))).setUnit("mg"));
+    obs.getCode().setText("weight");
+    bnd.addEntry().setResource(obs);
+    checkSameTree(compose(bnd));
+  }
+
+  @Test
+  public void testCommentsAndErrors() throws IOException {
+    String source = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"+
+        "<!-- before the root -->\n"+
+        "<Patient xmlns=\"http://hl7.org/fhir\" xmlns:x=\"http://example.org/x\">\n"+
+        "  <?some-pi x?>\n"+
+        "  <id value=\"p1\" other=\"2\"/>\n"+
+        "  <!-- about active -->\n"+
+        "  <active value=\"true\">text</active>\n"+
+        "  <unknown value=\"x\"/>\n"+
+        "  <x:other value=\"x\"/>\n"+
+        "  <name>\n"+
+        "    <family value=\"Chalmers\"/>\n"+
+        "    <given value=\"\"/>\n"+
+        "    <given/>\n"+
+        "  </name>\n"+
+        "  <gender value=\"female\"/>\n"+
+        "  <birthDate value=\"1970-03-30\">\n"+
+        "    <extension url=\"http://example.org/fhir/StructureDefinition/time\">\n"+
+        "      <valueString value=\"10:30\"/>\n"+
+        "    </extension>\n"+
+        "  </birthDate>\n"+
+        "</Patient>\n"+
+        "<!-- after the root -->";
+    checkSameTree(source);
+    assertTrue(parse(TestingUtilities.getSharedWorkerContext(), source, true).getErrors().size() >= 4);
+  }
+
+  @Test
+  public void testUnknownRoot() throws IOException {
+    checkSame("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Unknown xmlns=\"http://hl7.org/fhir\">\n  <id value=\"1\"/>\n</Unknown>");
+  }
+
+  @Test
+  public void testNotWellFormed() throws IOException {
+    String source = "<Patient xmlns=\"http://hl7.org/fhir\">\n  <id value=\"1\">\n</Patient>";
+    checkSame(source);
+    List<ValidationMessage> errors = parse(source, true);
+    assertEquals(1, errors.size());
+    assertEquals(IssueSeverity.FATAL, errors.get(0).getLevel());
+    assertEquals(3, errors.get(0).getLine());
+  }
+
+  @Test
+  public void testDocType() throws IOException {
+    List<ValidationMessage> errors = parse("<!DOCTYPE Patient [<!ENTITY x \"y\">]>\n<Patient xmlns=\"http://hl7.org/fhir\"/>", true);
+    assertEquals(1, errors.size());
+    assertEquals(IssueSeverity.FATAL, errors.get(0).getLevel());
+  }
+}
@@ -0,0 +1,114 @@
+package org.hl7.fhir.r5.fhirpath;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.model.Base;
+import org.hl7.fhir.r5.model.ContactPoint.ContactPointSystem;
+import org.hl7.fhir.r5.model.DateType;
+import org.hl7.fhir.r5.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r5.model.HumanName.NameUse;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class FHIRPathCompilerTest {
+
+  private FHIRPathEngine fpe;
+  private Patient patient;
+
+  @BeforeEach
+  public void setUp() {
+    IWorkerContext worker = mock(IWorkerContext.class);
+    StructureDefinition sd = new StructureDefinition();
+    sd.setType("HumanName");
+    when(worker.fetchTypeDefinition("HumanName")).thenReturn(sd);
+    fpe = new FHIRPathEngine(worker);
+
+    patient = new Patient();
+    patient.setId("example");
+    patient.setActive(true);
+    patient.setGender(AdministrativeGender.MALE);
+    patient.setBirthDateElement(new DateType("1974-12-25"));
+    patient.addIdentifier().setSystem("urn:a").setValue("1");
+    patient.addIdentifier().setSystem("urn:b").setValue("2");
+    patient.addName().setUse(NameUse.OFFICIAL).setFamily("Chalmers").addGiven("Peter").addGiven("James");
+    patient.addName().setUse(NameUse.USUAL).addGiven("Jim");
+    patient.addTelecom().setSystem(ContactPointSystem.PHONE).setValue("555");
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {
+    "Patient.name.given",
+    "Observation.code",
+    "name.where(use = 'official').given.first()",
+    "name.exists()",
+    "contact.exists()",
+    "name.count() > 1",
+    "name.given.count()",
+    "contact.empty()",
+    "telecom.empty()",
+    "birthDate.hasValue() or (children().count() > id.count())",
+    "name.exists(given = 'Jim')",
+    "name.exists(given = 'Nobody')",
+    "identifier.where(system = 'urn:b').value",
+    "identifier.where(system = 'urn:c').value.exists()",
+    "active = true and gender = 'male'",
+    "active.not() or gender = 'female'",
+    "name.given.exists() implies name.family.exists()",
+    "name.select(given.first())",
+    "(name | name).count()",
+    "$this.name.family",
+    "name.ofType(HumanName).family",
+    "name.family.hasValue()",
+    "defineVariable('n', name.first()).select(%n.family)",
+    "name.where(use = 'usual').family.exists().not()",
+    "identifier.value.count() + 1",
+    "name is HumanName",
+    "-name.count()"
+  })
+  public void testSameAsInterpreter(String expression) {
+    List<Base> expected = fpe.evaluate(patient, expression);
+    List<Base> actual = fpe.evaluate(patient, fpe.compile(expression));
+    assertEquals(expected.size(), actual.size(), expression);
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).fhirType(), actual.get(i).fhirType(), expression);
+      assertEquals(fpe.convertToString(expected.get(i)), fpe.convertToString(actual.get(i)), expression);
+    }
+  }
+
+  @Test
+  public void testReuse() {
+    CompiledExpression exp = fpe.compile("name.where(use = 'official').given.first()");
+    assertEquals("Peter", fpe.convertToString(fpe.evaluate(patient, exp)));
+    assertSame(patient.getNameFirstRep().getGiven().get(0), fpe.evaluate(patient, exp).get(0));
+    patient.getNameFirstRep().setUse(NameUse.OLD);
+    assertTrue(fpe.evaluate(patient, exp).isEmpty());
+  }
+
+  @Test
+  public void testEvaluateToBoolean() {
+    CompiledExpression exp = fpe.compile("telecom.where(system = 'phone').exists()");
+    assertTrue(fpe.evaluateToBoolean(null, patient, patient, patient, exp));
+    assertFalse(fpe.evaluateToBoolean(null, new Patient(), null, new Patient(), exp));
+  }
+
+  @Test
+  public void testOtherEngine() {
+    CompiledExpression exp = fpe.compile("name.exists()");
+    FHIRPathEngine other = new FHIRPathEngine(mock(IWorkerContext.class));
+    assertThrows(FHIRException.class, () -> other.evaluate(patient, exp));
+  }
+}
@@ -0,0 +1,82 @@
+package org.hl7.fhir.r5.fhirpath;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.junit.jupiter.api.Test;
+
+public class FHIRPathExpressionCacheTest {
+
+  @Test
+  public void testParseIsCached() {
+    FHIRPathEngine fpe = new FHIRPathEngine(mock(IWorkerContext.class));
+    FHIRPathExpressionCache cache = FHIRPathEngine.getExpressionCache();
+    long misses = cache.getMisses();
+    long hits = cache.getHits();
+
+    ExpressionNode n1 = fpe.parse("Patient.name.where(use = 'official').given.first()");
+    ExpressionNode n2 = new FHIRPathEngine(mock(IWorkerContext.class)).parse("Patient.name.where(use = 'official').given.first()");
+    assertSame(n1, n2);
+    assertEquals(misses + 1, cache.getMisses());
+    assertEquals(hits + 1, cache.getHits());
+
+    ExpressionNode n3 = fpe.parseUncached("Patient.name.where(use = 'official').given.first()");
+    assertNotSame(n1, n3);
+    assertEquals(n1.toString(), n3.toString());
+  }
+
+  @Test
+  public void testCheckDoesntChangeSharedTrees() {
+    FHIRPathEngine fpe = new FHIRPathEngine(mock(IWorkerContext.class));
+    ExpressionNode shared = fpe.parse("(1 + 2) > 2");
+    assertTrue(shared.isShared());
+    assertTrue(shared.getGroup().isShared());
+    assertTrue(shared.getOpNext().isShared());
+    assertTrue(fpe.check(null, null, (String) null, null, shared).hasType("boolean"));
+    assertNull(shared.getTypes());
+    assertNull(shared.getOpTypes());
+    assertNull(shared.getGroup().getTypes());
+
+    ExpressionNode own = fpe.parseUncached("(1 + 2) > 2");
+    assertFalse(own.isShared());
+    assertTrue(fpe.check(null, null, (String) null, null, own).hasType("boolean"));
+    assertTrue(own.getTypes().hasType("integer"));
+    assertTrue(own.getOpTypes().hasType("boolean"));
+  }
+
+  @Test
+  public void testOptionsArePartOfKey() {
+    FHIRPathEngine fpe = new FHIRPathEngine(mock(IWorkerContext.class));
+    ExpressionNode n1 = fpe.parse("Observation.code.text = 'x'");
+    fpe.setAllowDoubleQuotes(true);
+    ExpressionNode n2 = fpe.parse("Observation.code.text = 'x'");
+    assertNotSame(n1, n2);
+  }
+
+  @Test
+  public void testEviction() {
+    FHIRPathExpressionCache cache = new FHIRPathExpressionCache(10);
+    for (int i = 0; i < 11; i++) {
+      cache.put("k"+i, new ExpressionNode(i));
+      if (i == 5) {
+        cache.get("k0");
+      }
+    }
+    assertEquals(9, cache.size());
+    assertEquals(2, cache.getEvictions());
+    assertEquals("0", cache.get("k0").getUniqueId());
+    assertNull(cache.get("k1"));
+    assertNull(cache.get("k2"));
+
+    cache.setMaxSize(0);
+    assertEquals(0, cache.size());
+    cache.put("k0", new ExpressionNode(0));
+    assertNull(cache.get("k0"));
+  }
+}
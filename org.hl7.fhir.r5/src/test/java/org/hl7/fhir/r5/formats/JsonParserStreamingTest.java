@@ -0,0 +1,98 @@
+package org.hl7.fhir.r5.formats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.hl7.fhir.exceptions.FHIRFormatError;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Bundle.BundleType;
+import org.hl7.fhir.r5.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r5.model.Enumerations.ObservationStatus;
+import org.hl7.fhir.r5.model.HumanName;
+import org.hl7.fhir.r5.model.Narrative.NarrativeStatus;
+import org.hl7.fhir.r5.model.Observation;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.model.Quantity;
+import org.hl7.fhir.r5.model.Reference;
+import org.hl7.fhir.r5.model.Resource;
+import org.hl7.fhir.r5.model.StringType;
+import org.junit.jupiter.api.Test;
+
+public class JsonParserStreamingTest {
+
+  private Resource parse(String source, boolean streaming) throws IOException {
+    return new JsonParser().setStreaming(streaming).parse(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private void checkSame(Resource resource) throws IOException {
+    String source = new JsonParser().composeString(resource);
+    Resource tree = parse(source, false);
+    Resource stream = parse(source, true);
+    assertTrue(tree.equalsDeep(stream));
+    assertEquals(source, new JsonParser().composeString(stream));
+  }
+
+  private Patient patient() {
+    Patient pat = new Patient();
+    pat.setId("p1");
+    pat.setActive(true);
+    pat.setGender(AdministrativeGender.FEMALE);
+    pat.getBirthDateElement().setValueAsString("1970-03-30");
+    pat.getBirthDateElement().addExtension("http://example.org/fhir/StructureDefinition/time", new StringType("10:30"));
+    HumanName name = pat.addName().setFamily("Chalmers");
+    name.addGiven("Peter");
+    name.addGivenElement().addExtension("http://example.org/fhir/StructureDefinition/nick", new StringType("Jim"));
+    name.addGiven("James");
+    pat.getText().setStatus(NarrativeStatus.GENERATED).setDivAsString("<div xmlns=\"http://www.w3.org/1999/xhtml\"><p>Peter Chalmers</p></div>");
+    Observation obs = new Observation();
+    obs.setId("o1");
+    obs.setStatus(ObservationStatus.FINAL);
+    obs.setValue(new StringType("contained"));
+    pat.addContained(obs);
+    pat.addGeneralPractitioner(new Reference("#o1"));
+    return pat;
+  }
+
+  @Test
+  public void testPatient() throws IOException {
+    checkSame(patient());
+  }
+
+  @Test
+  public void testBundle() throws IOException {
+    Bundle bnd = new Bundle();
+    bnd.setType(BundleType.COLLECTION);
+    bnd.setTotal(2);
+    bnd.addEntry().setFullUrl("http://example.org/fhir/Patient/p1").setResource(patient());
+    Observation obs = new Observation();
+    obs.setStatus(ObservationStatus.FINAL);
+    obs.setValue(new Quantity().setValueElement(new org.hl7.fhir.r5.model.DecimalType(new BigDecimal("1.50"))).setUnit("mg"));
+    obs.getCode().setText("weight");
+    bnd.addEntry().setResource(obs);
+    checkSame(bnd);
+  }
+
+  @Test
+  public void testPropertyOrder() throws IOException {
+    String source = "{\"_gender\":{\"id\":\"g\"},\"gender\":\"male\",\"unknown\":[1,{\"a\":null}],\"resourceType\":\"Patient\",\"name\":[{\"_given\":[null,{\"id\":\"x\"}],\"given\":[\"a\"]}]}";
+    Resource tree = parse(source, false);
+    Resource stream = parse(source, true);
+    assertTrue(tree.equalsDeep(stream));
+    assertEquals("x", ((Patient) stream).getNameFirstRep().getGiven().get(1).getId());
+  }
+
+  @Test
+  public void testErrors() throws IOException {
+    FHIRFormatError e1 = assertThrows(FHIRFormatError.class, () -> parse("{\"resourceType\":\"Unknown\"}", true));
+    FHIRFormatError e2 = assertThrows(FHIRFormatError.class, () -> parse("{\"resourceType\":\"Unknown\"}", false));
+    assertEquals(e2.getMessage(), e1.getMessage());
+    assertThrows(FHIRFormatError.class, () -> parse("{\"id\":\"1\"}", true));
+    assertThrows(FHIRFormatError.class, () -> parse("{\"resourceType\":\"Patient\",\"active\":", true));
+  }
+}
@@ -0,0 +1,51 @@
+package org.hl7.fhir.r5.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class BaseUserDataTest {
+
+  @Test
+  public void testUserDataFromSeveralThreads() throws Exception {
+    // definitions in a frozen context are shared, and the validator keeps information on them
+    StructureDefinition sd = new StructureDefinition();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        final int thread = t;
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 2000; i++) {
+            sd.setUserData("t"+thread+"-"+i, i);
+            if (!sd.hasUserData("t"+thread+"-"+i)) {
+              return false;
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> f : results) {
+        assertTrue(f.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    for (int t = 0; t < 8; t++) {
+      for (int i = 0; i < 2000; i++) {
+        assertEquals(i, sd.getUserInt("t"+t+"-"+i));
+      }
+    }
+
+    StructureDefinition other = new StructureDefinition();
+    other.copyUserData(sd);
+    assertEquals(1999, other.getUserInt("t7-1999"));
+  }
+}
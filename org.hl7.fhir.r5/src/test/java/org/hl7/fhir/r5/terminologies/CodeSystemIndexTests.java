@@ -0,0 +1,215 @@
+package org.hl7.fhir.r5.terminologies;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.CodeSystem.ConceptDefinitionComponent;
+import org.hl7.fhir.r5.model.CodeSystem.PropertyType;
+import org.hl7.fhir.r5.model.CodeType;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.hl7.fhir.r5.terminologies.utilities.ValueSetProcessBase.AlternateCodesProcessingRules;
+import org.hl7.fhir.r5.utils.ToolingExtensions;
+import org.junit.jupiter.api.Test;
+
+public class CodeSystemIndexTests {
+
+  private static final int ROOTS = 20;
+  private static final int CHILDREN = 10;
+  private static final int GRANDCHILDREN = 10;
+
+  // 20 x 10 x 10 concepts, with codes like 'C1-2-3', and alternate codes like 'alt-1-2-3'
+  private CodeSystem makeCodeSystem() {
+    CodeSystem cs = new CodeSystem();
+    cs.setUrl("http://example.org/fhir/CodeSystem/big");
+    cs.setVersion("1.0");
+    for (int i = 0; i < ROOTS; i++) {
+      ConceptDefinitionComponent root = cs.addConcept().setCode("C"+i).setDisplay("Root "+i);
+      for (int j = 0; j < CHILDREN; j++) {
+        ConceptDefinitionComponent child = root.addConcept().setCode("C"+i+"-"+j).setDisplay("Child "+i+"-"+j);
+        for (int k = 0; k < GRANDCHILDREN; k++) {
+          ConceptDefinitionComponent gc = child.addConcept().setCode("C"+i+"-"+j+"-"+k).setDisplay("Grandchild "+i+"-"+j+"-"+k);
+          if (k % 2 == 0) {
+            gc.addProperty().setCode("alternateCode").setValue(new CodeType("alt-"+i+"-"+j+"-"+k))
+              .addExtension(ToolingExtensions.EXT_CS_ALTERNATE_USE, new Coding("http://example.org", "short", null));
+          }
+        }
+      }
+    }
+    return cs;
+  }
+
+  private ValueSet makeExpansion() {
+    ValueSet vs = new ValueSet();
+    vs.getExpansion().setIdentifier("urn:uuid:1");
+    for (int i = 0; i < ROOTS; i++) {
+      ValueSetExpansionContainsComponent root = vs.getExpansion().addContains().setSystem("http://example.org/a").setCode("C"+i);
+      for (int j = 0; j < CHILDREN; j++) {
+        root.addContains().setSystem(j % 2 == 0 ? "http://example.org/a" : "http://example.org/b").setCode("C"+i+"-"+j);
+      }
+    }
+    return vs;
+  }
+
+  // the validator's walk (see ValueSetValidator.findCodeInConcept), without cross links
+  private ConceptDefinitionComponent walk(List<ConceptDefinitionComponent> list, String code, boolean caseSensitive, AlternateCodesProcessingRules rules) {
+    for (ConceptDefinitionComponent cc : list) {
+      if (code.equals(cc.getCode()) || (!caseSensitive && code.equalsIgnoreCase(cc.getCode()))) {
+        return cc;
+      }
+      for (CodeSystem.ConceptPropertyComponent p : cc.getProperty()) {
+        if ("alternateCode".equals(p.getCode()) && rules.passes(p.getExtension()) && code.equals(p.getValue().primitiveValue())) {
+          return cc;
+        }
+      }
+      ConceptDefinitionComponent c = walk(cc.getConcept(), code, caseSensitive, rules);
+      if (c != null) {
+        return c;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void testSameAsWalk() {
+    CodeSystem cs = makeCodeSystem();
+    CodeSystemIndex index = CodeSystemIndex.get(cs);
+    assertEquals(ROOTS * (1 + CHILDREN * (1 + GRANDCHILDREN)), index.size());
+    AlternateCodesProcessingRules all = new AlternateCodesProcessingRules(true);
+
+    List<String> codes = new ArrayList<>();
+    for (int i = 0; i < ROOTS; i += 7) {
+      for (int j = 0; j < CHILDREN; j += 3) {
+        for (int k = 0; k < GRANDCHILDREN; k++) {
+          codes.add("C"+i+"-"+j+"-"+k);
+          codes.add("c"+i+"-"+j+"-"+k);
+          codes.add("alt-"+i+"-"+j+"-"+k);
+        }
+      }
+    }
+    codes.add("C1");
+    codes.add("unknown");
+    for (String code : codes) {
+      assertSame(CodeSystemUtilities.findCode(cs.getConcept(), code), index.findCode(code), code);
+      assertSame(CodeSystemUtilities.findCodeOrAltCode(cs.getConcept(), code, null), index.findCodeOrAltCode(code, null), code);
+      assertSame(CodeSystemUtilities.findCodeOrAltCode(cs.getConcept(), code, "short"), index.findCodeOrAltCode(code, "short"), code);
+      assertSame(CodeSystemUtilities.findCodeOrAltCode(cs.getConcept(), code, "long"), index.findCodeOrAltCode(code, "long"), code);
+      assertSame(walk(cs.getConcept(), code, true, all), index.findCode(code, true, all), code);
+      assertSame(walk(cs.getConcept(), code, false, all), index.findCode(code, false, all), code);
+    }
+  }
+
+  @Test
+  public void testFirstMatch() {
+    CodeSystem cs = new CodeSystem();
+    // a case insensitive match on an earlier concept wins over an exact match on a later one
+    ConceptDefinitionComponent a = cs.addConcept().setCode("abc");
+    ConceptDefinitionComponent b = a.addConcept().setCode("ABC");
+    ConceptDefinitionComponent c = cs.addConcept().setCode("other");
+    c.addProperty().setCode("alternateCode").setValue(new CodeType("abc"));
+
+    CodeSystemIndex index = CodeSystemIndex.get(cs);
+    assertSame(b, index.findCode("ABC"));
+    assertSame(b, index.findCode("ABC", true, null));
+    assertSame(a, index.findCode("ABC", false, null));
+    assertSame(a, index.findCode("abc", true, new AlternateCodesProcessingRules(true)));
+    assertSame(a, index.findCode("aBc", false, null));
+    assertNull(index.findCode("aBc", true, null));
+    assertSame(a, index.getParent(b));
+    assertNull(index.getParent(a));
+    assertEquals(2, index.findCodeWithParents("ABC").size());
+  }
+
+  @Test
+  public void testRebuild() {
+    CodeSystem cs = makeCodeSystem();
+    CodeSystemIndex index = CodeSystemIndex.get(cs);
+    assertSame(index, CodeSystemIndex.get(cs));
+    ConceptDefinitionComponent cc = cs.addConcept().setCode("new");
+    assertNotSame(index, CodeSystemIndex.get(cs));
+    assertSame(cc, CodeSystemIndex.get(cs).findCode("new"));
+
+    // a miss when nothing has changed doesn't build the index again
+    index = CodeSystemIndex.get(cs);
+    assertNull(index.findCode("new-child"));
+    assertSame(index, CodeSystemIndex.get(cs));
+
+    // changes deep in the tree are found when the lookup misses
+    ConceptDefinitionComponent child = cs.getConceptFirstRep().getConceptFirstRep().addConcept().setCode("new-child");
+    assertSame(child, index.findCode("new-child"));
+    assertNotSame(index, CodeSystemIndex.get(cs));
+    assertEquals(3, CodeSystemIndex.get(cs).findCodeWithParents("new-child").size());
+    child.setCode("renamed");
+    assertNull(CodeSystemIndex.get(cs).findCode("new-child"));
+    assertSame(child, CodeSystemIndex.get(cs).findCode("renamed"));
+    child.addProperty().setCode("alternateCode").setValue(new CodeType("alt"));
+    assertSame(child, CodeSystemIndex.get(cs).findCodeOrAltCode("alt", null));
+    index = CodeSystemIndex.get(cs);
+    cs.getMeta().setVersionId("2");
+    assertNotSame(index, CodeSystemIndex.get(cs));
+  }
+
+  @Test
+  public void testCrossLinks() {
+    CodeSystem cs = new CodeSystem();
+    cs.addProperty().setCode("parent").setUri("http://hl7.org/fhir/concept-properties#parent").setType(PropertyType.CODE);
+    ConceptDefinitionComponent a = cs.addConcept().setCode("a");
+    ConceptDefinitionComponent b = cs.addConcept().setCode("b");
+    b.addProperty().setCode("parent").setValue(new CodeType("a"));
+    ConceptDefinitionComponent c = b.addConcept().setCode("c");
+    CodeSystemIndex before = CodeSystemIndex.get(cs);
+
+    CodeSystemUtilities.crossLinkCodeSystem(cs);
+    assertNotSame(before, CodeSystemIndex.get(cs));
+    CodeSystemIndex index = CodeSystemIndex.get(cs);
+    assertEquals(3, index.size());
+    assertSame(c, index.findCode("c"));
+    // the parent in the tree, not the cross link
+    assertNull(index.getParent(b));
+    assertSame(b, index.getParent(c));
+    assertSame(a, index.findCode("a"));
+  }
+
+  @Test
+  public void testExpansion() {
+    ValueSet vs = makeExpansion();
+    ValueSetExpansionIndex index = ValueSetExpansionIndex.get(vs.getExpansion());
+    assertSame(index, ValueSetExpansionIndex.get(vs.getExpansion()));
+    assertEquals(ROOTS * (1 + CHILDREN), index.size());
+    ValueSetExpansionContainsComponent c = index.find("http://example.org/b", "C3-5");
+    assertEquals("C3-5", c.getCode());
+    assertEquals("C3", index.getParent(c).getCode());
+    assertNull(index.getParent(index.getParent(c)));
+    assertNull(index.find("http://example.org/a", "C3-5"));
+    assertNull(index.find(null, "C3"));
+
+    vs.getExpansion().addContains().setSystem("http://example.org/c").setCode("x");
+    assertNotSame(index, ValueSetExpansionIndex.get(vs.getExpansion()));
+    assertEquals("x", ValueSetExpansionIndex.get(vs.getExpansion()).find("http://example.org/c", "x").getCode());
+    // entries added below the root are found when the lookup misses
+    c.addContains().setSystem("http://example.org/c").setCode("y");
+    ValueSetExpansionContainsComponent y = ValueSetExpansionIndex.get(vs.getExpansion()).find("http://example.org/c", "y");
+    assertEquals("C3-5", ValueSetExpansionIndex.get(vs.getExpansion()).getParent(y).getCode());
+  }
+
+  @Test
+  public void testStampsDontCreateElements() {
+    CodeSystem cs = new CodeSystem();
+    cs.getMeta().setVersionId("1");
+    cs.addConcept().setCode("a").addProperty().setCode("alternateCode").setValue(new CodeType("alt-a"));
+    assertEquals("a", CodeSystemIndex.get(cs).findCode("a").getCode());
+    assertFalse(cs.getMeta().hasLastUpdatedElement());
+
+    ValueSet vs = makeExpansion();
+    assertEquals("C3", ValueSetExpansionIndex.get(vs.getExpansion()).find("http://example.org/a", "C3").getCode());
+    assertFalse(vs.getExpansion().hasTimestampElement());
+  }
+}
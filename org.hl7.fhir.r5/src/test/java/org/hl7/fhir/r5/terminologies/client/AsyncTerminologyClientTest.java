@@ -0,0 +1,138 @@
+package org.hl7.fhir.r5.terminologies.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.BooleanType;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.UriType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class AsyncTerminologyClientTest {
+
+  private MockWebServer server;
+  private final AtomicInteger current = new AtomicInteger();
+  private final AtomicInteger maxConcurrent = new AtomicInteger();
+  private volatile int status = 200;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        maxConcurrent.accumulateAndGet(current.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(100);
+          if (status != 200) {
+            return new MockResponse().setResponseCode(status);
+          }
+          Parameters p = new Parameters();
+          p.addParameter("result", true);
+          return new MockResponse().setHeader("Content-Type", "application/fhir+json").setBody(new JsonParser().composeString(p));
+        } catch (IOException e) {
+          return new MockResponse().setResponseCode(500);
+        } finally {
+          current.decrementAndGet();
+        }
+      }
+    });
+    server.start();
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private AsyncTerminologyClient client(int maxInFlight) throws URISyntaxException {
+    TerminologyClientR5 client = new TerminologyClientR5("test", server.url("/fhir").toString(), "fhir/test-cases");
+    client.setRetryCount(0);
+    return new AsyncTerminologyClient(client, maxInFlight);
+  }
+
+  private Parameters validate(String code) {
+    Parameters p = new Parameters();
+    p.addParameter("url", new UriType("http://example.org/fhir/CodeSystem/cs"));
+    p.addParameter("code", code);
+    return p;
+  }
+
+  @Test
+  public void testWindow() throws Exception {
+    try (AsyncTerminologyClient client = client(3)) {
+      List<CompletableFuture<Parameters>> futures = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        futures.add(client.validateCS(validate("c"+i)));
+      }
+      for (CompletableFuture<Parameters> f : futures) {
+        assertTrue(((BooleanType) f.get(10, TimeUnit.SECONDS).getParameterValue("result")).booleanValue());
+      }
+      assertEquals(10, server.getRequestCount());
+      assertTrue(maxConcurrent.get() > 1, "requests should be pipelined");
+      assertTrue(maxConcurrent.get() <= 3, "no more than 3 requests in flight, but saw "+maxConcurrent.get());
+      assertEquals(10, client.getMetrics().getRequests());
+      assertEquals(0, client.getMetrics().getErrors());
+      assertTrue(client.getMetrics().getMeanMillis() >= 100);
+      assertTrue(client.getMetrics().getMaxMillis() >= client.getMetrics().getMeanMillis());
+    }
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    try (AsyncTerminologyClient client = client(4)) {
+      CompletableFuture<Parameters> f1 = client.validateCS(validate("same"));
+      CompletableFuture<Parameters> f2 = client.validateCS(validate("same"));
+      CompletableFuture<Parameters> f3 = client.validateVS(validate("same"));
+      assertSame(f1.get(10, TimeUnit.SECONDS), f2.get(10, TimeUnit.SECONDS));
+      f3.get(10, TimeUnit.SECONDS);
+      // the second request is the same as the first, but the third is a different operation
+      assertEquals(2, server.getRequestCount());
+      assertEquals(1, client.getMetrics().getCoalesced());
+
+      // once the answer is in, the request is sent again
+      client.validateCS(validate("same")).get(10, TimeUnit.SECONDS);
+      assertEquals(3, server.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    status = 500;
+    try (AsyncTerminologyClient client = client(2)) {
+      CompletableFuture<Parameters> f = client.validateCS(validate("c"));
+      assertThrows(ExecutionException.class, () -> f.get(10, TimeUnit.SECONDS));
+      assertEquals(1, client.getMetrics().getRequests());
+      assertEquals(1, client.getMetrics().getErrors());
+
+      // a failure doesn't hold on to its slot in the window
+      status = 200;
+      List<CompletableFuture<Parameters>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        futures.add(client.validateCS(validate("c"+i)));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+      assertEquals(5, client.getMetrics().getRequests());
+      assertEquals(1, client.getMetrics().getErrors());
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.hl7.fhir.r5.terminologies.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyOperationContext.TerminologyServiceProtectionException;
+import org.hl7.fhir.utilities.validation.ValidationOptions;
+import org.junit.jupiter.api.Test;
+
+public class TerminologyOperationContextTests {
+
+  private static class Detail {
+    private int formatted;
+
+    @Override
+    public String toString() {
+      formatted++;
+      return "detail";
+    }
+  }
+
+  private IWorkerContext worker() {
+    IWorkerContext worker = mock(IWorkerContext.class);
+    when(worker.formatMessage(anyString(), any())).thenReturn("too long");
+    return worker;
+  }
+
+  @Test
+  public void testNotesAreBoundedAndLazy() {
+    TerminologyOperationContext ctxt = new TerminologyOperationContext(worker(), ValidationOptions.defaults(), "test", 0);
+    Detail detail = new Detail();
+    for (int i = 0; i < 1000; i++) {
+      ctxt.deadCheck("loop", detail);
+    }
+    assertEquals(0, detail.formatted);
+    assertEquals(1000, ctxt.getChecks());
+
+    List<String> notes = ctxt.getNotes();
+    assertEquals(201, notes.size());
+    assertEquals("(800 earlier notes not kept)", notes.get(0));
+    assertTrue(notes.get(200).endsWith(" loop detail"));
+    assertEquals(200, detail.formatted);
+  }
+
+  @Test
+  public void testNotesDontReadTheClock() {
+    TerminologyOperationContext ctxt = new TerminologyOperationContext(worker(), ValidationOptions.defaults(), "test", 0);
+    int[] built = new int[1];
+    for (int i = 0; i < 1000; i++) {
+      ctxt.note("note", () -> "built "+(++built[0]));
+    }
+    assertEquals(0, built[0]);
+    assertTrue(ctxt.getCostSummary().contains(" 0 clock reads"), ctxt.getCostSummary());
+
+    List<String> notes = ctxt.getNotes();
+    assertEquals(200, built[0]);
+    assertTrue(notes.get(200).endsWith(" note built 200"), notes.get(200));
+  }
+
+  @Test
+  public void testCopiesShareTheBudget() {
+    TerminologyOperationContext ctxt = new TerminologyOperationContext(worker(), ValidationOptions.defaults(), "test", 0);
+    ctxt.deadCheck("outer");
+    TerminologyOperationContext inner = ctxt.copy().copy();
+    inner.deadCheck("inner");
+    inner.note("note", 5);
+    assertEquals(2, ctxt.getChecks());
+    assertEquals(2, ctxt.getMaxNesting());
+    List<String> notes = ctxt.getNotes();
+    assertEquals(3, notes.size());
+    assertTrue(notes.get(0).matches(" \\d+ outer"), notes.get(0));
+    assertTrue(notes.get(1).matches("   \\d+ inner"), notes.get(1));
+    assertTrue(notes.get(2).endsWith(" note 5"), notes.get(2));
+  }
+
+  @Test
+  public void testDeadline() throws InterruptedException {
+    TerminologyOperationContext ctxt = new TerminologyOperationContext(worker(), ValidationOptions.defaults(), "test", 1000000);
+    ctxt.seeContext("http://example.org/ValueSet/vs");
+    Thread.sleep(5);
+    // the clock is only read every so often, so the operation stops soon after the deadline, not on the next check
+    int count = 0;
+    try {
+      while (count < 1000) {
+        count++;
+        ctxt.deadCheck("loop", count);
+      }
+    } catch (TerminologyServiceProtectionException e) {
+      assertEquals(TerminologyServiceErrorClass.TOO_COSTLY, e.getError());
+      assertTrue(e.getDiagnostics().endsWith("loop "+count), e.getDiagnostics());
+    }
+    assertTrue(count > 1 && count <= 32, "stopped after "+count+" checks");
+    TerminologyOperationContext inner = ctxt.copy();
+    assertThrows(TerminologyServiceProtectionException.class, () -> {
+      for (int i = 0; i < 1000; i++) {
+        inner.deadCheck("inner");
+      }
+    });
+  }
+}
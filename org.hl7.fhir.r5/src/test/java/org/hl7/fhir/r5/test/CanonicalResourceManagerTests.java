@@ -3,12 +3,18 @@ package org.hl7.fhir.r5.test;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.context.CanonicalResourceEvictionPolicy;
 import org.hl7.fhir.r5.context.CanonicalResourceManager;
 import org.hl7.fhir.r5.context.CanonicalResourceManager.CanonicalResourceProxy;
 import org.hl7.fhir.r5.model.CanonicalResource;
 import org.hl7.fhir.r5.model.CodeSystem;
-import org.hl7.fhir.r5.model.PackageInformation;
+import org.hl7.fhir.r5.model.PackageInformation;
+import org.hl7.fhir.r5.model.StructureDefinition;
 import org.hl7.fhir.r5.model.ValueSet;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -927,4 +933,125 @@ public class CanonicalResourceManagerTests {
     sl = mrm.getSupplements("http://url/CodeSystem/s234");
     Assertions.assertEquals(0, sl.size());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testFrozen() throws Exception {
+    CanonicalResourceManager<ValueSet> mrm = new CanonicalResourceManager<>(true, false);
+    List<ValueSet> vsl = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      ValueSet vs = new ValueSet();
+      vs.setId("vs"+i);
+      vs.setUrl("http://url/ValueSet/"+i);
+      vs.setVersion("1.0."+i);
+      vsl.add(vs);
+      mrm.register(new DeferredLoadTestResource(vs), null);
+    }
+    mrm.freeze();
+    Assertions.assertTrue(mrm.isFrozen());
+    Assertions.assertThrows(FHIRException.class, () -> mrm.see(new ValueSet().setUrl("http://url/ValueSet/new"), null));
+    Assertions.assertThrows(FHIRException.class, () -> mrm.drop("vs1"));
+    Assertions.assertThrows(FHIRException.class, () -> mrm.clear());
+
+    // deferred resources are loaded once, and the proxy details are still available while other threads load them
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 50; i++) {
+            if (mrm.get("http://url/ValueSet/"+i, "1.0") != vsl.get(i) || !("http://url/ValueSet/"+i).equals(mrm.getCachedList().get(i).getUrl())) {
+              return false;
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> f : results) {
+        Assertions.assertTrue(f.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    mrm.unload();
+    Assertions.assertSame(vsl.get(0), mrm.get("vs0"));
+  }
+
+  @Test
+  public void testEvictionPolicy() {
+    CanonicalResourceManager<ValueSet> mrm = new CanonicalResourceManager<>(true, false);
+    CanonicalResourceEvictionPolicy policy = new CanonicalResourceEvictionPolicy(10);
+    mrm.setEvictionPolicy(policy);
+    for (int i = 0; i < 20; i++) {
+      ValueSet vs = new ValueSet();
+      vs.setId("vs"+i);
+      vs.setUrl("http://url/ValueSet/"+i);
+      vs.setVersion("1.0."+i);
+      mrm.register(new DeferredLoadTestResource(vs) {
+        @Override
+        public CanonicalResource loadResource() {
+          return vs.copy();
+        }
+      }, null);
+    }
+    mrm.getCachedList().get(0).setPinned(true);
+
+    ValueSet vs0 = mrm.get("http://url/ValueSet/0");
+    ValueSet vs1 = mrm.get("http://url/ValueSet/1");
+    Assertions.assertSame(vs1, mrm.get("http://url/ValueSet/1"));
+    for (int i = 2; i < 20; i++) {
+      Assertions.assertNotNull(mrm.get("http://url/ValueSet/"+i));
+    }
+    Assertions.assertTrue(policy.getLoadedCount() <= 10);
+    Assertions.assertEquals(20, policy.getMisses());
+    Assertions.assertEquals(1, policy.getHits());
+    Assertions.assertTrue(policy.getEvictions() > 0);
+    Assertions.assertTrue(policy.getReleaseCount() > 0);
+    Assertions.assertEquals(0, policy.getReloads());
+
+    // vs0 is pinned, so it stays loaded. vs1 was evicted, and is loaded again
+    Assertions.assertSame(vs0, mrm.get("http://url/ValueSet/0"));
+    ValueSet vs1b = mrm.get("http://url/ValueSet/1");
+    Assertions.assertNotSame(vs1, vs1b);
+    Assertions.assertTrue(vs1.equalsDeep(vs1b));
+    Assertions.assertEquals(1, policy.getReloads());
+    Assertions.assertEquals("http://url/ValueSet/5", mrm.getCachedList().get(5).getUrl());
+  }
+
+  @Test
+  public void testEvictionKeepsStructureDefinitions() {
+    CanonicalResourceManager<StructureDefinition> mrm = new CanonicalResourceManager<>(true, false);
+    CanonicalResourceEvictionPolicy policy = new CanonicalResourceEvictionPolicy(2);
+    mrm.setEvictionPolicy(policy);
+    for (int i = 0; i < 10; i++) {
+      StructureDefinition sd = new StructureDefinition();
+      sd.setId("sd"+i);
+      sd.setUrl("http://url/StructureDefinition/"+i);
+      sd.setVersion("1.0");
+      sd.getDifferential().addElement().setPath("Patient");
+      mrm.register(new DeferredLoadTestResource(sd) {
+        @Override
+        public CanonicalResource loadResource() {
+          return sd.copy();
+        }
+      }, null);
+    }
+
+    // a differential only profile, with a snapshot generated in place once it's loaded
+    StructureDefinition sd0 = mrm.get("http://url/StructureDefinition/0");
+    Assertions.assertFalse(sd0.hasSnapshot());
+    sd0.getSnapshot().addElement().setPath("Patient");
+    sd0.setGeneratedSnapshot(true);
+    for (int i = 1; i < 10; i++) {
+      Assertions.assertNotNull(mrm.get("http://url/StructureDefinition/"+i));
+    }
+    Assertions.assertEquals(0, policy.getEvictions());
+    Assertions.assertEquals(0, policy.getLoadedCount());
+
+    // it's still the same one, with the snapshot
+    StructureDefinition again = mrm.get("http://url/StructureDefinition/0");
+    Assertions.assertSame(sd0, again);
+    Assertions.assertTrue(again.hasSnapshot());
+    Assertions.assertTrue(again.isGeneratedSnapshot());
+    Assertions.assertEquals(0, policy.getReloads());
+  }
+}
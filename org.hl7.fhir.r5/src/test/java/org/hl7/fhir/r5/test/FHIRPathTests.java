@@ -234,13 +234,14 @@ public class FHIRPathTests {
     
     if (node != null) {
       try {
+        Base focus = res;
         if ("element".equals(test.getAttribute("mode"))) {
           List<ValidatedFragment> e = Manager.parse(fp.getWorker(), TestingUtilities.loadTestResourceStream("r5", input), input.endsWith(".json") ? FhirFormat.JSON : FhirFormat.XML);                        
-          outcome = fp.evaluate(e.get(0).getElement(), node);
-        } else {
-          outcome = fp.evaluate(res, node);
+          focus = e.get(0).getElement();
         }
+        outcome = fp.evaluate(focus, node);
         Assertions.assertTrue(fail == TestResultType.OK, String.format("Expected exception didn't occur executing %s", expression));
+        checkCompiled(focus, node, outcome, expression);
       } catch (Exception e) {
         System.out.println("Execution Error: "+e.getMessage());
         Assertions.assertTrue(fail == TestResultType.EXECUTION, String.format("Unexpected exception executing %s: " + e.getMessage(), expression));
@@ -329,6 +330,19 @@ public class FHIRPathTests {
     assertEquals(DUMMY_CONSTANT_2, result.get(1).primitiveValue());
   }
 
+  // the compiled expression must give the same outcome as the interpreter
+  private void checkCompiled(Base focus, ExpressionNode node, List<Base> outcome, String expression) {
+    if (expression.contains("now()") || expression.contains("today()") || expression.contains("timeOfDay()")) {
+      return;
+    }
+    List<Base> compiled = fp.evaluate(focus, fp.compile(node));
+    Assertions.assertEquals(outcome.size(), compiled.size(), String.format("Compiled expression %s returned a different number of items", expression));
+    for (int i = 0; i < outcome.size(); i++) {
+      Assertions.assertEquals(outcome.get(i).fhirType(), compiled.get(i).fhirType(), String.format("Compiled expression %s returned a different type for item %d", expression, i));
+      Assertions.assertEquals(fp.convertToString(outcome.get(i)), fp.convertToString(compiled.get(i)), String.format("Compiled expression %s returned a different value for item %d", expression, i));
+    }
+  }
+
   @Test
   public void testEvaluate_Id() {
     Patient input = new Patient();
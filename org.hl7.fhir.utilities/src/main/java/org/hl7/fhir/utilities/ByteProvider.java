@@ -1,5 +1,6 @@
 package org.hl7.fhir.utilities;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -12,6 +13,14 @@ public abstract class ByteProvider {
 
   public abstract byte[] getBytes() throws FileNotFoundException, IOException;
 
+  /**
+   * The content as a stream. For a file, the file is read as the stream is read, instead of 
+   * all at once
+   */
+  public InputStream getStream() throws FileNotFoundException, IOException {
+    return new ByteArrayInputStream(getBytes());
+  }
+
   // this one needs to be deprecated - or try to to use it - get to the source
   public static ByteProvider forStream(InputStream stream) throws IOException {
     return new ByteProviderBytes(FileUtilities.streamToBytes(stream));
@@ -56,6 +65,11 @@ public abstract class ByteProvider {
     public byte[] getBytes() throws FileNotFoundException, IOException {
       return FileUtilities.fileToBytes(file);
     }
+
+    @Override
+    public InputStream getStream() throws FileNotFoundException, IOException {
+      return ManagedFileAccess.inStream(file);
+    }
     
   }
 }
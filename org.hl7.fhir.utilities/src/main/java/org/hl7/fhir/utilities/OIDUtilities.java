@@ -71,7 +71,6 @@ public class OIDUtilities {
     }
   }
 
-  private static final String OID_REGEX = "[0-2](\\.(0|[1-9][0-9]*))+";
   private final Map<String, OIDInfo> oidMap = new HashMap<>();
 
 
@@ -170,7 +169,7 @@ public class OIDUtilities {
   }
 
   public static boolean isValidOID(String oid) {
-    return oid.matches(OID_REGEX);
+    return PrimitiveSyntax.isOid(oid);
   }
 
   public boolean isKnownOID(String url) {
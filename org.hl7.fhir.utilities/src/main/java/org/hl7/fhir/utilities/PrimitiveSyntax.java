@@ -0,0 +1,275 @@
+package org.hl7.fhir.utilities;
+
+/**
+ * Checks the syntax of FHIR primitive values, without regular expressions.
+ *
+ * Each check is a single pass over the string that doesn't allocate, and accepts exactly the
+ * strings that the regular expression it replaces (given with each method) accepts. They're used
+ * for primitives that can occur millions of times in a run of the validator
+ */
+public class PrimitiveSyntax {
+
+  /**
+   * ([0-9]([0-9]([0-9][1-9]|[1-9]0)|[1-9]00)|[1-9]000)(-(0[1-9]|1[0-2])(-(0[1-9]|[1-2][0-9]|3[0-1]))?)?
+   */
+  public static boolean isDate(String s) {
+    if (s == null || !isYear(s, 0)) {
+      return false;
+    }
+    int n = s.length();
+    if (n == 4) {
+      return true;
+    }
+    if (!isMonth(s, 4)) {
+      return false;
+    }
+    return n == 7 || (isDay(s, 7) && n == 10);
+  }
+
+  /**
+   * ([0-9]([0-9]([0-9][1-9]|[1-9]0)|[1-9]00)|[1-9]000)(-(0[1-9]|1[0-2])(-(0[1-9]|[1-2][0-9]|3[0-1])(T([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)(\.[0-9]+)?(Z|(\+|-)((0[0-9]|1[0-3]):[0-5][0-9]|14:00))?)?)?)?
+   */
+  public static boolean isDateTime(String s) {
+    if (s == null || !isYear(s, 0)) {
+      return false;
+    }
+    int n = s.length();
+    if (n == 4) {
+      return true;
+    }
+    if (!isMonth(s, 4)) {
+      return false;
+    }
+    if (n == 7) {
+      return true;
+    }
+    if (!isDay(s, 7)) {
+      return false;
+    }
+    if (n == 10) {
+      return true;
+    }
+    if (s.charAt(10) != 'T' || !isTimeOfDay(s, 11)) {
+      return false;
+    }
+    int i = skipFraction(s, 19);
+    return i == n || (i > 0 && isTimeZone(s, i));
+  }
+
+  /**
+   * -?[0-9]{4}-(0[1-9]|1[0-2])-(0[1-9]|[1-2][0-9]|3[0-1])T([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)(\.[0-9]+)?(Z|(\+|-)((0[0-9]|1[0-3]):[0-5][0-9]|14:00))
+   */
+  public static boolean isInstant(String s) {
+    if (s == null) {
+      return false;
+    }
+    int o = s.startsWith("-") ? 1 : 0;
+    if (!(isDigit(s, o) && isDigit(s, o+1) && isDigit(s, o+2) && isDigit(s, o+3))) {
+      return false;
+    }
+    if (!isMonth(s, o+4) || !isDay(s, o+7) || !isChar(s, o+10, 'T') || !isTimeOfDay(s, o+11)) {
+      return false;
+    }
+    int i = skipFraction(s, o+19);
+    return i > 0 && isTimeZone(s, i);
+  }
+
+  /**
+   * ([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)
+   */
+  public static boolean isTime(String s) {
+    return s != null && s.length() == 8 && isTimeOfDay(s, 0);
+  }
+
+  /**
+   * [A-Za-z0-9\-\.]{1,64}
+   */
+  public static boolean isId(String s) {
+    if (s == null || s.length() == 0 || s.length() > 64) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '.')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * [0-2](\.(0|[1-9][0-9]*))+
+   */
+  public static boolean isOid(String s) {
+    if (s == null || s.length() < 3) {
+      return false;
+    }
+    char c = s.charAt(0);
+    if (c < '0' || c > '2') {
+      return false;
+    }
+    int i = 1;
+    int n = s.length();
+    while (i < n) {
+      if (s.charAt(i) != '.' || !isDigit(s, i+1)) {
+        return false;
+      }
+      i++;
+      if (s.charAt(i) == '0') {
+        i++;
+      } else {
+        while (isDigit(s, i)) {
+          i++;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * [0-9a-f]{8}\-[0-9a-f]{4}\-[0-9a-f]{4}\-[0-9a-f]{4}\-[0-9a-f]{12}
+   */
+  public static boolean isUuid(String s) {
+    if (s == null || s.length() != 36) {
+      return false;
+    }
+    for (int i = 0; i < 36; i++) {
+      char c = s.charAt(i);
+      if (i == 8 || i == 13 || i == 18 || i == 23) {
+        if (c != '-') {
+          return false;
+        }
+      } else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The whitespace rule for uris: the same as s.equals(Utilities.trimWS(s).replace(" ", "")) -
+   * no leading or trailing whitespace, and no spaces
+   */
+  public static boolean isUriWithoutWhitespace(String s) {
+    if (s == null) {
+      return false;
+    }
+    int n = s.length();
+    if (n == 0) {
+      return true;
+    }
+    if (isWhitespace(s.charAt(0)) || isWhitespace(s.charAt(n - 1))) {
+      return false;
+    }
+    return s.indexOf(' ') == -1;
+  }
+
+  /**
+   * \S+
+   */
+  public static boolean isNonWhitespace(String s) {
+    if (s == null || s.length() == 0) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // ([0-9]([0-9]([0-9][1-9]|[1-9]0)|[1-9]00)|[1-9]000) - four digits, not 0000
+  private static boolean isYear(String s, int i) {
+    return isDigit(s, i) && isDigit(s, i+1) && isDigit(s, i+2) && isDigit(s, i+3) &&
+        !(s.charAt(i) == '0' && s.charAt(i+1) == '0' && s.charAt(i+2) == '0' && s.charAt(i+3) == '0');
+  }
+
+  // -(0[1-9]|1[0-2])
+  private static boolean isMonth(String s, int i) {
+    if (!isChar(s, i, '-') || !isDigit(s, i+1) || !isDigit(s, i+2)) {
+      return false;
+    }
+    int v = twoDigits(s, i+1);
+    return v >= 1 && v <= 12;
+  }
+
+  // -(0[1-9]|[1-2][0-9]|3[0-1])
+  private static boolean isDay(String s, int i) {
+    if (!isChar(s, i, '-') || !isDigit(s, i+1) || !isDigit(s, i+2)) {
+      return false;
+    }
+    int v = twoDigits(s, i+1);
+    return v >= 1 && v <= 31;
+  }
+
+  // ([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)
+  private static boolean isTimeOfDay(String s, int i) {
+    if (!(isDigit(s, i) && isDigit(s, i+1) && isChar(s, i+2, ':') && isDigit(s, i+3) && isDigit(s, i+4) && isChar(s, i+5, ':') && isDigit(s, i+6) && isDigit(s, i+7))) {
+      return false;
+    }
+    return twoDigits(s, i) <= 23 && twoDigits(s, i+3) <= 59 && twoDigits(s, i+6) <= 60;
+  }
+
+  // (\.[0-9]+)? - the index after the fraction, or -1 if there's a '.' with no digits
+  private static int skipFraction(String s, int i) {
+    if (!isChar(s, i, '.')) {
+      return i;
+    }
+    i++;
+    if (!isDigit(s, i)) {
+      return -1;
+    }
+    while (isDigit(s, i)) {
+      i++;
+    }
+    return i;
+  }
+
+  // (Z|(\+|-)((0[0-9]|1[0-3]):[0-5][0-9]|14:00)) - to the end of the string
+  private static boolean isTimeZone(String s, int i) {
+    int n = s.length();
+    if (isChar(s, i, 'Z')) {
+      return n == i+1;
+    }
+    if (!(isChar(s, i, '+') || isChar(s, i, '-')) || n != i+6) {
+      return false;
+    }
+    if (!(isDigit(s, i+1) && isDigit(s, i+2) && isChar(s, i+3, ':') && isDigit(s, i+4) && isDigit(s, i+5))) {
+      return false;
+    }
+    int h = twoDigits(s, i+1);
+    int m = twoDigits(s, i+4);
+    return (h <= 13 && m <= 59) || (h == 14 && m == 0);
+  }
+
+  private static boolean isDigit(String s, int i) {
+    if (i >= s.length()) {
+      return false;
+    }
+    char c = s.charAt(i);
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isChar(String s, int i, char c) {
+    return i < s.length() && s.charAt(i) == c;
+  }
+
+  private static int twoDigits(String s, int i) {
+    return (s.charAt(i) - '0') * 10 + (s.charAt(i+1) - '0');
+  }
+
+  // the same characters as Utilities.isWhitespace()
+  private static boolean isWhitespace(char c) {
+    switch (c) {
+    case '\u0009': case '\n': case '\u000B': case '\u000C': case '\r': case ' ': case '\u0085': case '\u00A0':
+    case '\u1680': case '\u2000': case '\u2001': case '\u2002': case '\u2003': case '\u2004': case '\u2005': case '\u2006':
+    case '\u2007': case '\u2008': case '\u2009': case '\u200A': case '\u2028': case '\u2029': case '\u202F': case '\u205F':
+    case '\u3000':
+      return true;
+    default:
+      return false;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package org.hl7.fhir.utilities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded cache of compiled regular expressions, for expressions that come from content
+ * (profiles, FHIRPath) and are used over and over - String.matches() compiles the expression
+ * every time it's called.
+ *
+ * When the cache is full, the expression that was used least recently is dropped. The cache is
+ * safe to use from more than one thread (compiled patterns are immutable)
+ */
+public class RegexCache {
+
+  private static final int DEFAULT_SIZE = 1000;
+  private static final RegexCache INSTANCE = new RegexCache(DEFAULT_SIZE);
+
+  private final Map<String, Pattern> patterns;
+  private long hits;
+  private long misses;
+
+  public RegexCache(int maxSize) {
+    patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * @return the shared cache
+   */
+  public static RegexCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return the compiled pattern, from the shared cache
+   * @throws java.util.regex.PatternSyntaxException if the expression isn't valid (invalid expressions aren't cached)
+   */
+  public static Pattern compile(String regex) {
+    return INSTANCE.get(regex);
+  }
+
+  /**
+   * The same as value.matches(regex), using the shared cache
+   */
+  public static boolean matches(String value, String regex) {
+    return INSTANCE.get(regex).matcher(value).matches();
+  }
+
+  public Pattern get(String regex) {
+    synchronized (patterns) {
+      Pattern p = patterns.get(regex);
+      if (p != null) {
+        hits++;
+        return p;
+      }
+      misses++;
+    }
+    // compile outside the lock; if two threads compile the same expression, it doesn't matter which one is kept
+    Pattern p = Pattern.compile(regex);
+    synchronized (patterns) {
+      patterns.put(regex, p);
+    }
+    return p;
+  }
+
+  public int size() {
+    synchronized (patterns) {
+      return patterns.size();
+    }
+  }
+
+  public long getHits() {
+    synchronized (patterns) {
+      return hits;
+    }
+  }
+
+  public long getMisses() {
+    synchronized (patterns) {
+      return misses;
+    }
+  }
+
+  public void clear() {
+    synchronized (patterns) {
+      patterns.clear();
+    }
+  }
+}
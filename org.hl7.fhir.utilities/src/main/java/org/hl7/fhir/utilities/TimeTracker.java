@@ -93,6 +93,27 @@ public class TimeTracker {
     return DurationUtil.presentDuration(milestone - start);
   }
 
+  /**
+   * Add the counts and times recorded by another tracker (e.g. one used by a 
+   * worker thread) into this one
+   */
+  public synchronized void merge(TimeTracker other) {
+    for (Counter oc : other.records) {
+      Counter c = null;
+      for (Counter t : records) {
+        if (t.name.equals(oc.name)) {
+          c = t;
+        }
+      }
+      if (c == null) {
+        c = new Counter(oc.name);
+        records.add(c);
+      }
+      c.count = c.count + oc.count;
+      c.length = c.length + oc.length;
+    }
+  }
+
   public boolean longerThan(int i) {
     long start = milestone == 0 ? globalStart : milestone;
     long diff = (System.nanoTime() - start)/ 1000000;
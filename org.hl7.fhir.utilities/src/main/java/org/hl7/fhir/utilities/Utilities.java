@@ -138,7 +138,7 @@ public class Utilities {
   }
 
   public static boolean isValidId(String id) {
-    return id.matches("[A-Za-z0-9\\-\\.]{1,64}");
+    return PrimitiveSyntax.isId(id);
   }
 
   public enum DecimalStatus {
@@ -183,7 +183,8 @@ public class Utilities {
     int postDecLength = 0;
     int exponentLength = 0;
     int length = 0;
-    for (char next : value.toCharArray()) {
+    for (int i = 0; i < value.length(); i++) {
+      char next = value.charAt(i);
       if (next == '.') {
         if (!haveDigits || havePeriod || haveExponent)
           return DecimalStatus.SYNTAX;
@@ -21,6 +21,13 @@ public class ManagedFhirWebAccessor extends ManagedWebAccessorBase<ManagedFhirWe
    */
   private static OkHttpClient okHttpClient;
 
+  /**
+   * The number of idle connections kept alive for reuse. The okhttp default (5) is too few when
+   * requests are made to a server from more than one thread at once (see AsyncTerminologyClient)
+   */
+  private static final int MAX_IDLE_CONNECTIONS = 16;
+  private static final long KEEP_ALIVE_MINUTES = 5;
+
   private long timeout;
   private TimeUnit timeoutUnit;
   private int retries;
@@ -154,11 +161,18 @@ public class ManagedFhirWebAccessor extends ManagedWebAccessorBase<ManagedFhirWe
     return headers;
   }
 
-  private OkHttpClient getOkHttpClient() {
+  private static synchronized OkHttpClient getSharedClient() {
     if (okHttpClient == null) {
-      okHttpClient = new OkHttpClient();
+      // every client built from this one shares its connection pool, so connections are reused across requests
+      okHttpClient = new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+        .build();
     }
-    OkHttpClient.Builder builder = okHttpClient.newBuilder();
+    return okHttpClient;
+  }
+
+  private OkHttpClient getOkHttpClient() {
+    OkHttpClient.Builder builder = getSharedClient().newBuilder();
     if (logger != null) builder.addInterceptor(loggingInterceptor);
     builder.addInterceptor(new RetryInterceptor(retries));
     builder.proxyAuthenticator(new ProxyAuthenticator());
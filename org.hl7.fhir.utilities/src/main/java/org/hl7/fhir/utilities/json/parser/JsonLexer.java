@@ -1,7 +1,10 @@
 package org.hl7.fhir.utilities.json.parser;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Stack;
 
@@ -35,15 +38,31 @@ public class JsonLexer {
     }
   }
   
-  private String source;
-  private int cursor;
-  private String peek;
+  private static final int BUFFER_SIZE = 8192;
+  private static final int NAME_CACHE_SIZE = 4096; // must be a power of 2
+  private static final int MAX_NAME_LENGTH = 64;
+  private static final String[] NAME_CACHE = new String[NAME_CACHE_SIZE]; // see name()
+
+  private Reader reader;
+  private char[] buffer = new char[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+  private long offset; // for toString()
+  private char[] pushback = new char[4];
+  private int pushed;
+  private boolean pastEnd;
   private String value;
+  private boolean valuePending; // value is still in b. see getValue()
   private TokenType type;
   private Stack<State> states = new Stack<State>();
-  private JsonLocationData lastLocationBWS;
-  private JsonLocationData lastLocationAWS;
-  private JsonLocationData location;
+  // the location is tracked as ints, and only turned into JsonLocationData when asked for
+  private int line;
+  private int col;
+  private int lastCol;
+  private int bwsLine;
+  private int bwsCol;
+  private int awsLine;
+  private int awsCol;
   private StringBuilder b = new StringBuilder();
   private boolean allowComments;
   private boolean allowUnquotedStrings;
@@ -54,82 +73,153 @@ public class JsonLexer {
   private final Stack<String> parenthesis = new Stack<>();
 
   public JsonLexer(String source, boolean allowComments, boolean allowUnquotedStrings, int line) throws IOException {
-    this.source = source;
+    this(new StringReader(source), allowComments, allowUnquotedStrings, line);
+  }
+
+  /**
+   * Lex directly from a reader, without reading the source into a string first. Any byte order 
+   * marks in the source are ignored (as if Utilities.stripBOM had been used on the source)
+   */
+  public JsonLexer(Reader reader, boolean allowComments, boolean allowUnquotedStrings, int line) throws IOException {
+    this.reader = reader;
     this.allowComments = allowComments;
     this.allowUnquotedStrings = allowUnquotedStrings;
-    cursor = -1;
-    location = new JsonLocationData(line+1, 1);  
+    this.line = line+1;
+    this.col = 1;
+    this.lastCol = 1;
     start();
   }
 
+  /**
+   * Property names are repeated a great deal, so we share the strings for them, both within 
+   * a source, and across sources. The cache is a fixed size table indexed by hash; a collision
+   * just replaces the entry. Races between threads are harmless, since strings are immutable
+   */
+  private static String name(StringBuilder b) {
+    int len = b.length();
+    if (len > MAX_NAME_LENGTH) {
+      return b.toString();
+    }
+    int h = 0;
+    for (int i = 0; i < len; i++) {
+      h = 31 * h + b.charAt(i);
+    }
+    int slot = (h ^ (h >>> 16)) & (NAME_CACHE_SIZE - 1);
+    String s = NAME_CACHE[slot];
+    if (s != null && s.hashCode() == h && s.contentEquals(b)) {
+      return s;
+    }
+    s = b.toString();
+    NAME_CACHE[slot] = s;
+    return s;
+  }
+
+  private boolean fill() throws IOException {
+    int count;
+    do {
+      count = reader.read(buffer, 0, buffer.length);
+    } while (count == 0);
+    pos = 0;
+    limit = count < 0 ? 0 : count;
+    return count > 0;
+  }
+
+  private int read() throws IOException {
+    while (true) {
+      if (pos >= limit && !fill()) {
+        return -1;
+      }
+      char ch = buffer[pos++];
+      if (ch != '\uFEFF') {
+        offset++;
+        return ch;
+      }
+    }
+  }
+
   private boolean more() {
-    return peek != null || cursor < source.length(); 
+    return pushed > 0 || !pastEnd; 
   }
 
   private String getNext(int length) throws IOException {
-    String result = "";
-    if (peek != null) {
-      if (peek.length() > length) {
-        result = peek.substring(0, length);
-        peek = peek.substring(length);
+    char[] result = new char[length];
+    for (int i = 0; i < length; i++) {
+      char ch;
+      if (pushed > 0) {
+        ch = pushback[--pushed];
       } else {
-        result = peek;
-        peek = null;
+        int c = pastEnd ? -1 : read();
+        if (c == -1) {
+          throw error("Attempt to read past end of source");
+        }
+        ch = (char) c;
       }
+      if (ch == '\n') {
+        newLine();
+      } else {
+        col++;
+      }
+      result[i] = ch;
     }
-    if (result.length() < length) {
-      int len = length - result.length(); 
-      if (cursor > source.length() - len) 
-        throw error("Attempt to read past end of source");
-      result = result + source.substring(cursor+1, cursor+len+1);
-      cursor = cursor + len;
-    }
-    for (char ch : result.toCharArray())
-      if (ch == '\n')
-        location.newLine();
-      else
-        location.incCol();
-    return result;
+    return new String(result);
   }
 
   private char getNextChar() throws IOException {
     char ch;
-    if (peek != null) {
-      ch = peek.charAt(0);
-      peek = peek.length() == 1 ? null : peek.substring(1);
+    if (pushed > 0) {
+      ch = pushback[--pushed];
     } else {
-      cursor++;
-      if (cursor >= source.length()) {
+      int c = pastEnd ? -1 : read();
+      if (c == -1) {
+        pastEnd = true;
         ch = 0;
       } else {
-        ch = source.charAt(cursor);
+        ch = (char) c;
       }
     }
     if (ch == '\n') {
-      location.newLine();
+      newLine();
     } else {
-      location.incCol();
+      col++;
     }
     return ch;
   }
 
   private void push(char ch){
-    peek = peek == null ? String.valueOf(ch) : String.valueOf(ch)+peek;
-    location.back();
+    if (pushed == pushback.length) {
+      pushback = Arrays.copyOf(pushback, pushed * 2);
+    }
+    pushback[pushed++] = ch;
+    if (col == 1) {
+      line--;
+      col = lastCol;
+    } else {
+      col--;
+    }
+  }
+
+  private void newLine() {
+    line++;
+    lastCol = col;
+    col = 1;
+  }
+
+  private JsonLocationData prevLocation() {
+    return col == 1 ? new JsonLocationData(line-1, lastCol) : new JsonLocationData(line, col-1);
   }
 
   public IOException error(String msg) {
-    return new IOException("Error parsing JSON source: "+msg+" at Line "+Integer.toString(location.getLine())+" (path=["+path()+"])"+(sourceName == null ? "" : " from '"+sourceName+"'"));
+    return new IOException("Error parsing JSON source: "+msg+" at Line "+Integer.toString(line)+" (path=["+path()+"])"+(sourceName == null ? "" : " from '"+sourceName+"'"));
   }
 
   private String path() {
     if (states.empty())
-      return value;
+      return getValue();
     else {
       String result = "";
       for (State s : states) 
         result = result + '/'+ s.getName();
-      result = result + value;
+      result = result + getValue();
       return result;
     }
   }
@@ -152,26 +242,45 @@ public class JsonLexer {
   }
 
   public String getValue() {
+    if (valuePending) {
+      value = b.toString();
+      valuePending = false;
+    }
     return value;
   }
 
-
+  /**
+   * @return the location before the whitespace preceding the current token. Each call returns a new object
+   */
   public JsonLocationData getLastLocationBWS() {
-    return lastLocationBWS;
+    return new JsonLocationData(bwsLine, bwsCol);
   }
 
+  /**
+   * @return the location of the start of the current token. Each call returns a new object
+   */
   public JsonLocationData getLastLocationAWS() {
-    return lastLocationAWS;
+    return new JsonLocationData(awsLine, awsCol);
+  }
+
+  public int getLastLineAWS() {
+    return awsLine;
+  }
+
+  public int getLastColAWS() {
+    return awsCol;
   }
 
 
   public void next() throws IOException {
-    lastLocationBWS = location.copy();
+    bwsLine = line;
+    bwsCol = col;
+    getValue(); // b is about to be reused
     char ch;
     do {
       ch = getNextChar();
       if (allowComments && ch == '/') {
-        JsonLocationData start = location.prev();
+        JsonLocationData start = prevLocation();
         char ch1 = getNextChar();
         if (ch1 == '/') {
           StringBuilder b = new StringBuilder();
@@ -180,13 +289,19 @@ public class JsonLexer {
             if (first) first = false; else b.append(ch);
             ch = getNextChar();
           }
-          comments.add(new JsonComment(b.toString().trim(), start, location.prev()));
+          comments.add(new JsonComment(b.toString().trim(), start, prevLocation()));
         } else {
           push(ch1);
         }         
       }
     } while (more() && Utilities.charInSet(ch, ' ', '\r', '\n', '\t'));
-    lastLocationAWS = location.copy().prev();
+    if (col == 1) {
+      awsLine = line-1;
+      awsCol = 1;
+    } else {
+      awsLine = line;
+      awsCol = col-1;
+    }
     isUnquoted = false;
     if (!more()) {
       type = TokenType.Eof;
@@ -234,7 +349,7 @@ public class JsonLexer {
         } while (more() && (ch != '"'));
         if (!more())
           throw error("Unclosed string");
-        value = b.toString();
+        valuePending = true;
         break;
       case ':' : 
         type = TokenType.Colon;
@@ -295,13 +410,45 @@ public class JsonLexer {
   public String consume(TokenType type) throws IOException {
     if (this.type != type)
       throw error("JSON syntax error - found "+this.type.toString()+" expecting "+type.toString());
+    String result = getValue();
+    next();
+    return result;
+  }
+
+  /**
+   * consume a string that is a property name. The string may be shared with other uses of the same name 
+   */
+  public String consumeName() throws IOException {
+    if (this.type != TokenType.String)
+      throw error("JSON syntax error - found "+this.type.toString()+" expecting "+TokenType.String.toString());
+    if (valuePending) {
+      value = name(b);
+      valuePending = false;
+    }
     String result = value;
     next();
     return result;
   }
 
+  /**
+   * @return the current location. Each call returns a new object
+   */
   public JsonLocationData getLocation() {
-    return location;
+    return new JsonLocationData(line, col);
+  }
+
+  /**
+   * @return the line of the current location, without making a JsonLocationData
+   */
+  public int getLine() {
+    return line;
+  }
+
+  /**
+   * @return the column of the current location, without making a JsonLocationData
+   */
+  public int getCol() {
+    return col;
   }
 
   public Stack<State> getStates() {
@@ -321,7 +468,7 @@ public class JsonLexer {
 
   @Override
   public String toString() {
-    return "JsonLexer [cursor=" + cursor + ", peek=" + peek + ", type=" + type + ", location=" + location.toString() + "]";
+    return "JsonLexer [offset=" + offset + ", pushed=" + pushed + ", type=" + type + ", location=" + getLocation().toString() + "]";
   }
 
   public String getSourceName() {
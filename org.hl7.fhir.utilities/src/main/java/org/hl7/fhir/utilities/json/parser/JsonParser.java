@@ -1,10 +1,14 @@
 package org.hl7.fhir.utilities.json.parser;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
@@ -63,11 +67,11 @@ public class JsonParser {
   }
 
   public static JsonObject parseObject(InputStream stream) throws IOException, JsonException {
-    return new JsonParser().parseJsonObject(FileUtilities.streamToString(stream), false, false);
+    return new JsonParser().parseJsonObject(reader(stream), false, false);
   }
   
   public static JsonObject parseObject(byte[] content) throws IOException, JsonException {
-    return new JsonParser().parseJsonObject(FileUtilities.bytesToString(content), false, false);
+    return new JsonParser().parseJsonObject(reader(content), false, false);
   }
 
   public static JsonObject parseObject(String source) throws IOException, JsonException {
@@ -78,14 +82,18 @@ public class JsonParser {
     if (!source.exists()) {
       throw new IOException("File "+source+" not found");
     }
-    return new JsonParser().setSourceName(source.getAbsolutePath()).parseJsonObject(FileUtilities.fileToString(source), false, false);
+    try (InputStream stream = ManagedFileAccess.inStream(source)) {
+      return new JsonParser().setSourceName(source.getAbsolutePath()).parseJsonObject(reader(stream), false, false);
+    }
   }
 
   public static JsonObject parseObject(File source, boolean isJson5) throws IOException, JsonException {
     if (!source.exists()) {
       throw new IOException("File "+source+" not found");
     }
-    return new JsonParser().setSourceName(source.getAbsolutePath()).parseJsonObject(FileUtilities.fileToString(source), isJson5, false);
+    try (InputStream stream = ManagedFileAccess.inStream(source)) {
+      return new JsonParser().setSourceName(source.getAbsolutePath()).parseJsonObject(reader(stream), isJson5, false);
+    }
   }
   
   public static JsonObject parseObjectFromFile(String source) throws IOException, JsonException {
@@ -97,11 +105,11 @@ public class JsonParser {
   }
   
   public static JsonObject parseObject(InputStream stream, boolean isJson5) throws IOException, JsonException {
-    return new JsonParser().parseJsonObject(FileUtilities.streamToString(stream), isJson5, false);
+    return new JsonParser().parseJsonObject(reader(stream), isJson5, false);
   }
   
   public static JsonObject parseObject(byte[] content, boolean isJson5) throws IOException, JsonException {
-    return new JsonParser().parseJsonObject(FileUtilities.bytesToString(content), isJson5, false);
+    return new JsonParser().parseJsonObject(reader(content), isJson5, false);
   }
     
   public static JsonObject parseObject(String source, boolean isJson5) throws IOException, JsonException {
@@ -113,11 +121,19 @@ public class JsonParser {
   }
   
   public static JsonObject parseObject(InputStream stream, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
-    return parseObject(FileUtilities.streamToString(stream), isJson5, allowDuplicates);
+    return new JsonParser().parseJsonObject(reader(stream), isJson5, allowDuplicates);
   }
   
   public static JsonObject parseObject(byte[] stream, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
-    return parseObject(FileUtilities.bytesToString(stream), isJson5, allowDuplicates);
+    return new JsonParser().parseJsonObject(reader(stream), isJson5, allowDuplicates);
+  }
+
+  /**
+   * Parse an object directly from a reader. The content is lexed as it is read, so the source is 
+   * never held in memory as a single string
+   */
+  public static JsonObject parseObject(Reader reader, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
+    return new JsonParser().parseJsonObject(reader, isJson5, allowDuplicates);
   }
 
   public static JsonObject parseObject(String source, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
@@ -235,8 +251,12 @@ public class JsonParser {
   private boolean allowDuplicates = true;
   private boolean allowComments = false;
   private boolean allowNoComma = false;
-  private JsonLocationData startProperty;
-  private JsonLocationData endProperty;
+  // the item locations are kept as ints, and only turned into JsonLocationData for the elements
+  private int startLine;
+  private int startCol;
+  private boolean hasEnd;
+  private int endLine;
+  private int endCol;
   private boolean itemNoComma;
   private boolean allowUnquotedStrings;
   private boolean itemUnquoted;
@@ -244,20 +264,32 @@ public class JsonParser {
   private String sourceName;
   private int line = 0;
 
+  private static Reader reader(InputStream stream) {
+    return new InputStreamReader(stream, StandardCharsets.UTF_8);
+  }
+
+  private static Reader reader(byte[] content) {
+    return new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8);
+  }
+
   private JsonObject parseJsonObject(String source, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
+    return parseJsonObject(new StringReader(source), isJson5, allowDuplicates);
+  }
+
+  private JsonObject parseJsonObject(Reader source, boolean isJson5, boolean allowDuplicates) throws IOException, JsonException {
     this.allowDuplicates = allowDuplicates;
     this.allowComments = isJson5;
     this.allowNoComma = isJson5;
     this.allowUnquotedStrings = isJson5;
-    return parseSource(Utilities.stripBOM(source));
+    return parseSource(source); // the lexer drops any BOMs
   }
 
-  private JsonObject parseSource(String source) throws IOException, JsonException {
+  private JsonObject parseSource(Reader source) throws IOException, JsonException {
     lexer = new JsonLexer(source, allowComments, allowUnquotedStrings, line);
     lexer.setSourceName(sourceName);
     JsonObject result = new JsonObject();
     lexer.takeComments(result);
-    result.setStart(lexer.getLastLocationAWS().copy());
+    result.setStart(lexer.getLastLocationAWS());
     if (lexer.getType() == TokenType.Open) {
       lexer.next();
       lexer.getStates().push(new State("", true));
@@ -271,9 +303,9 @@ public class JsonParser {
     if (lexer.getType() != TokenType.Close) {
       parseProperty();
       readObject("$", result, true);
-      result.setEnd(endProperty != null ? endProperty.copy() : lexer.getLocation().copy());
+      result.setEnd(endLocation());
     } else {
-      result.setEnd(endProperty != null ? endProperty.copy() : lexer.getLocation().copy());
+      result.setEnd(endLocation());
       lexer.next();
     }
     if (lexer.getType() != TokenType.Eof) {
@@ -296,25 +328,25 @@ public class JsonParser {
     case Boolean:
       JsonBoolean bool = new JsonBoolean(lexer.getValue().equals("true"));
       lexer.takeComments(bool);
-      bool.setStart(lexer.getLastLocationAWS().copy());
-      bool.setEnd(endProperty != null ? endProperty.copy() : lexer.getLocation().copy());
+      bool.setStart(lexer.getLastLocationAWS());
+      bool.setEnd(endLocation());
       return bool;   
     case Null:
       JsonNull nll = new JsonNull();
       lexer.takeComments(nll);
-      nll.setStart(lexer.getLastLocationAWS().copy());
-      nll.setEnd(endProperty != null ? endProperty.copy() : lexer.getLocation().copy());
+      nll.setStart(lexer.getLastLocationAWS());
+      nll.setEnd(endLocation());
       return nll;   
     case Number:
       JsonNumber num = new JsonNumber(lexer.getValue());
       lexer.takeComments(num);
-      num.setStart(lexer.getLastLocationAWS().copy());
-      num.setEnd(endProperty != null ? endProperty.copy() : lexer.getLocation().copy());
+      num.setStart(lexer.getLastLocationAWS());
+      num.setEnd(endLocation());
       return num;   
     case Open:
       JsonObject obj = new JsonObject();
       lexer.takeComments(obj);
-      obj.setStart(lexer.getLastLocationAWS().copy());
+      obj.setStart(lexer.getLastLocationAWS());
       if (lexer.getType() == TokenType.Open) {
         lexer.next();
         lexer.getStates().push(new State("", true));
@@ -326,25 +358,25 @@ public class JsonParser {
         parseProperty();
         readObject("$", obj, true);
       }
-      obj.setEnd(endProperty != null ? endProperty.copy() : lexer.getLocation().copy());
+      obj.setEnd(endLocation());
       return obj;   
     case OpenArray:
       JsonArray arr = new JsonArray();
       lexer.takeComments(arr);
-      arr.setStart(lexer.getLastLocationAWS().copy());
+      arr.setStart(lexer.getLastLocationAWS());
       lexer.next();
       lexer.getStates().push(new State("", false));
       if (lexer.getType() != TokenType.CloseArray) {
         parseProperty();
         readArray("$", arr, true);
       }
-      arr.setEnd(endProperty != null ? endProperty.copy() : lexer.getLocation().copy());
+      arr.setEnd(endLocation());
       return arr; 
     case String:
       JsonString str = new JsonString(lexer.getValue());
       lexer.takeComments(str);
-      str.setStart(lexer.getLastLocationAWS().copy());
-      str.setEnd(endProperty != null ? endProperty.copy() : lexer.getLocation().copy());
+      str.setStart(lexer.getLastLocationAWS());
+      str.setEnd(endLocation());
       return str;   
     default:
     }
@@ -357,54 +389,54 @@ public class JsonParser {
       switch (itemType) {
       case Object:
         JsonObject child = new JsonObject(); //(obj.path+'.'+ItemName);
-        child.setStart(startProperty.copy());
+        child.setStart(startLocation());
         lexer.takeComments(child);
         if (obj.has(itemName) && !allowDuplicates)
           throw lexer.error("Duplicated property name: "+itemName+ " @ "+path);
         obj.addForParser(itemName, child, itemNoComma, itemUnquoted, valueUnquoted);
         next();
         readObject(path+"."+itemName, child, false);
-        child.setEnd(endProperty.copy());
+        child.setEnd(endLocation());
         break;
       case Boolean :
         JsonBoolean childB = new JsonBoolean(Boolean.valueOf(itemValue));
-        childB.setStart(startProperty.copy());
+        childB.setStart(startLocation());
         lexer.takeComments(childB);
         if (obj.has(itemName) && !allowDuplicates)
           throw lexer.error("Duplicated property name: "+itemName+ " @ "+path);
         obj.addForParser(itemName, childB, itemNoComma, itemUnquoted, valueUnquoted);
-        childB.setEnd(endProperty.copy());
+        childB.setEnd(endLocation());
         break;
       case String:
         JsonString childS = new JsonString(itemValue);
-        childS.setStart(startProperty.copy());
+        childS.setStart(startLocation());
         lexer.takeComments(childS);
         if (obj.has(itemName) && !allowDuplicates)
           throw lexer.error("Duplicated property name: "+itemName+ " @ "+path);
         obj.addForParser(itemName, childS, itemNoComma, itemUnquoted, valueUnquoted);
-        childS.setEnd(endProperty.copy());
+        childS.setEnd(endLocation());
         break;
       case Number:
         JsonNumber childN = new JsonNumber(itemValue);
-        childN.setStart(startProperty.copy());
+        childN.setStart(startLocation());
         lexer.takeComments(childN);
         if (obj.has(itemName) && !allowDuplicates)
           throw lexer.error("Duplicated property name: "+itemName+ " @ "+path);
         obj.addForParser(itemName, childN, itemNoComma, itemUnquoted, valueUnquoted);
-        childN.setEnd(endProperty.copy());
+        childN.setEnd(endLocation());
         break;
       case Null:
         JsonNull childn = new JsonNull();
-        childn.setStart(startProperty.copy());
+        childn.setStart(startLocation());
         lexer.takeComments(childn);
         if (obj.has(itemName) && !allowDuplicates)
           throw lexer.error("Duplicated property name: "+itemName+ " @ "+path);
         obj.addForParser(itemName, childn, itemNoComma, itemUnquoted, valueUnquoted);
-        childn.setEnd(endProperty.copy());
+        childn.setEnd(endLocation());
         break;
       case Array:
         JsonArray childA = new JsonArray(); // (obj.path+'.'+ItemName);
-        childA.setStart(startProperty.copy());
+        childA.setStart(startLocation());
         lexer.takeComments(childA);
         if (obj.has(itemName) && !allowDuplicates)
           throw lexer.error("Duplicated property name: "+itemName+ " @ "+path);
@@ -413,7 +445,7 @@ public class JsonParser {
         if (!readArray(path+"."+itemName, childA, false))
           next(true);
         if (childA.getEnd() == null) {
-          childA.setEnd(endProperty.copy());
+          childA.setEnd(endLocation());
         }
         break;
       case Eof : 
@@ -422,7 +454,7 @@ public class JsonParser {
         throw lexer.error("Unexpected End"); // Don't think we can get here
       }
       itemNoComma = false;
-      endProperty = lexer.getLocation().copy();
+      markEnd();
       obj.setExtraComma(lexer.getType() == TokenType.Comma);
       next();
     }
@@ -430,55 +462,57 @@ public class JsonParser {
 
   private boolean readArray(String path, JsonArray arr, boolean root) throws IOException, JsonException {
     boolean res = false;
+    int arrLine = 0;
+    int arrCol = 0;
     while (!((itemType == ItemType.End) || (root && (itemType == ItemType.Eof)))) {
       res  = true;
       arr.setExtraComma(false);
       switch (itemType) {
       case Object:
         JsonObject obj  = new JsonObject(); // (arr.path+'['+inttostr(i)+']');
-        obj.setStart(startProperty.copy());
+        obj.setStart(startLocation());
         lexer.takeComments(obj);
         arr.addForParser(obj, itemNoComma, valueUnquoted);
         next();
         readObject(path+"["+(arr.size()-1)+"]", obj, false);
-        obj.setEnd(endProperty.copy());
+        obj.setEnd(endLocation());
         break;
       case String:
         JsonString s = new JsonString(itemValue);
-        s.setStart(startProperty.copy());
+        s.setStart(startLocation());
         lexer.takeComments(s);
         arr.addForParser(s, itemNoComma, valueUnquoted);
-        s.setEnd(endProperty.copy());
+        s.setEnd(endLocation());
         break;
       case Number:
         JsonNumber n = new JsonNumber(itemValue);
-        n.setStart(startProperty.copy());
+        n.setStart(startLocation());
         lexer.takeComments(n);
         arr.addForParser(n, itemNoComma, valueUnquoted);
-        n.setEnd(endProperty.copy());
+        n.setEnd(endLocation());
         break;
       case Boolean:
         JsonBoolean b = new JsonBoolean("true".equals(itemValue));
-        b.setStart(startProperty.copy());
+        b.setStart(startLocation());
         lexer.takeComments(b);
         arr.addForParser(b, itemNoComma, valueUnquoted);
-        b.setEnd(endProperty.copy());
+        b.setEnd(endLocation());
         break;
       case Null :
         JsonNull nn = new JsonNull();
-        nn.setStart(startProperty.copy());
+        nn.setStart(startLocation());
         lexer.takeComments(nn);
         arr.addForParser(nn, itemNoComma, valueUnquoted);
-        nn.setEnd(endProperty.copy());
+        nn.setEnd(endLocation());
         break;
       case Array:
         JsonArray child = new JsonArray(); // (arr.path+'['+inttostr(i)+']');
-        child.setStart(startProperty.copy());
+        child.setStart(startLocation());
         lexer.takeComments(child);
         arr.addForParser(child, itemNoComma, valueUnquoted);
         next();
         readArray(path+"["+(arr.size()-1)+"]", child, false);
-        child.setEnd(endProperty.copy());
+        child.setEnd(endLocation());
         break;
       case Eof : 
         throw lexer.error("Unexpected End of File");
@@ -486,13 +520,31 @@ public class JsonParser {
         throw lexer.error("Can't get here");
       }
       itemNoComma = false;
-      arr.setEnd(lexer.getLocation().copy());
+      arrLine = lexer.getLine();
+      arrCol = lexer.getCol();
       arr.setExtraComma(lexer.getType() == TokenType.Comma);
       next();
     }
+    if (res) {
+      arr.setEnd(new JsonLocationData(arrLine, arrCol));
+    }
     return res;
   }
 
+  private JsonLocationData startLocation() {
+    return new JsonLocationData(startLine, startCol);
+  }
+
+  private JsonLocationData endLocation() {
+    return hasEnd ? new JsonLocationData(endLine, endCol) : lexer.getLocation();
+  }
+
+  private void markEnd() {
+    hasEnd = true;
+    endLine = lexer.getLine();
+    endCol = lexer.getCol();
+  }
+
   private void next() throws IOException {
     next(false);
   }
@@ -553,12 +605,13 @@ public class JsonParser {
   private void parseProperty() throws IOException {
     if (lexer.getStates().peek().isProp()) {
       itemUnquoted = lexer.isUnquoted();
-      itemName = lexer.consume(TokenType.String);
+      itemName = lexer.consumeName();
       itemValue = null;
       lexer.consume(TokenType.Colon);
     }
-    startProperty = lexer.getLastLocationAWS().copy();
-    endProperty = lexer.getLocation().copy();
+    startLine = lexer.getLastLineAWS();
+    startCol = lexer.getLastColAWS();
+    markEnd();
     valueUnquoted = lexer.isUnquoted();
     switch (lexer.getType()) {
     case Null :
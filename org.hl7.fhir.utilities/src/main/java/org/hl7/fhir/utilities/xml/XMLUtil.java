@@ -43,6 +43,7 @@ import java.util.Set;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.*;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
@@ -71,6 +72,7 @@ public class XMLUtil {
 	public static final String SPACE_CHAR = "\u00A0";
   public static final String SAX_FEATURES_EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
   public static final String APACHE_XML_FEATURES_DISALLOW_DOCTYPE_DECL = "http://apache.org/xml/features/disallow-doctype-decl";
+  public static final String STAX_REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
 
   public static boolean isNMToken(String name) {
 		if (name == null)
@@ -535,6 +537,26 @@ public class XMLUtil {
     return documentBuilderFactory;
   }
 
+  /**
+   * This method is used to create a new XMLInputFactory instance with DTD and external entity processing turned off.
+   * The factory also reports CDATA sections as distinct events where the implementation allows it.
+   * <p/>
+   * <b>IMPORTANT</b> This method should be the only place where XMLInputFactory is instantiated in this project.
+   *
+   * @return A XMLInputFactory instance with external processing features configured securely.
+   */
+  public static XMLInputFactory newXXEProtectedXMLInputFactory() {
+    final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+    xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    if (xmlInputFactory.isPropertySupported(STAX_REPORT_CDATA_EVENT)) {
+      xmlInputFactory.setProperty(STAX_REPORT_CDATA_EVENT, true);
+    }
+    return xmlInputFactory;
+  }
+
   /**
    * This method is used to create a new SAXParserFactory instance with external processing features configured
    * securely.
@@ -0,0 +1,201 @@
+package org.hl7.fhir.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Each check in PrimitiveSyntax must accept exactly what the regular expression it replaces accepts,
+ * so each is run against a corpus of values, and random mutations of them, and compared with the regex
+ */
+public class PrimitiveSyntaxTests {
+
+  private static final String DATE_REGEX = "([0-9]([0-9]([0-9][1-9]|[1-9]0)|[1-9]00)|[1-9]000)(-(0[1-9]|1[0-2])(-(0[1-9]|[1-2][0-9]|3[0-1]))?)?";
+  private static final String DATETIME_REGEX = "([0-9]([0-9]([0-9][1-9]|[1-9]0)|[1-9]00)|[1-9]000)(-(0[1-9]|1[0-2])(-(0[1-9]|[1-2][0-9]|3[0-1])(T([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)(\\.[0-9]+)?(Z|(\\+|-)((0[0-9]|1[0-3]):[0-5][0-9]|14:00))?)?)?)?";
+  private static final String INSTANT_REGEX = "-?[0-9]{4}-(0[1-9]|1[0-2])-(0[1-9]|[1-2][0-9]|3[0-1])T([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)(\\.[0-9]+)?(Z|(\\+|-)((0[0-9]|1[0-3]):[0-5][0-9]|14:00))";
+  private static final String TIME_REGEX = "([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)";
+  private static final String ID_REGEX = "[A-Za-z0-9\\-\\.]{1,64}";
+  private static final String OID_REGEX = "[0-2](\\.(0|[1-9][0-9]*))+";
+  private static final String UUID_REGEX = "[0-9a-f]{8}\\-[0-9a-f]{4}\\-[0-9a-f]{4}\\-[0-9a-f]{4}\\-[0-9a-f]{12}";
+  private static final String NON_WS_REGEX = "\\S+";
+
+  private static final String[] DATES = {
+    "2024", "0001", "0000", "1000", "0100", "0010", "9999", "2024-01", "2024-12", "2024-00", "2024-13", "2024-1",
+    "2024-01-01", "2024-02-29", "2024-02-31", "2024-01-00", "2024-01-32", "2024-01-1", "2024-01-01T", "24", "20245",
+    "", "-2024", "2024-", "2024-01-", "2024/01/01", "\uFF12\uFF10\uFF12\uFF14"
+  };
+
+  private static final String[] DATETIMES = {
+    "2024-01-01T00:00:00", "2024-01-01T23:59:59", "2024-01-01T24:00:00", "2024-01-01T23:60:00", "2024-01-01T23:59:60",
+    "2024-01-01T23:59:61", "2024-01-01T12:30:00Z", "2024-01-01T12:30:00.1Z", "2024-01-01T12:30:00.123456789+10:00",
+    "2024-01-01T12:30:00.Z", "2024-01-01T12:30:00+14:00", "2024-01-01T12:30:00+14:01", "2024-01-01T12:30:00-13:59",
+    "2024-01-01T12:30:00+13:60", "2024-01-01T12:30:00+1:00", "2024-01-01T12:30:00+10:00Z", "2024-01-01T12:30:00z",
+    "2024-01-01T12:30", "2024-01-01T12:30:00.", "2024-01-01T12:30:00.5", "2024-01-01 12:30:00", "2024-01T12:30:00Z",
+    "-2024-01-01T12:30:00Z", "0000-01-01T12:30:00Z", "2024-01-01T12:30:00+10:00 ", "2024-01-01T12:30:00+10:0"
+  };
+
+  private static final String[] TIMES = {
+    "00:00:00", "23:59:59", "24:00:00", "12:60:00", "12:00:60", "12:00:61", "12:00", "12:00:00.5", "1:00:00", "12:00:00Z", ""
+  };
+
+  private static final String[] IDS = {
+    "a", "abc-123.DEF", "a_b", "a b", "", "1234567890123456789012345678901234567890123456789012345678901234",
+    "12345678901234567890123456789012345678901234567890123456789012345", "\u00E9", "a/b"
+  };
+
+  private static final String[] OIDS = {
+    "1.2.3", "2.16.840.1.113883", "0.0", "3.1", "1", "1.", "1..2", "1.02", "1.0.2", "1.20", "1.2a", ".1", "10.1", "1.2.3.", ""
+  };
+
+  private static final String[] UUIDS = {
+    "c757873d-ec9a-4326-a141-556f43239520", "C757873D-EC9A-4326-A141-556F43239520", "c757873d-ec9a-4326-a141-556f4323952",
+    "c757873d-ec9a-4326-a141-556f432395200", "c757873dxec9a-4326-a141-556f43239520", "g757873d-ec9a-4326-a141-556f43239520", ""
+  };
+
+  private static final String[] REFS = {
+    "Patient/1", "Patient/ 1", " Patient/1", "Patient/1\t", "", "a\u00A0b", "a\nb", "a\u000Bb", "a\fb", "a\rb"
+  };
+
+  private static final String[] URIS = {
+    "http://example.org", " http://example.org", "http://example.org ", "http://exam ple.org", "http://example.org\u00A0",
+    "\u2003http://example.org", "http://exam\u00A0ple.org", "http://example.org\t", "", " ", "\t", "a"
+  };
+
+  // random edits of the corpus, using the characters that matter to the grammars
+  private List<String> mutations(String[] corpus) {
+    Random random = new Random(42);
+    String chars = "0123456789-:.+TZza \t\u00A0/";
+    List<String> list = new ArrayList<>();
+    for (String s : corpus) {
+      list.add(s);
+      for (int i = 0; i < 200; i++) {
+        StringBuilder b = new StringBuilder(s);
+        int edits = 1 + random.nextInt(2);
+        for (int j = 0; j < edits; j++) {
+          int op = random.nextInt(3);
+          int pos = b.length() == 0 ? 0 : random.nextInt(b.length());
+          char c = chars.charAt(random.nextInt(chars.length()));
+          if (op == 0 && b.length() > 0) {
+            b.setCharAt(pos, c);
+          } else if (op == 1) {
+            b.insert(pos, c);
+          } else if (b.length() > 0) {
+            b.deleteCharAt(pos);
+          }
+        }
+        list.add(b.toString());
+      }
+    }
+    return list;
+  }
+
+  private void check(String regex, Predicate<String> scanner, String[]... corpora) {
+    Pattern p = Pattern.compile(regex);
+    int matched = 0;
+    int count = 0;
+    for (String[] corpus : corpora) {
+      for (String s : mutations(corpus)) {
+        boolean expected = p.matcher(s).matches();
+        assertEquals(expected, scanner.test(s), "'"+s+"' against "+regex);
+        count++;
+        if (expected) {
+          matched++;
+        }
+      }
+    }
+    // make sure the corpus exercises both outcomes
+    assertTrue(matched > 0 && matched < count, matched+" of "+count+" matched");
+  }
+
+  @Test
+  public void testDate() {
+    check(DATE_REGEX, PrimitiveSyntax::isDate, DATES, DATETIMES);
+  }
+
+  @Test
+  public void testDateTime() {
+    check(DATETIME_REGEX, PrimitiveSyntax::isDateTime, DATES, DATETIMES);
+  }
+
+  @Test
+  public void testInstant() {
+    check(INSTANT_REGEX, PrimitiveSyntax::isInstant, DATES, DATETIMES);
+  }
+
+  @Test
+  public void testTime() {
+    check(TIME_REGEX, PrimitiveSyntax::isTime, TIMES, DATETIMES);
+  }
+
+  @Test
+  public void testId() {
+    check(ID_REGEX, PrimitiveSyntax::isId, IDS, UUIDS);
+  }
+
+  @Test
+  public void testOid() {
+    check(OID_REGEX, PrimitiveSyntax::isOid, OIDS);
+  }
+
+  @Test
+  public void testUuid() {
+    check(UUID_REGEX, PrimitiveSyntax::isUuid, UUIDS);
+  }
+
+  @Test
+  public void testNonWhitespace() {
+    check(NON_WS_REGEX, PrimitiveSyntax::isNonWhitespace, REFS, URIS);
+  }
+
+  @Test
+  public void testUriWhitespace() {
+    for (String s : mutations(URIS)) {
+      assertEquals(s.equals(Utilities.trimWS(s).replace(" ", "")), PrimitiveSyntax.isUriWithoutWhitespace(s), "'"+s+"'");
+    }
+  }
+
+  @Test
+  public void testNulls() {
+    assertFalse(PrimitiveSyntax.isDate(null));
+    assertFalse(PrimitiveSyntax.isDateTime(null));
+    assertFalse(PrimitiveSyntax.isInstant(null));
+    assertFalse(PrimitiveSyntax.isTime(null));
+    assertFalse(PrimitiveSyntax.isId(null));
+    assertFalse(PrimitiveSyntax.isOid(null));
+    assertFalse(PrimitiveSyntax.isUuid(null));
+    assertFalse(PrimitiveSyntax.isNonWhitespace(null));
+    assertFalse(PrimitiveSyntax.isUriWithoutWhitespace(null));
+  }
+
+  @Test
+  public void testRegexCache() {
+    RegexCache cache = new RegexCache(2);
+    Pattern a = cache.get("a+");
+    assertSame(a, cache.get("a+"));
+    cache.get("b+");
+    cache.get("a+"); // a+ is now the most recently used, so b+ goes
+    cache.get("c+");
+    assertEquals(2, cache.size());
+    assertSame(a, cache.get("a+"));
+    assertEquals(3, cache.getHits());
+    cache.get("b+");
+    assertEquals(4, cache.getMisses());
+
+    assertThrows(PatternSyntaxException.class, () -> cache.get("(a"));
+    assertTrue(RegexCache.matches("aaa", "a+"));
+    assertFalse(RegexCache.matches("aab", "a+"));
+    assertNotSame(RegexCache.compile("a+"), a);
+  }
+}
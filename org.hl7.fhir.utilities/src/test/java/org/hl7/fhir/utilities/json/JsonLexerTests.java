@@ -0,0 +1,159 @@
+package org.hl7.fhir.utilities.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.utilities.json.parser.JsonLexer;
+import org.hl7.fhir.utilities.json.parser.JsonLexer.TokenType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JsonLexerTests {
+
+  /**
+   * hands out the source a few characters at a time, so tokens are split across reads
+   */
+  private static class ChunkedReader extends Reader {
+    private final String source;
+    private int pos;
+    private int chunk;
+
+    private ChunkedReader(String source) {
+      this.source = source;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      if (pos >= source.length()) {
+        return -1;
+      }
+      chunk = (chunk % 7) + 1;
+      int count = Math.min(Math.min(len, chunk), source.length() - pos);
+      source.getChars(pos, pos + count, cbuf, off);
+      pos = pos + count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private List<String> tokens(JsonLexer lexer) throws IOException {
+    List<String> res = new ArrayList<>();
+    while (lexer.getType() != TokenType.Eof) {
+      res.add(lexer.getType()+"|"+lexer.getValue()+"@"+lexer.getLastLocationAWS()+"-"+lexer.getLocation());
+      lexer.next();
+    }
+    return res;
+  }
+
+  private String bigSource() {
+    StringBuilder b = new StringBuilder();
+    b.append("{\r\n  \"resourceType\" : \"Bundle\",\r\n  \"entry\" : [");
+    for (int i = 0; i < 400; i++) {
+      if (i > 0) {
+        b.append(",");
+      }
+      b.append("\n    { \"fullUrl\" : \"http://example.org/Patient/p"+i+"\", \"n\" : "+i+", \"d\" : -"+i+".5e+2, \"b\" : "+(i % 2 == 0)+", \"x\" : null, \"e\" : \"a\\\"b\\u00e9\\n\", \"a\" : [1,2,[]] }");
+    }
+    b.append("\n  ]\n}\n");
+    return b.toString();
+  }
+
+  @Test
+  public void testReaderMatchesString() throws IOException {
+    String source = bigSource();
+    Assertions.assertTrue(source.length() > 8192 * 3);
+    List<String> fromString = tokens(new JsonLexer(source, false, false, 0));
+    List<String> fromReader = tokens(new JsonLexer(new ChunkedReader(source), false, false, 0));
+    Assertions.assertEquals(fromString.size(), fromReader.size());
+    Assertions.assertEquals(fromString, fromReader);
+  }
+
+  @Test
+  public void testPushback() throws IOException {
+    // numbers and unquoted strings are only finished by the character after them, which has to be read again
+    JsonLexer lexer = new JsonLexer("{a:12,b:[-1.5e+3,x],c:true}", true, true, 0);
+    List<String> res = new ArrayList<>();
+    while (lexer.getType() != TokenType.Eof) {
+      res.add(lexer.getType() == TokenType.String || lexer.getType() == TokenType.Number || lexer.getType() == TokenType.Boolean ? lexer.getValue() : lexer.getType().toString());
+      lexer.next();
+    }
+    Assertions.assertEquals("[Open, a, Colon, 12, Comma, b, Colon, OpenArray, -1.5e+3, Comma, x, CloseArray, Comma, c, Colon, true, Close]", res.toString());
+  }
+
+  @Test
+  public void testUnquotedNotAllowed() throws IOException {
+    JsonLexer lexer = new JsonLexer("{\"a\":b}", false, false, 0);
+    lexer.next();
+    lexer.consume(TokenType.String);
+    Assertions.assertThrows(IOException.class, () -> lexer.consume(TokenType.Colon));
+  }
+
+  @Test
+  public void testLocations() throws IOException {
+    JsonLexer lexer = new JsonLexer("{\r\n  \"a\" : 1,\r\n  \"b\" : \"x\"\n}", false, false, 0);
+    List<String> res = new ArrayList<>();
+    while (lexer.getType() != TokenType.Eof) {
+      res.add(lexer.getType()+"@"+lexer.getLastLineAWS()+":"+lexer.getLastColAWS());
+      Assertions.assertEquals(lexer.getLastLineAWS(), lexer.getLastLocationAWS().getLine());
+      Assertions.assertEquals(lexer.getLastColAWS(), lexer.getLastLocationAWS().getCol());
+      Assertions.assertEquals(lexer.getLine(), lexer.getLocation().getLine());
+      Assertions.assertEquals(lexer.getCol(), lexer.getLocation().getCol());
+      lexer.next();
+    }
+    Assertions.assertEquals("[Open@1:1, String@2:3, Colon@2:7, Number@2:9, Comma@2:10, String@3:3, Colon@3:7, String@3:9, Close@4:1]", res.toString());
+  }
+
+  @Test
+  public void testStartLine() throws IOException {
+    JsonLexer lexer = new JsonLexer("\n {}", false, false, 10);
+    Assertions.assertEquals(TokenType.Open, lexer.getType());
+    Assertions.assertEquals(12, lexer.getLastLineAWS());
+    Assertions.assertEquals(2, lexer.getLastColAWS());
+  }
+
+  @Test
+  public void testByteOrderMarks() throws IOException {
+    JsonLexer lexer = new JsonLexer(new ChunkedReader("\uFEFF{\"a\":\"\uFEFFb\"}"), false, false, 0);
+    Assertions.assertEquals(TokenType.Open, lexer.getType());
+    Assertions.assertEquals(1, lexer.getLastColAWS());
+    lexer.next();
+    Assertions.assertEquals("a", lexer.consumeName());
+    lexer.consume(TokenType.Colon);
+    Assertions.assertEquals("b", lexer.consume(TokenType.String));
+  }
+
+  @Test
+  public void testNamesAreShared() throws IOException {
+    String longName = "a" + "0123456789".repeat(7);
+    JsonLexer l1 = new JsonLexer("{\"resourceType\":\"resourceType\",\""+longName+"\":1}", false, false, 0);
+    JsonLexer l2 = new JsonLexer(new StringReader("{\"resourceType\":1,\""+longName+"\":1}"), false, false, 0);
+    l1.next();
+    l2.next();
+    String n1 = l1.consumeName();
+    l1.consume(TokenType.Colon);
+    String v1 = l1.consume(TokenType.String);
+    String n2 = l2.consumeName();
+    Assertions.assertEquals("resourceType", n1);
+    Assertions.assertSame(n1, n2);
+    // values aren't names
+    Assertions.assertEquals(n1, v1);
+    Assertions.assertNotSame(n1, v1);
+
+    l1.consume(TokenType.Comma);
+    l2.consume(TokenType.Colon);
+    l2.consume(TokenType.Number);
+    l2.consume(TokenType.Comma);
+    String ln1 = l1.consumeName();
+    String ln2 = l2.consumeName();
+    // long names aren't kept
+    Assertions.assertEquals(longName, ln1);
+    Assertions.assertEquals(ln1, ln2);
+    Assertions.assertNotSame(ln1, ln2);
+  }
+}
@@ -81,6 +81,9 @@ public class Params {
   public static final String TERMINOLOGY_CACHE = "-txCache";
   public static final String TERMINOLOGY_ROUTING = "-tx-routing";
   public static final String TERMINOLOGY_CACHE_CLEAR = "-clear-tx-cache";
+  public static final String CONTEXT_IMAGE = "-context-image";
+  public static final String TERMINOLOGY_PREFETCH = "-tx-prefetch";
+  public static final String SNAPSHOT_CACHE = "-snapshot-cache";
   public static final String LOG = "-log";
   public static final String LANGUAGE = "-language";
   public static final String IMPLEMENTATION_GUIDE = "-ig";
@@ -144,6 +147,7 @@ public class Params {
   private static final String WATCH_MODE_PARAM = "-watch-mode";
   private static final String WATCH_SCAN_DELAY = "-watch-scan-delay";
   private static final String WATCH_SETTLE_TIME = "-watch-settle-time";
+  public static final String THREADS = "-threads";
   public static final String NO_HTTP_ACCESS = "-no-http-access";
   public static final String AUTH_NONCONFORMANT_SERVERS = "-authorise-non-conformant-tx-servers";
   public static final String R5_REF_POLICY = "r5-bundle-relative-reference-policy";
@@ -469,6 +473,8 @@ public class Params {
         validationContext.setShowTerminologyRouting(true);
       } else if (args[i].equals(TERMINOLOGY_CACHE_CLEAR)) {
         validationContext.setClearTxCache(true);
+      } else if (args[i].equals(SNAPSHOT_CACHE)) {
+        validationContext.setSnapshotCache(true);
       } else if (args[i].equals(SHOW_TIMES)) {
         validationContext.setShowTimes(true);
       } else if (args[i].equals(OUTPUT_STYLE)) {
@@ -500,6 +506,13 @@ public class Params {
           throw new Error("Specified -txCache without indicating file");
         else
           validationContext.setTxCache(args[++i]);
+      } else if (args[i].equals(TERMINOLOGY_PREFETCH)) {
+        validationContext.setPrefetchTerminology(true);
+      } else if (args[i].equals(CONTEXT_IMAGE)) {
+        if (i + 1 == args.length)
+          throw new Error("Specified -context-image without indicating folder");
+        else
+          validationContext.setContextImage(args[++i]);
       } else if (args[i].equals(LOG)) {
         if (i + 1 == args.length)
           throw new Error("Specified -log without indicating file");
@@ -578,6 +591,12 @@ public class Params {
         } else {
           validationContext.setWatchScanDelay(readInteger(WATCH_SCAN_DELAY, args[++i]));
         }
+      } else if (args[i].equals(THREADS)) {
+        if (i + 1 == args.length) {
+          throw new Error("Specified -threads without indicating the number of threads");
+        } else {
+          validationContext.setThreads(readInteger(THREADS, args[++i]));
+        }
       } else if (args[i].equals(WATCH_SETTLE_TIME)) {
           if (i + 1 == args.length) {
             throw new Error("Specified -watch-mode without indicating mode value");
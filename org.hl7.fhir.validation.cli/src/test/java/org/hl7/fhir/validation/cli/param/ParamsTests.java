@@ -2,6 +2,8 @@ package org.hl7.fhir.validation.cli.param;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.nio.file.Files;
@@ -19,6 +21,31 @@ public class ParamsTests {
     assertEquals(Locale.GERMAN, validationContext.getLocale());
   }
 
+  @Test
+  void testThreads() throws Exception {
+    ValidationContext validationContext = Params.loadValidationContext(new String[]{"-threads", "8"});
+    assertEquals(8, validationContext.getThreads());
+    assertEquals(1, Params.loadValidationContext(new String[]{}).getThreads());
+  }
+
+  @Test
+  void testTerminologyPrefetch() throws Exception {
+    assertTrue(Params.loadValidationContext(new String[]{"-tx-prefetch"}).isPrefetchTerminology());
+    assertFalse(Params.loadValidationContext(new String[]{}).isPrefetchTerminology());
+  }
+
+  @Test
+  void testContextImage() throws Exception {
+    ValidationContext validationContext = Params.loadValidationContext(new String[]{"-context-image", "images"});
+    assertEquals("images", validationContext.getContextImage());
+  }
+
+  @Test
+  void testSnapshotCache() throws Exception {
+    assertTrue(Params.loadValidationContext(new String[]{"-snapshot-cache"}).isSnapshotCache());
+    assertFalse(Params.loadValidationContext(new String[]{}).isSnapshotCache());
+  }
+
   @Test
   void testFhirSettingsFile() throws Exception {
     File tempFile = ManagedFileAccess.fromPath(Files.createTempFile("fhir-settings", "json"));
@@ -12,14 +12,22 @@ import java.io.PrintWriter;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -43,6 +51,7 @@ import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
 import org.hl7.fhir.r5.elementmodel.ObjectConverter;
 import org.hl7.fhir.r5.elementmodel.ParserBase;
 import org.hl7.fhir.r5.elementmodel.SHCParser;
+import org.hl7.fhir.r5.elementmodel.ValidatedFragment;
 import org.hl7.fhir.r5.fhirpath.ExpressionNode;
 import org.hl7.fhir.r5.fhirpath.FHIRPathEngine;
 import org.hl7.fhir.r5.formats.FormatUtilities;
@@ -65,6 +74,7 @@ import org.hl7.fhir.r5.model.Resource;
 import org.hl7.fhir.r5.model.StructureDefinition;
 import org.hl7.fhir.r5.model.StructureMap;
 import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.model.ValueSet.ConceptSetComponent;
 import org.hl7.fhir.r5.renderers.RendererFactory;
 import org.hl7.fhir.r5.renderers.utils.RenderingContext;
 import org.hl7.fhir.r5.renderers.utils.RenderingContext.GenerationRules;
@@ -77,6 +87,7 @@ import org.hl7.fhir.r5.utils.validation.BundleValidationRule;
 import org.hl7.fhir.r5.utils.validation.IMessagingServices;
 import org.hl7.fhir.r5.utils.validation.IResourceValidator;
 import org.hl7.fhir.r5.utils.validation.IValidationPolicyAdvisor;
+import org.hl7.fhir.r5.utils.validation.IValidationProfileUsageTracker;
 import org.hl7.fhir.r5.utils.validation.IValidatorResourceFetcher;
 import org.hl7.fhir.r5.utils.validation.ValidatorSession;
 import org.hl7.fhir.r5.utils.validation.constants.BestPracticeWarningLevel;
@@ -115,6 +126,7 @@ import org.hl7.fhir.validation.service.utils.ValidationLevel;
 import org.hl7.fhir.validation.instance.InstanceValidator;
 import org.hl7.fhir.validation.instance.advisor.BasePolicyAdvisorForFullValidation;
 import org.hl7.fhir.validation.instance.utils.ValidationContext;
+import org.hl7.fhir.validation.instance.utils.ValidationOutcomeCache;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.SAXException;
 
@@ -204,6 +216,16 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
 
   }
 
+  public interface INDJsonOutcomeHandler {
+
+    /**
+     * @param line - the line in the source (0 based) 
+     * @param outcome - the validation outcome for that line
+     */
+    void handle(int line, OperationOutcome outcome) throws FHIRException, IOException;
+
+  }
+
   @Getter @Setter private SimpleWorkerContext context;
   @Getter @Setter private Map<String, ByteProvider> binaries = new HashMap<>();
   @Getter @Setter private boolean doNative;
@@ -237,11 +259,14 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   @Getter @Setter private BestPracticeWarningLevel bestPracticeLevel;
   @Getter @Setter private boolean unknownCodeSystemsCauseErrors;
   @Getter @Setter private boolean noExperimentalContent;
+  @Getter @Setter private boolean prefetchTerminology;
+  @Getter @Setter private ValidationOutcomeCache outcomeCache;
   @Getter @Setter private Locale locale;
   @Getter @Setter private List<ImplementationGuide> igs = new ArrayList<>();
   @Getter @Setter private List<String> extensionDomains = new ArrayList<>();
 
   @Getter @Setter private boolean showTimes;
+  @Getter @Setter private int threads = 1;
   @Getter @Setter private List<BundleValidationRule> bundleValidationRules = new ArrayList<>();
   @Getter @Setter private QuestionnaireMode questionnaireMode;
   @Getter @Setter private ValidationLevel level = ValidationLevel.HINTS;
@@ -258,13 +283,20 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
    * Once you have a validation engine created, you can quickly clone it to 
    * get one that can load packages without affecting other uses
    * 
+   * If the context of the other engine has been frozen, the clone shares the 
+   * definitions through an overlay instead of copying them, and can't load packages
+   * 
    * @param other
    * @throws FHIRException
    * @throws IOException
    */
   public ValidationEngine(ValidationEngine other) throws FHIRException, IOException {
+    this(other, other.context.isFrozen() ? other.context.overlay(null) : new SimpleWorkerContext(other.context));
+  }
+
+  private ValidationEngine(ValidationEngine other, SimpleWorkerContext context) {
     super();
-    context = new SimpleWorkerContext(other.context);
+    this.context = context;
     binaries.putAll(other.binaries);
     doNative = other.doNative;
     noInvariantChecks = other.noInvariantChecks;
@@ -296,6 +328,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     igs.addAll(other.igs);
     extensionDomains.addAll(other.extensionDomains);
     showTimes = other.showTimes;
+    threads = other.threads;
     bundleValidationRules.addAll(other.bundleValidationRules);
     questionnaireMode = other.questionnaireMode;
     level = other.level;
@@ -304,6 +337,12 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     jurisdiction = other.jurisdiction;
     unknownCodeSystemsCauseErrors = other.unknownCodeSystemsCauseErrors;
     r5BundleRelativeReferencePolicy = other.r5BundleRelativeReferencePolicy;
+    validationControl.putAll(other.validationControl);
+    displayWarnings = other.displayWarnings;
+    bestPracticeLevel = other.bestPracticeLevel;
+    noExperimentalContent = other.noExperimentalContent;
+    prefetchTerminology = other.prefetchTerminology;
+    outcomeCache = other.outcomeCache;
   }
   
   /**
@@ -360,6 +399,13 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     @With 
     private String extensionsVersion;
 
+    /**
+     * an image written by SimpleWorkerContext.saveImage() for the source and version. If the
+     * file exists (and the version is known), the context is loaded from it instead of the packages
+     */
+    @With
+    private final String contextImage;
+
     private static final boolean USE_ECOSYSTEM_DEFAULT = true;
 
     public ValidationEngineBuilder() {
@@ -375,6 +421,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       loggingService = new org.hl7.fhir.r5.context.Slf4JLoggingService(LoggerFactory.getLogger(ValidationEngine.class));
       thoVersion = null;
       extensionsVersion = null;
+      contextImage = null;
     }
 
     /**
@@ -392,6 +439,10 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
      */
     @Deprecated
     public ValidationEngineBuilder(String terminologyCachePath, String userAgent, String version, String txServer, String txLog, FhirPublication txVersion, boolean useEcosystem, TimeTracker timeTracker, boolean canRunWithoutTerminologyServer, ILoggingService loggingService, String thoVersion, String extensionsVersion) {
+      this(terminologyCachePath, userAgent, version, txServer, txLog, txVersion, useEcosystem, timeTracker, canRunWithoutTerminologyServer, loggingService, thoVersion, extensionsVersion, null);
+    }
+
+    private ValidationEngineBuilder(String terminologyCachePath, String userAgent, String version, String txServer, String txLog, FhirPublication txVersion, boolean useEcosystem, TimeTracker timeTracker, boolean canRunWithoutTerminologyServer, ILoggingService loggingService, String thoVersion, String extensionsVersion, String contextImage) {
       this.terminologyCachePath = terminologyCachePath;
       this.userAgent = userAgent;
       this.version = version;
@@ -404,14 +455,15 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       this.useEcosystem = useEcosystem;
       this.thoVersion = thoVersion;
       this.extensionsVersion = extensionsVersion;
+      this.contextImage = contextImage;
    }
 
     public ValidationEngineBuilder withTxServer(String txServer, String txLog, FhirPublication txVersion, boolean useEcosystem) {
-      return new ValidationEngineBuilder(terminologyCachePath, userAgent, version, txServer, txLog, txVersion, useEcosystem, timeTracker, canRunWithoutTerminologyServer, loggingService, thoVersion, extensionsVersion);
+      return new ValidationEngineBuilder(terminologyCachePath, userAgent, version, txServer, txLog, txVersion, useEcosystem, timeTracker, canRunWithoutTerminologyServer, loggingService, thoVersion, extensionsVersion, contextImage);
     }
 
     public ValidationEngineBuilder withNoTerminologyServer() {
-      return new ValidationEngineBuilder(terminologyCachePath, userAgent, version, null, null, txVersion, useEcosystem, timeTracker, true, loggingService, thoVersion, extensionsVersion);
+      return new ValidationEngineBuilder(terminologyCachePath, userAgent, version, null, null, txVersion, useEcosystem, timeTracker, true, loggingService, thoVersion, extensionsVersion, contextImage);
     }
     
     public ValidationEngine fromNothing() throws IOException {
@@ -431,7 +483,11 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
 
     public ValidationEngine fromSource(String src) throws IOException, URISyntaxException {
       ValidationEngine engine = new ValidationEngine();
-      engine.loadCoreDefinitions(src, false, terminologyCachePath, userAgent, timeTracker, loggingService);
+      if (contextImage != null && version != null && ManagedFileAccess.file(contextImage).exists()) {
+        engine.loadContextImage(contextImage, version, terminologyCachePath, userAgent, timeTracker, loggingService);
+      } else {
+        engine.loadCoreDefinitions(src, false, terminologyCachePath, userAgent, timeTracker, loggingService);
+      }
       engine.getContext().setCanRunWithoutTerminology(canRunWithoutTerminologyServer);
       engine.getContext().setPackageTracker(engine);    
       if (txServer != null) {
@@ -526,6 +582,24 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       context = contextBuilder.fromDefinitions(source, ValidatorUtils.loaderForVersion(version), new PackageInformation(src, version, new Date()));
       ValidatorUtils.grabNatives(getBinaries(), source, "http://hl7.org/fhir");
     }
+    loadUcum();
+    initContext(tt);
+  }
+
+  private void loadContextImage(String image, String version, String terminologyCachePath, String userAgent, TimeTracker tt, ILoggingService loggingService) throws FHIRException, IOException {
+    SimpleWorkerContext.SimpleWorkerContextBuilder contextBuilder = new SimpleWorkerContext.SimpleWorkerContextBuilder().withLoggingService(loggingService);
+    if (terminologyCachePath != null)
+      contextBuilder = contextBuilder.withTerminologyCachePath(terminologyCachePath);
+    if (userAgent != null) {
+      contextBuilder.withUserAgent(userAgent);
+    }
+    context = contextBuilder.fromImage(ManagedFileAccess.file(image), ValidatorUtils.loaderForVersion(version));
+    this.version = context.getVersion();
+    loadUcum();
+    initContext(tt);
+  }
+
+  private void loadUcum() {
     // ucum-essence.xml should be in the class path. if it's not, ask about how to sort this out 
     // on https://chat.fhir.org/#narrow/stream/179167-hapi
     try {
@@ -535,7 +609,6 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     } catch (Exception e) {
       throw new FHIRException("Error loading UCUM from embedded ucum-essence.xml: "+e.getMessage(), e);
     }
-    initContext(tt);
   }
 
   protected void initContext(TimeTracker tt) throws IOException {
@@ -619,6 +692,23 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     return ValidatorUtils.messagesToOutcome(messages, context, fhirPathEngine);
   }
 
+  /**
+   * Validate an NDJSON source (e.g. a bulk data export) line by line, reporting the outcome for 
+   * each line as it is validated. The source is never read into memory all at once
+   */
+  public void validateNDJson(InputStream stream, List<String> profiles, INDJsonOutcomeHandler handler) throws FHIRException, IOException {
+    InstanceValidator validator = getValidator(FhirFormat.NDJSON);
+    int[] line = { 0 };
+    validator.validateNDJson(null, stream, asSdList(profiles), ne -> {
+      try {
+        handler.handle(line[0], ValidatorUtils.messagesToOutcome(ne.getErrors(), context, validator.getFHIRPathEngine()));
+      } catch (EOperationOutcome e) {
+        throw new FHIRException(e);
+      }
+      line[0]++;
+    });
+  }
+
   public List<StructureDefinition> asSdList(List<String> profiles) throws Error {
     List<StructureDefinition> list = new ArrayList<>();
     if (profiles != null) {
@@ -661,9 +751,27 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     // Ignore if it fails.The purpose of this is to make dependencies 
     // available for other resources to depend on. if it fails to load, there'll be an error if there's
     // something that should've been loaded
+    boolean changed = first;
+    Set<String> changedUrls = new HashSet<>();
     for (SourceFile ref : refs) {
       if ((ref.isProcess() || all) && !ref.isKnownToBeMissing()) {
         ref.setCnt(igLoader.loadContent(ref.getRef(), "validate", false, first));
+        if (ref.getCnt() == null && ref.isProcess()) {
+          ref.setOutcome(null);
+          changed = true;
+        } else if (ref.getCnt() != null && ref.isProcess()) {
+          if (!ref.updateHash(ref.getCnt().getFocus().getBytes()) && ref.getOutcome() != null) {
+            if (!all) {
+              ref.setProcess(false); // touched, but the content is unchanged, so the last outcome stands
+              continue;
+            }
+          } else {
+            changed = true;
+            if (ref.getUrl() != null) {
+              changedUrls.add(ref.getUrl());
+            }
+          }
+        }
         if (loader != null && ref.getCnt() != null) {
           try {
             loader.load(ref.getCnt());
@@ -674,24 +782,45 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       }
     }
     
+    if (!changed) {
+      for (SourceFile ref : refs) {
+        ref.setProcess(false);
+      }
+      return null;
+    }
+    
+    List<SourceFile> todo = new ArrayList<>();
     for (SourceFile ref : refs) {
       if ((ref.isProcess() || all) && ref.getCnt() != null) {
-        TimeTracker.Session tts = context.clock().start("validation");
-        context.clock().milestone();
-        log.info("  Validate " + ref.getRef());
-        
-        try {
-          OperationOutcome outcome = validate(ref.getRef(), ref.getCnt().getFocus(), ref.getCnt().getCntType(), profiles, record);
-          ToolingExtensions.addStringExtension(outcome, ToolingExtensions.EXT_OO_FILE, ref.getRef());
-          log.info(" " + context.clock().milestone());
-          results.addEntry().setResource(outcome);
-          tts.end();
-        } catch (Exception e) {
-          log.error("Validation Infrastructure fail validating " + ref + ": " + e.getMessage());
-          tts.end();
-          throw new FHIRException(e);
+        todo.add(ref);
+      }
+    }
+    validate(todo, profiles, record);
+    
+    // when watching, the sources that used the canonical resources that changed are revalidated too.
+    // Everything else keeps the outcome from the last time it was validated
+    if (!first && !all) {
+      for (SourceFile ref : todo) {
+        if (ref.getUrl() != null) {
+          changedUrls.add(ref.getUrl());
         }
-        ref.setProcess(false);
+      }
+      List<SourceFile> dependents = new ArrayList<>();
+      for (SourceFile ref : findDependents(refs, todo, changedUrls)) {
+        ref.setCnt(igLoader.loadContent(ref.getRef(), "validate", false, first));
+        if (ref.getCnt() != null) {
+          dependents.add(ref);
+        }
+      }
+      if (!dependents.isEmpty()) {
+        log.info("  Revalidate " + dependents.size() + " dependent source(s)");
+        validate(dependents, profiles, record);
+      }
+    }
+    
+    for (SourceFile ref : refs) {
+      if (ref.getOutcome() != null && !ref.isKnownToBeMissing()) {
+        results.addEntry().setResource(ref.getOutcome());
       }
     }
     if (asBundle)
@@ -700,6 +829,128 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
       return results.getEntryFirstRep().getResource();
   }
 
+  /**
+   * Finds the sources that used any of the urls when they were last validated, along with 
+   * the sources that depend on those in turn
+   */
+  private List<SourceFile> findDependents(List<SourceFile> refs, List<SourceFile> done, Set<String> urls) {
+    List<SourceFile> dependents = new ArrayList<>();
+    boolean added = !urls.isEmpty();
+    while (added) {
+      added = false;
+      for (SourceFile ref : refs) {
+        if (!done.contains(ref) && !dependents.contains(ref) && !ref.isKnownToBeMissing() && !Collections.disjoint(ref.getDependencies(), urls)) {
+          dependents.add(ref);
+          if (ref.getUrl() != null) {
+            added = urls.add(ref.getUrl()) || added;
+          }
+        }
+      }
+    }
+    return dependents;
+  }
+
+  private void validate(List<SourceFile> todo, List<String> profiles, List<ValidationRecord> record) throws IOException {
+    if (threads > 1 && todo.size() > 1) {
+      validateInParallel(todo, profiles, record);
+    } else {
+      validateInSequence(todo, profiles, record);
+    }
+  }
+
+  private void validateInSequence(List<SourceFile> todo, List<String> profiles, List<ValidationRecord> record) {
+    for (SourceFile ref : todo) {
+      TimeTracker.Session tts = context.clock().start("validation");
+      context.clock().milestone();
+      log.info("  Validate " + ref.getRef());
+      
+      try {
+        OperationOutcome outcome = validate(ref, profiles, record);
+        ToolingExtensions.addStringExtension(outcome, ToolingExtensions.EXT_OO_FILE, ref.getRef());
+        log.info(" " + context.clock().milestone());
+        ref.setOutcome(outcome);
+        tts.end();
+      } catch (Exception e) {
+        log.error("Validation Infrastructure fail validating " + ref + ": " + e.getMessage());
+        tts.end();
+        throw new FHIRException(e);
+      }
+      ref.setProcess(false);
+    }
+  }
+
+  /**
+   * Validate the sources on a pool of worker threads. 
+   * 
+   * The definitions are shared through a frozen copy of the context (the context itself can't be 
+   * frozen, since watch mode loads sources into it between rounds), and each thread has its own 
+   * engine on an overlay of that copy (see SimpleWorkerContext.overlay()), so nothing is cached 
+   * into a context that another thread is reading. The times are recorded on a per-source tracker 
+   * that is merged into the context clock afterwards
+   */
+  private void validateInParallel(List<SourceFile> todo, List<String> profiles, List<ValidationRecord> record) throws IOException {
+    int count = Math.min(threads, todo.size());
+    log.info("  Validate " + todo.size() + " sources using " + count + " threads");
+    for (SourceFile ref : todo) {
+      if (ref.getCnt().getCntType() == FhirFormat.SHC) {
+        // the workers can't load it into their contexts
+        igLoader.loadIg(getIgs(), getBinaries(), SHCParser.CURRENT_PACKAGE, true);
+        break;
+      }
+    }
+    SimpleWorkerContext shared = context.isFrozen() ? context : new SimpleWorkerContext(context);
+    shared.freeze();
+    BlockingQueue<ValidationEngine> workers = new ArrayBlockingQueue<>(count);
+    List<ValidationEngine> engines = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ValidationEngine worker = new ValidationEngine(this, shared.overlay(null));
+      engines.add(worker);
+      workers.add(worker);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(count);
+    try {
+      List<Future<OperationOutcome>> outcomes = new ArrayList<>();
+      List<TimeTracker> clocks = new ArrayList<>();
+      for (SourceFile ref : todo) {
+        TimeTracker clock = new TimeTracker();
+        clocks.add(clock);
+        outcomes.add(executor.submit(() -> {
+          ValidationEngine worker = workers.take();
+          TimeTracker.Session tts = clock.start("validation");
+          try {
+            OperationOutcome outcome = worker.validate(ref, profiles, record);
+            ToolingExtensions.addStringExtension(outcome, ToolingExtensions.EXT_OO_FILE, ref.getRef());
+            log.info("  Validate " + ref.getRef() + " " + clock.milestone());
+            return outcome;
+          } finally {
+            tts.end();
+            workers.put(worker);
+          }
+        }));
+      }
+      for (int i = 0; i < todo.size(); i++) {
+        SourceFile ref = todo.get(i);
+        try {
+          ref.setOutcome(outcomes.get(i).get());
+        } catch (ExecutionException e) {
+          log.error("Validation Infrastructure fail validating " + ref + ": " + e.getCause().getMessage());
+          throw new FHIRException(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new FHIRException(e);
+        } finally {
+          context.clock().merge(clocks.get(i));
+        }
+        ref.setProcess(false);
+      }
+    } finally {
+      executor.shutdownNow();
+      for (ValidationEngine worker : engines) {
+        context.clock().merge(worker.context.clock());
+      }
+    }
+  }
+
 
   public ValidatedFragments validateAsFragments(byte[] source, FhirFormat cntType, List<String> profiles, List<ValidationMessage> messages) throws FHIRException, IOException, EOperationOutcome {
     InstanceValidator validator = getValidator(cntType);
@@ -716,28 +967,132 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
   }
 
   public OperationOutcome validate(String location, ByteProvider source, FhirFormat cntType, List<String> profiles, List<ValidationRecord> record) throws FHIRException, IOException, EOperationOutcome, SAXException {
+    return validate(location, source, cntType, profiles, record, null);
+  }
+
+  /**
+   * Validates a source, and records the canonical url of the resource it contains, and the 
+   * profiles, extensions, value sets and code systems that were used to validate it, so that watch mode knows
+   * what to revalidate when something changes
+   */
+  private OperationOutcome validate(SourceFile ref, List<String> profiles, List<ValidationRecord> record) throws FHIRException, IOException, EOperationOutcome, SAXException {
+    return validate(ref.getRef(), ref.getCnt().getFocus(), ref.getCnt().getCntType(), profiles, record, ref);
+  }
+
+  private OperationOutcome validate(String location, ByteProvider source, FhirFormat cntType, List<String> profiles, List<ValidationRecord> record, SourceFile ref) throws FHIRException, IOException, EOperationOutcome, SAXException {
     List<ValidationMessage> messages = new ArrayList<ValidationMessage>();
     if (doNative) {
       SchemaValidator.validateSchema(location, cntType, messages);
     }
     InstanceValidator validator = getValidator(cntType);
-    validator.validate(null, messages, new ByteArrayInputStream(source.getBytes()), cntType, asSdList(profiles));
+    Set<String> dependencies = new HashSet<>();
+    if (ref != null) {
+      validator.setTracker(dependencyTracker(dependencies));
+    }
+    if (cntType == FhirFormat.NDJSON) {
+      // line by line, so the parsed lines aren't all held in memory at once
+      try (InputStream stream = source.getStream()) {
+        validator.validateNDJson(null, stream, asSdList(profiles), ne -> messages.addAll(ne.getErrors()));
+      }
+    } else {
+      validator.validate(null, messages, new ByteArrayInputStream(source.getBytes()), cntType, asSdList(profiles));
+    }
+    if (ref != null) {
+      dependencies.addAll(profiles);
+      ref.setUrl(null);
+      if (validator.validatedContent != null) {
+        for (ValidatedFragment f : validator.validatedContent) {
+          if (f.getElement() != null) {
+            if (f.getElement().hasChild("url")) {
+              ref.setUrl(f.getElement().getNamedChildValue("url"));
+            }
+            addCodingSystems(f.getElement(), dependencies);
+          }
+        }
+      }
+      addTerminologyDependencies(dependencies, ref.getUrl());
+      ref.setDependencies(dependencies);
+    }
     if (showTimes) {
       log.info(location + ": " + validator.reportTimes());
     }
     if (record != null) {
-      boolean found = false;
-      for (ValidationRecord t : record) {
-        if (t.getLocation().equals(location)) {
-          found = true;
-          t.setMessages(messages);
+      synchronized (record) {
+        boolean found = false;
+        for (ValidationRecord t : record) {
+          if (t.getLocation().equals(location)) {
+            found = true;
+            t.setMessages(messages);
+          }
+        }
+        if (!found) {
+          record.add(new ValidationRecord(location, messages));
         }
       }
-      if (!found) {
-        record.add(new ValidationRecord(location, messages));
+    }
+    return ValidatorUtils.messagesToOutcome(messages, context, validator.getFHIRPathEngine());
+  }
+
+  private IValidationProfileUsageTracker dependencyTracker(Set<String> dependencies) {
+    Set<StructureDefinition> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    return (profile, appContext, element) -> {
+      if (seen.add(profile)) {
+        dependencies.add(profile.getUrl());
+        for (ElementDefinition ed : profile.getSnapshot().getElement()) {
+          if (ed.hasBinding() && ed.getBinding().hasValueSet()) {
+            String vs = ed.getBinding().getValueSet();
+            dependencies.add(vs.contains("|") ? vs.substring(0, vs.indexOf("|")) : vs);
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * The code systems of the codings in the resource are checked whether they are bound or not
+   */
+  private void addCodingSystems(Element element, Set<String> dependencies) {
+    if ("Coding".equals(element.getType()) && element.hasChild("system")) {
+      dependencies.add(element.getNamedChildValue("system"));
+    }
+    if (element.hasChildren()) {
+      for (Element child : element.getChildren()) {
+        addCodingSystems(child, dependencies);
+      }
+    }
+  }
+
+  /**
+   * A value set depends on the code systems and value sets it includes or excludes, so a 
+   * change to any of those has to revalidate whatever used the value set (including the
+   * source that is the value set)
+   */
+  private void addTerminologyDependencies(Set<String> dependencies, String url) {
+    List<String> todo = new ArrayList<>(dependencies);
+    if (url != null) {
+      todo.add(url);
+    }
+    while (!todo.isEmpty()) {
+      ValueSet vs = context.fetchResource(ValueSet.class, todo.remove(todo.size() - 1));
+      if (vs != null && vs.hasCompose()) {
+        List<ConceptSetComponent> sets = new ArrayList<>(vs.getCompose().getInclude());
+        sets.addAll(vs.getCompose().getExclude());
+        for (ConceptSetComponent inc : sets) {
+          if (inc.hasSystem()) {
+            dependencies.add(inc.getSystem());
+          }
+          for (CanonicalType ct : inc.getValueSet()) {
+            if (!ct.hasValue()) {
+              continue;
+            }
+            String vsUrl = ct.getValue().contains("|") ? ct.getValue().substring(0, ct.getValue().indexOf("|")) : ct.getValue();
+            if (dependencies.add(vsUrl)) {
+              todo.add(vsUrl);
+            }
+          }
+        }
       }
     }
-    return ValidatorUtils.messagesToOutcome(messages, context, fhirPathEngine);
   }
 
   public OperationOutcome validate(String location, byte[] source, FhirFormat cntType, List<String> profiles, IdStatus resourceIdRule, boolean anyExtensionsAllowed, BestPracticeWarningLevel bpWarnings, CheckDisplayOption displayOption) throws FHIRException, IOException, EOperationOutcome, SAXException {
@@ -941,7 +1296,7 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     validator.setAIService(aiService);
     validator.getSettings().setR5BundleRelativeReferencePolicy(r5BundleRelativeReferencePolicy);
     validator.setCacheFolder(context.getTxCache().getFolder());
-    if (format == FhirFormat.SHC) {
+    if (format == FhirFormat.SHC && !context.isFrozen()) {
       igLoader.loadIg(getIgs(), getBinaries(), SHCParser.CURRENT_PACKAGE, true);      
     }
     validator.setJurisdiction(jurisdiction);
@@ -951,6 +1306,8 @@ public class ValidationEngine implements IValidatorResourceFetcher, IValidationP
     }
     validator.setUnknownCodeSystemsCauseErrors(unknownCodeSystemsCauseErrors);
     validator.setNoExperimentalContent(noExperimentalContent);
+    validator.setPrefetchTerminology(prefetchTerminology);
+    validator.setOutcomeCache(outcomeCache);
     return validator;
   }
 
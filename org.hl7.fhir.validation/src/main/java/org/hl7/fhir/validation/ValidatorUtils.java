@@ -3,9 +3,14 @@ package org.hl7.fhir.validation;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -54,6 +59,10 @@ public class ValidatorUtils {
     private long date;
     private boolean process;
     private Content cnt;
+    private byte[] hash;
+    private OperationOutcome outcome;
+    private String url;
+    private Set<String> dependencies = new HashSet<>();
     
     public boolean isProcess() {
       return process;
@@ -77,6 +86,51 @@ public class ValidatorUtils {
     public boolean isKnownToBeMissing () { 
       return date == 0;  // File::lastModified() returns 0 if the file is missing
     }
+    
+    /**
+     * records the hash of the content, and returns true if it is different to the content seen last time
+     */
+    public boolean updateHash(byte[] content) {
+      byte[] h;
+      try {
+        h = MessageDigest.getInstance("SHA-256").digest(content);
+      } catch (NoSuchAlgorithmException e) {
+        throw new FHIRException(e);
+      }
+      boolean changed = hash == null || !Arrays.equals(hash, h);
+      hash = h;
+      return changed;
+    }
+    
+    /**
+     * The outcome of the last validation of this source, reused while the content doesn't change
+     */
+    public OperationOutcome getOutcome() {
+      return outcome;
+    }
+    public void setOutcome(OperationOutcome outcome) {
+      this.outcome = outcome;
+    }
+    
+    /**
+     * The canonical URL of the resource in this source, if it has one
+     */
+    public String getUrl() {
+      return url;
+    }
+    public void setUrl(String url) {
+      this.url = url;
+    }
+    
+    /**
+     * The canonical URLs of the profiles, value sets and code systems that were used when this source was last validated
+     */
+    public Set<String> getDependencies() {
+      return dependencies;
+    }
+    public void setDependencies(Set<String> dependencies) {
+      this.dependencies = dependencies;
+    }
   }
   
   protected static void grabNatives(Map<String, ByteProvider> source, Map<String, ByteProvider> binaries, String prefix) {
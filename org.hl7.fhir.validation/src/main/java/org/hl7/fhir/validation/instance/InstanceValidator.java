@@ -56,14 +56,17 @@ import org.hl7.fhir.exceptions.PathEngineException;
 import org.hl7.fhir.exceptions.TerminologyServiceException;
 import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
 import org.hl7.fhir.r5.conformance.profile.ProfileUtilities.SourcedChildDefinitions;
+import org.hl7.fhir.r5.context.BaseWorkerContext;
 import org.hl7.fhir.r5.context.ContextUtilities;
 import org.hl7.fhir.r5.context.IWorkerContext;
 import org.hl7.fhir.r5.context.IWorkerContext.OIDSummary;
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
 import org.hl7.fhir.r5.elementmodel.Element;
 import org.hl7.fhir.r5.elementmodel.Element.SpecialElement;
 import org.hl7.fhir.r5.elementmodel.JsonParser;
 import org.hl7.fhir.r5.elementmodel.Manager;
 import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.elementmodel.NDJsonParser;
 import org.hl7.fhir.r5.elementmodel.ObjectConverter;
 import org.hl7.fhir.r5.elementmodel.ParserBase;
 import org.hl7.fhir.r5.elementmodel.ParserBase.ValidationPolicy;
@@ -223,6 +226,8 @@ import org.hl7.fhir.validation.instance.utils.IndexedElement;
 import org.hl7.fhir.validation.instance.utils.NodeStack;
 import org.hl7.fhir.validation.instance.utils.ResolvedReference;
 import org.hl7.fhir.validation.instance.utils.ResourceValidationTracker;
+import org.hl7.fhir.validation.instance.utils.ValidationOutcomeCache;
+import org.hl7.fhir.validation.instance.utils.ValidationOutcomeCache.CachedOutcome;
 import org.hl7.fhir.validation.instance.utils.StructureDefinitionSorterByUrl;
 import org.hl7.fhir.validation.instance.utils.UrlUtil;
 import org.hl7.fhir.validation.instance.utils.ValidationContext;
@@ -637,6 +642,10 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   private String cacheFolder;
   private MatchetypeStatus matchetypeStatus = MatchetypeStatus.Disallowed;
   private OIDUtilities oids;
+  private boolean prefetchTerminology;
+  private ValidationOutcomeCache outcomeCache;
+  private String outcomeCacheSettings;
+  private Map<StructureDefinition, String> outcomeCacheProfiles = new IdentityHashMap<>();
 
   public InstanceValidator(@Nonnull IWorkerContext theContext, @Nonnull IEvaluationContext hostServices, @Nonnull XVerExtensionManager xverManager, ValidatorSession session, @Nonnull ValidatorSettings settings) {
     super(theContext, settings, xverManager, session);
@@ -852,6 +861,28 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     return (validatedContent == null || validatedContent.isEmpty()) ? null : validatedContent.get(0).getElement(); // todo: this is broken, but fixing it really complicates things elsewhere, so we do this for now
   }
 
+  /**
+   * Validate an NDJSON source one line at a time. Each line is parsed, validated, and then passed
+   * to the handler with its errors before the next line is read, so memory use doesn't depend on 
+   * the size of the source. validatedContent is not populated
+   */
+  public void validateNDJson(Object appContext, InputStream stream, List<StructureDefinition> profiles, NDJsonParser.INDJsonLineHandler handler) throws FHIRException {
+    NDJsonParser parser = new NDJsonParser(context);
+    parser.setupValidation(ValidationPolicy.EVERYTHING);
+    parser.setSignatureServices(signatureServices);
+    validatedContent = null;
+    try {
+      parser.parse(stream, ne -> {
+        if (ne.getElement() != null) {
+          validate(appContext, ne.getErrors(), ne.path(), ne.getElement(), profiles);
+        }
+        handler.handle(ne);
+      });
+    } catch (IOException e) {
+      throw new FHIRException(e);
+    }
+  }
+
   private void saveValidatedContent(ValidatedFragment ne, int index) {
     String tgt = null;
     try {
@@ -1002,9 +1033,16 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     messagesToRemove.clear();
     executionId = UUID.randomUUID().toString();
     baseOnly = profiles.isEmpty();
+    outcomeCacheSettings = outcomeCache == null ? null : outcomeCacheSettings();
+    outcomeCacheProfiles.clear();
     setParents(element);
 
     long t = System.nanoTime();
+    if (prefetchTerminology && !noTerminologyChecks) {
+      new TerminologyPrefetcher(this, context, settings).prefetch(element);
+      timeTracker.tx(t, "prefetch");
+      t = System.nanoTime();
+    }
     NodeStack stack = new NodeStack(context, null, element, validationLanguage);
     if (profiles == null || profiles.isEmpty()) {
       validateResource(new ValidationContext(appContext, element), errors, element, element, null, resourceIdRule, stack.resetIds(), null, new ValidationMode(ValidationReason.Validation, ProfileSource.BaseDefinition), false, false);
@@ -3177,7 +3215,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
         }      
       }
       if (regex != null) {
-        ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, e.primitiveValue().matches(regex), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_PRIMITIVE_REGEX, e.primitiveValue(), regex) && ok;
+        ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, RegexCache.matches(e.primitiveValue(), regex), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_PRIMITIVE_REGEX, e.primitiveValue(), regex) && ok;
       }
 
       if (!"xhtml".equals(type)) {
@@ -3196,7 +3234,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
         String url = e.primitiveValue();
         ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, !url.startsWith("oid:"), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_URI_OID) && ok;
         ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, !url.startsWith("uuid:"), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_URI_UUID) && ok;
-        ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, url.equals(Utilities.trimWS(url).replace(" ", ""))
+        ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, PrimitiveSyntax.isUriWithoutWhitespace(url)
             // work around an old invalid example in a core package
             || "http://www.acme.com/identifiers/patient or urn:ietf:rfc:3986 if the Identifier.value itself is a full uri".equals(url), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_URI_WS, url) && ok;
         ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, !context.hasMaxLength() || context.getMaxLength() == 0 || url.length() <= context.getMaxLength(), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_PRIMITIVE_LENGTH, context.getMaxLength()) && ok;
@@ -3263,8 +3301,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       }
       if (type.equals("dateTime")) {
         boolean dok = ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path,
-            e.primitiveValue()
-            .matches("([0-9]([0-9]([0-9][1-9]|[1-9]0)|[1-9]00)|[1-9]000)(-(0[1-9]|1[0-2])(-(0[1-9]|[1-2][0-9]|3[0-1])(T([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)(\\.[0-9]+)?(Z|(\\+|-)((0[0-9]|1[0-3]):[0-5][0-9]|14:00))?)?)?)?"), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_DATETIME_VALID, "'"+e.primitiveValue()+"' doesn't meet format requirements for dateTime") && ok;
+            PrimitiveSyntax.isDateTime(e.primitiveValue()), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_DATETIME_VALID, "'"+e.primitiveValue()+"' doesn't meet format requirements for dateTime") && ok;
         if (isCoreDefinition(profile) || (context.hasExtension(ToolingExtensions.EXT_DATE_RULES) && ToolingExtensions.readStringExtension(context, ToolingExtensions.EXT_DATE_RULES).contains("tz-for-time"))) {
           dok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, !hasTime(e.primitiveValue()) || hasTimeZone(e.primitiveValue()), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_DATETIME_TZ) && dok;
         }
@@ -3284,8 +3321,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       }
       if (type.equals("time")) {
         ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path,
-            e.primitiveValue()
-            .matches("([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)"), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_TIME_VALID) && ok;
+            PrimitiveSyntax.isTime(e.primitiveValue()), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_TIME_VALID) && ok;
         try {
           TimeType dt = new TimeType(e.primitiveValue());
         } catch (Exception ex) {
@@ -3294,7 +3330,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
         }
       }
       if (type.equals("date")) {
-        boolean dok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, e.primitiveValue().matches("([0-9]([0-9]([0-9][1-9]|[1-9]0)|[1-9]00)|[1-9]000)(-(0[1-9]|1[0-2])(-(0[1-9]|[1-2][0-9]|3[0-1]))?)?"), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_DATE_VALID, "'"+e.primitiveValue()+"' doesn't meet format requirements for date");
+        boolean dok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, PrimitiveSyntax.isDate(e.primitiveValue()), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_DATE_VALID, "'"+e.primitiveValue()+"' doesn't meet format requirements for date");
         dok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, !context.hasMaxLength() || context.getMaxLength() == 0 || e.primitiveValue().length() <= context.getMaxLength(), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_PRIMITIVE_LENGTH, context.getMaxLength()) && dok;
         if (dok) {
           try {
@@ -3392,7 +3428,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       }
       if (type.equals("instant")) {
         boolean dok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path,
-            e.primitiveValue().matches("-?[0-9]{4}-(0[1-9]|1[0-2])-(0[1-9]|[1-2][0-9]|3[0-1])T([01][0-9]|2[0-3]):[0-5][0-9]:([0-5][0-9]|60)(\\.[0-9]+)?(Z|(\\+|-)((0[0-9]|1[0-3]):[0-5][0-9]|14:00))"), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_DATETIME_REGEX, "'"+e.primitiveValue()+"' doesn't meet format requirements for instant)");
+            PrimitiveSyntax.isInstant(e.primitiveValue()), I18nConstants.TYPE_SPECIFIC_CHECKS_DT_DATETIME_REGEX, "'"+e.primitiveValue()+"' doesn't meet format requirements for instant)");
         if (dok) {
           try {
             InstantType dt = new InstantType(e.primitiveValue());
@@ -3483,7 +3519,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
             if (e.getProperty().getDefinition().hasExtension(ToolingExtensions.EXT_DATE_FORMAT)) {
               ptFmt = convertForDateFormatToExternal(ToolingExtensions.readStringExtension(e.getProperty().getDefinition(), ToolingExtensions.EXT_DATE_FORMAT), pt);
             }
-            boolean matches = pt.matches(regext) || (ptFmt != null && ptFmt.matches(regext));
+            boolean matches = RegexCache.matches(pt, regext) || (ptFmt != null && RegexCache.matches(ptFmt, regext));
             if (!matches) {
               if (ptFmt == null) {
                 ok = rule(errors, NO_RULE_DATE, IssueType.INVALID, e.line(), e.col(), path, matches, I18nConstants.TYPE_SPECIFIC_CHECKS_DT_PRIMITIVE_REGEX_TYPE, pt, e.fhirType(), regext) && ok;
@@ -3848,7 +3884,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       int e = cnt.indexOf(">");
       if (e > -1 && e < i) {
         String s = cnt.substring(0, e);
-        if (s.matches(HTML_FRAGMENT_REGEX)) {
+        if (RegexCache.matches(s, HTML_FRAGMENT_REGEX)) {
           return true;
         }
       }
@@ -4621,10 +4657,10 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       // special known URLs that can't be validated but are known to be valid
       return true;
     } else {
-      ok = rule(errors, "2025-05-07", IssueType.INVALID, element.line(), element.col(), path, ref.matches("\\S+"), I18nConstants.REFERENCE_REF_INVALID_REF, ref) && ok;
+      ok = rule(errors, "2025-05-07", IssueType.INVALID, element.line(), element.col(), path, PrimitiveSyntax.isNonWhitespace(ref), I18nConstants.REFERENCE_REF_INVALID_REF, ref) && ok;
     }
 
-    if (ref.matches("\\S+")) {
+    if (PrimitiveSyntax.isNonWhitespace(ref)) {
       warning(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), path, !isSuspiciousReference(ref), I18nConstants.REFERENCE_REF_SUSPICIOUS, ref);
     }
 
@@ -4653,7 +4689,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
 
     if (conditional) {
       String query = ref.substring(ref.indexOf("?"));
-      boolean test = !Utilities.noString(query) && query.matches("\\?([_a-zA-Z][_a-zA-Z0-9]*=[^=&]*)(&([_a-zA-Z][_a-zA-Z0-9]*=[^=&]*))*");
+      boolean test = !Utilities.noString(query) && RegexCache.matches(query, "\\?([_a-zA-Z][_a-zA-Z0-9]*=[^=&]*)(&([_a-zA-Z][_a-zA-Z0-9]*=[^=&]*))*");
           //("^\\?([\\w-]+(=[\\w-]*)?(&[\\w-]+(=[\\w-]*)?)*)?$"),
       ok = rule(errors, "2023-02-20", IssueType.INVALID, element.line(), element.col(), path, test, I18nConstants.REFERENCE_REF_QUERY_INVALID, ref) && ok;
     } else if (stop.ok()) {
@@ -5451,7 +5487,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
           if (fullUrl == null) {
             bh.see(rule(errors, NO_RULE_DATE, IssueType.REQUIRED, focus.getParentForValidator().line(), focus.getParentForValidator().col(), focus.getParentForValidator().getPath(),
               Utilities.existsInList(type, "batch-response", "transaction-response") || fullUrl != null, I18nConstants.BUNDLE_BUNDLE_ENTRY_NOFULLURL));
-          } else if (!fullUrl.matches(Constants.URI_REGEX) && !Utilities.existsInList(type, "transaction", "batch") && !Utilities.isAbsoluteUrl(ref) && applyR5BundleRelativePolicy()) {
+          } else if (!RegexCache.matches(fullUrl, Constants.URI_REGEX) && !Utilities.existsInList(type, "transaction", "batch") && !Utilities.isAbsoluteUrl(ref) && applyR5BundleRelativePolicy()) {
             stop.set(true);
           }
         }
@@ -5492,7 +5528,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
         String type = groupingResource.getChildValue(TYPE);
         Element entry = getEntryForSource(groupingResource, source);
         fullUrl = entry.getChildValue(FULL_URL);
-        if (!fullUrl.matches(org.hl7.fhir.r5.tools.Constants.URI_REGEX) && !Utilities.existsInList(type, "transaction", "batch") && !Utilities.isAbsoluteUrl(ref) && applyR5BundleRelativePolicy()) {
+        if (!RegexCache.matches(fullUrl, org.hl7.fhir.r5.tools.Constants.URI_REGEX) && !Utilities.existsInList(type, "transaction", "batch") && !Utilities.isAbsoluteUrl(ref) && applyR5BundleRelativePolicy()) {
           stop.set(true);
         } else {
           IndexedElement res = getFromBundle(groupingResource, ref, fullUrl, errors, path, type, Utilities.existsInList(type, "transaction", "batch"), bh);
@@ -6363,7 +6399,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
           warning(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), stack.getLiteralPath() + ".meta.profile[" + i + "]", false, I18nConstants.VALIDATION_VAL_PROFILE_UNKNOWN_ERROR, profile.primitiveValue(), e.getMessage());
         }
       }
-      if (sd != null) {
+      if (sd != null && !context.isFrozen()) {
         context.cacheResource(sd);
       }
     }
@@ -6458,10 +6494,26 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
       return ok;
     }
     if (rule(errors, NO_RULE_DATE, IssueType.STRUCTURE, element.line(), element.col(), stack.getLiteralPath(), defn.hasSnapshot(), I18nConstants.VALIDATION_VAL_PROFILE_NOSNAPSHOT, defn.getVersionedUrl())) {
-      List<ValidationMessage> localErrors = new ArrayList<ValidationMessage>();
-      resTracker.startValidating(defn);
-      trackUsage(defn, valContext, element);
-      ok = validateElement(valContext, localErrors, defn, defn.getSnapshot().getElement().get(0), null, null, resource, element, element.getName(), stack, false, true, null, pct, mode) && ok;
+      String outcomeKey = outcomeCacheKey(resTracker, element, defn, fromContained);
+      CachedOutcome outcome = outcomeKey == null ? null : outcomeCache.get(outcomeKey, stack.getLiteralPath(), element.line(), element.col());
+      List<ValidationMessage> localErrors;
+      if (outcome != null) {
+        localErrors = outcome.getMessages();
+        trackUsage(defn, valContext, element);
+        ok = outcome.isValid() && ok;
+      } else {
+        localErrors = new ArrayList<ValidationMessage>();
+        resTracker.startValidating(defn);
+        trackUsage(defn, valContext, element);
+        int tracked = trackedMessages.size();
+        int removed = messagesToRemove.size();
+        boolean valid = validateElement(valContext, localErrors, defn, defn.getSnapshot().getElement().get(0), null, null, resource, element, element.getName(), stack, false, true, null, pct, mode);
+        ok = valid && ok;
+        // messages that are tracked for later removal depend on the rest of the validation, so those outcomes can't be reused
+        if (outcomeKey != null && trackedMessages.size() == tracked && messagesToRemove.size() == removed) {
+          outcomeCache.put(outcomeKey, stack.getLiteralPath(), valid, localErrors);
+        }
+      }
       resTracker.storeOutcomes(defn, localErrors);
       addMessagesReplaceExistingIfMoreSevere(errors, localErrors);
     } else {
@@ -6652,6 +6704,63 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     return true;
   }
 
+  private String outcomeCacheKey(ResourceValidationTracker resTracker, Element element, StructureDefinition defn, boolean fromContained) {
+    if (outcomeCache == null || outcomeCacheSettings == null) {
+      return null;
+    }
+    String hash = resTracker.getContentHash(element, fromContained);
+    if (hash == null) {
+      return null;
+    }
+    // the definitions don't change during a validation, so the hash of the profile and its dependencies is worked out once
+    String profileHash = outcomeCacheProfiles.get(defn);
+    if (profileHash == null) {
+      profileHash = ValidationOutcomeCache.profileHash(context, defn);
+      outcomeCacheProfiles.put(defn, profileHash);
+    }
+    return outcomeCache.makeKey(hash, profileHash, outcomeCacheSettings);
+  }
+
+  /**
+   * everything that can change the outcome of validating a resource against a profile, other than the resource and the profile
+   */
+  private String outcomeCacheSettings() {
+    StringBuilder b = new StringBuilder();
+    b.append(context.getVersion());
+    if (context instanceof SimpleWorkerContext) {
+      List<String> packages = new ArrayList<>(((SimpleWorkerContext) context).getLoadedPackages());
+      Collections.sort(packages);
+      b.append("|").append(String.join(",", packages));
+    }
+    for (ImplementationGuide ig : igs) {
+      b.append("|ig:").append(ig.getVersionedUrl());
+    }
+    b.append("|tx:");
+    if (context.isNoTerminologyServer()) {
+      b.append("none");
+    } else if (context instanceof BaseWorkerContext && ((BaseWorkerContext) context).getTxClientManager().getMaster() != null) {
+      b.append(((BaseWorkerContext) context).getTxClientManager().getMaster().getAddress());
+    }
+    b.append("|").append(settings.toJson());
+    b.append("|").append(settings.getLevel()).append(",").append(settings.getBpWarnings()).append(",").append(settings.isAllowExamples())
+      .append(",").append(settings.isForPublication()).append(",").append(settings.isWarnOnDraftOrExperimental()).append(",").append(settings.isAssumeValidRestReferences());
+    if (settings.getJurisdiction() != null) {
+      b.append(",").append(settings.getJurisdiction().getSystem()).append("#").append(settings.getJurisdiction().getCode());
+    }
+    b.append("|").append(checkDisplay).append(",").append(anyExtensionsAllowed).append(",").append(errorForUnknownProfiles).append(",").append(noInvariantChecks)
+      .append(",").append(wantInvariantInMessage).append(",").append(hintAboutNonMustSupport).append(",").append(showMessagesFromReferences).append(",").append(validationLanguage)
+      .append(",").append(baseOnly).append(",").append(noCheckAggregation).append(",").append(noUnicodeBiDiControlChars).append(",").append(htmlInMarkdownCheck)
+      .append(",").append(allowComments).append(",").append(allowDoubleQuotesInFHIRPath).append(",").append(resourceIdRule).append(",").append(allowXsiLocation)
+      .append(",").append(suppressLoincSnomedMessages).append(",").append(noBindingMsgSuppressed).append(",").append(noExtensibleWarnings).append(",").append(securityChecks)
+      .append(",").append(crumbTrails).append(",").append(validateValueSetCodesOnTxServer).append(",").append(questionnaireMode).append(",").append(example)
+      .append(",").append(unknownCodeSystemsCauseErrors).append(",").append(noExperimentalContent).append(",").append(matchetypeStatus).append(",").append(noTerminologyChecks);
+    b.append("|").append(String.join(",", extensionDomains));
+    for (Map.Entry<String, ValidationControl> vc : new TreeMap<>(getValidationControl()).entrySet()) {
+      b.append("|").append(vc.getKey()).append("=").append(vc.getValue().isAllowed()).append(",").append(vc.getValue().getLevel());
+    }
+    return b.toString();
+  }
+
   private ResourceValidationTracker getResourceTracker(Element element) {
     ResourceValidationTracker res = resourceTracker.get(element);
     if (res == null) {
@@ -8333,7 +8442,7 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     if (defn.getKind() == StructureDefinitionKind.LOGICAL) {
       return name.equals(defn.getType()) || name.equals(defn.getName()) || name.equals(defn.getId());
     } else {
-      return name.matches(defn.getType());
+      return RegexCache.matches(name, defn.getType());
     }
   }
 
@@ -8473,8 +8582,12 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
   }
 
   public String getValidationOptionsLanguage(NodeStack stack) {
-    if (stack.getWorkingLang() != null) {
-      return stack.getWorkingLang();
+    return getValidationOptionsLanguage(stack.getWorkingLang());
+  }
+
+  String getValidationOptionsLanguage(String workingLang) {
+    if (workingLang != null) {
+      return workingLang;
     }
     if (validationLanguage != null) {
       return validationLanguage;
@@ -8736,6 +8849,23 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     this.noExperimentalContent = noExperimentalContent;
   }
 
+  public boolean isPrefetchTerminology() {
+    return prefetchTerminology;
+  }
+
+  /**
+   * If this is true, the codes in the content are collected before validation starts, and the ones
+   * that need the terminology server are sent in batches (see TerminologyPrefetcher) rather than
+   * one at a time as they are met. The outcome is the same
+   */
+  public void setPrefetchTerminology(boolean prefetchTerminology) {
+    this.prefetchTerminology = prefetchTerminology;
+  }
+
+  ValueSet resolveBindingReference(StructureDefinition profile, String vsRef) {
+    return resolveBindingReference(profile, vsRef, profile.getUrl(), profile);
+  }
+
   public void resetTimes() {
     timeTracker.reset();   
   }
@@ -8760,6 +8890,17 @@ public class InstanceValidator extends BaseValidator implements IResourceValidat
     this.cacheFolder = cacheFolder;
   }
 
+  public ValidationOutcomeCache getOutcomeCache() {
+    return outcomeCache;
+  }
+
+  /**
+   * Reuse the outcomes of validating identical resources against the same profiles (off by default - see ValidationOutcomeCache)
+   */
+  public void setOutcomeCache(ValidationOutcomeCache outcomeCache) {
+    this.outcomeCache = outcomeCache;
+  }
+
   public MatchetypeStatus getMatchetypeStatus() {
     return matchetypeStatus;
   }
@@ -0,0 +1,154 @@
+package org.hl7.fhir.validation.instance;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.ObjectConverter;
+import org.hl7.fhir.r5.model.CodeableConcept;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.Enumerations.BindingStrength;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.terminologies.utilities.CodingValidationRequest;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.validation.ValidatorSettings;
+
+/**
+ * The first phase of validation when terminology prefetching is on: walk the content, and collect
+ * the codes that the validator is going to check with the terminology service - the same Coding or
+ * CodeableConcept, against the same value set, with the same options - grouped by value set, and have
+ * the context resolve the lot in a few batches. When the validator gets to the codes, the answers are
+ * already there.
+ *
+ * This works from the bindings in the definitions the parser assigned to the elements; codes that
+ * are only bound in profiles are checked one at a time, as usual
+ */
+public class TerminologyPrefetcher {
+
+  private final InstanceValidator validator;
+  private final IWorkerContext context;
+  private final ValidatorSettings settings;
+  private final Map<String, Map<String, List<CodingValidationRequest>>> requests = new LinkedHashMap<>(); // by language, then value set
+
+  public TerminologyPrefetcher(InstanceValidator validator, IWorkerContext context, ValidatorSettings settings) {
+    this.validator = validator;
+    this.context = context;
+    this.settings = settings;
+  }
+
+  /**
+   * @return the number of requests sent to the terminology server(s)
+   */
+  public int prefetch(Element element) {
+    walk(element, null, null);
+    int count = 0;
+    for (Map.Entry<String, Map<String, List<CodingValidationRequest>>> e : requests.entrySet()) {
+      List<CodingValidationRequest> list = new ArrayList<>();
+      for (List<CodingValidationRequest> l : e.getValue().values()) {
+        list.addAll(l);
+      }
+      count = count + context.prefetchValidateCode(settings.withLanguage(e.getKey()), list);
+    }
+    requests.clear();
+    return count;
+  }
+
+  public int getRequestCount() {
+    int count = 0;
+    for (Map<String, List<CodingValidationRequest>> m : requests.values()) {
+      for (List<CodingValidationRequest> l : m.values()) {
+        count = count + l.size();
+      }
+    }
+    return count;
+  }
+
+  void walk(Element element, Element parent, String lang) {
+    if (element.getProperty() != null && element.isResource()) {
+      // as InstanceValidator.checkLang()
+      String l = element.getNamedChildValue("language", false);
+      if (!Utilities.noString(l)) {
+        lang = l;
+      }
+    }
+    try {
+      if ("Coding".equals(element.fhirType())) {
+        seeCoding(element, parent, lang);
+      } else if ("CodeableConcept".equals(element.fhirType())) {
+        seeCodeableConcept(element, lang);
+      }
+    } catch (Exception e) {
+      // nothing - the validator will report it
+    }
+    if (element.hasChildren()) {
+      for (Element child : element.getChildren()) {
+        walk(child, element, lang);
+      }
+    }
+  }
+
+  // as InstanceValidator.checkCoding()
+  private void seeCoding(Element element, Element parent, String lang) {
+    ElementDefinition ed = element.getProperty() == null ? null : element.getProperty().getDefinition();
+    boolean inCodeableConcept = parent != null && "CodeableConcept".equals(parent.fhirType());
+    if (ed == null || (inCodeableConcept && !ed.hasBinding())) {
+      return;
+    }
+    String code = element.getNamedChildValue("code", false);
+    String system = element.getNamedChildValue("system", false);
+    if (code == null || system == null) {
+      return;
+    }
+    ValueSet vs = getBoundValueSet(element, ed);
+    if (vs != null) {
+      add(lang, new CodingValidationRequest(ObjectConverter.readAsCoding(element), vs));
+    } else if (!inCodeableConcept && context.supportsSystem(system, settings.getFhirVersion())) {
+      // as checkCode(). checkDisplay is always true outside a CodeableConcept; inside one, it depends on 
+      // how the CodeableConcept was checked, so those codings are left to the validator
+      boolean checkDisplay = true;
+      String version = element.getNamedChildValue("version", false);
+      String display = element.getNamedChildValue("display", false);
+      add(lang, new CodingValidationRequest(new Coding(system, version, code, checkDisplay ? display : null), (ValueSet) null));
+    }
+  }
+
+  // as InstanceValidator.checkCodeableConcept()
+  private void seeCodeableConcept(Element element, String lang) {
+    ElementDefinition ed = element.getProperty() == null ? null : element.getProperty().getDefinition();
+    if (ed == null) {
+      return;
+    }
+    // only prefetched when there's a (non-example) binding to a value set that resolves - that's the check 
+    // the validator will make. Without one, it depends on the profiles, so it's left to the validator
+    ValueSet vs = getBoundValueSet(element, ed);
+    if (vs == null) {
+      return;
+    }
+    CodeableConcept cc = ObjectConverter.readAsCodeableConcept(element);
+    if (cc.hasCoding()) {
+      add(lang, new CodingValidationRequest(cc, vs));
+    }
+  }
+
+  private ValueSet getBoundValueSet(Element element, ElementDefinition ed) {
+    if (!ed.hasBinding() || !ed.getBinding().hasValueSet() || ed.getBinding().getStrength() == BindingStrength.EXAMPLE) {
+      return null;
+    }
+    StructureDefinition profile = element.getProperty().getStructure();
+    if (profile == null) {
+      return null;
+    }
+    return validator.resolveBindingReference(profile, ed.getBinding().getValueSet());
+  }
+
+  private void add(String lang, CodingValidationRequest request) {
+    String language = validator.getValidationOptionsLanguage(lang);
+    String vs = request.getVsObj() == null ? "" : request.getVsObj().getUrl()+"|"+request.getVsObj().getVersion();
+    requests.computeIfAbsent(language, k -> new LinkedHashMap<>()).computeIfAbsent(vs, k -> new ArrayList<>()).add(request);
+  }
+}
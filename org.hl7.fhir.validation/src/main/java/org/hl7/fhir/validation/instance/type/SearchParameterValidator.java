@@ -114,7 +114,7 @@ public class SearchParameterValidator extends BaseValidator {
   private String canonicalise(String path, List<String> bases) {  
     
     
-    ExpressionNode exp = fpe.parse(path);
+    ExpressionNode exp = fpe.parseUncached(path);
     List<ExpressionNode> pass = new ArrayList<>();
     while (exp != null) {
       if ((exp.getKind() != Kind.Name && !(exp.getKind() == Kind.Group && exp.getGroup().getKind() == Kind.Name))) {
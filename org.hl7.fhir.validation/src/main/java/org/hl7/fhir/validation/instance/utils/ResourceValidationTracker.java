@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.hl7.fhir.r5.elementmodel.Element;
 import org.hl7.fhir.r5.model.StructureDefinition;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 
@@ -29,6 +30,9 @@ import org.hl7.fhir.utilities.validation.ValidationMessage;
  */
 public class ResourceValidationTracker {
     private Map<String, List<ValidationMessage>> validations = new HashMap<>();
+    private String contentHash;
+    private boolean hashed;
+    private boolean hashedContained;
 
     public void startValidating(StructureDefinition sd) {
         validations.put(sd.getUrl(), new ArrayList<ValidationMessage>());
@@ -41,4 +45,17 @@ public class ResourceValidationTracker {
     public void storeOutcomes(StructureDefinition sd, List<ValidationMessage> errors) {
         validations.put(sd.getUrl(), errors);
     }
+
+    /**
+     * The content hash used by the ValidationOutcomeCache, worked out once per resource (null if the outcomes can't be cached).
+     * It's different when the resource is validated as a contained resource, since its references point into the container then
+     */
+    public String getContentHash(Element resource, boolean contained) {
+        if (!hashed || hashedContained != contained) {
+            contentHash = ValidationOutcomeCache.contentHash(resource, contained);
+            hashed = true;
+            hashedContained = contained;
+        }
+        return contentHash;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,532 @@
+package org.hl7.fhir.validation.instance.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hl7.fhir.exceptions.FHIRException;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.model.CanonicalResource;
+import org.hl7.fhir.r5.model.CanonicalType;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.ElementDefinition.TypeRefComponent;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.r5.utils.UserDataNames;
+import org.hl7.fhir.utilities.FileUtilities;
+import org.hl7.fhir.utilities.Utilities;
+import org.hl7.fhir.utilities.json.model.JsonObject;
+import org.hl7.fhir.utilities.json.parser.JsonParser;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
+import org.hl7.fhir.utilities.validation.ValidationMessage.Source;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An opt-in cache of the outcome of validating a resource against a profile, so that the same
+ * resource (e.g. a Practitioner or a Medication that appears in thousands of bundles) isn't
+ * validated over and over, within a run or across runs.
+ * <p>
+ * The key is a hash of the canonical content of the resource (names, values and comments, but
+ * not the format, whitespace or line numbers), a hash of the profile and the definitions it depends 
+ * on (see profileHash()), and a fingerprint of the validator settings, the packages loaded into the 
+ * context and the terminology server. The messages are stored
+ * with locations relative to the resource, and re-anchored to the path of the resource when they're
+ * reused; line and column are those of the resource itself, since the content may be formatted
+ * differently.
+ * <p>
+ * Some outcomes depend on where the resource is, not just what it contains, so these aren't cached:
+ * <ul>
+ * <li>resources with literal references (other than to contained resources) - they're resolved against the bundle or server</li>
+ * <li>contained resources with any references - for them, #x refers to a sibling in the container, which isn't in the hash</li>
+ * <li>outcomes with messages about other locations (e.g. messages from referenced resources)</li>
+ * </ul>
+ * Invariants that look outside the resource (e.g. %rootResource from a contained resource) are
+ * evaluated the first time the resource is seen only, so this is only for pipelines where that's acceptable.
+ * <p>
+ * There's a memory tier (the most recently used outcomes) and, if a folder is provided, a disk
+ * tier, one json file per outcome. The terminology server's answers can change without anything 
+ * in the key changing, so entries on disk are only used for a while (see setMaxAge()).
+ */
+@Slf4j
+public class ValidationOutcomeCache {
+
+  public static class CachedOutcome {
+    private final boolean valid;
+    private final List<ValidationMessage> messages;
+
+    public CachedOutcome(boolean valid, List<ValidationMessage> messages) {
+      this.valid = valid;
+      this.messages = messages;
+    }
+
+    public boolean isValid() {
+      return valid;
+    }
+
+    /**
+     * @return the messages, anchored to the path they were found at
+     */
+    public List<ValidationMessage> getMessages() {
+      return messages;
+    }
+  }
+
+  // the stored form: locations are relative to the resource
+  private static class StoredOutcome {
+    private boolean valid;
+    private List<ValidationMessage> messages;
+  }
+
+  private static final int VERSION = 2;
+  private static final long DEFAULT_MAX_AGE = 24 * 60 * 60 * 1000L;
+
+  private final File folder;
+  private final Map<String, StoredOutcome> memory;
+  private long maxAge = DEFAULT_MAX_AGE;
+  private long hits;
+  private long misses;
+
+  /**
+   * @param memorySize the number of outcomes to keep in memory
+   * @param folder where to keep outcomes between runs, or null for memory only
+   */
+  public ValidationOutcomeCache(int memorySize, String folder) throws IOException {
+    this.memory = new LinkedHashMap<String, StoredOutcome>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, StoredOutcome> eldest) {
+        return size() > memorySize;
+      }
+    };
+    if (folder != null) {
+      this.folder = new File(folder);
+      FileUtilities.createDirectory(folder);
+    } else {
+      this.folder = null;
+    }
+  }
+
+  /**
+   * A hash of the content of the resource that doesn't depend on the format, or null if the
+   * outcome of validating the resource depends on where it is (see the class comment)
+   */
+  public static String contentHash(Element resource) {
+    return contentHash(resource, false);
+  }
+
+  /**
+   * @param contained true if the resource is being validated as a contained resource
+   */
+  public static String contentHash(Element resource, boolean contained) {
+    StringBuilder b = new StringBuilder();
+    if (!canonicalise(b, resource, null, contained)) {
+      return null;
+    }
+    return sha256(b.toString());
+  }
+
+  private static boolean canonicalise(StringBuilder b, Element e, Element parent, boolean contained) {
+    b.append(e.getName());
+    if (e.isResource()) {
+      b.append('(').append(e.fhirType()).append(')');
+    }
+    if (e.getValue() != null) {
+      if ("reference".equals(e.getName()) && parent != null && "Reference".equals(parent.fhirType()) && (contained || !e.getValue().startsWith("#"))) {
+        return false;
+      }
+      b.append('=').append(e.getValue().length()).append(':').append(e.getValue());
+    }
+    if (e.hasComments()) {
+      for (String c : e.getComments()) {
+        b.append("/*").append(c.length()).append(':').append(c);
+      }
+    }
+    if (e.hasChildren()) {
+      b.append('{');
+      for (Element child : e.getChildren()) {
+        if (!canonicalise(b, child, e, contained)) {
+          return false;
+        }
+        b.append(';');
+      }
+      b.append('}');
+    }
+    return true;
+  }
+
+  /**
+   * A hash of the profile and the definitions that validating against it uses: the base definition,
+   * the types, profiles and target profiles in the snapshot, the value sets in the bindings, and the 
+   * code systems and value sets those include, and so on for each of them. A definition that's 
+   * changed, or a different one with the same url, makes a different hash.
+   * <p>
+   * The hash of each definition's own content is worked out once and kept on it (definitions aren't 
+   * changed once they're in the context), but the dependencies are looked up each time, so callers
+   * should keep the result for as long as the context doesn't change (e.g. one validation).
+   */
+  public static String profileHash(IWorkerContext context, StructureDefinition profile) {
+    StringBuilder b = new StringBuilder();
+    Set<String> done = new HashSet<>();
+    List<CanonicalResource> queue = new ArrayList<>();
+    queue.add(profile);
+    done.add(profile.getVersionedUrl()+"|"+System.identityHashCode(profile));
+    for (int i = 0; i < queue.size(); i++) {
+      CanonicalResource cr = queue.get(i);
+      b.append(cr.fhirType()).append('|').append(cr.getVersionedUrl()).append('|').append(resourceHash(cr)).append(';');
+      if (cr instanceof StructureDefinition) {
+        StructureDefinition sd = (StructureDefinition) cr;
+        see(context, b, done, queue, StructureDefinition.class, sd.getBaseDefinition());
+        for (ElementDefinition ed : sd.getSnapshot().getElement()) {
+          for (TypeRefComponent tr : ed.getType()) {
+            if (tr.hasCode()) {
+              see(context, b, done, queue, StructureDefinition.class, Utilities.isAbsoluteUrl(tr.getWorkingCode()) ? tr.getWorkingCode() : "http://hl7.org/fhir/StructureDefinition/"+tr.getWorkingCode());
+            }
+            for (CanonicalType ct : tr.getProfile()) {
+              see(context, b, done, queue, StructureDefinition.class, ct.getValue());
+            }
+            for (CanonicalType ct : tr.getTargetProfile()) {
+              see(context, b, done, queue, StructureDefinition.class, ct.getValue());
+            }
+          }
+          if (ed.hasBinding()) {
+            see(context, b, done, queue, ValueSet.class, ed.getBinding().getValueSet());
+          }
+        }
+      } else if (cr instanceof ValueSet) {
+        ValueSet vs = (ValueSet) cr;
+        for (ConceptSetComponent inc : vs.getCompose().getInclude()) {
+          seeSet(context, b, done, queue, inc);
+        }
+        for (ConceptSetComponent inc : vs.getCompose().getExclude()) {
+          seeSet(context, b, done, queue, inc);
+        }
+      }
+    }
+    return sha256(b.toString());
+  }
+
+  private static void seeSet(IWorkerContext context, StringBuilder b, Set<String> done, List<CanonicalResource> queue, ConceptSetComponent inc) {
+    if (inc.hasSystem()) {
+      see(context, b, done, queue, CodeSystem.class, inc.hasVersion() ? inc.getSystem()+"|"+inc.getVersion() : inc.getSystem());
+    }
+    for (CanonicalType ct : inc.getValueSet()) {
+      see(context, b, done, queue, ValueSet.class, ct.getValue());
+    }
+  }
+
+  private static <T extends CanonicalResource> void see(IWorkerContext context, StringBuilder b, Set<String> done, List<CanonicalResource> queue, Class<T> type, String url) {
+    if (url == null || !done.add(type.getSimpleName()+"|"+url)) {
+      return;
+    }
+    T cr = context.fetchResource(type, url);
+    if (cr == null) {
+      b.append(type.getSimpleName()).append('|').append(url).append("|-;");
+    } else if (done.add(cr.getVersionedUrl()+"|"+System.identityHashCode(cr))) {
+      queue.add(cr);
+    }
+  }
+
+  private static String resourceHash(CanonicalResource cr) {
+    String hash = cr.getUserString(UserDataNames.validator_outcome_cache_hash);
+    if (hash == null) {
+      try {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        hash = hex(md.digest(new org.hl7.fhir.r5.formats.JsonParser().composeBytes(cr)));
+      } catch (IOException | NoSuchAlgorithmException e) {
+        throw new FHIRException(e);
+      }
+      cr.setUserData(UserDataNames.validator_outcome_cache_hash, hash);
+    }
+    return hash;
+  }
+
+  /**
+   * @param contentHash from contentHash()
+   * @param profileHash from profileHash()
+   * @param settings the fingerprint of everything else that the outcome depends on (settings, packages, terminology server)
+   */
+  public String makeKey(String contentHash, String profileHash, String settings) {
+    return sha256(VERSION+"|"+contentHash+"|"+profileHash+"|"+settings);
+  }
+
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * @param maxAge how long an outcome on disk can be reused for, in milliseconds (default 1 day)
+   */
+  public void setMaxAge(long maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * @return the outcome, with the messages re-anchored to path, line and col, or null if there isn't one
+   */
+  public CachedOutcome get(String key, String path, int line, int col) {
+    StoredOutcome entry;
+    synchronized (memory) {
+      entry = memory.get(key);
+    }
+    if (entry == null && folder != null) {
+      entry = load(key);
+      if (entry != null) {
+        synchronized (memory) {
+          memory.put(key, entry);
+        }
+      }
+    }
+    synchronized (memory) {
+      if (entry == null) {
+        misses++;
+        return null;
+      }
+      hits++;
+    }
+    List<ValidationMessage> list = new ArrayList<>();
+    for (ValidationMessage vm : entry.messages) {
+      list.add(anchor(vm, path, line, col));
+    }
+    return new CachedOutcome(entry.valid, list);
+  }
+
+  /**
+   * Stores the outcome of validating the resource at path, if it can be reused
+   *
+   * @return true if the outcome was stored
+   */
+  public boolean put(String key, String path, boolean valid, List<ValidationMessage> messages) {
+    StoredOutcome entry = new StoredOutcome();
+    entry.valid = valid;
+    entry.messages = new ArrayList<>();
+    for (ValidationMessage vm : messages) {
+      ValidationMessage rel = relativise(vm, path);
+      if (rel == null) {
+        return false;
+      }
+      entry.messages.add(rel);
+    }
+    synchronized (memory) {
+      memory.put(key, entry);
+    }
+    if (folder != null) {
+      save(key, entry);
+    }
+    return true;
+  }
+
+  public int size() {
+    synchronized (memory) {
+      return memory.size();
+    }
+  }
+
+  public long getHits() {
+    synchronized (memory) {
+      return hits;
+    }
+  }
+
+  public long getMisses() {
+    synchronized (memory) {
+      return misses;
+    }
+  }
+
+  /**
+   * Clears the memory tier (but not the disk tier)
+   */
+  public void clear() {
+    synchronized (memory) {
+      memory.clear();
+    }
+  }
+
+  private ValidationMessage relativise(ValidationMessage vm, String path) {
+    if (vm.getLocation() == null || !vm.getLocation().startsWith(path)) {
+      return null;
+    }
+    ValidationMessage rel = copy(vm, vm.getLocation().substring(path.length()), 0, 0);
+    if (vm.hasSliceInfo()) {
+      List<ValidationMessage> info = new ArrayList<>();
+      for (ValidationMessage s : vm.getSliceInfo()) {
+        ValidationMessage r = relativise(s, path);
+        if (r == null) {
+          return null;
+        }
+        info.add(r);
+      }
+      rel.setSliceInfo(info);
+    }
+    return rel;
+  }
+
+  private ValidationMessage anchor(ValidationMessage vm, String path, int line, int col) {
+    ValidationMessage res = copy(vm, path + vm.getLocation(), line, col);
+    if (vm.hasSliceInfo()) {
+      List<ValidationMessage> info = new ArrayList<>();
+      for (ValidationMessage s : vm.getSliceInfo()) {
+        info.add(anchor(s, path, line, col));
+      }
+      res.setSliceInfo(info);
+    }
+    return res;
+  }
+
+  private ValidationMessage copy(ValidationMessage vm, String location, int line, int col) {
+    ValidationMessage res = new ValidationMessage(vm.getSource(), vm.getType(), line, col, location, vm.getMessage(), vm.getHtml(), vm.getLevel());
+    res.setMessageId(vm.getMessageId());
+    res.setServer(vm.getServer());
+    res.setTxLink(vm.getTxLink());
+    res.setLocationLink(vm.getLocationLink());
+    res.sliceHtml = vm.sliceHtml;
+    res.setSlicingHint(vm.isSlicingHint());
+    res.setSignpost(vm.isSignpost());
+    res.setCriticalSignpost(vm.isCriticalSignpost());
+    res.setRuleDate(vm.getRuleDate());
+    res.setIgnorableError(vm.isIgnorableError());
+    res.setInvId(vm.getInvId());
+    res.setComment(vm.getComment());
+    return res;
+  }
+
+  private StoredOutcome load(String key) {
+    File f = new File(folder, key + ".json");
+    if (!f.exists() || f.lastModified() < System.currentTimeMillis() - maxAge) {
+      return null;
+    }
+    try {
+      JsonObject json = JsonParser.parseObject(f);
+      StoredOutcome entry = new StoredOutcome();
+      entry.valid = json.asBoolean("valid");
+      entry.messages = new ArrayList<>();
+      for (JsonObject m : json.getJsonObjects("messages")) {
+        entry.messages.add(readMessage(m));
+      }
+      return entry;
+    } catch (Exception e) {
+      // a damaged entry is just a miss; it'll be replaced
+      log.warn("Unable to read validation outcome " + f.getAbsolutePath() + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  private void save(String key, StoredOutcome entry) {
+    JsonObject json = new JsonObject();
+    json.add("valid", entry.valid);
+    for (ValidationMessage vm : entry.messages) {
+      json.forceArray("messages").add(writeMessage(vm));
+    }
+    File f = new File(folder, key + ".json");
+    try {
+      FileUtilities.stringToFile(JsonParser.compose(json, false), f);
+    } catch (IOException e) {
+      log.warn("Unable to save validation outcome " + f.getAbsolutePath() + ": " + e.getMessage());
+    }
+  }
+
+  private JsonObject writeMessage(ValidationMessage vm) {
+    JsonObject json = new JsonObject();
+    json.add("location", vm.getLocation());
+    json.add("level", vm.getLevel().name());
+    json.add("type", vm.getType().name());
+    if (vm.getSource() != null) {
+      json.add("source", vm.getSource().name());
+    }
+    addIfPresent(json, "message", vm.getMessage());
+    addIfPresent(json, "messageId", vm.getMessageId());
+    addIfPresent(json, "html", vm.getHtml());
+    addIfPresent(json, "server", vm.getServer());
+    addIfPresent(json, "txLink", vm.getTxLink());
+    addIfPresent(json, "locationLink", vm.getLocationLink());
+    addIfPresent(json, "sliceHtml", vm.sliceHtml);
+    addIfPresent(json, "invId", vm.getInvId());
+    addIfPresent(json, "comment", vm.getComment());
+    if (vm.getRuleDate() != null) {
+      json.add("ruleDate", new SimpleDateFormat("yyyy-MM-dd").format(vm.getRuleDate()));
+    }
+    if (vm.isSlicingHint()) {
+      json.add("slicingHint", true);
+    }
+    if (vm.isSignpost()) {
+      json.add("signpost", true);
+    }
+    if (vm.isCriticalSignpost()) {
+      json.add("criticalSignpost", true);
+    }
+    if (vm.isIgnorableError()) {
+      json.add("ignorableError", true);
+    }
+    if (vm.hasSliceInfo()) {
+      for (ValidationMessage s : vm.getSliceInfo()) {
+        json.forceArray("sliceInfo").add(writeMessage(s));
+      }
+    }
+    return json;
+  }
+
+  private void addIfPresent(JsonObject json, String name, String value) {
+    if (value != null) {
+      json.add(name, value);
+    }
+  }
+
+  private ValidationMessage readMessage(JsonObject json) {
+    ValidationMessage vm = new ValidationMessage(json.has("source") ? Source.valueOf(json.asString("source")) : null, IssueType.valueOf(json.asString("type")),
+        0, 0, json.asString("location"), json.asString("message"), json.asString("html"), IssueSeverity.valueOf(json.asString("level")));
+    vm.setMessageId(json.asString("messageId"));
+    vm.setServer(json.asString("server"));
+    vm.setTxLink(json.asString("txLink"));
+    vm.setLocationLink(json.asString("locationLink"));
+    vm.sliceHtml = json.asString("sliceHtml");
+    vm.setInvId(json.asString("invId"));
+    vm.setComment(json.asString("comment"));
+    vm.setRuleDate(json.asString("ruleDate"));
+    vm.setSlicingHint(json.asBoolean("slicingHint"));
+    vm.setSignpost(json.asBoolean("signpost"));
+    vm.setCriticalSignpost(json.asBoolean("criticalSignpost"));
+    vm.setIgnorableError(json.asBoolean("ignorableError"));
+    if (json.has("sliceInfo")) {
+      List<ValidationMessage> info = new ArrayList<>();
+      for (JsonObject s : json.getJsonObjects("sliceInfo")) {
+        info.add(readMessage(s));
+      }
+      vm.setSliceInfo(info);
+    }
+    return vm;
+  }
+
+  private static String sha256(String s) {
+    byte[] h;
+    try {
+      h = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new FHIRException(e);
+    }
+    return hex(h);
+  }
+
+  private static String hex(byte[] h) {
+    StringBuilder b = new StringBuilder();
+    for (byte v : h) {
+      b.append(Character.forDigit((v >> 4) & 0xF, 16)).append(Character.forDigit(v & 0xF, 16));
+    }
+    return b.toString();
+  }
+}
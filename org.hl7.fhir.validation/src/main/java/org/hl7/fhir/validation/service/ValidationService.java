@@ -26,7 +26,9 @@ import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.conformance.profile.ProfileUtilities;
 import org.hl7.fhir.r5.context.ContextUtilities;
 import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.context.SnapshotCache;
 import org.hl7.fhir.r5.context.Slf4JLoggingService;
+import org.hl7.fhir.r5.context.WorkerContextImage;
 import org.hl7.fhir.r5.elementmodel.Element;
 import org.hl7.fhir.r5.elementmodel.LanguageUtils;
 import org.hl7.fhir.r5.elementmodel.Manager;
@@ -578,13 +580,33 @@ public class ValidationService {
   @Nonnull
   protected ValidationEngine buildValidationEngine(ValidationContext validationContext, String definitions, TimeTracker timeTracker) throws IOException, URISyntaxException {
     log.info("  Loading FHIR v" + validationContext.getSv() + " from " + definitions);
-    ValidationEngine validationEngine = getValidationEngineBuilder().withVersion(validationContext.getSv()).withTimeTracker(timeTracker)
+    File contextImage = contextImageFile(validationContext, definitions);
+    boolean hasContextImage = contextImage != null && contextImage.exists();
+    if (hasContextImage) {
+      log.info("  Using context image " + contextImage.getAbsolutePath());
+    }
+    ValidationEngine.ValidationEngineBuilder builder = getValidationEngineBuilder().withVersion(validationContext.getSv()).withTimeTracker(timeTracker)
         .withUserAgent(Common.getValidatorUserAgent()).withThoVersion(Constants.THO_WORKING_VERSION)
-        .withExtensionsVersion(Constants.EXTENSIONS_WORKING_VERSION).fromSource(definitions);
+        .withExtensionsVersion(Constants.EXTENSIONS_WORKING_VERSION);
+    if (hasContextImage) {
+      builder = builder.withContextImage(contextImage.getAbsolutePath());
+    }
+    ValidationEngine validationEngine = builder.fromSource(definitions);
 
     log.info("  Loaded FHIR - " + validationEngine.getContext().countAllCaches() + " resources (" + timeTracker.milestone() + ")");
+    if (validationContext.isSnapshotCache()) {
+      SnapshotCache snapshotCache = new SnapshotCache(validationEngine.getPcm().getFolder());
+      validationEngine.getContext().setSnapshotCache(snapshotCache);
+      log.info("  Snapshot Cache at " + snapshotCache.getFolder().getAbsolutePath());
+    }
 
-    loadIgsAndExtensions(validationEngine, validationContext, timeTracker);
+    if (hasContextImage) {
+      // the image already holds everything the packages would load
+      setTerminologyServer(validationEngine, validationContext, timeTracker);
+      log.info("  Package Summary: "+ validationEngine.getContext().loadedPackageSummary());
+    } else {
+      loadIgsAndExtensions(validationEngine, validationContext, timeTracker);
+    }
     if (validationContext.getTxCache() != null) {
       TerminologyCache cache = new TerminologyCache(new Object(), validationContext.getTxCache());
       validationEngine.getContext().initTxCache(cache);
@@ -630,6 +652,7 @@ public class ValidationService {
     validationEngine.setShowMessageIds(validationContext.isShowMessageIds());
     validationEngine.setForPublication(validationContext.isForPublication());
     validationEngine.setShowTimes(validationContext.isShowTimes());
+    validationEngine.setThreads(validationContext.getThreads());
     validationEngine.setAllowExampleUrls(validationContext.isAllowExampleUrls());
     validationEngine.setAiService(validationContext.getAIService());
     validationEngine.setR5BundleRelativeReferencePolicy(validationContext.getR5BundleRelativeReferencePolicy());
@@ -663,28 +686,70 @@ public class ValidationService {
     validationEngine.setJurisdiction(CodeSystemUtilities.readCoding(validationContext.getJurisdiction()));
     validationEngine.setUnknownCodeSystemsCauseErrors(validationContext.isUnknownCodeSystemsCauseErrors());
     validationEngine.setNoExperimentalContent(validationContext.isNoExperimentalContent());
+    validationEngine.setPrefetchTerminology(validationContext.isPrefetchTerminology());
     TerminologyCache.setNoCaching(validationContext.isNoInternalCaching());
-    validationEngine.prepare(); // generate any missing snapshots
+    if (!hasContextImage) {
+      validationEngine.prepare(); // generate any missing snapshots. An image has them already, and this would load every structure in it
+    }
+    if (contextImage != null && !hasContextImage) {
+      try {
+        FileUtilities.createDirectory(contextImage.getParent());
+        validationEngine.getContext().saveImage(contextImage);
+        log.info("  Saved context image " + contextImage.getAbsolutePath() + " (" + timeTracker.milestone() + ")");
+      } catch (IOException e) {
+        log.warn("  Unable to save context image " + contextImage.getAbsolutePath() + ": " + e.getMessage());
+      }
+    }
     log.info("  ...go! (" + timeTracker.milestone() + ")");
     return validationEngine;
   }
 
+  /**
+   * The context image can only be used if the packages that will be loaded are fully determined by the
+   * parameters, so every IG must be a package id with an explicit (and non-moving) version
+   *
+   * @return the image file for these parameters, or null if there is no context image folder, or it can't be used
+   */
+  protected File contextImageFile(ValidationContext validationContext, String definitions) throws IOException {
+    if (validationContext.getContextImage() == null || validationContext.getSv() == null) {
+      return null;
+    }
+    List<String> key = new ArrayList<>();
+    key.add(definitions);
+    key.add("sv:" + validationContext.getSv());
+    key.add("tho:" + Constants.THO_WORKING_VERSION);
+    key.add("ext:" + Constants.EXTENSIONS_WORKING_VERSION);
+    for (String ig : validationContext.getIgs()) {
+      if (!ig.matches(FilesystemPackageCacheManager.PACKAGE_VERSION_REGEX) || Utilities.existsInList(ig.substring(ig.indexOf("#") + 1), "current", "dev")
+          || ManagedFileAccess.file(ig).exists()) {
+        log.info("  Not using a context image, because the IG " + ig + " is not a package with a fixed version");
+        return null;
+      }
+      key.add(ig);
+    }
+    return WorkerContextImage.imageFile(validationContext.getContextImage(), key);
+  }
+
   protected void loadIgsAndExtensions(ValidationEngine validationEngine, ValidationContext validationContext, TimeTracker timeTracker) throws IOException, URISyntaxException {
-    FhirPublication ver = FhirPublication.fromCode(validationContext.getSv());
     IgLoader igLoader = new IgLoader(validationEngine.getPcm(), validationEngine.getContext(), validationEngine.getVersion(), validationEngine.isDebug());
     igLoader.loadIg(validationEngine.getIgs(), validationEngine.getBinaries(), "hl7.terminology", false);
     if (!VersionUtilities.isR5Ver(validationEngine.getContext().getVersion())) {
       igLoader.loadIg(validationEngine.getIgs(), validationEngine.getBinaries(), "hl7.fhir.uv.extensions", false);
     }
+    setTerminologyServer(validationEngine, validationContext, timeTracker);
+    for (String src : validationContext.getIgs()) {
+      igLoader.loadIg(validationEngine.getIgs(), validationEngine.getBinaries(), src, validationContext.isRecursive());
+    }
+    log.info("  Package Summary: "+ validationEngine.getContext().loadedPackageSummary());
+  }
+
+  private void setTerminologyServer(ValidationEngine validationEngine, ValidationContext validationContext, TimeTracker timeTracker) throws IOException, URISyntaxException {
+    FhirPublication ver = FhirPublication.fromCode(validationContext.getSv());
     final String lineStart = "  Terminology server " + validationContext.getTxServer();
     final String txver = validationEngine.setTerminologyServer(validationContext.getTxServer(), validationContext.getTxLog(), ver, !validationContext.getNoEcosystem());
     log.info(lineStart + " - Version " + txver + " (" + timeTracker.milestone() + ")");
     validationEngine.setDebug(validationContext.isDoDebug());
     validationEngine.getContext().setLogger(new Slf4JLoggingService(log));
-    for (String src : validationContext.getIgs()) {
-      igLoader.loadIg(validationEngine.getIgs(), validationEngine.getBinaries(), src, validationContext.isRecursive());
-    }
-    log.info("  Package Summary: "+ validationEngine.getContext().loadedPackageSummary());
   }
 
   public String determineVersion(ValidationContext validationContext) throws IOException {
@@ -2,7 +2,7 @@ package org.hl7.fhir.validation.service;
 
 public enum ValidatorWatchMode {
   NONE,   // just stop when validation is done
-  SINGLE, // when validation is done, watch the content that was validated, and revalidate anything that changes
+  SINGLE, // when validation is done, watch the content that was validated, and revalidate anything that changes (and anything that uses the profiles, value sets and code systems it defines)
   ALL     // when validation is done, watch the content that was validated, and revalidate everything if anything changes
 
 }
@@ -155,6 +155,10 @@ public class ValidationContext {
   @SerializedName("txCache")
   private
   String txCache = null;
+  @JsonProperty("contextImage")
+  @SerializedName("contextImage")
+  private
+  String contextImage = null;
   @JsonProperty("mapLog")
   @SerializedName("mapLog")
   private
@@ -272,6 +276,11 @@ public class ValidationContext {
   private
   boolean clearTxCache = false;
 
+  @JsonProperty("snapshotCache")
+  @SerializedName("snapshotCache")
+  private
+  boolean snapshotCache = false;
+
   @JsonProperty("locale")
   @SerializedName("locale")
   private
@@ -325,6 +334,11 @@ public class ValidationContext {
   private
   int watchSettleTime = 100;
 
+  @JsonProperty("threads")
+  @SerializedName("threads")
+  private
+  int threads = 1;
+
   @JsonProperty("bestPracticeLevel")
   @SerializedName("bestPracticeLevel")
   private
@@ -340,6 +354,11 @@ public class ValidationContext {
   private
   boolean noExperimentalContent;
 
+  @JsonProperty("prefetchTerminology")
+  @SerializedName("prefetchTerminology")
+  private
+  boolean prefetchTerminology;
+
   @JsonProperty("advisorFile")
   @SerializedName("advisorFile")
   private
@@ -864,6 +883,19 @@ public class ValidationContext {
     return this;
   }
 
+  @SerializedName("contextImage")
+  @JsonProperty("contextImage")
+  public String getContextImage() {
+    return contextImage;
+  }
+
+  @SerializedName("contextImage")
+  @JsonProperty("contextImage")
+  public ValidationContext setContextImage(String contextImage) {
+    this.contextImage = contextImage;
+    return this;
+  }
+
   @SerializedName("mapLog")
   @JsonProperty("mapLog")
   public String getMapLog() {
@@ -1158,6 +1190,14 @@ public class ValidationContext {
     this.clearTxCache = clearTxCache;
   }
 
+  public boolean isSnapshotCache() {
+    return snapshotCache;
+  }
+
+  public void setSnapshotCache(boolean snapshotCache) {
+    this.snapshotCache = snapshotCache;
+  }
+
   public String getOutputStyle() {
     return outputStyle;
   }
@@ -1231,6 +1271,7 @@ public class ValidationContext {
       Objects.equals(sv, that.sv) &&
       Objects.equals(txLog, that.txLog) &&
       Objects.equals(txCache, that.txCache) &&
+      Objects.equals(contextImage, that.contextImage) &&
       Objects.equals(mapLog, that.mapLog) &&
       Objects.equals(lang, that.lang) &&
       Objects.equals(srcLang, that.srcLang) &&
@@ -1261,18 +1302,20 @@ public class ValidationContext {
       Objects.equals(watchScanDelay, that.watchScanDelay) &&
       Objects.equals(unknownCodeSystemsCauseErrors, that.unknownCodeSystemsCauseErrors) &&
       Objects.equals(noExperimentalContent, that.noExperimentalContent) &&
+      Objects.equals(prefetchTerminology, that.prefetchTerminology) &&
       Objects.equals(advisorFile, that.advisorFile) &&
       Objects.equals(expansionParameters, that.expansionParameters) &&
       Objects.equals(format, that.format) &&
-      Objects.equals(watchSettleTime, that.watchSettleTime);
+      Objects.equals(watchSettleTime, that.watchSettleTime) &&
+      Objects.equals(threads, that.threads);
   }
 
   @Override
   public int hashCode() {
     return Objects.hash(baseEngine, doNative, extensions, hintAboutNonMustSupport, recursive, doDebug, assumeValidRestReferences, checkReferences,canDoNative, noInternalCaching, resolutionContext, aiService,
-      noExtensibleBindingMessages, noInvariants, displayWarnings, wantInvariantsInMessages, map, output, outputSuffix, htmlOutput, txServer, sv, txLog, txCache, mapLog, lang, srcLang, tgtLang, fhirpath, snomedCT,
+      noExtensibleBindingMessages, noInvariants, displayWarnings, wantInvariantsInMessages, map, output, outputSuffix, htmlOutput, txServer, sv, txLog, txCache, contextImage, mapLog, lang, srcLang, tgtLang, fhirpath, snomedCT,
       targetVer, packageName, igs, questionnaireMode, level, profiles, options, sources, inputs, mode, locale, locations, crumbTrails, showMessageIds, forPublication, showTimes, allowExampleUrls, outputStyle, jurisdiction, noUnicodeBiDiControlChars,
-      watchMode, watchScanDelay, watchSettleTime, bestPracticeLevel, unknownCodeSystemsCauseErrors, noExperimentalContent, advisorFile, expansionParameters, format, htmlInMarkdownCheck, allowDoubleQuotesInFHIRPath, checkIPSCodes);
+      watchMode, watchScanDelay, watchSettleTime, threads, bestPracticeLevel, unknownCodeSystemsCauseErrors, noExperimentalContent, prefetchTerminology, advisorFile, expansionParameters, format, htmlInMarkdownCheck, allowDoubleQuotesInFHIRPath, checkIPSCodes);
   }
 
   @Override
@@ -1301,6 +1344,7 @@ public class ValidationContext {
       ", sv='" + sv + '\'' +
       ", txLog='" + txLog + '\'' +
       ", txCache='" + txCache + '\'' +
+      ", contextImage='" + contextImage + '\'' +
       ", mapLog='" + mapLog + '\'' +
       ", resolutionContext='" + resolutionContext + '\'' +
       ", lang='" + lang + '\'' +
@@ -1337,8 +1381,10 @@ public class ValidationContext {
       ", bestPracticeLevel=" + bestPracticeLevel +
       ", watchSettleTime=" + watchSettleTime +
       ", watchScanDelay=" + watchScanDelay +
+      ", threads=" + threads +
       ", unknownCodeSystemsCauseErrors=" + unknownCodeSystemsCauseErrors +
       ", noExperimentalContent=" + noExperimentalContent +
+      ", prefetchTerminology=" + prefetchTerminology +
       ", advisorFile=" + advisorFile +
       ", expansionParameters=" + expansionParameters +
       ", format=" + format +
@@ -1395,6 +1441,19 @@ public class ValidationContext {
     this.watchSettleTime = watchSettleTime;
   }
 
+  @SerializedName("threads")
+  @JsonProperty("threads")
+  public int getThreads() {
+    return threads;
+  }
+
+  @SerializedName("threads")
+  @JsonProperty("threads")
+  public ValidationContext setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
 
   @SerializedName("bestPracticeLevel")
   @JsonProperty("bestPracticeLevel")
@@ -1436,6 +1495,19 @@ public class ValidationContext {
     this.noExperimentalContent = noExperimentalContent;
   }
 
+  @SerializedName("prefetchTerminology")
+  @JsonProperty("prefetchTerminology")
+  public boolean isPrefetchTerminology() {
+    return prefetchTerminology;
+  }
+
+  @SerializedName("prefetchTerminology")
+  @JsonProperty("prefetchTerminology")
+  public ValidationContext setPrefetchTerminology(boolean prefetchTerminology) {
+    this.prefetchTerminology = prefetchTerminology;
+    return this;
+  }
+
   @SerializedName("advisorFile")
   @JsonProperty("advisorFile")
   public String getAdvisorFile() {
@@ -0,0 +1,21 @@
+package org.hl7.fhir.validation;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.hl7.fhir.validation.ValidatorUtils.SourceFile;
+import org.junit.jupiter.api.Test;
+
+public class ValidatorUtilsTests {
+
+  @Test
+  public void testSourceFileHash() {
+    SourceFile src = new SourceFile();
+    assertTrue(src.updateHash("{\"resourceType\":\"Patient\"}".getBytes(StandardCharsets.UTF_8)));
+    assertFalse(src.updateHash("{\"resourceType\":\"Patient\"}".getBytes(StandardCharsets.UTF_8)));
+    assertTrue(src.updateHash("{\"resourceType\":\"Patient\",\"id\":\"1\"}".getBytes(StandardCharsets.UTF_8)));
+    assertFalse(src.updateHash("{\"resourceType\":\"Patient\",\"id\":\"1\"}".getBytes(StandardCharsets.UTF_8)));
+  }
+}
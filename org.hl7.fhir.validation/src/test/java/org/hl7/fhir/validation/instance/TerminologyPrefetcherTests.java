@@ -0,0 +1,240 @@
+package org.hl7.fhir.validation.instance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.elementmodel.Property;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.CapabilityStatement;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.ElementDefinition;
+import org.hl7.fhir.r5.model.Enumerations.BindingStrength;
+import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.StructureDefinition.StructureDefinitionKind;
+import org.hl7.fhir.r5.model.TerminologyCapabilities;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.terminologies.client.ITerminologyClient;
+import org.hl7.fhir.r5.terminologies.client.TerminologyClientContext;
+import org.hl7.fhir.r5.terminologies.client.TerminologyClientR5.TerminologyClientR5Factory;
+import org.hl7.fhir.r5.terminologies.utilities.CodingValidationRequest;
+import org.hl7.fhir.r5.terminologies.utilities.TerminologyCache;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.utilities.validation.ValidationOptions;
+import org.hl7.fhir.validation.ValidatorSettings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class TerminologyPrefetcherTests {
+
+  private IWorkerContext context;
+  private InstanceValidator validator;
+  private StructureDefinition sd;
+  private ValueSet vs;
+
+  @BeforeEach
+  public void setUp() {
+    context = mock(IWorkerContext.class);
+    when(context.getLocale()).thenReturn(Locale.KOREA);
+    when(context.getVersion()).thenReturn("5.0.1");
+    validator = new InstanceValidator(context, null, null, null, new ValidatorSettings());
+
+    vs = new ValueSet();
+    vs.setId("vs1");
+    vs.setUrl("http://example.org/ValueSet/vs1");
+    sd = new StructureDefinition();
+    sd.setUrl("http://hl7.org/fhir/StructureDefinition/Observation");
+    sd.setKind(StructureDefinitionKind.RESOURCE);
+    sd.addContained(vs);
+  }
+
+  private Property property(String path, String type, BindingStrength strength) {
+    ElementDefinition ed = new ElementDefinition(path);
+    if (type != null) {
+      ed.addType().setCode(type);
+    }
+    if (strength != null) {
+      ed.getBinding().setStrength(strength).setValueSet("#vs1");
+    }
+    return new Property(context, ed, sd);
+  }
+
+  private Element coding(String system, String code) {
+    Element coding = new Element("coding", property("CodeableConcept.coding", "Coding", null), "Coding", null);
+    coding.getChildren().add(new Element("system", property("Coding.system", "uri", null), "uri", system));
+    coding.getChildren().add(new Element("code", property("Coding.code", "code", null), "code", code));
+    return coding;
+  }
+
+  private Element observation(String language) {
+    Element obs = new Element("Observation", property("Observation", null, null), "Observation", null);
+    if (language != null) {
+      obs.getChildren().add(new Element("language", property("Observation.language", "code", null), "code", language));
+    }
+    Element code = new Element("code", property("Observation.code", "CodeableConcept", BindingStrength.REQUIRED), "CodeableConcept", null);
+    code.getChildren().add(coding("http://loinc.org", "1234-5"));
+    obs.getChildren().add(code);
+    Element category = new Element("category", property("Observation.category", "CodeableConcept", BindingStrength.EXAMPLE), "CodeableConcept", null);
+    category.getChildren().add(coding("http://example.org/cat", "lab"));
+    obs.getChildren().add(category);
+    // no codings, so nothing to check
+    obs.getChildren().add(new Element("valueCodeableConcept", property("Observation.value[x]", "CodeableConcept", BindingStrength.REQUIRED), "CodeableConcept", null));
+    return obs;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testPrefetch() {
+    when(context.prefetchValidateCode(any(), anyList())).thenReturn(1);
+
+    assertEquals(1, new TerminologyPrefetcher(validator, context, validator.getSettings()).prefetch(observation("fr-CA")));
+
+    ArgumentCaptor<ValidationOptions> options = ArgumentCaptor.forClass(ValidationOptions.class);
+    ArgumentCaptor<List<CodingValidationRequest>> requests = ArgumentCaptor.forClass(List.class);
+    verify(context, times(1)).prefetchValidateCode(options.capture(), requests.capture());
+    assertEquals("fr-CA", options.getValue().getLanguages().getSource());
+
+    List<CodingValidationRequest> list = requests.getValue();
+    // the required binding is checked against the value set. The example binding isn't, and what the 
+    // validator does with it depends on the profiles, so it isn't prefetched
+    assertEquals(1, list.size());
+    assertTrue(list.get(0).hasCodeableConcept());
+    assertEquals("1234-5", list.get(0).getCodeableConcept().getCodingFirstRep().getCode());
+    assertSame(vs, list.get(0).getVsObj());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testCodingDisplay() {
+    when(context.supportsSystem(any(), any())).thenReturn(true);
+    Element obs = new Element("Observation", property("Observation", null, null), "Observation", null);
+    Element coding = new Element("coding", property("Observation.extension.value[x]", "Coding", null), "Coding", null);
+    coding.getChildren().add(new Element("system", property("Coding.system", "uri", null), "uri", "http://loinc.org"));
+    coding.getChildren().add(new Element("code", property("Coding.code", "code", null), "code", "1234-5"));
+    coding.getChildren().add(new Element("display", property("Coding.display", "string", null), "string", "Test"));
+    obs.getChildren().add(coding);
+    // unbound codings in a CodeableConcept aren't prefetched 
+    Element cc = new Element("code", property("Observation.code", "CodeableConcept", null), "CodeableConcept", null);
+    cc.getChildren().add(coding("http://loinc.org", "1234-6"));
+    obs.getChildren().add(cc);
+
+    new TerminologyPrefetcher(validator, context, validator.getSettings()).prefetch(obs);
+
+    ArgumentCaptor<List<CodingValidationRequest>> requests = ArgumentCaptor.forClass(List.class);
+    verify(context).prefetchValidateCode(any(), requests.capture());
+    // the same as checkCodeOnServer(), which passes the display when checkDisplay is true
+    assertEquals(1, requests.getValue().size());
+    Coding c = requests.getValue().get(0).getCoding();
+    assertEquals("1234-5", c.getCode());
+    assertEquals("Test", c.getDisplay());
+    assertNull(requests.getValue().get(0).getVsObj());
+  }
+
+  @Test
+  public void testValidatorUsesPrefetchedResults() throws Exception {
+    String json = "{\"resourceType\":\"Condition\",\"id\":\"c1\","
+        + "\"clinicalStatus\":{\"coding\":[{\"system\":\"http://terminology.hl7.org/CodeSystem/condition-clinical\",\"code\":\"active\"}]},"
+        + "\"severity\":{\"coding\":[{\"system\":\"http://snomed.info/sct\",\"code\":\"24484000\",\"display\":\"Severe\"}]},"
+        + "\"subject\":{\"reference\":\"Patient/p1\"}}";
+
+    // one at a time: Condition.severity is bound to a value set with SNOMED CT codes, so it goes to the server
+    ITerminologyClient client = terminologyClient();
+    InstanceValidator plain = new InstanceValidator(connectedContext(client), null, null, null, new ValidatorSettings());
+    List<ValidationMessage> expected = new ArrayList<>();
+    plain.validate(null, expected, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+    verify(client, atLeastOnce()).validateVS(any());
+    verify(client, never()).validateBatch(any());
+
+    // prefetched: the same question is asked in a batch first, and the validator takes the answer from there 
+    client = terminologyClient();
+    InstanceValidator prefetching = new InstanceValidator(connectedContext(client), null, null, null, new ValidatorSettings());
+    prefetching.setPrefetchTerminology(true);
+    List<ValidationMessage> actual = new ArrayList<>();
+    prefetching.validate(null, actual, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+    ArgumentCaptor<Bundle> batch = ArgumentCaptor.forClass(Bundle.class);
+    verify(client, times(1)).validateBatch(batch.capture());
+    verify(client, never()).validateVS(any());
+    verify(client, never()).validateCS(any());
+    assertEquals(1, batch.getValue().getEntry().size());
+    assertEquals("ValueSet/$validate-code", batch.getValue().getEntryFirstRep().getRequest().getUrl());
+
+    assertEquals(messages(expected), messages(actual));
+  }
+
+  private ITerminologyClient terminologyClient() {
+    ITerminologyClient client = mock(ITerminologyClient.class);
+    when(client.getAddress()).thenReturn("http://tx.example.org/r5");
+    when(client.getCapabilitiesStatement()).thenReturn(new CapabilityStatement());
+    when(client.getTerminologyCapabilities()).thenReturn(new TerminologyCapabilities());
+    when(client.validateVS(any())).thenAnswer(i -> answer());
+    when(client.validateBatch(any())).thenAnswer(i -> {
+      Bundle resp = new Bundle();
+      for (int e = 0; e < ((Bundle) i.getArgument(0)).getEntry().size(); e++) {
+        resp.addEntry().setResource(answer());
+      }
+      return resp;
+    });
+    return client;
+  }
+
+  private Parameters answer() {
+    Parameters p = new Parameters();
+    p.addParameter("result", true);
+    p.addParameter("display", "Severe");
+    return p;
+  }
+
+  private SimpleWorkerContext connectedContext(ITerminologyClient client) throws IOException {
+    SimpleWorkerContext context = new SimpleWorkerContext(TestingUtilities.getSharedWorkerContext());
+    context.initTxCache(new TerminologyCache(new Object(), "n/a"));
+    context.setNoTerminologyServer(false);
+    TerminologyClientContext.setAllowNonConformantServers(true);
+    context.connectToTSServer(new TerminologyClientR5Factory(), client, false);
+    return context;
+  }
+
+  private List<String> messages(List<ValidationMessage> messages) {
+    List<String> res = new ArrayList<>();
+    for (ValidationMessage vm : messages) {
+      res.add(vm.getLevel()+" "+vm.getLocation()+" "+vm.getMessage());
+    }
+    return res;
+  }
+
+  @Test
+  public void testLanguage() {
+    TerminologyPrefetcher prefetcher = new TerminologyPrefetcher(validator, context, validator.getSettings());
+    prefetcher.walk(observation(null), null, null);
+    assertEquals(1, prefetcher.getRequestCount());
+    assertFalse(prefetcher.prefetch(new Element("Observation", property("Observation", null, null), "Observation", null)) > 0);
+
+    // no language on the resource, so the context locale
+    ArgumentCaptor<ValidationOptions> options = ArgumentCaptor.forClass(ValidationOptions.class);
+    verify(context).prefetchValidateCode(options.capture(), anyList());
+    assertEquals("ko-KR", options.getValue().getLanguages().getSource());
+  }
+}
@@ -0,0 +1,279 @@
+package org.hl7.fhir.validation.instance.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.r5.context.SimpleWorkerContext;
+import org.hl7.fhir.r5.context.SimpleWorkerContext.SimpleWorkerContextBuilder;
+import org.hl7.fhir.r5.elementmodel.Element;
+import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.elementmodel.Property;
+import org.hl7.fhir.r5.model.CodeSystem;
+import org.hl7.fhir.r5.model.Enumerations.BindingStrength;
+import org.hl7.fhir.r5.model.StructureDefinition;
+import org.hl7.fhir.r5.model.ValueSet;
+import org.hl7.fhir.r5.test.utils.TestingUtilities;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
+import org.hl7.fhir.utilities.validation.ValidationMessage.Source;
+import org.hl7.fhir.validation.ValidatorSettings;
+import org.hl7.fhir.validation.instance.InstanceValidator;
+import org.junit.jupiter.api.Test;
+
+public class ValidationOutcomeCacheTests {
+
+  private static final String PATH1 = "Bundle.entry[0].resource/*Practitioner/p1*/";
+  private static final String PATH2 = "Bundle.entry[7].resource/*Practitioner/p1*/";
+
+  private final Property property = mock(Property.class);
+
+  private Element practitioner(String family, int line, String reference) {
+    Element res = new Element("Practitioner", property, "Practitioner", null);
+    res.markLocation(line, 1);
+    res.getChildren().add(new Element("id", property, "id", "p1"));
+    Element name = new Element("name", property, "HumanName", null);
+    name.getChildren().add(new Element("family", property, "string", family));
+    res.getChildren().add(name);
+    if (reference != null) {
+      Element org = new Element("organization", property, "Reference", null);
+      org.getChildren().add(new Element("reference", property, "string", reference));
+      res.getChildren().add(org);
+    }
+    return res;
+  }
+
+  private StructureDefinition profile() {
+    StructureDefinition sd = new StructureDefinition();
+    sd.setUrl("http://example.org/StructureDefinition/pract");
+    sd.setVersion("1.0.0");
+    sd.getSnapshot().addElement().setPath("Practitioner.gender").getBinding().setStrength(BindingStrength.REQUIRED).setValueSet("http://example.org/ValueSet/gender");
+    return sd;
+  }
+
+  private CodeSystem codeSystem(String... codes) {
+    CodeSystem cs = new CodeSystem();
+    cs.setUrl("http://example.org/CodeSystem/gender");
+    cs.setVersion("1.0.0");
+    for (String code : codes) {
+      cs.addConcept().setCode(code);
+    }
+    return cs;
+  }
+
+  private ValueSet valueSet() {
+    ValueSet vs = new ValueSet();
+    vs.setUrl("http://example.org/ValueSet/gender");
+    vs.setVersion("1.0.0");
+    vs.getCompose().addInclude().setSystem("http://example.org/CodeSystem/gender");
+    return vs;
+  }
+
+  private List<String> summary(List<ValidationMessage> messages) {
+    List<String> res = new ArrayList<>();
+    for (ValidationMessage vm : messages) {
+      res.add(vm.getLevel()+" "+vm.getLocation()+" "+vm.getMessageId()+" "+vm.getMessage());
+    }
+    return res;
+  }
+
+  private boolean isValid(List<ValidationMessage> messages) {
+    for (ValidationMessage vm : messages) {
+      if (vm.isError()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private List<ValidationMessage> messages(String path) {
+    List<ValidationMessage> list = new ArrayList<>();
+    list.add(new ValidationMessage(Source.InstanceValidator, IssueType.INVALID, 3, 5, path + ".name[0].family", "Bad name", IssueSeverity.ERROR).setMessageId("BAD_NAME").setRuleDate("2024-01-01"));
+    list.add(new ValidationMessage(Source.InstanceValidator, IssueType.INFORMATIONAL, 2, 1, path, "Just so you know", IssueSeverity.INFORMATION));
+    return list;
+  }
+
+  @Test
+  public void testContentHash() {
+    String h = ValidationOutcomeCache.contentHash(practitioner("Smith", 1, null));
+    assertNotNull(h);
+    // where it is in the source doesn't matter; what it contains does
+    assertEquals(h, ValidationOutcomeCache.contentHash(practitioner("Smith", 100, null)));
+    assertNotEquals(h, ValidationOutcomeCache.contentHash(practitioner("Smyth", 1, null)));
+    // references to contained resources are part of the content; other references depend on where the resource is
+    assertNotNull(ValidationOutcomeCache.contentHash(practitioner("Smith", 1, "#org")));
+    assertNull(ValidationOutcomeCache.contentHash(practitioner("Smith", 1, "Organization/o1")));
+    // but in a contained resource, #x is a sibling in the container, which isn't part of the content
+    assertNull(ValidationOutcomeCache.contentHash(practitioner("Smith", 1, "#org"), true));
+    assertNotNull(ValidationOutcomeCache.contentHash(practitioner("Smith", 1, null), true));
+  }
+
+  @Test
+  public void testReanchoring() throws IOException {
+    ValidationOutcomeCache cache = new ValidationOutcomeCache(10, null);
+    String key = cache.makeKey(ValidationOutcomeCache.contentHash(practitioner("Smith", 1, null)), "profile", "settings");
+    assertNull(cache.get(key, PATH2, 40, 7));
+    assertTrue(cache.put(key, PATH1, false, messages(PATH1)));
+
+    ValidationOutcomeCache.CachedOutcome outcome = cache.get(key, PATH2, 40, 7);
+    assertNotNull(outcome);
+    assertFalse(outcome.isValid());
+    assertEquals(2, outcome.getMessages().size());
+    ValidationMessage vm = outcome.getMessages().get(0);
+    assertEquals(PATH2 + ".name[0].family", vm.getLocation());
+    assertEquals(40, vm.getLine());
+    assertEquals(7, vm.getCol());
+    assertEquals("Bad name", vm.getMessage());
+    assertEquals("BAD_NAME", vm.getMessageId());
+    assertEquals(IssueSeverity.ERROR, vm.getLevel());
+    assertEquals(PATH2, outcome.getMessages().get(1).getLocation());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    // different settings, different key
+    assertNotEquals(key, cache.makeKey(ValidationOutcomeCache.contentHash(practitioner("Smith", 1, null)), "profile", "other settings"));
+    assertNotEquals(key, cache.makeKey(ValidationOutcomeCache.contentHash(practitioner("Smith", 1, null)), "other profile", "settings"));
+  }
+
+  @Test
+  public void testProfileHash() throws IOException {
+    SimpleWorkerContext context = new SimpleWorkerContextBuilder().fromNothing();
+    StructureDefinition profile = profile();
+    context.cacheResource(profile);
+    // the value set isn't there
+    String missing = ValidationOutcomeCache.profileHash(context, profile);
+
+    context.cacheResource(valueSet());
+    context.cacheResource(codeSystem("male", "female"));
+    String hash = ValidationOutcomeCache.profileHash(context, profile);
+    assertNotEquals(missing, hash);
+    assertEquals(hash, ValidationOutcomeCache.profileHash(context, profile));
+
+    // the code system the value set includes has changed, though its url and version haven't
+    SimpleWorkerContext changed = new SimpleWorkerContextBuilder().fromNothing();
+    changed.cacheResource(profile);
+    changed.cacheResource(valueSet());
+    changed.cacheResource(codeSystem("male", "female", "other"));
+    assertNotEquals(hash, ValidationOutcomeCache.profileHash(changed, profile));
+
+    // and the profile itself
+    StructureDefinition other = profile();
+    other.getSnapshot().getElementFirstRep().getBinding().setStrength(BindingStrength.EXTENSIBLE);
+    assertNotEquals(hash, ValidationOutcomeCache.profileHash(context, other));
+  }
+
+  @Test
+  public void testMessagesElsewhereAreNotCached() throws IOException {
+    ValidationOutcomeCache cache = new ValidationOutcomeCache(10, null);
+    List<ValidationMessage> list = messages(PATH1);
+    list.add(new ValidationMessage(Source.InstanceValidator, IssueType.INVALID, 1, 1, "Bundle.entry[3].resource", "Somewhere else", IssueSeverity.WARNING));
+    assertFalse(cache.put("key", PATH1, true, list));
+    assertNull(cache.get("key", PATH1, 1, 1));
+  }
+
+  @Test
+  public void testMemoryIsBounded() throws IOException {
+    ValidationOutcomeCache cache = new ValidationOutcomeCache(2, null);
+    cache.put("a", PATH1, true, messages(PATH1));
+    cache.put("b", PATH1, true, messages(PATH1));
+    cache.put("c", PATH1, true, messages(PATH1));
+    assertEquals(2, cache.size());
+    assertNull(cache.get("a", PATH1, 1, 1));
+    assertNotNull(cache.get("c", PATH1, 1, 1));
+  }
+
+  @Test
+  public void testDisk() throws IOException {
+    File folder = Files.createTempDirectory("outcomes").toFile();
+    ValidationOutcomeCache cache = new ValidationOutcomeCache(10, folder.getAbsolutePath());
+    cache.put("key", PATH1, false, messages(PATH1));
+
+    // a new run
+    cache = new ValidationOutcomeCache(10, folder.getAbsolutePath());
+    ValidationOutcomeCache.CachedOutcome outcome = cache.get("key", PATH2, 9, 2);
+    assertNotNull(outcome);
+    assertFalse(outcome.isValid());
+    ValidationMessage vm = outcome.getMessages().get(0);
+    assertEquals(PATH2 + ".name[0].family", vm.getLocation());
+    assertEquals(IssueType.INVALID, vm.getType());
+    assertEquals(Source.InstanceValidator, vm.getSource());
+    assertEquals("BAD_NAME", vm.getMessageId());
+    assertEquals(messages(PATH1).get(0).getRuleDate(), vm.getRuleDate());
+    assertEquals(9, vm.getLine());
+
+    // entries on disk get too old to use
+    assertTrue(new File(folder, "key.json").setLastModified(System.currentTimeMillis() - 2 * cache.getMaxAge()));
+    cache = new ValidationOutcomeCache(10, folder.getAbsolutePath());
+    assertNull(cache.get("key", PATH2, 9, 2));
+  }
+
+  @Test
+  public void testContainedReferencesAreNotCached() throws Exception {
+    // the same contained Practitioner, but #org1 is an Organization in one container and a Location in the other
+    String pract = "{\"resourceType\":\"Practitioner\",\"id\":\"p1\",\"qualification\":[{\"code\":{\"text\":\"MD\"},\"issuer\":{\"reference\":\"#org1\"}}]}";
+    String org = "{\"resourceType\":\"Organization\",\"id\":\"org1\",\"name\":\"Acme\"}";
+    String loc = "{\"resourceType\":\"Location\",\"id\":\"org1\",\"name\":\"Acme\"}";
+    String json = "{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"entry\":["
+        + "{\"fullUrl\":\"urn:uuid:8a7d1bb2-6d4b-4c1e-9c55-2e7a8a1f0c11\",\"resource\":{\"resourceType\":\"Patient\",\"contained\":["+pract+","+org+"],\"generalPractitioner\":[{\"reference\":\"#p1\"}]}},"
+        + "{\"fullUrl\":\"urn:uuid:8a7d1bb2-6d4b-4c1e-9c55-2e7a8a1f0c12\",\"resource\":{\"resourceType\":\"Patient\",\"contained\":["+pract+","+loc+"],\"generalPractitioner\":[{\"reference\":\"#p1\"}]}}]}";
+    IWorkerContext context = TestingUtilities.getSharedWorkerContext();
+
+    InstanceValidator plain = new InstanceValidator(context, null, null, null, new ValidatorSettings());
+    List<ValidationMessage> expected = new ArrayList<>();
+    plain.validate(null, expected, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+
+    ValidationOutcomeCache cache = new ValidationOutcomeCache(100, null);
+    InstanceValidator cached = new InstanceValidator(context, null, null, null, new ValidatorSettings());
+    cached.setOutcomeCache(cache);
+    List<ValidationMessage> actual = new ArrayList<>();
+    cached.validate(null, actual, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+    assertEquals(summary(expected), summary(actual));
+    assertEquals(isValid(expected), isValid(actual));
+  }
+
+  @Test
+  public void testCachedOutcomesMatchValidation() throws Exception {
+    // the same Practitioner twice, with errors, so the second is the first's outcome from the cache
+    String pract = "{\"resourceType\":\"Practitioner\",\"name\":[{\"family\":\"Smith\"}],\"gender\":\"unknown-code\",\"birthDate\":\"1970-02-30\"}";
+    String json = "{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"entry\":["
+        + "{\"fullUrl\":\"urn:uuid:8a7d1bb2-6d4b-4c1e-9c55-2e7a8a1f0c01\",\"resource\":"+pract+"},"
+        + "{\"fullUrl\":\"urn:uuid:8a7d1bb2-6d4b-4c1e-9c55-2e7a8a1f0c02\",\"resource\":"+pract+"}]}";
+    IWorkerContext context = TestingUtilities.getSharedWorkerContext();
+
+    InstanceValidator plain = new InstanceValidator(context, null, null, null, new ValidatorSettings());
+    List<ValidationMessage> expected = new ArrayList<>();
+    plain.validate(null, expected, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+    assertFalse(isValid(expected));
+
+    ValidationOutcomeCache cache = new ValidationOutcomeCache(100, null);
+    InstanceValidator cached = new InstanceValidator(context, null, null, null, new ValidatorSettings());
+    cached.setOutcomeCache(cache);
+    List<ValidationMessage> first = new ArrayList<>();
+    cached.validate(null, first, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+    assertTrue(cache.getHits() > 0);
+    assertEquals(summary(expected), summary(first));
+    assertEquals(isValid(expected), isValid(first));
+
+    // a second run takes both Practitioners from the cache
+    long hits = cache.getHits();
+    List<ValidationMessage> second = new ArrayList<>();
+    cached.validate(null, second, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), FhirFormat.JSON);
+    assertTrue(cache.getHits() >= hits + 2);
+    assertEquals(summary(expected), summary(second));
+    assertEquals(isValid(expected), isValid(second));
+  }
+}
@@ -15,10 +15,12 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -304,6 +306,54 @@ class ValidationServiceTests {
     verify(mockValidationEngineBuilder).withUserAgent(eq("fhir/validator/" + VersionUtil.getVersion()));
   }
 
+  @Test
+  public void buildValidationEngineFromContextImageTest() throws IOException, URISyntaxException {
+    final TimeTracker timeTracker = mock(TimeTracker.class);
+    final SimpleWorkerContext workerContext = mock(SimpleWorkerContext.class);
+
+    final ValidationEngine mockValidationEngine = mock(ValidationEngine.class);
+    when(mockValidationEngine.getContext()).thenReturn(workerContext);
+    when(mockValidationEngine.getPolicyAdvisor()).thenReturn(mock(IValidationPolicyAdvisor.class));
+
+    final ValidationEngine.ValidationEngineBuilder mockValidationEngineBuilder = mock(ValidationEngine.ValidationEngineBuilder.class, Mockito.RETURNS_SELF);
+    when(mockValidationEngineBuilder.fromSource(anyString())).thenReturn(mockValidationEngine);
+    final List<String> loads = new ArrayList<>();
+    final ValidationService validationService = new ValidationService() {
+      @Override
+      protected ValidationEngine.ValidationEngineBuilder getValidationEngineBuilder() {
+        return mockValidationEngineBuilder;
+      }
+
+      @Override
+      protected void loadIgsAndExtensions(ValidationEngine validationEngine, ValidationContext validationContext, TimeTracker timeTracker) {
+        loads.add(validationContext.getIgs().toString());
+      }
+    };
+
+    ValidationContext validationContext = new ValidationContext();
+    validationContext.setSv("4.0.1");
+    validationContext.addIg("hl7.fhir.us.core#6.1.0");
+    validationContext.setContextImage(Files.createTempDirectory("images").toFile().getAbsolutePath());
+    File image = validationService.contextImageFile(validationContext, "hl7.fhir.r4.core#4.0.1");
+    assertNotNull(image);
+
+    // no image yet: the packages are loaded, the snapshots generated, and the image is written
+    validationService.buildValidationEngine(validationContext, "hl7.fhir.r4.core#4.0.1", timeTracker);
+    assertEquals(1, loads.size());
+    verify(mockValidationEngine).prepare();
+    verify(workerContext).saveImage(eq(image));
+    verify(mockValidationEngineBuilder, never()).withContextImage(any());
+
+    // with the image, the packages aren't loaded again, and the snapshots are already there
+    Files.write(image.toPath(), new byte[] { 0 });
+    validationService.buildValidationEngine(validationContext, "hl7.fhir.r4.core#4.0.1", timeTracker);
+    assertEquals(1, loads.size());
+    verify(mockValidationEngine).prepare();
+    verify(workerContext).saveImage(any());
+    verify(mockValidationEngineBuilder).withContextImage(eq(image.getAbsolutePath()));
+    verify(mockValidationEngine).setTerminologyServer(any(), any(), any(), Mockito.anyBoolean());
+  }
+
   private static ValidationService createFakeValidationService(ValidationEngine.ValidationEngineBuilder validationEngineBuilder, ValidationEngine validationEngine) {
     return new ValidationService() {
       @Override
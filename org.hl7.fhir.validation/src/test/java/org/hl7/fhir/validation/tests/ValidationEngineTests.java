@@ -3,18 +3,26 @@ package org.hl7.fhir.validation.tests;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
 import org.hl7.fhir.r5.formats.JsonParser;
 import org.hl7.fhir.r5.elementmodel.Manager.FhirFormat;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r5.model.OperationOutcome;
 import org.hl7.fhir.r5.model.OperationOutcome.OperationOutcomeIssueComponent;
 import org.hl7.fhir.r5.test.utils.TestingUtilities;
 import org.hl7.fhir.r5.utils.OperationOutcomeUtilities;
+import org.hl7.fhir.r5.utils.ToolingExtensions;
 import org.hl7.fhir.r5.utils.validation.constants.ReferenceValidationPolicy;
 import org.hl7.fhir.utilities.CommaSeparatedStringBuilder;
 import org.hl7.fhir.utilities.FhirPublication;
@@ -23,8 +31,11 @@ import org.hl7.fhir.utilities.Utilities;
 import org.hl7.fhir.utilities.filesystem.ManagedFileAccess;
 import org.hl7.fhir.utilities.settings.FhirSettings;
 import org.hl7.fhir.utilities.tests.CacheVerificationLogger;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.validation.IgLoader;
 import org.hl7.fhir.validation.ValidationEngine;
+import org.hl7.fhir.validation.ValidatorUtils.SourceFile;
 import org.hl7.fhir.validation.service.StandAloneValidatorFetcher;
 import org.hl7.fhir.validation.tests.utilities.TestUtilities;
 import org.junit.jupiter.api.Assertions;
@@ -121,6 +132,183 @@ public class ValidationEngineTests {
     }
   }
 
+  @Test
+  @DisplayName("Validating sources on several threads gives the same outcomes as validating them one at a time")
+  void validateInParallelMatchesSequential() throws Exception {
+    ValidationEngine engine = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", DEF_TX, FhirPublication.R4, "4.0.1");
+    File folder = Files.createTempDirectory("parallel").toFile();
+    List<String> sources = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      for (String name : new String[] { "patient-duplicate.json", "patient-lang1.json", "patient-id-bad-1.json", "patient-example.json" }) {
+        File f = new File(folder, i+"-"+name);
+        FileUtilities.bytesToFile(TestingUtilities.loadTestResourceBytes("validator", name), f);
+        sources.add(f.getAbsolutePath());
+      }
+    }
+
+    engine.setThreads(1);
+    Bundle sequential = (Bundle) engine.validate(sources, null, new ArrayList<>(), null, null, false, 0, true);
+    engine.setThreads(4);
+    Bundle parallel = (Bundle) engine.validate(sources, null, new ArrayList<>(), null, null, false, 0, true);
+
+    // the engine's own context isn't frozen, so watch mode can still load sources into it
+    Assertions.assertFalse(engine.getContext().isFrozen());
+    assertEquals(sources.size(), sequential.getEntry().size());
+    assertEquals(sequential.getEntry().size(), parallel.getEntry().size());
+    for (int i = 0; i < sequential.getEntry().size(); i++) {
+      OperationOutcome s = (OperationOutcome) sequential.getEntry().get(i).getResource();
+      OperationOutcome p = (OperationOutcome) parallel.getEntry().get(i).getResource();
+      assertEquals(ToolingExtensions.readStringExtension(s, ToolingExtensions.EXT_OO_FILE), ToolingExtensions.readStringExtension(p, ToolingExtensions.EXT_OO_FILE));
+      assertEquals(issues(s), issues(p));
+    }
+  }
+
+  @Test
+  @DisplayName("NDJSON is validated a line at a time, and each line's messages are reported against that line")
+  void validateNDJson() throws Exception {
+    ValidationEngine engine = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", DEF_TX, FhirPublication.R4, "4.0.1");
+    String ndjson = "{\"resourceType\":\"Patient\",\"id\":\"a\"}\n"+
+        "{\"resourceType\":\"Patient\",\"id\":\"b\",\"gender\":\"nonsense\"}\n"+
+        "\n"+
+        "{\"resourceType\":\"Patient\",\"id\":\"c\"}\n";
+    byte[] bytes = ndjson.getBytes(StandardCharsets.UTF_8);
+
+    // the validator
+    List<List<ValidationMessage>> lines = new ArrayList<>();
+    engine.getValidator(FhirFormat.NDJSON).validateNDJson(null, new ByteArrayInputStream(bytes), new ArrayList<>(), ne -> lines.add(ne.getErrors()));
+    assertEquals(4, lines.size());
+    assertEquals(0, errorCount(lines.get(0)));
+    assertEquals(1, errorCount(lines.get(1)));
+    for (ValidationMessage vm : lines.get(1)) {
+      assertEquals(2, vm.getLine());
+    }
+    assertEquals(1, lines.get(2).size());
+    assertEquals(IssueSeverity.WARNING, lines.get(2).get(0).getLevel());
+    assertEquals(3, lines.get(2).get(0).getLine());
+    assertEquals(0, errorCount(lines.get(3)));
+
+    // the engine, with an outcome per line
+    List<Integer> lineNumbers = new ArrayList<>();
+    List<OperationOutcome> outcomes = new ArrayList<>();
+    engine.validateNDJson(new ByteArrayInputStream(bytes), null, (line, outcome) -> {
+      lineNumbers.add(line);
+      outcomes.add(outcome);
+    });
+    assertEquals(Arrays.asList(0, 1, 2, 3), lineNumbers);
+    assertEquals(2, lineOf(outcomes.get(1), OperationOutcome.IssueSeverity.ERROR));
+
+    // and the command line path, from a file
+    File f = File.createTempFile("patients", ".ndjson");
+    FileUtilities.bytesToFile(bytes, f);
+    OperationOutcome outcome = engine.validate(f.getAbsolutePath(), null, null, false);
+    assertEquals(2, lineOf(outcome, OperationOutcome.IssueSeverity.ERROR));
+    assertEquals(3, lineOf(outcome, OperationOutcome.IssueSeverity.WARNING));
+  }
+
+  @Test
+  @DisplayName("In watch mode, changing a code system revalidates the sources that use it, and nothing else")
+  void watchRevalidatesDependents() throws Exception {
+    ValidationEngine engine = TestUtilities.getValidationEngine("hl7.fhir.r4.core#4.0.1", DEF_TX, FhirPublication.R4, "4.0.1");
+    IgLoader loader = new IgLoader(engine.getPcm(), engine.getContext(), engine.getVersion());
+    File folder = Files.createTempDirectory("watch").toFile();
+    File cs = new File(folder, "cs.json");
+    File vs = new File(folder, "vs.json");
+    File obs = new File(folder, "obs.json");
+    File pat = new File(folder, "pat.json");
+    FileUtilities.stringToFile(codeSystem("1.0.0", "a"), cs);
+    FileUtilities.stringToFile("{\"resourceType\":\"ValueSet\",\"id\":\"vs\",\"url\":\"http://example.org/fhir/ValueSet/watch\",\"status\":\"active\","+
+        "\"compose\":{\"include\":[{\"valueSet\":[\"http://example.org/fhir/ValueSet/watch-inner\"]}]}}", vs);
+    FileUtilities.stringToFile("{\"resourceType\":\"ValueSet\",\"id\":\"vs-inner\",\"url\":\"http://example.org/fhir/ValueSet/watch-inner\",\"status\":\"active\","+
+        "\"compose\":{\"include\":[{\"system\":\"http://example.org/fhir/CodeSystem/watch\",\"concept\":[{\"code\":\"b\"}]}]}}", new File(folder, "vs-inner.json"));
+    FileUtilities.stringToFile("{\"resourceType\":\"Observation\",\"id\":\"o1\",\"status\":\"final\","+
+        "\"code\":{\"coding\":[{\"system\":\"http://example.org/fhir/CodeSystem/watch\",\"code\":\"b\"}]}}", obs);
+    FileUtilities.stringToFile("{\"resourceType\":\"Patient\",\"id\":\"p1\"}", pat);
+    List<String> sources = new ArrayList<>();
+    sources.add(folder.getAbsolutePath());
+    List<SourceFile> refs = new ArrayList<>();
+
+    Bundle first = (Bundle) engine.validate(sources, null, refs, null, loader, false, 0, true);
+    assertEquals(5, first.getEntry().size());
+    assertTrue(errorCount(outcome(first, obs)) > 0);
+
+    // nothing changed: nothing to do
+    Assertions.assertNull(engine.validate(sources, null, refs, null, loader, false, 0, false));
+
+    // add the missing code: the observation (which uses the code system directly) and the value sets 
+    // (which include it, directly or indirectly) are revalidated. The patient keeps its last outcome
+    FileUtilities.stringToFile(codeSystem("1.0.1", "a", "b"), cs);
+    cs.setLastModified(cs.lastModified() + 2000);
+    Bundle second = (Bundle) engine.validate(sources, null, refs, null, loader, false, 0, false);
+    assertEquals(5, second.getEntry().size());
+    assertEquals(0, errorCount(outcome(second, obs)), issues(outcome(second, obs)));
+    Assertions.assertNotSame(outcome(first, obs), outcome(second, obs));
+    Assertions.assertNotSame(outcome(first, vs), outcome(second, vs));
+    Assertions.assertSame(outcome(first, pat), outcome(second, pat));
+    for (SourceFile ref : refs) {
+      if (ref.getRef().endsWith("obs.json") || ref.getRef().endsWith("vs.json")) {
+        assertTrue(ref.getDependencies().contains("http://example.org/fhir/CodeSystem/watch"), ref.getRef());
+      }
+    }
+  }
+
+  private String codeSystem(String version, String... codes) {
+    StringBuilder b = new StringBuilder();
+    b.append("{\"resourceType\":\"CodeSystem\",\"id\":\"cs\",\"url\":\"http://example.org/fhir/CodeSystem/watch\",\"version\":\""+version+"\",");
+    b.append("\"status\":\"active\",\"content\":\"complete\",\"concept\":[");
+    for (int i = 0; i < codes.length; i++) {
+      b.append((i == 0 ? "" : ",")+"{\"code\":\""+codes[i]+"\",\"display\":\""+codes[i]+"\"}");
+    }
+    b.append("]}");
+    return b.toString();
+  }
+
+  private OperationOutcome outcome(Bundle results, File file) {
+    for (BundleEntryComponent be : results.getEntry()) {
+      OperationOutcome op = (OperationOutcome) be.getResource();
+      if (file.getPath().equals(ToolingExtensions.readStringExtension(op, ToolingExtensions.EXT_OO_FILE))) {
+        return op;
+      }
+    }
+    return null;
+  }
+
+  private int errorCount(OperationOutcome op) {
+    int count = 0;
+    for (OperationOutcomeIssueComponent iss : op.getIssue()) {
+      if (iss.getSeverity() == OperationOutcome.IssueSeverity.ERROR || iss.getSeverity() == OperationOutcome.IssueSeverity.FATAL) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int errorCount(List<ValidationMessage> messages) {
+    int count = 0;
+    for (ValidationMessage vm : messages) {
+      if (vm.isError()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int lineOf(OperationOutcome op, OperationOutcome.IssueSeverity severity) {
+    for (OperationOutcomeIssueComponent iss : op.getIssue()) {
+      if (iss.getSeverity() == severity) {
+        return ToolingExtensions.readIntegerExtension(iss, ToolingExtensions.EXT_ISSUE_LINE, -1);
+      }
+    }
+    return -1;
+  }
+
+  private String issues(OperationOutcome op) {
+    CommaSeparatedStringBuilder lines = new CommaSeparatedStringBuilder("\n");
+    for (OperationOutcomeIssueComponent iss : op.getIssue()) {
+      lines.append(iss.toString()+" "+iss.getDetails().getText());
+    }
+    return lines.toString();
+  }
+
   @Test
   public void test401Xml() throws Exception {
     if (!TestUtilities.silent)